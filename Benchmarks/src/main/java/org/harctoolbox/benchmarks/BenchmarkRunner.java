@@ -0,0 +1,49 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of benchmarks.jar. Accepts the usual JMH command line options,
+ * but always adds the GC profiler, so that the allocation rate is reported together with the throughput.
+ *
+ * <p>Example: java -jar Benchmarks/target/benchmarks.jar -p lircConfigs=/usr/share/lirc/remotes Lirc
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) {
+        try {
+            CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+            Options options = new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class).build();
+            new Runner(options).run();
+        } catch (CommandLineOptionException | RunnerException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private BenchmarkRunner() {
+    }
+}
@@ -0,0 +1,143 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.harctoolbox.IrpMaster.IrpUtils;
+import org.harctoolbox.girr.RemoteSet;
+import org.harctoolbox.girr.XmlExporter;
+import org.harctoolbox.jirc.ConfigFile;
+import org.harctoolbox.jirc.IrRemote;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+/**
+ * Reading of lircd.conf files with Jirc, and export of the result as Girr.
+ * The corpus is a file or a directory given by the lircConfigs parameter,
+ * for example the remotes directory of the Lirc sources.
+ * If it is empty, a synthetic corpus is generated in a temporary directory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LircBenchmark {
+
+    private static final int syntheticFiles = 20;
+    private static final int syntheticRemotesPerFile = 5;
+    private static final int syntheticCodesPerRemote = 50;
+
+    @Param({""})
+    public String lircConfigs;
+
+    private File corpus;
+    private boolean synthetic;
+    private RemoteSet remoteSet;
+
+    @Setup
+    public void setup() throws IOException {
+        synthetic = lircConfigs.isEmpty();
+        corpus = synthetic ? createSyntheticCorpus() : new File(lircConfigs);
+        Collection<IrRemote> remotes = ConfigFile.readConfig(corpus, IrpUtils.dumbCharsetName, true);
+        remoteSet = IrRemote.newRemoteSet(remotes, corpus.getPath(), "benchmark", true, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (synthetic)
+            deleteCorpus(corpus);
+    }
+
+    @Benchmark
+    public Collection<IrRemote> readConfig() throws IOException {
+        return ConfigFile.readConfig(corpus, IrpUtils.dumbCharsetName, true);
+    }
+
+    @Benchmark
+    public Element xmlExport() {
+        return remoteSet.xmlExport(XmlExporter.newDocument(), "benchmark", false, false, true, true, false);
+    }
+
+    static void deleteCorpus(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    static File createSyntheticCorpus() throws IOException {
+        File dir = File.createTempFile("lircd", ".d");
+        if (!dir.delete() || !dir.mkdir())
+            throw new IOException("Could not create directory " + dir);
+
+        for (int f = 0; f < syntheticFiles; f++) {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "synthetic" + f + ".lircd.conf")), IrpUtils.dumbCharset));
+            try {
+                for (int r = 0; r < syntheticRemotesPerFile; r++)
+                    writeRemote(out, "synthetic_" + f + "_" + r, f * syntheticRemotesPerFile + r);
+            } finally {
+                out.close();
+            }
+        }
+        return dir;
+    }
+
+    private static void writeRemote(PrintWriter out, String name, int device) {
+        out.println("begin remote");
+        out.println("  name  " + name);
+        out.println("  bits           16");
+        out.println("  flags SPACE_ENC|CONST_LENGTH");
+        out.println("  eps            30");
+        out.println("  aeps          100");
+        out.println("  header       9000  4500");
+        out.println("  one           563  1687");
+        out.println("  zero          563   562");
+        out.println("  ptrail        563");
+        out.println("  repeat       9000  2250");
+        out.println("  pre_data_bits   16");
+        out.println(String.format("  pre_data       0x%02X%02X", device & 0xFF, ~device & 0xFF));
+        out.println("  gap          108000");
+        out.println("  toggle_bit_mask 0x0");
+        out.println("  begin codes");
+        for (int c = 0; c < syntheticCodesPerRemote; c++)
+            out.println(String.format("    KEY_%d 0x%02X%02X", c, c & 0xFF, ~c & 0xFF));
+        out.println("  end codes");
+        out.println("end remote");
+        out.println();
+    }
+}
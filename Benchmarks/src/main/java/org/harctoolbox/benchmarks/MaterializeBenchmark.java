@@ -0,0 +1,110 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
+import org.harctoolbox.IrpMaster.IrpMasterException;
+import org.harctoolbox.girr.Command;
+import org.harctoolbox.girr.Remote;
+import org.harctoolbox.girr.RemoteSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders raw and CCF forms of all commands of a large, parametric, RemoteSet with RemoteSet.materialize,
+ * for different number of threads. One operation renders a freshly constructed RemoteSet.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MaterializeBenchmark {
+
+    private static final String[] protocols = { "nec1", "rc5", "rc6", "sony12", "denon", "jvc" };
+
+    @Param({"../IrpMaster/src/main/config/IrpProtocols.ini"})
+    public String irpProtocolsIni;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"500"})
+    public int commandsPerRemote;
+
+    private ExecutorService executor;
+    private RemoteSet remoteSet;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, IncompatibleArgumentException {
+        Command.setIrpMaster(irpProtocolsIni);
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Creates a RemoteSet with one remote per protocol, with nothing rendered.
+     *
+     * @throws IrpMasterException
+     */
+    @Setup(Level.Invocation)
+    public void newRemoteSet() throws IrpMasterException {
+        Map<String, Remote> remotes = new LinkedHashMap<>(protocols.length);
+        for (String protocol : protocols) {
+            Map<String, Command> commands = new LinkedHashMap<>(commandsPerRemote);
+            for (int i = 0; i < commandsPerRemote; i++) {
+                Map<String, Long> parameters = new HashMap<>(2);
+                parameters.put("D", (long) (i / 64));
+                parameters.put("F", (long) (i % 64));
+                String name = protocol + "_" + i;
+                commands.put(name, new Command(name, null, protocol, parameters));
+            }
+            remotes.put(protocol, new Remote(new Remote.MetaData(protocol), null, null, commands, null));
+        }
+        remoteSet = new RemoteSet("benchmark", "benchmark", remotes);
+    }
+
+    @Benchmark
+    public int materialize() throws InterruptedException {
+        return remoteSet.materialize(executor, true, true, Collections.<Command.CommandTextFormat>emptyList(), 1);
+    }
+}
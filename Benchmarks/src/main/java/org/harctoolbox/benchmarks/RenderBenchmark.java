@@ -0,0 +1,106 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.benchmarks;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
+import org.harctoolbox.IrpMaster.IrSignal;
+import org.harctoolbox.IrpMaster.IrpMaster;
+import org.harctoolbox.IrpMaster.IrpMasterException;
+import org.harctoolbox.IrpMaster.Protocol;
+import org.harctoolbox.IrpMaster.RenderPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Renders every protocol in IrpProtocols.ini, both with the interpreting Protocol.renderIrSignal
+ * and with the compiled RenderPlan. One operation renders all protocols once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    @Param({"../IrpMaster/src/main/config/IrpProtocols.ini"})
+    public String irpProtocolsIni;
+
+    private final List<Protocol> protocols = new ArrayList<>(128);
+    private final List<Map<String, Long>> parameters = new ArrayList<>(128);
+
+    /**
+     * Parses all protocols, and assigns each parameter without default its minimal value.
+     * Protocols that cannot be rendered this way are left out.
+     *
+     * @throws FileNotFoundException
+     * @throws IncompatibleArgumentException
+     */
+    @Setup
+    public void setup() throws FileNotFoundException, IncompatibleArgumentException {
+        IrpMaster irpMaster = new IrpMaster(irpProtocolsIni);
+        for (String name : irpMaster.getNames()) {
+            try {
+                Protocol protocol = irpMaster.newProtocol(name);
+                Map<String, Long> params = new HashMap<>(4);
+                for (String parameterName : protocol.getParameterNames())
+                    if (!protocol.hasParameterDefault(parameterName))
+                        params.put(parameterName, protocol.getParameterMin(parameterName));
+                protocol.renderIrSignal(params);
+                protocols.add(protocol);
+                parameters.add(params);
+            } catch (IrpMasterException | RuntimeException ex) {
+                System.err.println("Skipping protocol " + name + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    @Benchmark
+    public void renderIrSignal(Blackhole blackhole) throws IrpMasterException {
+        for (int i = 0; i < protocols.size(); i++) {
+            IrSignal irSignal = protocols.get(i).renderIrSignal(parameters.get(i));
+            blackhole.consume(irSignal);
+        }
+    }
+
+    @Benchmark
+    public void renderPlan(Blackhole blackhole) throws IrpMasterException {
+        for (int i = 0; i < protocols.size(); i++) {
+            Protocol protocol = protocols.get(i);
+            RenderPlan.RenderState renderState = protocol.newRenderState();
+            IrSignal irSignal = protocol.renderIrSignal(renderState, parameters.get(i));
+            blackhole.consume(irSignal);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.harctoolbox.IrpMaster.Cleaner;
+import org.harctoolbox.IrpMaster.IrSignal;
+import org.harctoolbox.IrpMaster.IrpMasterException;
+import org.harctoolbox.IrpMaster.IrpUtils;
+import org.harctoolbox.IrpMaster.ModulatedIrSequence;
+import org.harctoolbox.IrpMaster.Pronto;
+import org.harctoolbox.IrpMaster.Protocol;
+import org.harctoolbox.IrpMaster.RepeatFinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pronto parsing and formatting, repeat finding, and cleaning, on captured-like signals.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignalBenchmark {
+
+    private static final String nec1 = "{38.4k,564}<1,-1|1,-3>(16,-8,D:8,S:8,F:8,~F:8,1,^108m,(16,-4,1,^108m)*)[D:0..255,S:0..255=255-D,F:0..255]";
+
+    /** Number of repeats in the "captured" sequence. */
+    @Param({"4", "32"})
+    public int repetitions;
+
+    /** Jitter, in microseconds, added to every duration in the "captured" sequence. */
+    @Param({"60"})
+    public int jitter;
+
+    private int[] ccf;
+    private IrSignal irSignal;
+    private ModulatedIrSequence captured;
+
+    @Setup
+    public void setup() throws IrpMasterException {
+        irSignal = new Protocol("nec1", nec1, null).renderIrSignal(12, 34, 56);
+        ccf = new Pronto(irSignal).toArray();
+        ModulatedIrSequence exact = irSignal.toModulatedIrSequence(true, repetitions, true);
+        Random random = new Random(1);
+        int[] durations = new int[exact.getLength()];
+        for (int i = 0; i < durations.length; i++)
+            durations[i] = (int) Math.abs(exact.get(i)) + (jitter > 0 ? random.nextInt(2 * jitter + 1) - jitter : 0);
+        captured = new ModulatedIrSequence(durations, exact.getFrequency());
+    }
+
+    @Benchmark
+    public IrSignal ccfSignal() throws IrpMasterException {
+        return Pronto.ccfSignal(ccf);
+    }
+
+    @Benchmark
+    public String toPrintString() {
+        return Pronto.toPrintString(irSignal);
+    }
+
+    @Benchmark
+    public IrSignal findRepeat() {
+        return RepeatFinder.findRepeat(captured);
+    }
+
+    @Benchmark
+    public ModulatedIrSequence clean() {
+        return Cleaner.clean(captured, (int) IrpUtils.defaultAbsoluteTolerance, IrpUtils.defaultRelativeTolerance);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import org.harctoolbox.IrpMaster.IrpUtils;
+import org.harctoolbox.IrpMaster.XmlUtils;
+import org.harctoolbox.girr.RemoteSet;
+import org.harctoolbox.girr.XmlExporter;
+import org.harctoolbox.jirc.ConfigFile;
+import org.harctoolbox.jirc.IrRemote;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Export of a remote with a stylesheet from exportformats.xml, as done by the dynamic export formats of IrScrutinizer:
+ * compiling the stylesheet for every export, or using compiled Templates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XsltExportBenchmark {
+
+    private static final String exportFormatNamespace = "http://www.harctoolbox.org/exportformats";
+    private static final String xsltNamespace = "http://www.w3.org/1999/XSL/Transform";
+    private static final List<String> parameterNames = Arrays.asList("encoding", "creatingUser", "creatingTool", "creatingDate");
+
+    @Param({"../IrScrutinizer/src/main/config/exportformats.xml"})
+    public String exportFormats;
+
+    @Param({"Lirc", "Arduino/IRremote"})
+    public String formatName;
+
+    private Document stylesheet;
+    private Templates templates;
+    private Document document;
+    private final Map<String, String> parameters = new HashMap<>(4);
+    private final Map<String, String> quotedParameters = new HashMap<>(4);
+
+    @Setup
+    public void setup() throws IOException, ParserConfigurationException, SAXException, TransformerConfigurationException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setXIncludeAware(true);
+        Document formats = factory.newDocumentBuilder().parse(new File(exportFormats));
+        NodeList nodeList = formats.getElementsByTagNameNS(exportFormatNamespace, "exportformat");
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Element el = (Element) nodeList.item(i);
+            if (el.getAttribute("name").equals(formatName)) {
+                stylesheet = XmlUtils.newDocument(true);
+                stylesheet.appendChild(stylesheet.importNode(el.getElementsByTagNameNS(xsltNamespace, "stylesheet").item(0), true));
+            }
+        }
+        if (stylesheet == null)
+            throw new IllegalArgumentException("No export format " + formatName);
+        templates = XmlExporter.newTemplates(stylesheet, parameterNames);
+
+        for (String name : parameterNames) {
+            parameters.put(name, "benchmark");
+            quotedParameters.put(name, "'benchmark'");
+        }
+
+        File corpus = LircBenchmark.createSyntheticCorpus();
+        try {
+            // A single remote, the size of a typical export
+            IrRemote remote = ConfigFile.readConfig(corpus, IrpUtils.dumbCharsetName, true).iterator().next();
+            RemoteSet remoteSet = IrRemote.newRemoteSet(Collections.<IrRemote>singletonList(remote), corpus.getPath(), "benchmark", true, 0);
+            document = remoteSet.xmlExportDocument("benchmark", null, null, true, false, true, true, true);
+        } finally {
+            LircBenchmark.deleteCorpus(corpus);
+        }
+    }
+
+    @Benchmark
+    public byte[] stylesheet() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        new XmlExporter(document).printDOM(stream, stylesheet, quotedParameters, false, "UTF-8");
+        return stream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] templates() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        new XmlExporter(document).printDOM(stream, templates, parameters, false, "UTF-8");
+        return stream.toByteArray();
+    }
+}
@@ -17,22 +17,32 @@
 
 package org.harctoolbox.girr;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import org.harctoolbox.IrpMaster.DecodeIR;
 import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
+import org.harctoolbox.IrpMaster.IrSequence;
 import org.harctoolbox.IrpMaster.IrSignal;
 import org.harctoolbox.IrpMaster.IrpMaster;
 import org.harctoolbox.IrpMaster.IrpMasterException;
 import org.harctoolbox.IrpMaster.IrpUtils;
 import org.harctoolbox.IrpMaster.Pronto;
 import org.harctoolbox.IrpMaster.Protocol;
+import org.harctoolbox.IrpMaster.ProtocolRegistry;
 import org.harctoolbox.IrpMaster.UnassignedException;
 import org.harctoolbox.IrpMaster.UnknownProtocolException;
 import org.w3c.dom.Document;
@@ -89,7 +99,7 @@ public class Command implements Serializable {
      * @throws org.harctoolbox.IrpMaster.IncompatibleArgumentException
      */
     public static void setIrpMaster(String irpProtocolsIniPath) throws IOException, IncompatibleArgumentException {
-        irpMaster = new IrpMaster(irpProtocolsIniPath);
+        irpMaster = ProtocolRegistry.getIrpMaster(irpProtocolsIniPath);
     }
 
     private static String toPrintString(Map<String,Long>map) {
@@ -131,6 +141,80 @@ public class Command implements Serializable {
         }
     }
 
+    private static void xmlExport(XMLStreamWriter writer, String sequence, String tagName, boolean fatRaw) throws XMLStreamException {
+        if (sequence == null || sequence.isEmpty())
+            return;
+
+        writer.writeStartElement(XmlExporter.girrNamespace, tagName);
+        if (fatRaw) {
+            String[] durations = sequence.split(" ");
+            for (int i = 0; i < durations.length; i++) {
+                String duration = durations[i];
+                int start = duration.startsWith("+") || duration.startsWith("-") ? 1 : 0;
+                XmlExporter.writeElement(writer, i % 2 == 0 ? "flash" : "gap", duration.substring(start));
+            }
+        } else
+            writer.writeCharacters(sequence);
+        writer.writeEndElement();
+    }
+
+    // Rounded as in IrSequence.toPrintString
+    private static int[] toInts(IrSequence irSequence) {
+        int[] data = new int[irSequence.getLength()];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (int) Math.abs(Math.round(irSequence.get(i)));
+        return data;
+    }
+
+    private static IrSequence toIrSequence(int[] data) throws IncompatibleArgumentException {
+        return data != null ? new IrSequence(data) : new IrSequence();
+    }
+
+    private static int[] parseDurations(String sequence) throws IncompatibleArgumentException {
+        if (sequence == null)
+            return null;
+        try {
+            return toInts(new IrSequence(sequence));
+        } catch (NumberFormatException ex) {
+            throw new IncompatibleArgumentException("Non-parseable sequence: " + sequence);
+        }
+    }
+
+    private static String formatDurations(int[] data) {
+        if (data == null)
+            return null;
+        StringBuilder str = new StringBuilder(6 * data.length);
+        for (int i = 0; i < data.length; i++) {
+            if (i > 0)
+                str.append(' ');
+            str.append(i % 2 == 0 ? '+' : '-').append(data[i]);
+        }
+        return str.toString();
+    }
+
+    private static int[] parseCcf(String ccf) throws IncompatibleArgumentException {
+        if (ccf == null || ccf.trim().isEmpty())
+            return null;
+        int[] data = Pronto.parseString(ccf);
+        if (data == null)
+            throw new IncompatibleArgumentException("Invalid CCF string: " + ccf);
+        return data;
+    }
+
+    private static String formatCcf(int[] data) {
+        if (data == null)
+            return null;
+        char[] chars = new char[Math.max(5 * data.length - 1, 0)];
+        for (int i = 0; i < data.length; i++) {
+            int pos = 5 * i;
+            if (i > 0)
+                chars[pos - 1] = ' ';
+            for (int d = 0; d < 4; d++)
+                chars[pos + d] = Character.toUpperCase(Character.forDigit((data[i] >> (12 - 4 * d)) & 0xF, 16));
+        }
+        return new String(chars);
+    }
+
     private static String parseSequence(Element element) {
         if (element.getElementsByTagName("flash").getLength() > 0) {
             StringBuilder str = new StringBuilder(64);
@@ -196,10 +280,14 @@ public class Command implements Serializable {
     private Map<String, Long> parameters;
     private int frequency;
     private double dutyCycle;
-    private String[] intro;
-    private String[] repeat;
-    private String[] ending;
-    private String[] ccf;
+    // Timing data, in microseconds, alternating flashes and gaps, indexed by the toggle value.
+    private int[][] intro;
+    private int[][] repeat;
+    private int[][] ending;
+    // Pronto Hex numbers, indexed by the toggle value.
+    private int[][] ccf;
+    // IrSignals computed from the master form, indexed by the toggle value.
+    private transient IrSignal[] irSignals;
     private String comment;
     private Map<String, String> otherFormats;
 
@@ -239,9 +327,9 @@ public class Command implements Serializable {
                 parameters.put("F", parseParameter(Fstring));
             nl = element.getElementsByTagName("raw");
             if (nl.getLength() > 0) {
-                intro = new String[nl.getLength()];
-                repeat = new String[nl.getLength()];
-                ending = new String[nl.getLength()];
+                intro = new int[nl.getLength()][];
+                repeat = new int[nl.getLength()][];
+                ending = new int[nl.getLength()][];
                 for (int i = 0; i < nl.getLength(); i++) {
                     Element el = (Element) nl.item(i);
                     int T;
@@ -262,18 +350,18 @@ public class Command implements Serializable {
                     }
                     NodeList nodeList = el.getElementsByTagName("intro");
                     if (nodeList.getLength() > 0)
-                        intro[T] = parseSequence((Element) nodeList.item(0));
+                        intro[T] = parseDurations(parseSequence((Element) nodeList.item(0)));
                     nodeList = el.getElementsByTagName("repeat");
                     if (nodeList.getLength() > 0)
-                        repeat[T] = parseSequence((Element) nodeList.item(0));
+                        repeat[T] = parseDurations(parseSequence((Element) nodeList.item(0)));
                     nodeList = el.getElementsByTagName("ending");
                     if (nodeList.getLength() > 0)
-                        ending[T] = parseSequence((Element) nodeList.item(0));
+                        ending[T] = parseDurations(parseSequence((Element) nodeList.item(0)));
                 }
             }
             nl = element.getElementsByTagName("ccf");
             if (nl.getLength() > 0) {
-                ccf = new String[nl.getLength()];
+                ccf = new int[nl.getLength()][];
                 for (int i = 0; i < nl.getLength(); i++) {
                     Element el = (Element) nl.item(i);
                     int T;
@@ -283,12 +371,12 @@ public class Command implements Serializable {
                         T = 0;
                     }
                     barfIfInvalidToggle(T, nl.getLength()); // throws IllegalArgumentException
-                    ccf[T] = el.getTextContent();
+                    ccf[T] = parseCcf(el.getTextContent());
                 }
             }
             nl = element.getElementsByTagName("format");
             for (int i = 0; i < nl.getLength(); i++) {
-                Element el = (Element) nl.item(0);
+                Element el = (Element) nl.item(i);
                 otherFormats.put(el.getAttribute("name"), el.getTextContent());
             }
         } catch (IllegalArgumentException ex) { // contains NumberFormatException
@@ -297,6 +385,183 @@ public class Command implements Serializable {
         sanityCheck();
     }
 
+    /**
+     * Reads a Command from a StAX reader positioned at the start tag of a "command" element,
+     * leaving it at the end tag. Semantics as the Element version.
+     * If lazy, the forms that can be computed from the master form are not read.
+     */
+    Command(XMLStreamReader reader, String inheritProtocol, Map<String, Long> inheritParameters, boolean lazy)
+            throws XMLStreamException, ParseException, IrpMasterException {
+        this(MasterType.safeValueOf(XmlImporter.getAttribute(reader, "master")),
+                XmlImporter.getAttribute(reader, "name"), XmlImporter.getAttribute(reader, "comment"));
+        protocolName = inheritProtocol;
+        parameters = new HashMap<>(inheritParameters);
+        otherFormats = new HashMap<>(1);
+        String Fstring = XmlImporter.getAttribute(reader, "F");
+        boolean hasParameters = false;
+        List<String[]> raws = new ArrayList<>(1);
+        List<String[]> ccfs = new ArrayList<>(1);
+
+        try {
+            while (XmlImporter.nextChild(reader)) {
+                switch (reader.getLocalName()) {
+                    case "notes":
+                        String text = XmlImporter.getTextContent(reader);
+                        if (notes == null)
+                            notes = text;
+                        break;
+                    case "parameters":
+                        if (!hasParameters)
+                            readParameters(reader);
+                        else
+                            XmlImporter.skip(reader);
+                        hasParameters = true;
+                        break;
+                    case "raw":
+                        if (lazy && isComputable(MasterType.raw))
+                            XmlImporter.skip(reader);
+                        else
+                            raws.add(readRaw(reader));
+                        break;
+                    case "ccf":
+                        if (lazy && isComputable(MasterType.ccf))
+                            XmlImporter.skip(reader);
+                        else
+                            ccfs.add(new String[]{ XmlImporter.getAttribute(reader, toggleAttributeName), XmlImporter.getTextContent(reader) });
+                        break;
+                    case "format":
+                        String formatName = XmlImporter.getAttribute(reader, "name");
+                        otherFormats.put(formatName, XmlImporter.getTextContent(reader));
+                        break;
+                    default:
+                        XmlImporter.skip(reader);
+                        break;
+                }
+            }
+            if (!Fstring.isEmpty())
+                parameters.put("F", parseParameter(Fstring));
+            if (!raws.isEmpty()) {
+                intro = new int[raws.size()][];
+                repeat = new int[raws.size()][];
+                ending = new int[raws.size()][];
+                for (String[] raw : raws) {
+                    int T = parseToggle(raw[0], raws.size());
+                    intro[T] = parseDurations(raw[1]);
+                    repeat[T] = parseDurations(raw[2]);
+                    ending[T] = parseDurations(raw[3]);
+                }
+            }
+            if (!ccfs.isEmpty()) {
+                ccf = new int[ccfs.size()][];
+                for (String[] c : ccfs)
+                    ccf[parseToggle(c[0], ccfs.size())] = parseCcf(c[1]);
+            }
+        } catch (IllegalArgumentException ex) { // contains NumberFormatException
+            throw new ParseException(ex.getClass().getSimpleName() + " " + ex.getMessage(), reader.getLocation().getLineNumber());
+        }
+        sanityCheck();
+    }
+
+    // Can the form be generated from the master when needed?
+    // Without a master attribute, sanityCheck() infers the master from the forms read, so none may be skipped.
+    private boolean isComputable(MasterType form) {
+        if (masterType == null)
+            return false;
+        switch (masterType) {
+            case raw:
+            case ccf:
+                return form != masterType;
+            case parameters:
+                return irpMaster != null && protocolName != null && irpMaster.isKnown(protocolName);
+            default:
+                return false;
+        }
+    }
+
+    private int parseToggle(String string, int length) {
+        int T;
+        try {
+            T = Integer.parseInt(string);
+        } catch (NumberFormatException ex) {
+            T = 0;
+        }
+        barfIfInvalidToggle(T, length); // throws IllegalArgumentException
+        return T;
+    }
+
+    private void readParameters(XMLStreamReader reader) throws XMLStreamException {
+        String proto = XmlImporter.getAttribute(reader, "protocol");
+        if (!proto.isEmpty())
+            protocolName = proto;
+        while (XmlImporter.nextChild(reader)) {
+            if (reader.getLocalName().equals("parameter"))
+                parameters.put(XmlImporter.getAttribute(reader, "name"), parseParameter(XmlImporter.getAttribute(reader, "value")));
+            XmlImporter.skip(reader);
+        }
+    }
+
+    // Returns toggle attribute, intro, repeat, and ending.
+    private String[] readRaw(XMLStreamReader reader) throws XMLStreamException, ParseException {
+        String[] result = new String[4];
+        result[0] = XmlImporter.getAttribute(reader, toggleAttributeName);
+        String freq = XmlImporter.getAttribute(reader, "frequency");
+        if (!freq.isEmpty())
+            frequency = Integer.parseInt(freq);
+        String dc = XmlImporter.getAttribute(reader, "dutyCycle");
+        if (!dc.isEmpty()) {
+            dutyCycle = Double.parseDouble(dc);
+            if (dutyCycle <= 0 || dutyCycle >= 1)
+                throw new ParseException("Invalid dutyCycle: " + dutyCycle + "; must be between 0 and 1.", reader.getLocation().getLineNumber());
+        }
+        while (XmlImporter.nextChild(reader)) {
+            int index = reader.getLocalName().equals("intro") ? 1
+                    : reader.getLocalName().equals("repeat") ? 2
+                    : reader.getLocalName().equals("ending") ? 3
+                    : 0;
+            if (index > 0 && result[index] == null)
+                result[index] = parseSequence(reader);
+            else
+                XmlImporter.skip(reader);
+        }
+        return result;
+    }
+
+    // Reads either the text content, or the flash and gap elements, of the current element.
+    private static String parseSequence(XMLStreamReader reader) throws XMLStreamException, ParseException {
+        StringBuilder text = new StringBuilder(64);
+        StringBuilder fat = new StringBuilder(64);
+        boolean hasFlash = false;
+        boolean invalid = false;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT)
+                break;
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String tagName = reader.getLocalName();
+                String content = XmlImporter.getTextContent(reader);
+                text.append(content);
+                switch (tagName) {
+                    case "flash":
+                        hasFlash = true;
+                        fat.append(" +").append(content);
+                        break;
+                    case "gap":
+                        fat.append(" -").append(content);
+                        break;
+                    default:
+                        invalid = true;
+                        break;
+                }
+            } else if (reader.isCharacters())
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+        if (!hasFlash)
+            return text.toString();
+        if (invalid)
+            throw new ParseException("Invalid tag name", reader.getLocation().getLineNumber());
+        return fat.substring(1);
+    }
+
     /**
      * Construct a Command from an IrSignal, i.e.&nbsp;timing data.
      *
@@ -346,6 +611,57 @@ public class Command implements Serializable {
         ending = null;
     }
 
+    /**
+     * Reads a Command from a snapshot, see {@link Snapshot}.
+     */
+    Command(ByteBuffer buffer) throws IncompatibleArgumentException, IOException {
+        String master = Snapshot.readString(buffer);
+        masterType = master != null ? MasterType.safeValueOf(master) : null;
+        name = Snapshot.readString(buffer);
+        comment = Snapshot.readString(buffer);
+        notes = Snapshot.readString(buffer);
+        protocolName = Snapshot.readString(buffer);
+        parameters = Snapshot.readParameters(buffer);
+        frequency = buffer.getInt();
+        dutyCycle = buffer.getDouble();
+        intro = Snapshot.readIntArrays(buffer);
+        repeat = Snapshot.readIntArrays(buffer);
+        ending = Snapshot.readIntArrays(buffer);
+        ccf = Snapshot.readIntArrays(buffer);
+        otherFormats = Snapshot.readStrings(buffer);
+        IrSignal irSignal = Snapshot.readIrSignal(buffer);
+        if (irSignal != null)
+            irSignals = new IrSignal[] { irSignal };
+    }
+
+    /**
+     * Writes the Command to a snapshot, after computing its raw and CCF forms, if possible.
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        IrSignal irSignal = null;
+        try {
+            checkForRaw();
+            checkForCcf();
+            irSignal = cachedIrSignal(0);
+        } catch (IrpMasterException | IllegalArgumentException | NullPointerException ex) {
+            // NullPointerException thrown if irpMaster == null; store what is there.
+        }
+        Snapshot.writeString(out, masterType != null ? masterType.name() : null);
+        Snapshot.writeString(out, name);
+        Snapshot.writeString(out, comment);
+        Snapshot.writeString(out, notes);
+        Snapshot.writeString(out, protocolName);
+        Snapshot.writeParameters(out, parameters);
+        out.writeInt(frequency);
+        out.writeDouble(dutyCycle);
+        Snapshot.writeIntArrays(out, intro);
+        Snapshot.writeIntArrays(out, repeat);
+        Snapshot.writeIntArrays(out, ending);
+        Snapshot.writeIntArrays(out, ccf);
+        Snapshot.writeStrings(out, otherFormats);
+        Snapshot.writeIrSignal(out, irSignal);
+    }
+
     /**
      * Construct a Command from CCF form.
      *
@@ -356,8 +672,7 @@ public class Command implements Serializable {
      */
     public Command(String name, String comment, String ccf) throws IrpMasterException {
         this(MasterType.ccf, name, comment);
-        this.ccf = new String[1];
-        this.ccf[0] = ccf;
+        this.ccf = new int[][] { parseCcf(ccf) };
         sanityCheck();
     }
 
@@ -459,7 +774,7 @@ public class Command implements Serializable {
     public String getIntro(int T) throws IrpMasterException {
         checkForRaw();
         barfIfInvalidToggle(T);
-        return intro[T];
+        return formatDurations(intro[T]);
     }
 
     /**
@@ -480,7 +795,7 @@ public class Command implements Serializable {
     public String getRepeat(int T) throws IrpMasterException {
         checkForRaw();
         barfIfInvalidToggle(T);
-        return repeat[T];
+        return formatDurations(repeat[T]);
     }
 
     /**
@@ -501,7 +816,7 @@ public class Command implements Serializable {
     public String getEnding(int T) throws IrpMasterException {
         checkForRaw();
         barfIfInvalidToggle(T);
-        return ending[T];
+        return formatDurations(ending[T]);
     }
 
     /**
@@ -522,7 +837,7 @@ public class Command implements Serializable {
     public String getCcf(int T) throws IrpMasterException {
         checkForCcf();
         barfIfInvalidToggle(T);
-        return ccf[T];
+        return formatCcf(ccf[T]);
     }
 
     /**
@@ -567,15 +882,28 @@ public class Command implements Serializable {
     /**
      * Returns the IrSignal of the Command.
      * @param T toggle value
-     * @return IrSignal corresponding to the Command.
+     * @return IrSignal corresponding to the Command, a copy that the caller may modify.
      * @throws IrpMasterException
      */
     public IrSignal toIrSignal(int T) throws IrpMasterException {
+        return new IrSignal(cachedIrSignal(T));
+    }
+
+    // Computed on the first call, and then kept; must thus not be modified.
+    private IrSignal cachedIrSignal(int T) throws IrpMasterException {
         barfIfInvalidToggle(T);
-        return
-                masterType == MasterType.parameters ? new IrSignal(irpMaster, protocolName, parameters)
-                : masterType == MasterType.raw ? new IrSignal(frequency, dutyCycle, intro[T], repeat[T], ending[T])
-                : new IrSignal(ccf[T]);
+        if (irSignals == null || irSignals.length != numberOfToggleValues())
+            irSignals = new IrSignal[numberOfToggleValues()];
+        if (irSignals[T] == null)
+            irSignals[T] =
+                    masterType == MasterType.parameters ? new IrSignal(irpMaster, protocolName, parameters)
+                    : masterType == MasterType.raw ? newIrSignal(T)
+                    : new IrSignal(ccf[T]);
+        return irSignals[T];
+    }
+
+    private IrSignal newIrSignal(int T) throws IncompatibleArgumentException {
+        return new IrSignal(frequency, dutyCycle, toIrSequence(intro[T]), toIrSequence(repeat[T]), toIrSequence(ending[T]));
     }
 
 
@@ -621,7 +949,7 @@ public class Command implements Serializable {
             return "Raw signal";
         }
         return (parameters != null && !parameters.isEmpty()) ? protocolName + ", " + toPrintString(parameters)
-                : ccf != null ? ccf[0]
+                : ccf != null ? formatCcf(ccf[0])
                 : "Raw signal";
     }
 
@@ -638,7 +966,7 @@ public class Command implements Serializable {
         else if (ccf != null)
             str.append(getCcf());
         else
-            str.append(toIrSignal().toPrintString(true));
+            str.append(cachedIrSignal(0).toPrintString(true));
 
         return str.toString();
     }
@@ -657,9 +985,9 @@ public class Command implements Serializable {
     private void sanityCheck() throws IrpMasterException {
         boolean protocolOk = protocolName != null && ! protocolName.isEmpty();
         boolean parametersOk = parameters != null && ! parameters.isEmpty();
-        boolean rawOk = (intro != null && intro[0] != null && ! intro[0].isEmpty())
-                || (repeat != null && repeat[0] != null && ! repeat[0].isEmpty());
-        boolean ccfOk = ccf != null && ccf[0] != null && ! ccf[0].isEmpty();
+        boolean rawOk = (intro != null && intro[0] != null && intro[0].length > 0)
+                || (repeat != null && repeat[0] != null && repeat[0].length > 0);
+        boolean ccfOk = ccf != null && ccf[0] != null && ccf[0].length > 0;
 
         if (masterType == null)
             masterType = (protocolOk && parametersOk) ? MasterType.parameters
@@ -682,6 +1010,9 @@ public class Command implements Serializable {
 
 
     private void generateRawCcfAllT(Map<String, Long> parameters, boolean generateRaw, boolean generateCcf) throws IrpMasterException {
+        // protocol is not serialized, and not set up when imported
+        if (irpMaster != null)
+            checkForProtocol();
         if (numberOfToggleValues() == 1)
             generateRawCcf(parameters, generateRaw, generateCcf);
         else
@@ -746,7 +1077,7 @@ public class Command implements Serializable {
      */
     private void checkForParameters() throws IrpMasterException {
         if (parameters == null || parameters.isEmpty())
-            generateDecode(toIrSignal());
+            generateDecode(cachedIrSignal(0));
     }
 
     /**
@@ -776,11 +1107,27 @@ public class Command implements Serializable {
         if (masterType == MasterType.parameters)
             generateRawCcfAllT(parameters, false, true);
         else {
-            IrSignal irSignal = new IrSignal(frequency, dutyCycle, intro[0], repeat[0], ending[0]);
-            generateCcf(irSignal);
+            generateCcf(newIrSignal(0));
         }
     }
 
+    /**
+     * Computes the raw and/or CCF forms of the Command for all toggle values, unless already present,
+     * as well as its IrSignal. The results are kept in the Command, so that later exports need not render.
+     * Only one thread at a time may invoke this on a particular Command.
+     *
+     * @param generateRaw
+     * @param generateCcf
+     * @throws IrpMasterException
+     */
+    public void materialize(boolean generateRaw, boolean generateCcf) throws IrpMasterException {
+        if (generateRaw)
+            checkForRaw();
+        if (generateCcf)
+            checkForCcf();
+        cachedIrSignal(0);
+    }
+
     /**
      * Returns the number of possible values of the toggle variable.
      * Must be at least 1.
@@ -809,14 +1156,14 @@ public class Command implements Serializable {
         frequency = (int) Math.round(irSignal.getFrequency());
         dutyCycle = irSignal.getDutyCycle();
         if (intro == null)
-            intro = new String[numberOfToggleValues()];
-        intro[T] = irSignal.getIntroSequence().toPrintString(true, false, " ", false);
+            intro = new int[numberOfToggleValues()][];
+        intro[T] = toInts(irSignal.getIntroSequence());
         if (repeat == null)
-            repeat = new String[numberOfToggleValues()];
-        repeat[T] = irSignal.getRepeatSequence().toPrintString(true, false, " ", false);
+            repeat = new int[numberOfToggleValues()][];
+        repeat[T] = toInts(irSignal.getRepeatSequence());
         if (ending == null)
-            ending = new String[numberOfToggleValues()];
-        ending[T] = irSignal.getEndingSequence().toPrintString(true, false, " ", false);
+            ending = new int[numberOfToggleValues()][];
+        ending[T] = toInts(irSignal.getEndingSequence());
     }
 
     private void generateCcf(IrSignal irSignal) {
@@ -826,8 +1173,12 @@ public class Command implements Serializable {
     private void generateCcf(IrSignal irSignal, int T) throws IllegalArgumentException {
         barfIfInvalidToggle(T);
         if (ccf == null)
-            ccf = new String[numberOfToggleValues()];
-        ccf[T] = Pronto.toPrintString(irSignal);
+            ccf = new int[numberOfToggleValues()][];
+        try {
+            ccf[T] = new Pronto(irSignal).toArray();
+        } catch (IncompatibleArgumentException ex) {
+            // cannot happen since irSignal is already checked.
+        }
     }
 
     public void addFormat(String name, String value) {
@@ -863,15 +1214,7 @@ public class Command implements Serializable {
         if (title != null)
             element.setAttribute("title", title);
         element.setAttribute("name", name);
-        MasterType actualMasterType = masterType;
-        if (masterType == MasterType.raw && !generateRaw
-                || masterType == MasterType.ccf && !generateCcf
-                || masterType == MasterType.parameters && !generateParameters) {
-            actualMasterType = generateRaw ? MasterType.raw
-                    : generateParameters ? MasterType.parameters
-                    : generateCcf ? MasterType.ccf
-                    : null;
-        }
+        MasterType actualMasterType = actualMasterType(generateRaw, generateCcf, generateParameters);
         if (actualMasterType != null)
             element.setAttribute("master", actualMasterType.name());
         if (comment != null)
@@ -912,9 +1255,9 @@ public class Command implements Serializable {
                         if (numberOfToggleValues() > 1)
                             rawEl.setAttribute(toggleAttributeName, Integer.toString(T));
                         element.appendChild(rawEl);
-                        processRaw(doc, rawEl, intro[T], "intro", fatRaw);
-                        processRaw(doc, rawEl, repeat[T], "repeat", fatRaw);
-                        processRaw(doc, rawEl, ending[T], "ending", fatRaw);
+                        processRaw(doc, rawEl, formatDurations(intro[T]), "intro", fatRaw);
+                        processRaw(doc, rawEl, formatDurations(repeat[T]), "repeat", fatRaw);
+                        processRaw(doc, rawEl, formatDurations(ending[T]), "ending", fatRaw);
                     }
                 }
             } catch (IrpMasterException | NullPointerException ex) {
@@ -930,7 +1273,7 @@ public class Command implements Serializable {
                         Element ccfEl = doc.createElementNS(XmlExporter.girrNamespace, "ccf");
                         if (numberOfToggleValues() > 1)
                             ccfEl.setAttribute(toggleAttributeName, Integer.toString(T));
-                        ccfEl.setTextContent(ccf[T]);
+                        ccfEl.setTextContent(formatCcf(ccf[T]));
                         element.appendChild(ccfEl);
                     }
                 }
@@ -950,6 +1293,155 @@ public class Command implements Serializable {
         return element;
     }
 
+    /**
+     * XMLExport of the Command to an XMLStreamWriter, with the same content as {@link #xmlExport(Document, String, boolean, boolean, boolean, boolean)}.
+     * Missing raw and CCF forms are rendered on the fly, and are not stored in the Command.
+     *
+     * @param writer
+     * @param title
+     * @param fatRaw
+     * @param generateRaw
+     * @param generateCcf
+     * @param generateParameters
+     * @throws XMLStreamException
+     */
+    public void xmlExport(XMLStreamWriter writer, String title, boolean fatRaw,
+            boolean generateRaw, boolean generateCcf, boolean generateParameters) throws XMLStreamException {
+        writer.writeStartElement(XmlExporter.girrNamespace, "command");
+        // Attributes in alphabetical order, as in the serialized DOM
+        if (comment != null)
+            writer.writeAttribute("comment", comment);
+        MasterType actualMasterType = actualMasterType(generateRaw, generateCcf, generateParameters);
+        if (actualMasterType != null)
+            writer.writeAttribute("master", actualMasterType.name());
+        writer.writeAttribute("name", name);
+        if (title != null)
+            writer.writeAttribute("title", title);
+        if (notes != null)
+            XmlExporter.writeElement(writer, "notes", notes);
+        if (generateParameters) {
+            try {
+                checkForParameters();
+                if (parameters != null) {
+                    writer.writeStartElement(XmlExporter.girrNamespace, "parameters");
+                    if (protocolName != null)
+                        writer.writeAttribute("protocol", protocolName.toLowerCase(Locale.US));
+                    for (Entry<String, Long> parameter : parameters.entrySet()) {
+                        writer.writeEmptyElement(XmlExporter.girrNamespace, "parameter");
+                        writer.writeAttribute("name", parameter.getKey());
+                        writer.writeAttribute("value", parameter.getValue().toString());
+                    }
+                    writer.writeEndElement();
+                }
+            } catch (IrpMasterException ex) {
+                writer.writeComment("Parameters requested but could not be generated.");
+            }
+        }
+        IrSignal[] signals = null;
+        if (generateRaw) {
+            try {
+                if (intro != null || repeat != null || ending != null) {
+                    for (int T = 0; T < numberOfToggleValues(); T++)
+                        writeRaw(writer, T, frequency, dutyCycle,
+                                formatDurations(intro[T]), formatDurations(repeat[T]), formatDurations(ending[T]), fatRaw);
+                } else {
+                    signals = renderIrSignals();
+                    for (int T = 0; T < signals.length; T++)
+                        writeRaw(writer, T, (int) Math.round(signals[T].getFrequency()), signals[T].getDutyCycle(),
+                                signals[T].getIntroSequence().toPrintString(true, false, " ", false),
+                                signals[T].getRepeatSequence().toPrintString(true, false, " ", false),
+                                signals[T].getEndingSequence().toPrintString(true, false, " ", false), fatRaw);
+                }
+            } catch (IrpMasterException | NullPointerException ex) {
+                // NullPointerException thrown if irpMaster == null.
+                writer.writeComment("Raw signal requested but could not be generated.");
+            }
+        }
+        if (generateCcf) {
+            try {
+                String[] ccfs = new String[numberOfToggleValues()];
+                if (ccf != null) {
+                    for (int T = 0; T < ccfs.length; T++)
+                        ccfs[T] = formatCcf(ccf[T]);
+                } else {
+                    if (signals == null)
+                        signals = renderIrSignals();
+                    ccfs = new String[signals.length];
+                    for (int T = 0; T < signals.length; T++)
+                        ccfs[T] = Pronto.toPrintString(signals[T]);
+                }
+                for (int T = 0; T < numberOfToggleValues(); T++) {
+                    writer.writeStartElement(XmlExporter.girrNamespace, "ccf");
+                    if (numberOfToggleValues() > 1)
+                        writer.writeAttribute(toggleAttributeName, Integer.toString(T));
+                    writer.writeCharacters(ccfs[T]);
+                    writer.writeEndElement();
+                }
+            } catch (IrpMasterException | NullPointerException ex) {
+                // NullPointerException thrown if irpMaster == null.
+                writer.writeComment("Pronto Hex requested but could not be generated.");
+            }
+        }
+        if (otherFormats != null) {
+            for (Entry<String, String> format : otherFormats.entrySet()) {
+                writer.writeStartElement(XmlExporter.girrNamespace, "format");
+                writer.writeAttribute("name", format.getKey());
+                writer.writeCharacters(format.getValue());
+                writer.writeEndElement();
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeRaw(XMLStreamWriter writer, int T, int frequency, double dutyCycle,
+            String intro, String repeat, String ending, boolean fatRaw) throws XMLStreamException {
+        writer.writeStartElement(XmlExporter.girrNamespace, "raw");
+        if (numberOfToggleValues() > 1)
+            writer.writeAttribute(toggleAttributeName, Integer.toString(T));
+        if (dutyCycle > 0)
+            writer.writeAttribute("dutyCycle", Double.toString(dutyCycle));
+        writer.writeAttribute("frequency", Integer.toString(frequency));
+        xmlExport(writer, intro, "intro", fatRaw);
+        xmlExport(writer, repeat, "repeat", fatRaw);
+        xmlExport(writer, ending, "ending", fatRaw);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Computes the IrSignal for every toggle value, like checkForRaw and checkForCcf, but without storing anything.
+     */
+    private IrSignal[] renderIrSignals() throws IrpMasterException {
+        // protocol is not serialized, and not set up when imported
+        if (irpMaster != null)
+            checkForProtocol();
+        IrSignal[] signals = new IrSignal[numberOfToggleValues()];
+        if (masterType != MasterType.parameters)
+            signals[0] = ccf != null ? new IrSignal(ccf[0]) : newIrSignal(0);
+        else if (signals.length == 1) {
+            if (protocol == null)
+                throw new IrpMasterException("Protocol " + protocolName + " unknown or unusable");
+            signals[0] = protocol.renderIrSignal(parameters);
+        } else {
+            for (int T = 0; T < signals.length; T++) {
+                Map<String, Long> params = new HashMap<>(parameters);
+                params.put(toggleParameterName, (long) T);
+                signals[T] = protocol.renderIrSignal(params);
+            }
+        }
+        return signals;
+    }
+
+    private MasterType actualMasterType(boolean generateRaw, boolean generateCcf, boolean generateParameters) {
+        if (masterType == MasterType.raw && !generateRaw
+                || masterType == MasterType.ccf && !generateCcf
+                || masterType == MasterType.parameters && !generateParameters)
+            return generateRaw ? MasterType.raw
+                    : generateParameters ? MasterType.parameters
+                    : generateCcf ? MasterType.ccf
+                    : null;
+        return masterType;
+    }
+
     /**
      * This describes which representation of a Command constitutes the master,
      * from which the other representations are derived.
@@ -21,6 +21,9 @@ import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import org.harctoolbox.IrpMaster.IrpMasterException;
 import org.harctoolbox.IrpMaster.IrpUtils;
 import org.w3c.dom.Document;
@@ -90,6 +93,56 @@ public class CommandSet {
         }
     }
 
+    /**
+     * Reads a CommandSet from a StAX reader positioned at the start tag of a "commandSet" element.
+     * If visitor is non-null, the commands are handed to it instead of being stored.
+     */
+    CommandSet(XMLStreamReader reader, Remote.MetaData remote, boolean lazy, XmlImporter.CommandVisitor visitor)
+            throws XMLStreamException, ParseException {
+        name = XmlImporter.getAttribute(reader, "name");
+        protocol = null;
+        commands = new LinkedHashMap<>(4);
+        parameters = new LinkedHashMap<>(4);
+        while (XmlImporter.nextChild(reader)) {
+            switch (reader.getLocalName()) {
+                case "notes":
+                    String text = XmlImporter.getTextContent(reader);
+                    if (notes == null)
+                        notes = text;
+                    break;
+                case "parameters":
+                    String newProtocol = XmlImporter.getAttribute(reader, "protocol");
+                    if (!newProtocol.isEmpty())
+                        protocol = newProtocol;
+                    while (XmlImporter.nextChild(reader)) {
+                        if (reader.getLocalName().equals("parameter"))
+                            try {
+                                parameters.put(XmlImporter.getAttribute(reader, "name"),
+                                        Command.parseParameter(XmlImporter.getAttribute(reader, "value")));
+                            } catch (NumberFormatException ex) {
+                                throw new ParseException("NumberFormatException " + ex.getMessage(), reader.getLocation().getLineNumber());
+                            }
+                        XmlImporter.skip(reader);
+                    }
+                    break;
+                case "command":
+                    try {
+                        Command irCommand = new Command(reader, protocol, parameters, lazy);
+                        if (visitor != null)
+                            visitor.visit(remote, irCommand);
+                        else
+                            commands.put(irCommand.getName(), irCommand);
+                    } catch (IrpMasterException ex) {
+                        // Ignore erroneous commands, continue parsing
+                    }
+                    break;
+                default:
+                    XmlImporter.skip(reader);
+                    break;
+            }
+        }
+    }
+
     /**
      * Constructs a CommandSet from its argument.
      *
@@ -149,6 +202,39 @@ public class CommandSet {
         return element;
     }
 
+    /**
+     * XML export to an XMLStreamWriter, with the same content as {@link #xmlExport(Document, boolean, boolean, boolean, boolean)}.
+     *
+     * @param writer
+     * @param fatRaw
+     * @param generateRaw
+     * @param generateCcf
+     * @param generateParameters
+     * @throws XMLStreamException
+     */
+    public void xmlExport(XMLStreamWriter writer, boolean fatRaw,
+            boolean generateRaw, boolean generateCcf, boolean generateParameters) throws XMLStreamException {
+        writer.writeStartElement(XmlExporter.girrNamespace, "commandSet");
+        writer.writeAttribute("name", name);
+        if (notes != null)
+            XmlExporter.writeElement(writer, "notes", notes);
+        if (parameters != null && generateParameters) {
+            writer.writeStartElement(XmlExporter.girrNamespace, "parameters");
+            writer.writeAttribute("protocol", protocol.toLowerCase(Locale.US));
+            for (Entry<String, Long> parameter : parameters.entrySet()) {
+                writer.writeEmptyElement(XmlExporter.girrNamespace, "parameter");
+                writer.writeAttribute("name", parameter.getKey());
+                writer.writeAttribute("value", parameter.getValue().toString());
+            }
+            writer.writeEndElement();
+        }
+        if (commands != null) {
+            for (Command command : commands.values())
+                command.xmlExport(writer, null, fatRaw, generateRaw, generateCcf, generateParameters);
+        }
+        writer.writeEndElement();
+    }
+
     /**
      * Applies the format argument to all Command's in the CommandSet.
      *
@@ -17,13 +17,20 @@ this program. If not, see http://www.gnu.org/licenses/.
 
 package org.harctoolbox.girr;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
 import org.harctoolbox.IrpMaster.IrSignal;
 import org.harctoolbox.IrpMaster.IrpMasterException;
 import org.w3c.dom.Document;
@@ -87,6 +94,96 @@ public class Remote implements Serializable {
         }
     }
 
+    /**
+     * Reads a Remote from a StAX reader positioned at the start tag of a "remote" element.
+     * If visitor is non-null, the commands are handed to it instead of being stored.
+     */
+    Remote(XMLStreamReader reader, boolean lazy, XmlImporter.CommandVisitor visitor) throws XMLStreamException, ParseException {
+        metaData = new MetaData(XmlImporter.getAttribute(reader, "name"),
+                XmlImporter.getAttribute(reader, "displayName"),
+                XmlImporter.getAttribute(reader, "manufacturer"),
+                XmlImporter.getAttribute(reader, "model"),
+                XmlImporter.getAttribute(reader, "deviceClass"),
+                XmlImporter.getAttribute(reader, "remoteName"));
+        commands = new LinkedHashMap<>(32);
+        applicationParameters = new LinkedHashMap<>(4);
+        comment = XmlImporter.getAttribute(reader, "comment");
+        while (XmlImporter.nextChild(reader)) {
+            switch (reader.getLocalName()) {
+                case "applicationData":
+                    String application = XmlImporter.getAttribute(reader, "application");
+                    Map<String, String> map = new HashMap<>(32);
+                    while (XmlImporter.nextChild(reader)) {
+                        if (reader.getLocalName().equals("appParameter"))
+                            map.put(XmlImporter.getAttribute(reader, "name"), XmlImporter.getAttribute(reader, "value"));
+                        XmlImporter.skip(reader);
+                    }
+                    applicationParameters.put(application, map);
+                    break;
+                case "commandSet":
+                    CommandSet commandSet = new CommandSet(reader, metaData, lazy, visitor);
+                    commands.putAll(commandSet.getCommands());
+                    break;
+                default:
+                    XmlImporter.skip(reader);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads a Remote from a snapshot, see {@link Snapshot}.
+     */
+    Remote(ByteBuffer buffer) throws IncompatibleArgumentException, IOException {
+        metaData = new MetaData(Snapshot.readString(buffer),
+                Snapshot.readString(buffer),
+                Snapshot.readString(buffer),
+                Snapshot.readString(buffer),
+                Snapshot.readString(buffer),
+                Snapshot.readString(buffer));
+        comment = Snapshot.readString(buffer);
+        notes = Snapshot.readString(buffer);
+        protocol = Snapshot.readString(buffer);
+        parameters = Snapshot.readParameters(buffer);
+        int noApplications = Snapshot.readLength(buffer, 8);
+        applicationParameters = noApplications >= 0 ? new LinkedHashMap<String, Map<String, String>>(noApplications) : null;
+        for (int i = 0; i < noApplications; i++) {
+            String application = Snapshot.readString(buffer);
+            applicationParameters.put(application, Snapshot.readStrings(buffer));
+        }
+        int noCommands = Snapshot.readLength(buffer, 4);
+        commands = new LinkedHashMap<>(noCommands);
+        for (int i = 0; i < noCommands; i++) {
+            Command command = new Command(buffer);
+            commands.put(command.getName(), command);
+        }
+    }
+
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        Snapshot.writeString(out, metaData.getName());
+        Snapshot.writeString(out, metaData.getDisplayName());
+        Snapshot.writeString(out, metaData.getManufacturer());
+        Snapshot.writeString(out, metaData.getModel());
+        Snapshot.writeString(out, metaData.getDeviceClass());
+        Snapshot.writeString(out, metaData.getRemoteName());
+        Snapshot.writeString(out, comment);
+        Snapshot.writeString(out, notes);
+        Snapshot.writeString(out, protocol);
+        Snapshot.writeParameters(out, parameters);
+        if (applicationParameters == null)
+            out.writeInt(-1);
+        else {
+            out.writeInt(applicationParameters.size());
+            for (Entry<String, Map<String, String>> application : applicationParameters.entrySet()) {
+                Snapshot.writeString(out, application.getKey());
+                Snapshot.writeStrings(out, application.getValue());
+            }
+        }
+        out.writeInt(commands.size());
+        for (Command command : commands.values())
+            command.writeSnapshot(out);
+    }
+
     /**
      * Construct a Remote from its arguments, general case.
      *
@@ -197,6 +294,53 @@ public class Remote implements Serializable {
         return element;
     }
 
+    /**
+     * XML export to an XMLStreamWriter, with the same content as {@link #xmlExport(Document, boolean, boolean, boolean, boolean)}.
+     *
+     * @param writer
+     * @param fatRaw
+     * @param generateRaw
+     * @param generateCcf
+     * @param generateParameters
+     * @throws XMLStreamException
+     */
+    public void xmlExport(XMLStreamWriter writer, boolean fatRaw,
+            boolean generateRaw, boolean generateCcf, boolean generateParameters) throws XMLStreamException {
+        writer.writeStartElement(XmlExporter.girrNamespace, "remote");
+        // Attributes in alphabetical order, as in the serialized DOM
+        if (comment != null)
+            writer.writeAttribute("comment", comment);
+        if (metaData.deviceClass !=  null)
+            writer.writeAttribute("deviceClass", metaData.deviceClass);
+        if (metaData.displayName != null)
+            writer.writeAttribute("displayName", metaData.displayName);
+        if (metaData.manufacturer != null)
+            writer.writeAttribute("manufacturer", metaData.manufacturer);
+        if (metaData.model != null)
+            writer.writeAttribute("model", metaData.model);
+        writer.writeAttribute("name", metaData.name);
+        if (metaData.remoteName != null)
+            writer.writeAttribute("remoteName", metaData.remoteName);
+        if (notes != null)
+            XmlExporter.writeElement(writer, "notes", notes);
+        if (applicationParameters != null) {
+            for (Entry<String, Map<String, String>> kvp : applicationParameters.entrySet()) {
+                writer.writeStartElement(XmlExporter.girrNamespace, "applicationData");
+                writer.writeAttribute("application", kvp.getKey());
+                for (Entry<String, String> param : kvp.getValue().entrySet()) {
+                    writer.writeEmptyElement(XmlExporter.girrNamespace, "appParameter");
+                    writer.writeAttribute("name", param.getKey());
+                    writer.writeAttribute("value", param.getValue());
+                }
+                writer.writeEndElement();
+            }
+        }
+
+        CommandSet commandSet = new CommandSet(null, null, commands, protocol, parameters);
+        commandSet.xmlExport(writer, fatRaw, generateRaw, generateCcf, generateParameters);
+        writer.writeEndElement();
+    }
+
     /**
      * Applies the format argument to all Command's in the Remote.
      *
@@ -17,9 +17,11 @@ this program. If not, see http://www.gnu.org/licenses/.
 
 package org.harctoolbox.girr;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -27,8 +29,19 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Source;
 import org.harctoolbox.IrpMaster.DecodeIR;
+import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
 import org.harctoolbox.IrpMaster.IrSignal;
 import org.harctoolbox.IrpMaster.IrpMasterException;
 import org.harctoolbox.IrpMaster.Version;
@@ -121,6 +134,96 @@ public class RemoteSet implements Serializable {
         }
     }
 
+    /**
+     * Reads a RemoteSet from a StAX reader positioned at the start tag of the "remotes" element.
+     * See {@link XmlImporter}.
+     */
+    RemoteSet(XMLStreamReader reader, boolean lazy, XmlImporter.CommandVisitor visitor) throws XMLStreamException, ParseException {
+        remotes = new LinkedHashMap<>(4);
+        boolean hasAdminData = false;
+        while (XmlImporter.nextChild(reader)) {
+            switch (reader.getLocalName()) {
+                case "adminData":
+                    if (hasAdminData)
+                        XmlImporter.skip(reader);
+                    else
+                        readAdminData(reader);
+                    hasAdminData = true;
+                    break;
+                case "remote":
+                    Remote remote = new Remote(reader, lazy, visitor);
+                    remotes.put(remote.getName(), remote);
+                    break;
+                default:
+                    XmlImporter.skip(reader);
+                    break;
+            }
+        }
+    }
+
+    private void readAdminData(XMLStreamReader reader) throws XMLStreamException {
+        boolean hasCreationData = false;
+        while (XmlImporter.nextChild(reader)) {
+            switch (reader.getLocalName()) {
+                case "notes":
+                    String text = XmlImporter.getTextContent(reader);
+                    if (notes == null)
+                        notes = text;
+                    break;
+                case "creationData":
+                    if (!hasCreationData) {
+                        creatingUser = XmlImporter.getAttribute(reader, "creatingUser");
+                        source = XmlImporter.getAttribute(reader, "source");
+                        creationDate = XmlImporter.getAttribute(reader, "creationDate");
+                        tool = XmlImporter.getAttribute(reader, "tool");
+                        toolVersion = XmlImporter.getAttribute(reader, "toolVersion");
+                        tool2 = XmlImporter.getAttribute(reader, "tool2");
+                        tool2Version = XmlImporter.getAttribute(reader, "tool2Version");
+                        hasCreationData = true;
+                    }
+                    XmlImporter.skip(reader);
+                    break;
+                default:
+                    XmlImporter.skip(reader);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads a RemoteSet from a snapshot, see {@link Snapshot}.
+     */
+    RemoteSet(ByteBuffer buffer) throws IncompatibleArgumentException, IOException {
+        creatingUser = Snapshot.readString(buffer);
+        source = Snapshot.readString(buffer);
+        creationDate = Snapshot.readString(buffer);
+        tool = Snapshot.readString(buffer);
+        toolVersion = Snapshot.readString(buffer);
+        tool2 = Snapshot.readString(buffer);
+        tool2Version = Snapshot.readString(buffer);
+        notes = Snapshot.readString(buffer);
+        int noRemotes = Snapshot.readLength(buffer, 4);
+        remotes = new LinkedHashMap<>(noRemotes);
+        for (int i = 0; i < noRemotes; i++) {
+            Remote remote = new Remote(buffer);
+            remotes.put(remote.getName(), remote);
+        }
+    }
+
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        Snapshot.writeString(out, creatingUser);
+        Snapshot.writeString(out, source);
+        Snapshot.writeString(out, creationDate);
+        Snapshot.writeString(out, tool);
+        Snapshot.writeString(out, toolVersion);
+        Snapshot.writeString(out, tool2);
+        Snapshot.writeString(out, tool2Version);
+        Snapshot.writeString(out, notes);
+        out.writeInt(remotes.size());
+        for (Remote remote : remotes.values())
+            remote.writeSnapshot(out);
+    }
+
     /* *
      * This constructor is used to import an XML document.
      * @param file
@@ -332,6 +435,118 @@ public class RemoteSet implements Serializable {
         return XmlExporter.createDocument(root, stylesheetType, stylesheetUrl, createSchemaLocation);
     }
 
+    /**
+     * Writes a RemoteSet to an XMLStreamWriter, with the same content as {@link #xmlExport(Document, String, boolean, boolean, boolean, boolean, boolean)}.
+     * The signals are rendered as they are written; nothing is stored in the Commands.
+     *
+     * @param writer
+     * @param title
+     * @param fatRaw
+     * @param createSchemaLocation
+     * @param generateRaw
+     * @param generateCcf
+     * @param generateParameters
+     * @throws XMLStreamException
+     */
+    public void xmlExport(XMLStreamWriter writer, String title, boolean fatRaw, boolean createSchemaLocation,
+            boolean generateRaw, boolean generateCcf, boolean generateParameters) throws XMLStreamException {
+        xmlExport(writer, title, createSchemaLocation ? XmlExporter.girrNamespace + " " + XmlExporter.girrSchemaLocationURL : null,
+                fatRaw, generateRaw, generateCcf, generateParameters);
+    }
+
+    private void xmlExport(XMLStreamWriter writer, String title, String schemaLocation, boolean fatRaw,
+            boolean generateRaw, boolean generateCcf, boolean generateParameters) throws XMLStreamException {
+        writer.writeStartElement("", "remotes", XmlExporter.girrNamespace);
+        writer.writeDefaultNamespace(XmlExporter.girrNamespace);
+        if (schemaLocation != null)
+            writer.writeNamespace("xsi", XmlExporter.w3cSchemaNamespace);
+        writer.writeAttribute("girrVersion", girrVersion);
+        if (title != null)
+            writer.writeAttribute("title", title);
+        if (schemaLocation != null)
+            writer.writeAttribute("xsi", XmlExporter.w3cSchemaNamespace, "schemaLocation", schemaLocation);
+
+        writer.writeStartElement(XmlExporter.girrNamespace, "adminData");
+        // Attributes in alphabetical order, as in the serialized DOM
+        writer.writeEmptyElement(XmlExporter.girrNamespace, "creationData");
+        if (creatingUser != null)
+            writer.writeAttribute("creatingUser", creatingUser);
+        if (creationDate != null)
+            writer.writeAttribute("creationDate", creationDate);
+        if (source != null)
+            writer.writeAttribute("source", source);
+        if (tool != null)
+            writer.writeAttribute("tool", tool);
+        if (tool2 != null)
+            writer.writeAttribute("tool2", tool2);
+        if (tool2Version != null)
+            writer.writeAttribute("tool2Version", tool2Version);
+        if (toolVersion != null)
+            writer.writeAttribute("toolVersion", toolVersion);
+        if (notes != null)
+            XmlExporter.writeElement(writer, "notes", notes);
+        writer.writeEndElement();
+
+        for (Remote remote : remotes.values())
+            remote.xmlExport(writer, fatRaw, generateRaw, generateCcf, generateParameters);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes a RemoteSet as a complete Girr document to an XMLStreamWriter,
+     * with the same content as {@link #xmlExportDocument(String, String, String, boolean, boolean, boolean, boolean, boolean)},
+     * but without building a DOM.
+     *
+     * @param writer
+     * @param title Textual title of document.
+     * @param stylesheetType Type of stylesheet, normally "css" or "xsl".
+     * @param stylesheetUrl URL of stylesheet to be linked in a processing instruction.
+     * @param fatRaw For the raw form, generate elements for each flash and gap, otherwise a long PCDATA text string of durations will be generated.
+     * @param createSchemaLocation if schema location attributes (for validation) should be included.
+     * @param generateRaw If true, the raw form will be generated.
+     * @param generateCcf If true, the CCF ("Pronto hex") form will be generated.
+     * @param generateParameters If true, the protocol/parameter description will be generated.
+     * @throws XMLStreamException
+     */
+    public void xmlExportDocument(XMLStreamWriter writer, String title, String stylesheetType, String stylesheetUrl,
+            boolean fatRaw, boolean createSchemaLocation,
+            boolean generateRaw, boolean generateCcf, boolean generateParameters) throws XMLStreamException {
+        writer.writeStartDocument();
+        if (stylesheetType != null && stylesheetUrl != null && !stylesheetUrl.isEmpty())
+            writer.writeProcessingInstruction("xml-stylesheet", "type=\"text/" + stylesheetType + "\" href=\"" + stylesheetUrl + "\"");
+        writer.writeComment(XmlExporter.girrComment);
+        xmlExport(writer, title, createSchemaLocation ? XmlExporter.girrSchemaLocationURL : null,
+                fatRaw, generateRaw, generateCcf, generateParameters);
+        writer.writeEndDocument();
+    }
+
+    /**
+     * Returns the Girr document of the RemoteSet as a Source, to be used instead of the Document from xmlExportDocument
+     * as input to a Transformer, e.g. by an XmlExporter.
+     * The document is generated, by xmlExportDocument(XMLStreamWriter, ...), every time the Source is read, and is never stored.
+     *
+     * @param title Textual title of document.
+     * @param stylesheetType Type of stylesheet, normally "css" or "xsl".
+     * @param stylesheetUrl URL of stylesheet to be linked in a processing instruction.
+     * @param fatRaw For the raw form, generate elements for each flash and gap, otherwise a long PCDATA text string of durations will be generated.
+     * @param createSchemaLocation if schema location attributes (for validation) should be included.
+     * @param generateRaw If true, the raw form will be generated.
+     * @param generateCcf If true, the CCF ("Pronto hex") form will be generated.
+     * @param generateParameters If true, the protocol/parameter description will be generated.
+     * @return Source, that can be read several times.
+     */
+    public Source xmlExportSource(final String title, final String stylesheetType, final String stylesheetUrl,
+            final boolean fatRaw, final boolean createSchemaLocation,
+            final boolean generateRaw, final boolean generateCcf, final boolean generateParameters) {
+        return new StreamingXmlReader() {
+            @Override
+            void write(XMLStreamWriter writer) throws XMLStreamException {
+                xmlExportDocument(writer, title, stylesheetType, stylesheetUrl, fatRaw, createSchemaLocation,
+                        generateRaw, generateCcf, generateParameters);
+            }
+        }.newSource();
+    }
+
     /**
      * Applies the format argument to all Command's in the CommandSet.
      * @param format
@@ -343,6 +558,76 @@ public class RemoteSet implements Serializable {
             remote.addFormat(format, repeatCount);
     }
 
+    /**
+     * Renders the raw and CCF forms, and the formats in the argument, of all commands concurrently,
+     * using a thread pool with one thread per available processor.
+     *
+     * @param generateRaw
+     * @param generateCcf
+     * @param formats Text formats to add to every command; may be empty.
+     * @param repeatCount repeat count for the formats.
+     * @return number of commands that could not be rendered.
+     * @throws InterruptedException
+     */
+    public int materialize(boolean generateRaw, boolean generateCcf, List<Command.CommandTextFormat> formats, int repeatCount)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return materialize(executor, generateRaw, generateCcf, formats, repeatCount);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Renders the raw and CCF forms, and the formats in the argument, of all commands, as tasks of the executor.
+     * Each command is rendered by one task, and keeps its results, so the result of later exports
+     * is the same as if this had been done sequentially. Commands that cannot be rendered are
+     * left as they are, like in {@link #addFormat(Command.CommandTextFormat, int)}.
+     *
+     * @param executor ExecutorService to run the tasks; not shut down.
+     * @param generateRaw
+     * @param generateCcf
+     * @param formats Text formats to add to every command; may be empty.
+     * @param repeatCount repeat count for the formats.
+     * @return number of commands that could not be rendered.
+     * @throws InterruptedException
+     */
+    public int materialize(ExecutorService executor, final boolean generateRaw, final boolean generateCcf,
+            final List<Command.CommandTextFormat> formats, final int repeatCount) throws InterruptedException {
+        List<Command> commands = getAllCommands();
+        List<Callable<Boolean>> tasks = new ArrayList<>(commands.size());
+        for (final Command command : commands) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    try {
+                        command.materialize(generateRaw, generateCcf);
+                        for (Command.CommandTextFormat format : formats)
+                            command.addFormat(format, repeatCount);
+                        return true;
+                    } catch (IrpMasterException ex) {
+                        return false;
+                    }
+                }
+            });
+        }
+
+        int failures = 0;
+        for (Future<Boolean> future : executor.invokeAll(tasks)) {
+            try {
+                if (!future.get())
+                    failures++;
+            } catch (ExecutionException ex) {
+                // call() throws no checked exceptions
+                if (ex.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) ex.getCause();
+                throw (Error) ex.getCause();
+            }
+        }
+        return failures;
+    }
+
     /**
      * Generates a list of the commands in all contained remotes.
      * It may contain non-unique names.
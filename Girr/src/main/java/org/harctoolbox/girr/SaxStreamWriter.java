@@ -0,0 +1,379 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.girr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * XMLStreamWriter delivering its output as SAX events to a ContentHandler,
+ * for example a Transformer, or the builder of the source tree of an XSLT processor.
+ * Namespace declarations are reported as prefix mappings, not as attributes.
+ * DTDs and entity references are not supported.
+ */
+final class SaxStreamWriter implements XMLStreamWriter {
+
+    private static final String cdata = "CDATA";
+
+    private static final class OpenElement {
+        private final String namespaceURI;
+        private final String localName;
+        private final String qName;
+        private final List<String> prefixes;
+
+        OpenElement(String namespaceURI, String localName, String qName, List<String> prefixes) {
+            this.namespaceURI = namespaceURI;
+            this.localName = localName;
+            this.qName = qName;
+            this.prefixes = prefixes;
+        }
+    }
+
+    private final ContentHandler contentHandler;
+    private final LexicalHandler lexicalHandler;
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+    // bindings outside of the document, from setNamespaceContext
+    private NamespaceContext rootContext = null;
+    private final Deque<OpenElement> openElements = new ArrayDeque<>(16);
+
+    // start tag not yet delivered, since attributes and namespaces may still be added
+    private OpenElement pending = null;
+    private boolean pendingEmpty = false;
+    private final AttributesImpl attributes = new AttributesImpl();
+
+    /**
+     * @param contentHandler Receives the SAX events.
+     * @param lexicalHandler Receives the comments, may be null.
+     */
+    SaxStreamWriter(ContentHandler contentHandler, LexicalHandler lexicalHandler) {
+        this.contentHandler = contentHandler;
+        this.lexicalHandler = lexicalHandler;
+    }
+
+    private static XMLStreamException wrap(SAXException ex) {
+        return new XMLStreamException(ex.getMessage(), ex);
+    }
+
+    private static String qName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private String prefixOf(String namespaceURI) throws XMLStreamException {
+        String prefix = getPrefix(namespaceURI);
+        if (prefix == null)
+            throw new XMLStreamException("Namespace " + namespaceURI + " not bound to a prefix");
+        return prefix;
+    }
+
+    private String uriOf(String prefix) {
+        String uri = namespaces.getURI(prefix);
+        if (uri == null && rootContext != null)
+            uri = rootContext.getNamespaceURI(prefix);
+        return uri != null ? uri : XMLConstants.NULL_NS_URI;
+    }
+
+    private void flushPending() throws XMLStreamException {
+        if (pending == null)
+            return;
+        try {
+            contentHandler.startElement(pending.namespaceURI, pending.localName, pending.qName, attributes);
+            attributes.clear();
+            OpenElement element = pending;
+            pending = null;
+            if (pendingEmpty)
+                end(element);
+            else
+                openElements.push(element);
+        } catch (SAXException ex) {
+            throw wrap(ex);
+        }
+    }
+
+    private void end(OpenElement element) throws SAXException {
+        contentHandler.endElement(element.namespaceURI, element.localName, element.qName);
+        for (String prefix : element.prefixes)
+            contentHandler.endPrefixMapping(prefix);
+        namespaces.popContext();
+    }
+
+    private void start(String prefix, String localName, String namespaceURI, boolean empty) throws XMLStreamException {
+        flushPending();
+        namespaces.pushContext();
+        pending = new OpenElement(namespaceURI, localName, qName(prefix, localName), new ArrayList<String>(0));
+        pendingEmpty = empty;
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        start(XMLConstants.DEFAULT_NS_PREFIX, localName, uriOf(XMLConstants.DEFAULT_NS_PREFIX), false);
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        start(prefixOf(namespaceURI), localName, namespaceURI, false);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        start(prefix, localName, namespaceURI, false);
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        start(prefixOf(namespaceURI), localName, namespaceURI, true);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        start(prefix, localName, namespaceURI, true);
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        start(XMLConstants.DEFAULT_NS_PREFIX, localName, uriOf(XMLConstants.DEFAULT_NS_PREFIX), true);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        flushPending();
+        if (openElements.isEmpty())
+            throw new XMLStreamException("No open element");
+        try {
+            end(openElements.pop());
+        } catch (SAXException ex) {
+            throw wrap(ex);
+        }
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        // an empty element, possibly the root, is ended when flushed
+        flushPending();
+        while (!openElements.isEmpty())
+            writeEndElement();
+        try {
+            contentHandler.endDocument();
+        } catch (SAXException ex) {
+            throw wrap(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        writeAttribute(XMLConstants.DEFAULT_NS_PREFIX, XMLConstants.NULL_NS_URI, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+        if (pending == null)
+            throw new XMLStreamException("Attribute " + localName + " not in a start tag");
+        attributes.addAttribute(namespaceURI, localName, qName(prefix, localName), cdata, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        writeAttribute(namespaceURI.isEmpty() ? XMLConstants.DEFAULT_NS_PREFIX : prefixOf(namespaceURI), namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        if (pending == null)
+            throw new XMLStreamException("Namespace declaration not in a start tag");
+        if (prefix == null || prefix.equals(XMLConstants.XMLNS_ATTRIBUTE))
+            prefix = XMLConstants.DEFAULT_NS_PREFIX;
+        namespaces.declarePrefix(prefix, namespaceURI);
+        pending.prefixes.add(prefix);
+        try {
+            contentHandler.startPrefixMapping(prefix, namespaceURI);
+        } catch (SAXException ex) {
+            throw wrap(ex);
+        }
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        writeNamespace(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        flushPending();
+        if (lexicalHandler == null)
+            return;
+        try {
+            lexicalHandler.comment(data.toCharArray(), 0, data.length());
+        } catch (SAXException ex) {
+            throw wrap(ex);
+        }
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        writeProcessingInstruction(target, "");
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        flushPending();
+        try {
+            contentHandler.processingInstruction(target, data);
+        } catch (SAXException ex) {
+            throw wrap(ex);
+        }
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        writeCharacters(data);
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        throw new XMLStreamException("DTD not supported");
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        throw new XMLStreamException("Entity references not supported");
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        try {
+            contentHandler.startDocument();
+        } catch (SAXException ex) {
+            throw wrap(ex);
+        }
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        writeStartDocument();
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        writeStartDocument();
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        writeCharacters(text.toCharArray(), 0, text.length());
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        flushPending();
+        try {
+            contentHandler.characters(text, start, len);
+        } catch (SAXException ex) {
+            throw wrap(ex);
+        }
+    }
+
+    @Override
+    public String getPrefix(String uri) {
+        if (uri.equals(namespaces.getURI(XMLConstants.DEFAULT_NS_PREFIX)))
+            return XMLConstants.DEFAULT_NS_PREFIX;
+        String prefix = namespaces.getPrefix(uri);
+        return prefix == null && rootContext != null ? rootContext.getPrefix(uri) : prefix;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) {
+        namespaces.declarePrefix(prefix, uri);
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) {
+        namespaces.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, uri);
+    }
+
+    /**
+     * Sets the bindings used when a prefix or URI is not bound in the document.
+     * As for other XMLStreamWriters, the namespaces are not declared.
+     * @param context
+     * @throws XMLStreamException if called after the start of the first element.
+     */
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        if (pending != null || !openElements.isEmpty())
+            throw new XMLStreamException("The namespace context can only be set at the start of the document");
+        rootContext = context;
+    }
+
+    /**
+     * @return The current bindings, of the document and of the namespace context set.
+     */
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                return uriOf(prefix);
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                return SaxStreamWriter.this.getPrefix(namespaceURI);
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(String namespaceURI) {
+                List<String> prefixes = new ArrayList<>(2);
+                if (namespaceURI.equals(namespaces.getURI(XMLConstants.DEFAULT_NS_PREFIX)))
+                    prefixes.add(XMLConstants.DEFAULT_NS_PREFIX);
+                for (Enumeration<?> e = namespaces.getPrefixes(namespaceURI); e.hasMoreElements();)
+                    prefixes.add((String) e.nextElement());
+                if (rootContext != null)
+                    for (Iterator<?> i = rootContext.getPrefixes(namespaceURI); i.hasNext();) {
+                        String prefix = (String) i.next();
+                        if (!prefixes.contains(prefix) && namespaces.getURI(prefix) == null)
+                            prefixes.add(prefix);
+                    }
+                return prefixes.iterator();
+            }
+        };
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        throw new IllegalArgumentException("Property " + name + " not supported");
+    }
+}
@@ -0,0 +1,322 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.girr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
+import org.harctoolbox.IrpMaster.IrSequence;
+import org.harctoolbox.IrpMaster.IrSignal;
+
+/**
+ * Versioned binary snapshot of a RemoteSet, for fast loading.
+ * Contains the meta data, the parameters, and the timing data of the commands,
+ * with the raw and CCF forms and the IrSignal of every command already computed,
+ * so that no XML or IRP parsing is needed when reading.
+ * A RemoteSet read from a snapshot behaves like one imported from its Girr export,
+ * except that toIrSignal() is served from the snapshot.
+ *
+ * <p>The snapshot also records the source files it was made from,
+ * allowing a program to check if it is current, and otherwise fall back to the sources.
+ * The snapshot is read through a memory mapped file.
+ */
+public final class Snapshot {
+
+    /** Version of the format; snapshots of other versions are not read. */
+    public static final int version = 1;
+
+    private static final int magic = 0x47697272; // "Girr"
+    private static final Charset charset = StandardCharsets.UTF_8;
+
+    /**
+     * Writes a snapshot of the RemoteSet to a file, replacing it atomically, if the file system supports it.
+     * The raw and CCF forms of the commands are computed, if possible, and stored in the Commands.
+     *
+     * @param remoteSet RemoteSet to write.
+     * @param file Output file.
+     * @param sources The files, or directories, remoteSet was read from; may be empty.
+     * @throws IOException
+     */
+    public static void write(RemoteSet remoteSet, File file, Collection<File> sources) throws IOException {
+        List<File> files = new ArrayList<>(sources.size());
+        for (File source : sources)
+            expand(source, files);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        boolean moved = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+                out.writeInt(magic);
+                out.writeInt(version);
+                out.writeInt(files.size());
+                for (File source : files) {
+                    writeString(out, source.getAbsolutePath());
+                    out.writeLong(source.lastModified());
+                    out.writeLong(source.length());
+                }
+                remoteSet.writeSnapshot(out);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved)
+                tmp.delete();
+        }
+    }
+
+    // Directories are recorded too, since adding or removing files changes their time stamps.
+    private static void expand(File source, List<File> files) {
+        files.add(source);
+        File[] children = source.listFiles();
+        if (children != null)
+            for (File child : children)
+                expand(child, files);
+    }
+
+    /**
+     * Reads a RemoteSet from a snapshot, irrespective of its sources being current.
+     *
+     * @param file Snapshot file.
+     * @return RemoteSet
+     * @throws IOException if the file is not a snapshot of the current version, or is damaged.
+     */
+    public static RemoteSet read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readHeader(buffer, file);
+            try {
+                int noSources = buffer.getInt();
+                for (int i = 0; i < noSources; i++) {
+                    readString(buffer);
+                    buffer.getLong();
+                    buffer.getLong();
+                }
+                return new RemoteSet(buffer);
+            } catch (BufferUnderflowException | IllegalArgumentException | IncompatibleArgumentException | IOException ex) {
+                throw new IOException("Damaged snapshot " + file + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks if the snapshot exists, has the current version, and none of its sources has been changed since it was written.
+     *
+     * @param file Snapshot file.
+     * @return true if the snapshot can be used instead of its sources.
+     */
+    public static boolean isCurrent(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readHeader(buffer, file);
+            int noSources = buffer.getInt();
+            for (int i = 0; i < noSources; i++) {
+                File source = new File(readString(buffer));
+                if (!source.exists() || source.lastModified() != buffer.getLong() || source.length() != buffer.getLong())
+                    return false;
+            }
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private static void readHeader(ByteBuffer buffer, File file) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != magic)
+            throw new IOException(file + " is not a RemoteSet snapshot");
+        int fileVersion = buffer.getInt();
+        if (fileVersion != version)
+            throw new IOException(file + " has snapshot version " + fileVersion + ", not " + version);
+    }
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(charset);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Reads a length, or -1 for null, that must fit in the rest of the buffer.
+    static int readLength(ByteBuffer buffer, int minElementSize) throws IOException {
+        int length = buffer.getInt();
+        if (length < -1 || length > buffer.remaining() / minElementSize)
+            throw new IOException("Invalid length " + length + " at position " + (buffer.position() - 4));
+        return length;
+    }
+
+    static String readString(ByteBuffer buffer) throws IOException {
+        int length = readLength(buffer, 1);
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    static void writeInts(DataOutputStream out, int[] data) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(data.length);
+        for (int x : data)
+            out.writeInt(x);
+    }
+
+    static int[] readInts(ByteBuffer buffer) throws IOException {
+        int length = readLength(buffer, 4);
+        if (length < 0)
+            return null;
+        int[] data = new int[length];
+        for (int i = 0; i < length; i++)
+            data[i] = buffer.getInt();
+        return data;
+    }
+
+    static void writeIntArrays(DataOutputStream out, int[][] data) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(data.length);
+        for (int[] x : data)
+            writeInts(out, x);
+    }
+
+    static int[][] readIntArrays(ByteBuffer buffer) throws IOException {
+        int length = readLength(buffer, 4);
+        if (length < 0)
+            return null;
+        int[][] data = new int[length][];
+        for (int i = 0; i < length; i++)
+            data[i] = readInts(buffer);
+        return data;
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] data) throws IOException {
+        out.writeInt(data.length);
+        for (double x : data)
+            out.writeDouble(x);
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer) throws IOException {
+        int length = readLength(buffer, 8);
+        if (length < 0)
+            throw new IOException("Invalid length " + length + " at position " + (buffer.position() - 4));
+        double[] data = new double[length];
+        for (int i = 0; i < data.length; i++)
+            data[i] = buffer.getDouble();
+        return data;
+    }
+
+    static void writeIrSignal(DataOutputStream out, IrSignal irSignal) throws IOException {
+        out.writeBoolean(irSignal != null);
+        if (irSignal == null)
+            return;
+        out.writeDouble(irSignal.getFrequency());
+        out.writeDouble(irSignal.getDutyCycle());
+        writeDoubles(out, irSignal.getIntroSequence().toDoubles());
+        writeDoubles(out, irSignal.getRepeatSequence().toDoubles());
+        writeDoubles(out, irSignal.getEndingSequence().toDoubles());
+    }
+
+    static IrSignal readIrSignal(ByteBuffer buffer) throws IncompatibleArgumentException, IOException {
+        if (buffer.get() == 0)
+            return null;
+        double frequency = buffer.getDouble();
+        double dutyCycle = buffer.getDouble();
+        IrSequence intro = new IrSequence(readDoubles(buffer));
+        IrSequence repeat = new IrSequence(readDoubles(buffer));
+        IrSequence ending = new IrSequence(readDoubles(buffer));
+        return new IrSignal(frequency, dutyCycle, intro, repeat, ending);
+    }
+
+    static void writeParameters(DataOutputStream out, Map<String, Long> parameters) throws IOException {
+        if (parameters == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(parameters.size());
+        for (Map.Entry<String, Long> parameter : parameters.entrySet()) {
+            writeString(out, parameter.getKey());
+            out.writeLong(parameter.getValue());
+        }
+    }
+
+    static Map<String, Long> readParameters(ByteBuffer buffer) throws IOException {
+        int size = readLength(buffer, 12);
+        if (size < 0)
+            return null;
+        Map<String, Long> parameters = new LinkedHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            String name = readString(buffer);
+            parameters.put(name, buffer.getLong());
+        }
+        return parameters;
+    }
+
+    static void writeStrings(DataOutputStream out, Map<String, String> map) throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    static Map<String, String> readStrings(ByteBuffer buffer) throws IOException {
+        int size = readLength(buffer, 8);
+        if (size < 0)
+            return null;
+        Map<String, String> map = new LinkedHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            String key = readString(buffer);
+            map.put(key, readString(buffer));
+        }
+        return map;
+    }
+
+    private Snapshot() {
+    }
+}
@@ -0,0 +1,154 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.girr;
+
+import java.io.IOException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.sax.SAXSource;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * An XMLReader that does not parse anything, but generates its SAX events by calling {@link #write(XMLStreamWriter)}
+ * every time it is invoked. Wrapped in a SAXSource, it lets a Transformer consume a document without it being built first.
+ */
+abstract class StreamingXmlReader implements XMLReader {
+
+    private static final String namespacesFeature = "http://xml.org/sax/features/namespaces";
+    private static final String namespacePrefixesFeature = "http://xml.org/sax/features/namespace-prefixes";
+    private static final String lexicalHandlerProperty = "http://xml.org/sax/properties/lexical-handler";
+
+    private ContentHandler contentHandler = null;
+    private LexicalHandler lexicalHandler = null;
+    private DTDHandler dtdHandler = null;
+    private EntityResolver entityResolver = null;
+    private ErrorHandler errorHandler = null;
+
+    /**
+     * Writes the complete document, including writeStartDocument and writeEndDocument.
+     * @param writer
+     * @throws XMLStreamException
+     */
+    abstract void write(XMLStreamWriter writer) throws XMLStreamException;
+
+    /**
+     * @return A SAXSource reading from this reader; can be used any number of times.
+     */
+    SAXSource newSource() {
+        return new SAXSource(this, new InputSource());
+    }
+
+    @Override
+    public void parse(InputSource input) throws IOException, SAXException {
+        if (contentHandler == null)
+            throw new SAXException("No ContentHandler");
+        try {
+            write(new SaxStreamWriter(contentHandler, lexicalHandler));
+        } catch (XMLStreamException ex) {
+            if (ex.getNestedException() instanceof SAXException)
+                throw (SAXException) ex.getNestedException();
+            throw new SAXException(ex);
+        }
+    }
+
+    @Override
+    public void parse(String systemId) throws IOException, SAXException {
+        parse(new InputSource(systemId));
+    }
+
+    @Override
+    public boolean getFeature(String name) throws SAXNotRecognizedException {
+        switch (name) {
+            case namespacesFeature:
+                return true;
+            case namespacePrefixesFeature:
+                return false;
+            default:
+                throw new SAXNotRecognizedException(name);
+        }
+    }
+
+    @Override
+    public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (getFeature(name) != value)
+            throw new SAXNotSupportedException(name + " cannot be set to " + value);
+    }
+
+    @Override
+    public Object getProperty(String name) throws SAXNotRecognizedException {
+        if (name.equals(lexicalHandlerProperty))
+            return lexicalHandler;
+        throw new SAXNotRecognizedException(name);
+    }
+
+    @Override
+    public void setProperty(String name, Object value) throws SAXNotRecognizedException {
+        if (!name.equals(lexicalHandlerProperty))
+            throw new SAXNotRecognizedException(name);
+        lexicalHandler = (LexicalHandler) value;
+    }
+
+    @Override
+    public void setEntityResolver(EntityResolver resolver) {
+        entityResolver = resolver;
+    }
+
+    @Override
+    public EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    @Override
+    public void setDTDHandler(DTDHandler handler) {
+        dtdHandler = handler;
+    }
+
+    @Override
+    public DTDHandler getDTDHandler() {
+        return dtdHandler;
+    }
+
+    @Override
+    public void setContentHandler(ContentHandler handler) {
+        contentHandler = handler;
+    }
+
+    @Override
+    public ContentHandler getContentHandler() {
+        return contentHandler;
+    }
+
+    @Override
+    public void setErrorHandler(ErrorHandler handler) {
+        errorHandler = handler;
+    }
+
+    @Override
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+}
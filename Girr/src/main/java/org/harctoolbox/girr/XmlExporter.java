@@ -22,11 +22,16 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Map;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -84,7 +89,7 @@ public class XmlExporter {
     /**
      * Comment string pointing to Girr docu.
      */
-    private static final String girrComment = "This file is in the Girr (General IR Remote) format, see http://www.harctoolbox.org/Girr.html";
+    static final String girrComment = "This file is in the Girr (General IR Remote) format, see http://www.harctoolbox.org/Girr.html";
 
     private static final String defaultCharsetName = "UTF-8";
 
@@ -110,9 +115,10 @@ public class XmlExporter {
         document.appendChild(comment);
         document.appendChild(root);
         root.setAttribute("girrVersion", RemoteSet.girrVersion);
+        // Declare the namespace explicitly, making it the first attribute, as in RemoteSet.xmlExportDocument(XMLStreamWriter, ...).
+        root.setAttribute("xmlns", girrNamespace);
         if (createSchemaLocation) {
             root.setAttribute("xmlns:xsi", XmlExporter.w3cSchemaNamespace);
-            root.setAttribute("xmlns", girrNamespace);
             root.setAttribute("xsi:schemaLocation", girrSchemaLocationURL);
         }
         return document;
@@ -130,13 +136,54 @@ public class XmlExporter {
         }
         return doc;
     }
+    /**
+     * Compiles a stylesheet for use with {@link #printDOM(OutputStream, Templates, Map, boolean, String)}.
+     * The result is thread safe, and can be used for any number of exports.
+     *
+     * @param stylesheet XSLT stylesheet; is not modified.
+     * @param parameterNames Names of the parameters to be declared as global parameters of the stylesheet, may be null.
+     * @return compiled stylesheet
+     * @throws TransformerConfigurationException
+     */
+    public static Templates newTemplates(Document stylesheet, Collection<String> parameterNames) throws TransformerConfigurationException {
+        Document copy = (Document) stylesheet.cloneNode(true);
+        if (parameterNames != null)
+            for (String name : parameterNames) {
+                Element e = copy.createElementNS(xsltNamespace, "xsl:param");
+                e.setAttribute("name", name);
+                copy.getDocumentElement().insertBefore(e, copy.getDocumentElement().getFirstChild());
+            }
+        return TransformerFactory.newInstance().newTemplates(new DOMSource(copy));
+    }
+
+    /**
+     * Writes an element in the Girr namespace containing only text.
+     */
+    static void writeElement(XMLStreamWriter writer, String localName, String text) throws XMLStreamException {
+        writer.writeStartElement(girrNamespace, localName);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
     private final Document document;
+    private final Source source;
     /**
      *
      * @param doc
      */
     public XmlExporter(Document doc) {
         this.document = doc;
+        this.source = new DOMSource(doc);
+    }
+
+    /**
+     * Exporter reading its input from a Source that can be read several times,
+     * like the one from {@link RemoteSet#xmlExportSource(String, String, String, boolean, boolean, boolean, boolean, boolean)}.
+     * @param source
+     */
+    public XmlExporter(Source source) {
+        this.document = null;
+        this.source = source;
     }
     public XmlExporter(Element root, String stylesheetType, String stylesheetUrl, boolean createSchemaLocation) {
         this(createDocument(root, stylesheetType, stylesheetUrl, createSchemaLocation));
@@ -145,7 +192,8 @@ public class XmlExporter {
     public void printDOM(OutputStream ostr, Document stylesheet, Map<String, String>parameters,
             boolean binary, String charsetName) throws IOException {
         if (debug) {
-            XmlUtils.printDOM(new File("girr.girr"), this.document);
+            if (document != null)
+                XmlUtils.printDOM(new File("girr.girr"), this.document);
             XmlUtils.printDOM(new File("stylesheet.xsl"), stylesheet);
         }
         try {
@@ -156,6 +204,8 @@ public class XmlExporter {
 
                 tr.setOutputProperty(OutputKeys.METHOD, "xml");
                 tr.setOutputProperty(OutputKeys.ENCODING, charsetName);
+                // Implicit for a DOM source, not for a SAX source
+                tr.setOutputProperty(OutputKeys.STANDALONE, "no");
 
             } else {
                 if (parameters != null)
@@ -174,21 +224,7 @@ public class XmlExporter {
                     XmlUtils.printDOM(new File("stylesheet-params.xsl"), stylesheet);
                 tr = factory.newTransformer(new DOMSource(stylesheet));
             }
-            tr.setOutputProperty(OutputKeys.INDENT, "yes");
-            tr.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-            if (binary) {
-                DOMResult domResult = new DOMResult();
-                tr.transform(new DOMSource(document), domResult);
-                Document newDoc = (Document) domResult.getNode();
-                if (debug)
-                    XmlUtils.printDOM(new File("girr-binary.xml"), newDoc);
-                NodeList byteElements = newDoc.getDocumentElement().getElementsByTagName("byte");
-                for (int i = 0; i < byteElements.getLength(); i++) {
-                    int val = Integer.parseInt(byteElements.item(i).getTextContent());
-                    ostr.write(val);
-                }
-            } else
-                tr.transform(new DOMSource(document), new StreamResult(ostr));
+            transform(tr, ostr, binary);
             if (parameters != null && stylesheet != null) {
                 NodeList nl = stylesheet.getDocumentElement().getChildNodes();
                 // Must remove children in backward order not to invalidate nl, #139.
@@ -208,8 +244,53 @@ public class XmlExporter {
         }
     }
 
+    /**
+     * Transforms the document with a compiled stylesheet from {@link #newTemplates(Document, Collection)}.
+     * Several threads may use the same Templates simultaneously.
+     *
+     * @param ostr Output stream.
+     * @param templates Compiled stylesheet.
+     * @param parameters Values of the parameters of the stylesheet, may be null.
+     * @param binary If true, output the bytes of the byte elements of the result.
+     * @param charsetName Encoding of the output.
+     * @throws IOException
+     */
+    public void printDOM(OutputStream ostr, Templates templates, Map<String, ?> parameters,
+            boolean binary, String charsetName) throws IOException {
+        if (debug && document != null)
+            XmlUtils.printDOM(new File("girr.girr"), this.document);
+        try {
+            Transformer tr = templates.newTransformer();
+            if (parameters != null)
+                for (Map.Entry<String, ?> kvp : parameters.entrySet())
+                    tr.setParameter(kvp.getKey(), kvp.getValue());
+            tr.setOutputProperty(OutputKeys.ENCODING, charsetName);
+            transform(tr, ostr, binary);
+        } catch (TransformerException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void transform(Transformer tr, OutputStream ostr, boolean binary) throws TransformerException, IOException {
+        tr.setOutputProperty(OutputKeys.INDENT, "yes");
+        tr.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+        if (binary) {
+            DOMResult domResult = new DOMResult();
+            tr.transform(source, domResult);
+            Document newDoc = (Document) domResult.getNode();
+            if (debug)
+                XmlUtils.printDOM(new File("girr-binary.xml"), newDoc);
+            NodeList byteElements = newDoc.getDocumentElement().getElementsByTagName("byte");
+            for (int i = 0; i < byteElements.getLength(); i++) {
+                int val = Integer.parseInt(byteElements.item(i).getTextContent());
+                ostr.write(val);
+            }
+        } else
+            tr.transform(source, new StreamResult(ostr));
+    }
+
     public void printDOM(OutputStream ostr, String charsetName) throws IOException {
-        printDOM(ostr, null, null, false, charsetName);
+        printDOM(ostr, (Document) null, null, false, charsetName);
     }
 
     public void printDOM(File file, String charsetName) throws IOException  {
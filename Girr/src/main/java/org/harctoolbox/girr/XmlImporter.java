@@ -0,0 +1,206 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.girr;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.harctoolbox.IrpMaster.IrpUtils;
+
+/**
+ * Import of Girr documents with a StAX parser, in one pass, without building a DOM.
+ * The result is the same as from {@link RemoteSet#RemoteSet(org.w3c.dom.Document)}
+ * for documents conforming to the schema. The document is not validated, and XInclude is not supported.
+ *
+ * <p>In lazy mode, the forms (raw or CCF) of a command that can be computed from its master form
+ * are not read, but computed by the Command when first requested.
+ * This requires the master attribute to be present, and, for the parameters master,
+ * that the protocol is known to the IrpMaster set by {@link Command#setIrpMaster(org.harctoolbox.IrpMaster.IrpMaster)}.
+ */
+public class XmlImporter {
+
+    private static final String xincludeNamespace = "http://www.w3.org/2001/XInclude";
+
+    /**
+     * Receives the commands of a Girr document, one at a time.
+     */
+    public interface CommandVisitor {
+        /**
+         * Called for every command, in document order.
+         * @param remote meta data of the Remote containing the command.
+         * @param command
+         */
+        public void visit(Remote.MetaData remote, Command command);
+    }
+
+    /**
+     * Reads a RemoteSet from an InputStream.
+     *
+     * @param inputStream Input; not closed.
+     * @param lazy If true, do not read the forms of the commands that can be computed.
+     * @return RemoteSet
+     * @throws IOException
+     * @throws ParseException for malformed documents; the error offset is the line number.
+     */
+    public static RemoteSet parse(InputStream inputStream, boolean lazy) throws IOException, ParseException {
+        return parse(inputStream, lazy, null);
+    }
+
+    /**
+     * Reads a RemoteSet from a file.
+     *
+     * @param file Girr file.
+     * @param lazy If true, do not read the forms of the commands that can be computed.
+     * @return RemoteSet
+     * @throws IOException
+     * @throws ParseException for malformed documents; the error offset is the line number.
+     */
+    public static RemoteSet parse(File file, boolean lazy) throws IOException, ParseException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            return parse(inputStream, lazy);
+        }
+    }
+
+    /**
+     * Reads a Girr document, handing every command to the visitor, without storing it.
+     * The returned RemoteSet contains the meta data and the remotes, but no commands.
+     *
+     * @param inputStream Input; not closed.
+     * @param lazy If true, do not read the forms of the commands that can be computed.
+     * @param visitor Receives the commands. If null, the commands are stored in the RemoteSet.
+     * @return RemoteSet
+     * @throws IOException
+     * @throws ParseException for malformed documents; the error offset is the line number.
+     */
+    public static RemoteSet parse(InputStream inputStream, boolean lazy, CommandVisitor visitor) throws IOException, ParseException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+            while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // skip prolog
+            }
+            if (!reader.getLocalName().equals("remotes"))
+                throw new ParseException("Not a Girr file with root element \"remotes\".", reader.getLocation().getLineNumber());
+            return new RemoteSet(reader, lazy, visitor);
+        } catch (XMLStreamException ex) {
+            Location location = ex.getLocation();
+            throw new ParseException(ex.getMessage(), location != null ? location.getLineNumber() : (int) IrpUtils.invalid);
+        } finally {
+            if (reader != null)
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                }
+        }
+    }
+
+    /**
+     * Reads a Girr file, handing every command to the visitor, without storing it.
+     *
+     * @param file Girr file.
+     * @param lazy If true, do not read the forms of the commands that can be computed.
+     * @param visitor Receives the commands. If null, the commands are stored in the RemoteSet.
+     * @return RemoteSet with the meta data and the remotes.
+     * @throws IOException
+     * @throws ParseException for malformed documents; the error offset is the line number.
+     */
+    public static RemoteSet parse(File file, boolean lazy, CommandVisitor visitor) throws IOException, ParseException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            return parse(inputStream, lazy, visitor);
+        }
+    }
+
+    /**
+     * Like Element.getAttribute, returns the empty string for a missing attribute.
+     */
+    static String getAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value != null ? value : "";
+    }
+
+    /**
+     * Advances to the start tag of the next child element of the current element.
+     * @return false, positioned at the end tag of the current element, if there is none.
+     */
+    static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (xincludeNamespace.equals(reader.getNamespaceURI()))
+                        throw new XMLStreamException("XInclude not supported", reader.getLocation());
+                    return true;
+                case XMLStreamConstants.END_ELEMENT:
+                    return false;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Skips the current element, leaving the reader at its end tag.
+     */
+    static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    /**
+     * Like Element.getTextContent, returns the text of the current element and its descendants,
+     * leaving the reader at its end tag.
+     */
+    static String getTextContent(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder str = new StringBuilder(64);
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    str.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return str.toString();
+    }
+
+    private XmlImporter() {
+    }
+}
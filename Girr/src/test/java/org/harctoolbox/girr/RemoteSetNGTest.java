@@ -0,0 +1,76 @@
+package org.harctoolbox.girr;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class RemoteSetNGTest {
+
+    private static final String configFile = "../IrpMaster/src/main/config/IrpProtocols.ini";
+    private static final File[] testFiles = {
+        new File("test/testfiles/example.girr"),
+        new File("test/testfiles/sony_vlp_hw50es.girr")
+    };
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Command.setIrpMaster(configFile);
+    }
+
+    public RemoteSetNGTest() {
+    }
+
+    private static String serialize(Source source) throws TransformerException {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        StringWriter writer = new StringWriter();
+        transformer.transform(source, new StreamResult(writer));
+        return writer.toString();
+    }
+
+    // Attribute order and namespace declarations differ between the serializations of the DOM and the stream.
+    private static Document parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    /**
+     * Test of xmlExportSource method, of class RemoteSet: the streaming export equals the DOM export,
+     * for all combinations of generated forms, of lazily and fully imported files.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testXmlExportSource() throws Exception {
+        System.out.println("xmlExportSource");
+        for (File file : testFiles) {
+            for (int lazy = 0; lazy < 2; lazy++) {
+                for (int flags = 0; flags < 16; flags++) {
+                    boolean fatRaw = (flags & 1) != 0;
+                    boolean generateRaw = (flags & 2) != 0;
+                    boolean generateCcf = (flags & 4) != 0;
+                    boolean generateParameters = (flags & 8) != 0;
+                    // The DOM export stores the forms it generates, so the streaming export goes first.
+                    RemoteSet remoteSet = XmlImporter.parse(file, lazy != 0);
+                    String streamed = serialize(remoteSet.xmlExportSource("title", "xsl", "simplehtml.xsl",
+                            fatRaw, true, generateRaw, generateCcf, generateParameters));
+                    String dom = serialize(new DOMSource(remoteSet.xmlExportDocument("title", "xsl", "simplehtml.xsl",
+                            fatRaw, true, generateRaw, generateCcf, generateParameters)));
+                    assertTrue(parse(streamed).isEqualNode(parse(dom)),
+                            file + ", lazy = " + (lazy != 0) + ", flags = " + flags + ":\n" + streamed + "\n" + dom);
+                }
+            }
+        }
+    }
+}
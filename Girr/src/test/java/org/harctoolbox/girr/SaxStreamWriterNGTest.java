@@ -0,0 +1,40 @@
+package org.harctoolbox.girr;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class SaxStreamWriterNGTest {
+
+    public SaxStreamWriterNGTest() {
+    }
+
+    /**
+     * Test of writeEndDocument method, of class SaxStreamWriter, with an empty root element.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testWriteEndDocumentEmptyRoot() throws Exception {
+        System.out.println("writeEndDocument, empty root");
+        TransformerHandler handler = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+        DOMResult result = new DOMResult();
+        handler.setResult(result);
+        SaxStreamWriter writer = new SaxStreamWriter(handler, handler);
+        writer.writeStartDocument();
+        writer.writeEmptyElement("", "remotes", XmlExporter.girrNamespace);
+        writer.writeDefaultNamespace(XmlExporter.girrNamespace);
+        writer.writeAttribute("girrVersion", "1.0");
+        writer.writeEndDocument();
+
+        Element root = ((Document) result.getNode()).getDocumentElement();
+        assertEquals(root.getLocalName(), "remotes");
+        assertEquals(root.getNamespaceURI(), XmlExporter.girrNamespace);
+        assertEquals(root.getAttribute("girrVersion"), "1.0");
+        assertEquals(root.getChildNodes().getLength(), 0);
+    }
+}
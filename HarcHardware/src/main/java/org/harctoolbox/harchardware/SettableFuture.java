@@ -0,0 +1,118 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.harchardware;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future that is completed explicitly by set or setException, for example by a thread reading the replies of a device.
+ * Only the first of set, setException, and cancel has any effect.
+ * @param <V> Type of the result.
+ */
+public class SettableFuture<V> implements Future<V> {
+
+    private V value = null;
+    private Throwable exception = null;
+    private boolean done = false;
+    private boolean cancelled = false;
+
+    /**
+     * Completes the Future with a value.
+     * @param value
+     * @return true if the Future was completed by this call.
+     */
+    public synchronized boolean set(V value) {
+        if (done)
+            return false;
+        this.value = value;
+        done = true;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Completes the Future with an exception, thrown by get wrapped in an ExecutionException.
+     * @param exception
+     * @return true if the Future was completed by this call.
+     */
+    public synchronized boolean setException(Throwable exception) {
+        if (done)
+            return false;
+        this.exception = exception;
+        done = true;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Cancels the Future, if not already completed. There is no computation to interrupt.
+     * @param mayInterruptIfRunning ignored
+     * @return true if the Future was cancelled by this call.
+     */
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+        if (done)
+            return false;
+        cancelled = true;
+        done = true;
+        notifyAll();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (!done)
+            wait();
+        return result();
+    }
+
+    @Override
+    public synchronized V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    // Call only when holding the lock, and done.
+    private V result() throws ExecutionException {
+        if (cancelled)
+            throw new CancellationException();
+        if (exception != null)
+            throw new ExecutionException(exception);
+        return value;
+    }
+}
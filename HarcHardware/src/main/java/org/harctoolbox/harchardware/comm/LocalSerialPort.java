@@ -100,6 +100,7 @@ public abstract class LocalSerialPort implements IHarcHardware {
     private final Parity parity;
     private final FlowControl flowControl;
     private int timeout;
+    private final boolean attached;
     protected boolean verbose;
 
     public LocalSerialPort(String portName, int baud, int length, int stopBits, Parity parity, FlowControl flowControl, int timeout) throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
@@ -111,6 +112,29 @@ public abstract class LocalSerialPort implements IHarcHardware {
         this.parity = parity;
         this.flowControl = flowControl;
         this.timeout = timeout;
+        this.attached = false;
+    }
+
+    /**
+     * Constructs a port on already connected streams, like a pipe or a test double, instead of a device.
+     * open() and close() do not touch any device, and the timeout is not supported.
+     *
+     * @param portName name, for reporting only.
+     * @param inStream
+     * @param outStream
+     */
+    protected LocalSerialPort(String portName, InputStream inStream, OutputStream outStream) {
+        this.verbose = false;
+        this.portName = portName;
+        this.baud = 0;
+        this.length = SerialPort.DATABITS_8;
+        this.stopBits = SerialPort.STOPBITS_1;
+        this.parity = Parity.NONE;
+        this.flowControl = FlowControl.NONE;
+        this.timeout = 0;
+        this.inStream = inStream;
+        this.outStream = outStream;
+        this.attached = true;
     }
 
 
@@ -145,6 +169,9 @@ public abstract class LocalSerialPort implements IHarcHardware {
      */
     @Override
     public void open() throws HarcHardwareException, IOException {
+        if (attached)
+            return;
+
         boolean success = false;
         try {
             lowLevelOpen();
@@ -181,7 +208,7 @@ public abstract class LocalSerialPort implements IHarcHardware {
 
     @Override
     public boolean isValid() {
-        return commPort != null;
+        return attached ? inStream != null : commPort != null;
     }
 
     @Override
@@ -191,6 +218,8 @@ public abstract class LocalSerialPort implements IHarcHardware {
     }
 
     private void setTimeout() throws IOException {
+        if (attached)
+            return;
         if (timeout > 0)
             try {
                 commPort.enableReceiveTimeout(timeout);
@@ -220,6 +249,16 @@ public abstract class LocalSerialPort implements IHarcHardware {
     public void close() {
         if (!isValid())
             return;
+        if (attached) {
+            try {
+                inStream.close();
+                outStream.close();
+            } catch (IOException ex) {
+            } finally {
+                inStream = null;
+            }
+            return;
+        }
         try {
             inStream.close();
             outStream.close();
@@ -21,6 +21,9 @@ import gnu.io.NoSuchPortException;
 import gnu.io.PortInUseException;
 import gnu.io.UnsupportedCommOperationException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import org.harctoolbox.harchardware.Utils;
 import org.harctoolbox.harchardware.misc.SonySerialCommand;
@@ -64,6 +67,16 @@ public final class LocalSerialPortRaw extends LocalSerialPort implements IBytesC
         super(portName, baud, length, stopBits, parity, flowControl, timeout);
     }
 
+    /**
+     * Constructs a port on already connected streams, for example a test double emulating a device.
+     * @param portName name, for reporting only.
+     * @param inStream
+     * @param outStream
+     */
+    public LocalSerialPortRaw(String portName, InputStream inStream, OutputStream outStream) {
+        super(portName, inStream, outStream);
+    }
+
     @Override
     public byte[] readBytes(int size) throws IOException {
         return Utils.readBytes(inStream, size);
@@ -73,6 +86,23 @@ public final class LocalSerialPortRaw extends LocalSerialPort implements IBytesC
         return inStream.read(buf);
     }
 
+    /**
+     * Reads what is available, at most buffer.remaining() bytes, into the buffer, advancing its position.
+     * Blocks at most the timeout for the first byte.
+     *
+     * @param buffer ByteBuffer with an accessible array.
+     * @return number of bytes read, 0 on timeout, -1 at end of stream.
+     * @throws IOException
+     */
+    public int readBytes(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining())
+            return 0;
+        int bytesRead = inStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (bytesRead > 0)
+            buffer.position(buffer.position() + bytesRead);
+        return bytesRead;
+    }
+
     public int readByte() throws IOException {
         return inStream.read();
     }
@@ -86,6 +116,16 @@ public final class LocalSerialPortRaw extends LocalSerialPort implements IBytesC
         outStream.write(data, offset, length);
     }
 
+    /**
+     * Sends the remaining bytes of the buffer, advancing its position to its limit.
+     * @param buffer ByteBuffer with an accessible array.
+     * @throws IOException
+     */
+    public void sendBytes(ByteBuffer buffer) throws IOException {
+        outStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.position(buffer.limit());
+    }
+
     public void sendByte(byte b) throws IOException {
         outStream.write(b);
     }
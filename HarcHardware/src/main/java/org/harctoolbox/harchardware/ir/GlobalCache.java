@@ -19,6 +19,7 @@ package org.harctoolbox.harchardware.ir;
 
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonObject;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
@@ -29,8 +30,10 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Future;
 import org.harctoolbox.IrpMaster.DecodeIR;
 import org.harctoolbox.IrpMaster.IrSignal;
 import org.harctoolbox.IrpMaster.IrpMasterException;
@@ -40,6 +43,7 @@ import org.harctoolbox.IrpMaster.Pronto;
 import org.harctoolbox.harchardware.HarcHardwareException;
 import org.harctoolbox.harchardware.ICommandLineDevice;
 import org.harctoolbox.harchardware.IHarcHardware;
+import org.harctoolbox.harchardware.SettableFuture;
 import org.harctoolbox.harchardware.Utils;
 import org.harctoolbox.harchardware.beacon.AmxBeaconListener;
 import org.harctoolbox.harchardware.comm.IBytesCommand;
@@ -470,16 +474,44 @@ public class GlobalCache implements IHarcHardware, IRawIrSender, IIrSenderStop,
      */
     private int sendIndex;
 
-    public GlobalCache(String hostIp, boolean verbose, int timeout, boolean compressed) throws UnknownHostException, IOException {
+    /**
+     * Persistent connection for asynchronous sendir commands, and the thread reading its replies.
+     * Guarded by pendingCompletions.
+     */
+    private TcpSocketChannel asyncChannel = null;
+    private CompletionReader completionReader = null;
+
+    /**
+     * Asynchronous sendir commands not yet replied to, by send index, in sending order.
+     */
+    private final Map<Integer, IrCompletion> pendingCompletions = new LinkedHashMap<>(16);
+
+    private final int port;
+
+    /**
+     * @param hostIp
+     * @param port TCP port of the device, normally 4998.
+     * @param verbose
+     * @param timeout
+     * @param compressed
+     * @throws UnknownHostException
+     * @throws IOException
+     */
+    public GlobalCache(String hostIp, int port, boolean verbose, int timeout, boolean compressed) throws UnknownHostException, IOException {
         //globalCacheModel = GlobalCacheModel.newGlobalCacheModel(model);
         this.timeout = timeout;
         this.hostIp = (hostIp != null) ? hostIp : defaultGlobalCacheIP;
+        this.port = port;
         inetAddress = InetAddress.getByName(hostIp);
         this.verbose = verbose;
         this.compressed = compressed;
         open();
     }
 
+    public GlobalCache(String hostIp, boolean verbose, int timeout, boolean compressed) throws UnknownHostException, IOException {
+        this(hostIp, gcPort, verbose, timeout, compressed);
+    }
+
     public GlobalCache(String hostIp, boolean verbose, int timeout) throws UnknownHostException, IOException {
         this(hostIp, verbose, timeout, false);
     }
@@ -577,7 +609,7 @@ public class GlobalCache implements IHarcHardware, IRawIrSender, IIrSenderStop,
 
     @Override
     public final void open() throws UnknownHostException, IOException {
-        tcpSocketChannel = new TcpSocketChannel(this.hostIp, gcPort, timeout,
+        tcpSocketChannel = new TcpSocketChannel(this.hostIp, port, timeout,
                 verbose, TcpSocketPort.ConnectionMode.keepAlive);
         getdevicesResult = sendCommand("getdevices", -1);
 
@@ -596,6 +628,9 @@ public class GlobalCache implements IHarcHardware, IRawIrSender, IIrSenderStop,
 
     @Override
     public synchronized void close() throws IOException {
+        synchronized (pendingCompletions) {
+            closeAsync(new IOException("GlobalCache " + hostIp + " closed"));
+        }
         if (tcpSocketChannel != null)
             tcpSocketChannel.close(true);
         getdevicesResult = null;
@@ -690,10 +725,14 @@ public class GlobalCache implements IHarcHardware, IRawIrSender, IIrSenderStop,
         return result.startsWith("completeir");
     }
 
-    public String sendIrString(IrSignal code, int count, int module, int connector) throws NoSuchTransmitterException {
-        String cmd = sendIrString(code, count, module, connector, sendIndex, compressed);
+    private synchronized int nextSendIndex() {
+        int index = sendIndex;
         sendIndex = (sendIndex + 1) % 65536;
-        return cmd;
+        return index;
+    }
+
+    public String sendIrString(IrSignal code, int count, int module, int connector) throws NoSuchTransmitterException {
+        return sendIrString(code, count, module, connector, nextSendIndex(), compressed);
     }
 
     public boolean sendIr(IrSignal code, int count, int module, int connector) throws NoSuchTransmitterException, IOException {
@@ -725,6 +764,107 @@ public class GlobalCache implements IHarcHardware, IRawIrSender, IIrSenderStop,
         return sendIr(Pronto.ccfSignal(ccf), count, module, connector);
     }
 
+    /**
+     * Sends an IrSignal without waiting for its completion.
+     * The commands are sent on a persistent connection of their own, and the replies are matched to the commands
+     * by their send index, so that commands to different connectors are executed simultaneously.
+     * A command to a connector still busy with a previous command is rejected by the device;
+     * its Future then yields false.
+     *
+     * @param code IrSignal to send.
+     * @param count Number of times to send signal.
+     * @param module
+     * @param connector
+     * @return Future yielding true when the device has replied completeir, false on busyIR.
+     * Its get throws ExecutionException if the device reports an error, or the connection is lost.
+     * Cancelling it only stops waiting for the reply; the signal may still be sent.
+     * @throws NoSuchTransmitterException
+     * @throws IOException
+     */
+    public Future<Boolean> sendIrAsync(IrSignal code, int count, int module, int connector) throws NoSuchTransmitterException, IOException {
+        if (!validConnector(connector))
+            throw new NoSuchTransmitterException(Integer.toString(connector));
+        int index = nextSendIndex();
+        String cmd = sendIrString(code, count, module, connector, index, compressed);
+        IrCompletion completion = new IrCompletion(index, transmitterAddress(module, connector));
+        synchronized (pendingCompletions) {
+            if (asyncChannel == null)
+                openAsync();
+            pendingCompletions.put(index, completion);
+            if (verbose)
+                System.err.println("Sending command " + cmd + " to GlobalCache (" + hostIp + ")");
+            try {
+                asyncChannel.sendString(cmd + '\r');
+            } catch (IOException ex) {
+                closeAsync(ex);
+                throw ex;
+            }
+        }
+        return completion;
+    }
+
+    public Future<Boolean> sendIrAsync(IrSignal code, int count, Transmitter transmitter) throws NoSuchTransmitterException, IOException {
+        GlobalCacheIrTransmitter gct = newGlobalCacheIrTransmitter(transmitter);
+        return sendIrAsync(code, count, gct.module, gct.port);
+    }
+
+    // Call only when holding the lock on pendingCompletions.
+    private void openAsync() throws IOException {
+        TcpSocketChannel channel = new TcpSocketChannel(inetAddress, port, timeout, verbose, TcpSocketPort.ConnectionMode.keepAlive);
+        channel.connect();
+        channel.setTimeout(0); // the reader waits for replies indefinitely
+        asyncChannel = channel;
+        completionReader = new CompletionReader(channel);
+        completionReader.start();
+    }
+
+    // Call only when holding the lock on pendingCompletions.
+    private void closeAsync(Exception reason) {
+        for (IrCompletion completion : pendingCompletions.values())
+            completion.setException(reason);
+        pendingCompletions.clear();
+        if (asyncChannel != null) {
+            try {
+                asyncChannel.close(true);
+            } catch (IOException ex) {
+            }
+            asyncChannel = null;
+            completionReader = null;
+        }
+    }
+
+    private void processReply(String line) {
+        if (verbose)
+            System.err.println("<" + line);
+        String[] parts = line.split(",");
+        synchronized (pendingCompletions) {
+            if ((parts[0].equals("completeir") || parts[0].equalsIgnoreCase("busyIR")) && parts.length >= 3) {
+                try {
+                    IrCompletion completion = pendingCompletions.remove(Integer.parseInt(parts[2].trim()));
+                    if (completion != null)
+                        completion.set(parts[0].equals("completeir"));
+                } catch (NumberFormatException ex) {
+                    System.err.println("Unparsable reply from GlobalCache: " + line);
+                }
+            } else if (line.startsWith("ERR") || line.startsWith("unknowncommand")) {
+                // Errors carry no send index; attribute it to the oldest command to the connector, if given.
+                Iterator<IrCompletion> iterator = pendingCompletions.values().iterator();
+                IrCompletion victim = null;
+                while (iterator.hasNext() && victim == null) {
+                    IrCompletion completion = iterator.next();
+                    if (line.contains(completion.address))
+                        victim = completion;
+                }
+                if (victim == null && !pendingCompletions.isEmpty())
+                    victim = pendingCompletions.values().iterator().next();
+                if (victim != null) {
+                    pendingCompletions.values().remove(victim);
+                    victim.setException(new IOException("GlobalCache " + hostIp + " replied " + line));
+                }
+            }
+        }
+    }
+
     public boolean sendCcf(String ccfString, int count, Transmitter transmitter) throws IOException, IrpMasterException, NoSuchTransmitterException {
         GlobalCacheIrTransmitter gctransmitter = newGlobalCacheIrTransmitter(transmitter);
         return sendIr(ccfString, count, gctransmitter.module, gctransmitter.port);
@@ -960,6 +1100,61 @@ public class GlobalCache implements IHarcHardware, IRawIrSender, IIrSenderStop,
     public void setEndingTimeout(int integer) {
     }
 
+    /**
+     * Future of an asynchronous sendir, completed by the CompletionReader.
+     */
+    private class IrCompletion extends SettableFuture<Boolean> {
+        private final int index;
+        private final String address;
+
+        IrCompletion(int index, String address) {
+            this.index = index;
+            this.address = address;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning))
+                return false;
+            synchronized (pendingCompletions) {
+                if (pendingCompletions.get(index) == this)
+                    pendingCompletions.remove(index);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the replies on the asynchronous connection, until it is closed.
+     */
+    private class CompletionReader extends Thread {
+        private final TcpSocketChannel channel;
+        private final BufferedReader in;
+
+        CompletionReader(TcpSocketChannel channel) {
+            super("GlobalCache " + hostIp + " completion reader");
+            this.channel = channel;
+            this.in = channel.getBufferedIn();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null)
+                    if (!line.isEmpty())
+                        processReply(line);
+                throw new IOException("Connection closed by GlobalCache " + hostIp);
+            } catch (IOException | RuntimeException ex) {
+                synchronized (pendingCompletions) {
+                    if (asyncChannel == channel)
+                        closeAsync(ex);
+                }
+            }
+        }
+    }
+
     public static class GlobalCacheIrTransmitter extends Transmitter {
         private int module; // 1,2,4,5 (on present models)
         private int port; // 1,2,3
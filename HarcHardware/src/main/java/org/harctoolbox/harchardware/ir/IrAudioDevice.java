@@ -21,8 +21,7 @@ import java.io.IOException;
 import javax.sound.sampled.LineUnavailableException;
 import org.harctoolbox.IrpMaster.IrSignal;
 import org.harctoolbox.IrpMaster.IrpMasterException;
-import org.harctoolbox.IrpMaster.ModulatedIrSequence;
-import org.harctoolbox.IrpMaster.Wave;
+import org.harctoolbox.IrpMaster.WaveGenerator;
 import org.harctoolbox.harchardware.IHarcHardware;
 
 /**
@@ -75,10 +74,10 @@ public class IrAudioDevice implements IHarcHardware, IRawIrSender {
 
     @Override
     public boolean sendIr(IrSignal irSignal, int count, Transmitter transmitter) throws NoSuchTransmitterException, IrpMasterException, IOException {
-        ModulatedIrSequence seq = irSignal.toModulatedIrSequence(count);
-        Wave wave = new Wave(seq, sampleFrequency, sampleSize, channels, bigEndian, omitTail, square, divide);
+        WaveGenerator generator = new WaveGenerator(irSignal, count,
+                WaveGenerator.newAudioFormat(sampleFrequency, sampleSize, channels, bigEndian), omitTail, square, divide);
         try {
-            wave.play();
+            generator.play();
             if (verbose)
                 System.err.println("Sent IrSignal @ " + sampleFrequency + "Hz, " + sampleSize + "bits to audio device");
             return true;
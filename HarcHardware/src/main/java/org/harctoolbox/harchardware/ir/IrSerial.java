@@ -43,6 +43,7 @@ public abstract class IrSerial<T extends LocalSerialPort> implements IHarcHardwa
     private LocalSerialPort.Parity parity;
     private LocalSerialPort.FlowControl flowControl;
     private final Class<T> clazz;
+    private final T attachedPort;
 
     public IrSerial(Class<T> clazz, String portName, int baudRate, int dataSize, int stopBits, LocalSerialPort.Parity parity, LocalSerialPort.FlowControl flowControl, int timeout, boolean verbose)
             throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
@@ -55,9 +56,25 @@ public abstract class IrSerial<T extends LocalSerialPort> implements IHarcHardwa
         this.flowControl = flowControl;
         this.timeout = timeout;
         this.verbose = verbose;
+        this.attachedPort = null;
         //open();
     }
 
+    /**
+     * Uses the port given, instead of constructing one when opened.
+     * @param serialPort
+     * @param timeout
+     * @param verbose
+     */
+    @SuppressWarnings("unchecked")
+    public IrSerial(T serialPort, int timeout, boolean verbose) {
+        this.clazz = (Class<T>) serialPort.getClass();
+        this.portName = serialPort.getPortName();
+        this.timeout = timeout;
+        this.verbose = verbose;
+        this.attachedPort = serialPort;
+    }
+
     /**
      * @param baudRate the baudRate to set
      */
@@ -150,6 +167,11 @@ public abstract class IrSerial<T extends LocalSerialPort> implements IHarcHardwa
     @Override
     @SuppressWarnings("unchecked")
     public void open() throws HarcHardwareException, IOException {
+        if (attachedPort != null) {
+            serialPort = attachedPort;
+            serialPort.open();
+            return;
+        }
         try {
             Constructor<T> constructor =  clazz.getConstructor(String.class, int.class, int.class, int.class,
                     LocalSerialPort.Parity.class, LocalSerialPort.FlowControl.class, int.class, boolean.class);
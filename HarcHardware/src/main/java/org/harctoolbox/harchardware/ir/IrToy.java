@@ -21,7 +21,7 @@ import gnu.io.NoSuchPortException;
 import gnu.io.PortInUseException;
 import gnu.io.UnsupportedCommOperationException;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
 import org.harctoolbox.IrpMaster.IrSequence;
 import org.harctoolbox.IrpMaster.IrSignal;
@@ -30,11 +30,13 @@ import org.harctoolbox.IrpMaster.IrpUtils;
 import org.harctoolbox.IrpMaster.ModulatedIrSequence;
 import org.harctoolbox.IrpMaster.Pronto;
 import org.harctoolbox.harchardware.HarcHardwareException;
+import org.harctoolbox.harchardware.TimeoutException;
 import org.harctoolbox.harchardware.comm.LocalSerialPort;
 import org.harctoolbox.harchardware.comm.LocalSerialPortRaw;
 
 /**
  * This class contains a driver for Dangerous Prototype's IrToy.
+ * Samples are received, and signals are encoded for transmission, in ByteBuffers that are reused between calls.
  * @see <a href="http://www.dangerousprototypes.com/docs/USB_IR_Toy:_Sampling_mode">http://www.dangerousprototypes.com/docs/USB_IR_Toy:_Sampling_mode</a>
  *
  */
@@ -96,6 +98,7 @@ public final class IrToy extends IrSerial<LocalSerialPortRaw> implements IRawIrS
     private final static int lengthProtocolVersionString = 3;
     private final static String expectedProtocolVersion = "S01";
     private final static int emptyBufferSize = 62;
+    private final static int maxReplyLength = 8;
 
     private final static int powerPin = 5;
     private final static int receivePin = 3;
@@ -150,6 +153,9 @@ public final class IrToy extends IrSerial<LocalSerialPortRaw> implements IRawIrS
     private int captureMaxSize = defaultCaptureMaxSize;
     private int IOdirections = -1;
     private int IOdata = 0;
+    private ByteBuffer receiveBuffer = null;
+    private ByteBuffer transmitBuffer = null;
+    private final ByteBuffer replyBuffer = ByteBuffer.allocate(maxReplyLength);
 
     public IrToy() throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
         this(defaultPortName, defaultBaudRate, defaultFlowControl, defaultBeginTimeout, defaultCaptureMaxSize, false);
@@ -180,6 +186,17 @@ public final class IrToy extends IrSerial<LocalSerialPortRaw> implements IRawIrS
         this.captureMaxSize = maxLearnLength;
     }
 
+    /**
+     * Uses the port given, typically one on already connected streams.
+     * @param serialPort
+     * @param captureMaxSize
+     * @param verbose
+     */
+    public IrToy(LocalSerialPortRaw serialPort, int captureMaxSize, boolean verbose) {
+        super(serialPort, defaultBeginTimeout, verbose);
+        this.captureMaxSize = captureMaxSize;
+    }
+
     private void goSamplingMode() throws IOException, HarcHardwareException {
         send(cmdSamplingMode);
         try {
@@ -281,47 +298,89 @@ public final class IrToy extends IrSerial<LocalSerialPortRaw> implements IRawIrS
         //serialPort.flush();
     }
 
-    private byte[] toByteArray(int[] data) {
-        byte[] buf = new byte[2*data.length];
-        for (int i = 0; i < data.length; i++) {
-            int periods = (int)Math.round(data[i]/period);
-            buf[2*i] = (byte)(periods / 256);
-            buf[2*i+1] = (byte) (periods % 256);
+    /**
+     * Encodes the signal, as periods, into the transmit buffer, the repeat sequence only once;
+     * further repetitions are copied. The last gap is replaced by the end of data marker.
+     * On return, the buffer is ready for sending.
+     */
+    private void encode(IrSignal code, int count) throws IncompatibleArgumentException {
+        int repetitions = code.repeatsPerCountSemantic(count);
+        IrSequence repeat = code.getRepeatSequence();
+        int length = code.getIntroLength() + repetitions * repeat.getLength() + code.getEndingLength();
+        if (length == 0)
+            throw new IncompatibleArgumentException("IrToy: cannot send an empty signal");
+        if (transmitBuffer == null || transmitBuffer.capacity() < 2 * length)
+            transmitBuffer = ByteBuffer.allocate(2 * length);
+
+        transmitBuffer.clear();
+        encode(code.getIntroSequence());
+        if (repetitions > 0) {
+            int repeatStart = transmitBuffer.position();
+            encode(repeat);
+            for (int i = 1; i < repetitions; i++)
+                transmitBuffer.put(transmitBuffer.array(), repeatStart, 2 * repeat.getLength());
         }
+        encode(code.getEndingSequence());
         // REPLACE last gap by 0xFFFF
-        buf[2*data.length-2] = endOfData;
-        buf[2*data.length-1] = endOfData;
-        return buf;
+        transmitBuffer.put(transmitBuffer.position() - 2, endOfData);
+        transmitBuffer.put(transmitBuffer.position() - 1, endOfData);
+        transmitBuffer.flip();
+    }
+
+    private void encode(IrSequence irSequence) {
+        for (int i = 0; i < irSequence.getLength(); i++)
+            transmitBuffer.putShort((short) Math.round(irSequence.iget(i) / period));
+    }
+
+    private int maxSamples() {
+        return (int) (captureMaxSize * 1000L / period) + 2;
+    }
+
+    private static int sample(ByteBuffer buffer, int index) {
+        return buffer.getShort(2 * index) & 0xffff;
+    }
+
+    private static int duration(int sample) {
+        return (int) Math.round(sample * period);
     }
 
     private int[] recv() throws IOException  {
-        int[] result = null;
+        int capacity = 2 * maxSamples();
+        if (receiveBuffer == null || receiveBuffer.capacity() < capacity)
+            receiveBuffer = ByteBuffer.allocate(capacity);
+        receiveBuffer.clear();
+
+        int samples = 0;
         try {
-            ArrayList<Integer> array = new ArrayList<>(16);
             stopCaptureRequest = false;
             long maxLearnLengthMicroSeconds = captureMaxSize * 1000L;
             long sum = 0;
+            boolean complete = false;
             setPin(receivePin, true);
-            while (!stopCaptureRequest && sum <= maxLearnLengthMicroSeconds) { // if leaving here, reset is needed.
-                int val = read2Bytes(); // throws TimeoutException
-                int ms = (int) Math.round(val * period);
-                array.add(ms);
-                sum += ms;
-                if (val == 0xffff)
-                    // Only way for timeout, 1.4 seconds. Too long for most use cases ... :-\
+            while (!stopCaptureRequest && !complete) { // if leaving here, reset is needed.
+                int bytesRead = serialPort.readBytes(receiveBuffer);
+                if (bytesRead == 0)
+                    throw new TimeoutException("Timeout in IrToy capture");
+                if (bytesRead < 0)
+                    throw new IOException("IrToy: end of stream");
+                while (!complete && 2 * (samples + 1) <= receiveBuffer.position()) {
+                    int val = sample(receiveBuffer, samples);
+                    samples++;
+                    sum += duration(val);
+                    // 0xffff is the only way for timeout, 1.4 seconds. Too long for most use cases ... :-\
+                    complete = val == 0xffff || sum > maxLearnLengthMicroSeconds;
+                }
+                if (!receiveBuffer.hasRemaining())
                     break;
             }
-            if (stopCaptureRequest) {
-                setPin(receivePin, false);
+            if (stopCaptureRequest)
                 return null;
-            }
-            result = new int[array.size()];
-            for (int i = 0; i < array.size(); i++) {
-                result[i] = array.get(i);
-            }
         } finally {
             setPin(receivePin, false);
         }
+        int[] result = new int[samples];
+        for (int i = 0; i < samples; i++)
+            result[i] = duration(sample(receiveBuffer, i));
         return result;
     }
 
@@ -375,62 +434,70 @@ public final class IrToy extends IrSerial<LocalSerialPortRaw> implements IRawIrS
         return stopCapture();
     }
 
-    private boolean transmit(int[] data, double frequency) throws IOException, HarcHardwareException {
+    /**
+     * Sends the content of the transmit buffer times times, as separate transmissions.
+     */
+    private boolean transmit(double frequency, int times) throws IOException, HarcHardwareException {
         if (frequency > 0)
             setFrequency(frequency);
-        return transmit(data);
-    }
-
-    private boolean transmit(int[] data) throws IOException, HarcHardwareException {
         reset(1);
         goSamplingMode();
         setupSendingModes();
         setPin(sendingPin, true);
-        byte[] buf = toByteArray(data);
+        boolean success = true;
+        try {
+            for (int i = 0; i < times && success; i++)
+                success = transmit();
+        } finally {
+            setPin(sendingPin, false);
+        }
+        return success;
+    }
+
+    private boolean transmit() throws IOException {
+        int length = transmitBuffer.limit();
+        transmitBuffer.rewind();
         send(cmdTransmit);
         boolean succcess = true;
 
-        try {
-            if (transmitHandshakeEnabled) {
-                int bytesSent = 0;
-                while (bytesSent < buf.length) {
-                    int noBytes = readByte(); // number of bytes free in buffer, the number we should send
-                    if (noBytes != emptyBufferSize)
-                        continue;
-                    int toSend = Math.min(noBytes, buf.length - bytesSent);
-                    send(buf, bytesSent, toSend);
-                    bytesSent += toSend;
-                }
-            }
-            int noBytes = readByte();
-            if (noBytes != emptyBufferSize) {
-                System.err.println("got " + noBytes + " should: " + emptyBufferSize);
-                succcess = false;
+        if (transmitHandshakeEnabled) {
+            while (transmitBuffer.hasRemaining()) {
+                int noBytes = readByte(); // number of bytes free in buffer, the number we should send
+                if (noBytes != emptyBufferSize)
+                    continue;
+                transmitBuffer.limit(Math.min(transmitBuffer.position() + noBytes, length));
+                serialPort.sendBytes(transmitBuffer);
+                transmitBuffer.limit(length);
             }
+        } else
+            serialPort.sendBytes(transmitBuffer);
 
-            if (succcess && transmitByteCountReportEnabled) {
-                int token = readByte();
-                if (token == transmitByteCountToken) { // 't'
-                    int bytesSent = read2Bytes();
-                    if (bytesSent != data.length * 2) {
-                        System.err.println("sent " + bytesSent + " should: " + (data.length * 2));
-                        succcess = false;
-                    }
-                } else {
-                    System.err.println("did not get t but " + token);
+        int noBytes = readByte();
+        if (noBytes != emptyBufferSize) {
+            System.err.println("got " + noBytes + " should: " + emptyBufferSize);
+            succcess = false;
+        }
+
+        if (succcess && transmitByteCountReportEnabled) {
+            int token = readByte();
+            if (token == transmitByteCountToken) { // 't'
+                int bytesSent = read2Bytes();
+                if (bytesSent != length) {
+                    System.err.println("sent " + bytesSent + " should: " + length);
                     succcess = false;
                 }
+            } else {
+                System.err.println("did not get t but " + token);
+                succcess = false;
             }
+        }
 
-            if (succcess && transmitNotifyEnabled) {
-                int token = readByte();
-                if (token != transmitCompleteSuccess) {
-                    System.err.println("Status: " + token);
-                    succcess = false;
-                }
+        if (succcess && transmitNotifyEnabled) {
+            int token = readByte();
+            if (token != transmitCompleteSuccess) {
+                System.err.println("Status: " + token);
+                succcess = false;
             }
-        } finally {
-            setPin(sendingPin, false);
         }
         return succcess;
     }
@@ -439,19 +506,30 @@ public final class IrToy extends IrSerial<LocalSerialPortRaw> implements IRawIrS
         return b >= 0 ? b : b + 256;
     }
 
+    // Reads exactly length bytes into the reply buffer, from its start.
+    private ByteBuffer readReply(int length) throws IOException {
+        replyBuffer.clear();
+        replyBuffer.limit(length);
+        while (replyBuffer.hasRemaining()) {
+            int bytesRead = serialPort.readBytes(replyBuffer);
+            if (bytesRead == 0)
+                throw new TimeoutException("Timeout in readBytes");
+            if (bytesRead < 0)
+                throw new IOException("IrToy: end of stream");
+        }
+        return replyBuffer;
+    }
+
     private String readString(int length) throws IOException {
-        byte[] buf = serialPort.readBytes(length);
-        return new String(buf, 0, length, IrpUtils.dumbCharset);
+        return new String(readReply(length).array(), 0, length, IrpUtils.dumbCharset);
     }
 
     private int readByte() throws IOException {
-        byte[] a = serialPort.readBytes(1);
-        return a.length > 0 ? byte2unsignedInt(a[0]) : -1;
+        return byte2unsignedInt(readReply(1).get(0));
     }
 
     private int read2Bytes() throws IOException {
-        byte[] a = serialPort.readBytes(2);
-        return a.length < 2 ? -1 : 256*byte2unsignedInt(a[0]) + byte2unsignedInt(a[1]);
+        return readReply(2).getShort(0) & 0xffff;
     }
 
     public String selftest() throws IOException {
@@ -508,7 +586,25 @@ public final class IrToy extends IrSerial<LocalSerialPortRaw> implements IRawIrS
 
     @Override
     public boolean sendIr(IrSignal code, int count, Transmitter transmitter) throws IrpMasterException, IOException, HarcHardwareException {
-        return transmit(code.toIntArrayCount(count), code.getFrequency());
+        return sendIr(code, count, 1, transmitter);
+    }
+
+    /**
+     * Repeated-transmit mode: sends the signal, count times according to the count semantic, as times separate transmissions.
+     * The signal is encoded only once, and the IrToy is set up only before the first transmission.
+     *
+     * @param code
+     * @param count
+     * @param times number of transmissions.
+     * @param transmitter ignored
+     * @return success
+     * @throws IrpMasterException
+     * @throws IOException
+     * @throws HarcHardwareException
+     */
+    public boolean sendIr(IrSignal code, int count, int times, Transmitter transmitter) throws IrpMasterException, IOException, HarcHardwareException {
+        encode(code, count);
+        return transmit(code.getFrequency(), times);
     }
 
     public boolean sendCcf(String ccf, int count, Transmitter transmitter) throws IOException, IrpMasterException, HarcHardwareException {
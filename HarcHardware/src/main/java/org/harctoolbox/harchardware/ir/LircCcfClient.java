@@ -28,6 +28,10 @@ import org.harctoolbox.IrpMaster.IrSignal;
  */
 public class LircCcfClient extends LircClient implements IRawIrSender {
 
+    public LircCcfClient(String hostname, int port, boolean verbose, int timeout, boolean persistent) throws UnknownHostException, IOException {
+        super(hostname, port, verbose, timeout, persistent);
+    }
+
     public LircCcfClient(String hostname, int port, boolean verbose, int timeout) throws UnknownHostException, IOException {
         super(hostname, port, verbose, timeout);
     }
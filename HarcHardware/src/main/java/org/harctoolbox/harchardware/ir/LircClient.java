@@ -27,10 +27,16 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.harctoolbox.IrpMaster.IrpUtils;
 import org.harctoolbox.harchardware.IHarcHardware;
+import org.harctoolbox.harchardware.SettableFuture;
 import org.harctoolbox.harchardware.Version;
 import org.harctoolbox.harchardware.comm.TcpSocketChannel;
 import org.harctoolbox.harchardware.comm.TcpSocketPort;
@@ -39,6 +45,12 @@ import org.harctoolbox.harchardware.comm.TcpSocketPort;
  * A <a href="http://www.lirc.org">LIRC</a> client, talking to a remote LIRC
  * server through a TCP port.
  * Functionally, it resembles the command line program irsend.
+ *
+ * <p>By default, every command uses a connection of its own. In persistent mode, one connection is kept open,
+ * and its replies are read by a thread of its own, and matched to the outstanding commands in order.
+ * This allows commands to be pipelined, see {@link #sendCommandAsync(String, boolean)}.
+ * Lines not belonging to a reply, like the broadcasts of lircd, are ignored.
+ * If the connection is lost, a new one is opened for the next command.
  */
 public class LircClient implements IHarcHardware, IRemoteCommandIrSender, IIrSenderStop, ITransmitter {
 
@@ -196,17 +208,46 @@ public class LircClient implements IHarcHardware, IRemoteCommandIrSender, IIrSen
 
     private LircTransmitter lircTransmitter;
 
-    public LircClient(String hostname, int port, boolean verbose, int timeout) throws UnknownHostException, IOException {
+    private final boolean persistent;
+
+    /**
+     * Persistent connection and the thread reading its replies, in persistent mode.
+     * Guarded by pendingReplies.
+     */
+    private TcpSocketChannel persistentChannel = null;
+    private ReplyReader replyReader = null;
+
+    /**
+     * Commands sent on the persistent connection, not yet replied to, in sending order.
+     */
+    private final ArrayDeque<PendingReply> pendingReplies = new ArrayDeque<>(8);
+
+    /**
+     *
+     * @param hostname
+     * @param port
+     * @param verbose
+     * @param timeout
+     * @param persistent If true, keep one connection open for all commands.
+     * @throws UnknownHostException
+     * @throws IOException
+     */
+    public LircClient(String hostname, int port, boolean verbose, int timeout, boolean persistent) throws UnknownHostException, IOException {
         this.lircTransmitter = new LircTransmitter();
         this.timeout = timeout;
         lircServerIp = (hostname != null) ? hostname : defaultLircIP;
         inetAddress = InetAddress.getByName(hostname);
         lircPort = port;
         this.verbose = verbose;
+        this.persistent = persistent;
         String[] result = sendCommand("VERSION", false);
         version = (result == null || result.length == 0) ? null : result[0];
     }
 
+    public LircClient(String hostname, int port, boolean verbose, int timeout) throws UnknownHostException, IOException {
+        this(hostname, port, verbose, timeout, false);
+    }
+
     public LircClient(String hostname, boolean verbose, int timeout) throws UnknownHostException, IOException {
         this(hostname, lircDefaultPort, verbose, timeout);
     }
@@ -221,6 +262,9 @@ public class LircClient implements IHarcHardware, IRemoteCommandIrSender, IIrSen
 
     @Override
     public void close() {
+        synchronized (pendingReplies) {
+            closePersistent(new IOException("LircClient closed"));
+        }
     }
 
     @Override
@@ -286,6 +330,10 @@ public class LircClient implements IHarcHardware, IRemoteCommandIrSender, IIrSen
     }
 
     protected final String[] sendCommand(String packet, boolean oneWord) throws IOException {
+        return persistent ? sendCommandPersistent(packet, oneWord) : sendCommandJustInTime(packet, oneWord);
+    }
+
+    private String[] sendCommandJustInTime(String packet, boolean oneWord) throws IOException {
         if (verbose)
             System.err.println("Sending command `" + packet + "' to Lirc@" + lircServerIp);
 
@@ -299,105 +347,24 @@ public class LircClient implements IHarcHardware, IRemoteCommandIrSender, IIrSen
 
         tcpSocketChannel.sendString(packet + '\n');
 
-        ArrayList<String> result = new ArrayList<>(8);
-        int status = 0;
+        ReplyParser parser = new ReplyParser(packet, oneWord);
         try {
-            int state = P_BEGIN;
-            int n = 0;
             boolean done = false;
-            int dataN = -1;
-
             while (!done) {
                 String string = inFromServer.readLine();
                 if (verbose)
                     System.err.println("Received `" + string + "'");
-                if (string == null) {
-                    done = true;
-                    status = -1;
-                } else {
-                    OUTER:
-                    switch (state) {
-                        case P_BEGIN:
-                            if (!string.equals("BEGIN")) {
-                                System.err.println("!begin");
-                                continue;
-                            }
-                            state = P_MESSAGE;
-                            break;
-                        case P_MESSAGE:
-                            if (!string.trim().equalsIgnoreCase(packet)) {
-                                state = P_BEGIN;
-                                continue;
-                            }
-                            state = P_STATUS;
-                            break;
-                        case P_STATUS:
-                            switch (string) {
-                                case "SUCCESS":
-                                    status = 0;
-                                    break;
-                                case "END":
-                                    status = 0;
-                                    done = true;
-                                    break;
-                                case "ERROR":
-                                    System.err.println("command failed: " + packet);
-                                    status = -1;
-                                    break;
-                                default:
-                                    throw new BadPacketException();
-                            }
-                            state = P_DATA;
-                            break;
-                        case P_DATA:
-                            switch (string) {
-                                case "END":
-                                    done = true;
-                                    break OUTER;
-                                case "DATA":
-                                    state = P_N;
-                                    break OUTER;
-                            }
-                            throw new BadPacketException();
-                        case P_N:
-                            //errno = 0;
-                            dataN = Integer.parseInt(string);
-                            //result = new String[data_n];
-
-                            state = dataN == 0 ? P_END : P_DATA_N;
-                            break;
-                        case P_DATA_N:
-                            // Different LIRC servers seems to deliver commands in different
-                            // formats. Just take the last word.
-                            result.add(oneWord ? string.replaceAll("\\S*\\s+", "") : string);
-                            n++;
-                            if (n == dataN) {
-                                state = P_END;
-                            }
-                            break;
-                        case P_END:
-                            if (string.equals("END")) {
-                                done = true;
-                            } else {
-                                throw new BadPacketException();
-                            }
-                            break;
-                        default:
-                            assert false : "Unhandled case";
-                            break;
-                    }
-                }
+                done = parser.parse(string);
             }
         } catch (BadPacketException e) {
             System.err.println("bad return packet");
-            status = -1;
+            parser.fail();
         } catch (SocketTimeoutException e) {
             System.err.println("Sockettimeout Lirc: " + e.getMessage());
-            result = null;
-            status = -1;
+            parser.fail();
         } catch (IOException e) {
             System.err.println("Couldn't read from " + lircServerIp);
-            status = -1;
+            parser.fail();
         } finally {
             try {
                 tcpSocketChannel.close(true);
@@ -405,10 +372,114 @@ public class LircClient implements IHarcHardware, IRemoteCommandIrSender, IIrSen
                 System.err.println(e.getMessage());
             }
         }
+        String[] result = parser.getResult();
         if (verbose)
-            System.err.println("Lirc command " + (status == 0 ? "succeded." : "failed."));
+            System.err.println("Lirc command " + (result != null ? "succeded." : "failed."));
+
+        return result;
+    }
 
-        return status == 0 && result != null ? result.toArray(new String[result.size()]) : null;
+    private String[] sendCommandPersistent(String packet, boolean oneWord) throws IOException {
+        PendingReply future = sendPersistent(packet, oneWord);
+        String[] result = null;
+        try {
+            // As for the socket, a timeout of 0 means wait indefinitely.
+            result = timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            System.err.println("Timeout Lirc: " + packet);
+            future.cancel(false);
+        } catch (ExecutionException e) {
+            System.err.println("Couldn't read from " + lircServerIp + ": " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+        }
+        if (verbose)
+            System.err.println("Lirc command " + (result != null ? "succeded." : "failed."));
+        return result;
+    }
+
+    /**
+     * Sends a command on the persistent connection, without waiting for its reply.
+     * Several commands can be sent before the first reply arrives.
+     * Only available in persistent mode.
+     *
+     * @param packet Command to lircd.
+     * @param oneWord If true, return only the last word of every data line.
+     * @return Future of the data lines of the reply, or null if lircd reports failure.
+     * @throws IOException if the command cannot be sent, also after an attempt to reconnect.
+     */
+    protected final Future<String[]> sendCommandAsync(String packet, boolean oneWord) throws IOException {
+        if (!persistent)
+            throw new IllegalStateException("sendCommandAsync requires persistent mode");
+        return sendPersistent(packet, oneWord);
+    }
+
+    private PendingReply sendPersistent(String packet, boolean oneWord) throws IOException {
+        if (verbose)
+            System.err.println("Sending command `" + packet + "' to Lirc@" + lircServerIp);
+        PendingReply pendingReply = new PendingReply(packet, oneWord);
+        synchronized (pendingReplies) {
+            for (int attempt = 0; ; attempt++) {
+                if (persistentChannel == null)
+                    openPersistent();
+                pendingReplies.add(pendingReply);
+                try {
+                    persistentChannel.sendString(packet + '\n');
+                    return pendingReply;
+                } catch (IOException ex) {
+                    // The connection may have been closed by lircd since last used; reconnect once.
+                    pendingReplies.remove(pendingReply);
+                    closePersistent(ex);
+                    if (attempt > 0)
+                        throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends one command asynchronously, using the current transmitters.
+     * Only available in persistent mode.
+     *
+     * @param remote
+     * @param command
+     * @param count
+     * @return Future, yielding true if lircd reports success.
+     * @throws IOException
+     */
+    public Future<Boolean> sendIrCommandAsync(String remote, String command, int count) throws IOException {
+        this.lastRemote = remote;
+        this.lastCommand = command;
+        return new SuccessFuture(sendCommandAsync("SEND_ONCE " + remote + " " + command + " " + (count - 1), false));
+    }
+
+    // Call only when holding the lock on pendingReplies.
+    private void openPersistent() throws IOException {
+        TcpSocketChannel channel = new TcpSocketChannel(lircServerIp, lircPort,
+                timeout, verbose, TcpSocketPort.ConnectionMode.keepAlive);
+        channel.connect();
+        if (channel.getOut() == null || channel.getBufferedIn() == null)
+            throw new IOException("Could not open socket connection to LIRC server " + lircServerIp);
+        channel.setTimeout(0); // the reader waits for replies indefinitely; timeouts are per command.
+        persistentChannel = channel;
+        replyReader = new ReplyReader(channel);
+        replyReader.start();
+    }
+
+    // Call only when holding the lock on pendingReplies.
+    private void closePersistent(Exception reason) {
+        for (PendingReply pendingReply : pendingReplies)
+            pendingReply.setException(reason);
+        pendingReplies.clear();
+        if (persistentChannel != null) {
+            try {
+                persistentChannel.close(true);
+            } catch (IOException ex) {
+            }
+            persistentChannel = null;
+            replyReader = null;
+        }
     }
 
     @Override
@@ -513,6 +584,228 @@ public class LircClient implements IHarcHardware, IRemoteCommandIrSender, IIrSen
         return version != null;
     }
 
+    /**
+     * Parses a reply block from lircd, one line at a time.
+     */
+    private static class ReplyParser {
+        private final String packet;
+        private final boolean oneWord;
+        private final ArrayList<String> result = new ArrayList<>(8);
+        private int state = P_BEGIN;
+        private int status = 0;
+        private int n = 0;
+        private int dataN = -1;
+
+        ReplyParser(String packet, boolean oneWord) {
+            this.packet = packet;
+            this.oneWord = oneWord;
+        }
+
+        /**
+         * Consumes a line.
+         * @param string line read, or null at end of input.
+         * @return true if the reply is complete.
+         * @throws BadPacketException
+         */
+        boolean parse(String string) throws BadPacketException {
+            if (string == null) {
+                status = -1;
+                return true;
+            }
+            boolean done = false;
+            OUTER:
+            switch (state) {
+                case P_BEGIN:
+                    if (!string.equals("BEGIN")) {
+                        System.err.println("!begin");
+                        break;
+                    }
+                    state = P_MESSAGE;
+                    break;
+                case P_MESSAGE:
+                    if (!string.trim().equalsIgnoreCase(packet)) {
+                        state = P_BEGIN;
+                        break;
+                    }
+                    state = P_STATUS;
+                    break;
+                case P_STATUS:
+                    switch (string) {
+                        case "SUCCESS":
+                            status = 0;
+                            break;
+                        case "END":
+                            status = 0;
+                            done = true;
+                            break;
+                        case "ERROR":
+                            System.err.println("command failed: " + packet);
+                            status = -1;
+                            break;
+                        default:
+                            throw new BadPacketException();
+                    }
+                    state = P_DATA;
+                    break;
+                case P_DATA:
+                    switch (string) {
+                        case "END":
+                            done = true;
+                            break OUTER;
+                        case "DATA":
+                            state = P_N;
+                            break OUTER;
+                    }
+                    throw new BadPacketException();
+                case P_N:
+                    dataN = Integer.parseInt(string);
+                    state = dataN == 0 ? P_END : P_DATA_N;
+                    break;
+                case P_DATA_N:
+                    // Different LIRC servers seems to deliver commands in different
+                    // formats. Just take the last word.
+                    result.add(oneWord ? string.replaceAll("\\S*\\s+", "") : string);
+                    n++;
+                    if (n == dataN) {
+                        state = P_END;
+                    }
+                    break;
+                case P_END:
+                    if (string.equals("END")) {
+                        done = true;
+                    } else {
+                        throw new BadPacketException();
+                    }
+                    break;
+                default:
+                    assert false : "Unhandled case";
+                    break;
+            }
+            return done;
+        }
+
+        boolean isIdle() {
+            return state == P_BEGIN;
+        }
+
+        void fail() {
+            status = -1;
+        }
+
+        String[] getResult() {
+            return status == 0 ? result.toArray(new String[result.size()]) : null;
+        }
+    }
+
+    /**
+     * Future of a command sent on the persistent connection, completed by the ReplyReader.
+     */
+    private class PendingReply extends SettableFuture<String[]> {
+        private final ReplyParser parser;
+
+        PendingReply(String packet, boolean oneWord) {
+            parser = new ReplyParser(packet, oneWord);
+        }
+
+        void complete() {
+            set(parser.getResult());
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning))
+                return false;
+            synchronized (pendingReplies) {
+                pendingReplies.remove(this);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Future of the success of a command, from the Future of its reply.
+     */
+    private static class SuccessFuture implements Future<Boolean> {
+        private final Future<String[]> reply;
+
+        SuccessFuture(Future<String[]> reply) {
+            this.reply = reply;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return reply.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return reply.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return reply.isDone();
+        }
+
+        @Override
+        public Boolean get() throws InterruptedException, ExecutionException {
+            return reply.get() != null;
+        }
+
+        @Override
+        public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return reply.get(timeout, unit) != null;
+        }
+    }
+
+    /**
+     * Reads the persistent connection until it is closed, and completes the pending commands in order.
+     */
+    private class ReplyReader extends Thread {
+        private final TcpSocketChannel channel;
+        private final BufferedReader in;
+
+        ReplyReader(TcpSocketChannel channel) {
+            super("LircClient " + lircServerIp + ":" + lircPort + " reply reader");
+            this.channel = channel;
+            this.in = channel.getBufferedIn();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (verbose)
+                        System.err.println("Received `" + line + "'");
+                    synchronized (pendingReplies) {
+                        PendingReply pendingReply = pendingReplies.peek();
+                        if (pendingReply == null || (pendingReply.parser.isIdle() && !line.equals("BEGIN")))
+                            continue; // broadcast, or reply to a command given up
+                        try {
+                            if (pendingReply.parser.parse(line)) {
+                                pendingReplies.remove();
+                                pendingReply.complete();
+                            }
+                        } catch (BadPacketException | NumberFormatException ex) {
+                            System.err.println("bad return packet");
+                            pendingReplies.remove();
+                            pendingReply.parser.fail();
+                            pendingReply.complete();
+                        }
+                    }
+                }
+                throw new IOException("Connection closed by LIRC server " + lircServerIp);
+            } catch (IOException | RuntimeException ex) {
+                synchronized (pendingReplies) {
+                    if (persistentChannel == channel)
+                        closePersistent(ex);
+                }
+            }
+        }
+    }
+
     private static class BadPacketException extends Exception {
         BadPacketException() {
             super();
@@ -20,8 +20,10 @@ package org.harctoolbox.harchardware.ir;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import org.harctoolbox.IrpMaster.DecodeIR;
 import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
 import org.harctoolbox.IrpMaster.IrSequence;
@@ -34,18 +36,29 @@ import org.harctoolbox.harchardware.IHarcHardware;
 /**
  * This class runs an external program, for example mode2 of LIRC, in a separate process,
  * and evaluates its output, which is assumed to be in the LIRC mode2 format.
+ *
+ * <p>A reader thread parses the output into a ring buffer of durations, and wakes up a waiting receive() for every duration.
+ * A signal ends at a space (or "timeout" line) at least endingTimeout long, or after endingTimeout of silence,
+ * or when the program ends. Consecutive calls to receive() thus return a continuous stream of signals.
+ * Data that arrived while receive() was not called for more than endingTimeout is discarded,
+ * so that a capture does not return an old signal.
  */
 public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
-    private static int parseMode2Line(String str) {
-        return
-                str == null ? 0
-                : str.startsWith("pulse") ? Integer.parseInt(str.substring(6))
-                : str.startsWith("space") ? -Integer.parseInt(str.substring(6))
-                : 0;
-    }
+    private static final int defaultRingSize = 4096;
+    private static final int trailingSilence = -100000;
+    private static final int endOfSignal = Integer.MIN_VALUE; // a "timeout" line, irrespective of its value
 
-    private static int timeleft(int timeout, Date old) {
-        return timeout - (int) (((new Date())).getTime() - old.getTime());
+    private static int parseMode2Line(String str) {
+        try {
+            return
+                    str == null ? 0
+                    : str.startsWith("pulse") ? Integer.parseInt(str.substring(6).trim())
+                    : str.startsWith("space") ? -Integer.parseInt(str.substring(6).trim())
+                    : str.startsWith("timeout") ? endOfSignal
+                    : 0;
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            return 0;
+        }
     }
 
     public static void main(String[] args) {
@@ -74,10 +87,7 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
     }
 
     private boolean verbose;
-    private final ArrayList<Integer> data;
-    private boolean stopRequest;
-    private Date lastRead;
-    private Date currentStart;
+    private volatile boolean stopRequest;
     private ProgThread progThread;
     private int beginTimeout;
     private int captureMaxSize;
@@ -85,9 +95,21 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
     private boolean ignoreSillyLines;
     private String cmd;
     private String[] cmdArray;
-
-    private LircMode2(String cmd, String[] cmdArray, boolean verbose, int beginTimeout, int captureMaxSize, int endingTimeout, boolean ignoreSillyLines) {
-        this.data = new ArrayList<>(64);
+    private Process process;
+
+    // Ring buffer of durations in micro seconds, pulses positive, spaces negative, guarded by lock.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+    private final int[] ring;
+    private int head;
+    private int size;
+    private long lastArrival;
+    private boolean endOfStream;
+    private int overflows;
+    private long lastReceiveEnd;
+
+    private LircMode2(String cmd, String[] cmdArray, Process process, boolean verbose, int beginTimeout, int captureMaxSize, int endingTimeout, boolean ignoreSillyLines) {
+        this.ring = new int[defaultRingSize];
         this.verbose = verbose;
         this.beginTimeout = beginTimeout;
         this.captureMaxSize = captureMaxSize;
@@ -95,6 +117,7 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
         this.ignoreSillyLines = ignoreSillyLines;
         this.cmd = cmd;
         this.cmdArray = cmdArray;
+        this.process = process;
     }
 
     /**
@@ -106,7 +129,7 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
      * @param endingTimeout
      */
     public LircMode2(String cmd, boolean verbose, int beginTimeout, int captureMaxSize, int endingTimeout) {
-        this(cmd, null, verbose, beginTimeout, captureMaxSize, endingTimeout, false);
+        this(cmd, null, null, verbose, beginTimeout, captureMaxSize, endingTimeout, false);
     }
 
     /**
@@ -115,7 +138,7 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
      * @param verbose
      */
     public LircMode2(String cmd, boolean verbose) {
-        this(cmd, null, verbose, defaultBeginTimeout, defaultCaptureMaxSize, defaultEndingTimeout, false);
+        this(cmd, null, null, verbose, defaultBeginTimeout, defaultCaptureMaxSize, defaultEndingTimeout, false);
     }
 
     /**
@@ -135,7 +158,7 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
      * @param endingTimeout
      */
     public LircMode2(String[] cmdArray, boolean verbose, int beginTimeout, int captureMaxSize, int endingTimeout) {
-        this(null, cmdArray, verbose, beginTimeout, captureMaxSize, endingTimeout, false);
+        this(null, cmdArray, null, verbose, beginTimeout, captureMaxSize, endingTimeout, false);
     }
 
     /**
@@ -144,7 +167,21 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
      * @param verbose
      */
     public LircMode2(String[] cmdArray, boolean verbose) {
-        this(null, cmdArray, verbose, defaultBeginTimeout, defaultCaptureMaxSize, defaultEndingTimeout, false);
+        this(null, cmdArray, null, verbose, defaultBeginTimeout, defaultCaptureMaxSize, defaultEndingTimeout, false);
+    }
+
+    /**
+     * Reads the output of an already started process, for example a mode2 started by a ProcessBuilder,
+     * or a recording. The process is used by the first open() only.
+     *
+     * @param process
+     * @param verbose
+     * @param beginTimeout
+     * @param captureMaxSize
+     * @param endingTimeout
+     */
+    public LircMode2(Process process, boolean verbose, int beginTimeout, int captureMaxSize, int endingTimeout) {
+        this(null, null, process, verbose, beginTimeout, captureMaxSize, endingTimeout, false);
     }
 
     @Override
@@ -175,13 +212,28 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
     public void close() {
         stopRequest = true;
         progThread = null;
+        lock.lock();
+        try {
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
-
     @Override
     public void open() throws IOException {
-        currentStart = new Date();
-        progThread = new ProgThread(this);
+        Process proc = process != null ? process
+                : cmd != null ? Runtime.getRuntime().exec(cmd)
+                : Runtime.getRuntime().exec(cmdArray);
+        process = null;
+        lock.lock();
+        try {
+            size = 0;
+            endOfStream = false;
+        } finally {
+            lock.unlock();
+        }
+        progThread = new ProgThread(this, proc);
         stopRequest = false;
     }
 
@@ -198,38 +250,19 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
-
     public boolean isAlive() {
         return progThread.isAlive();
     }
 
-
-    private void waitInitialSilence() {
-        while (data.isEmpty() && timeleft(beginTimeout, currentStart) > 0) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException ex) {
-
-            }
-        }
-    }
-
-    private void waitEndingSilence() {
-        while (timeleft(endingTimeout, lastRead) > 0) {
-            try {
-                Thread.sleep(timeleft(endingTimeout, lastRead));
-            } catch (InterruptedException ex) {
-
-            }
-        }
-    }
-
-    private void waitMaxLengthOrEndingTimeout() {
-      while (timeleft(captureMaxSize, currentStart) > 0 && timeleft(endingTimeout, lastRead) > 0)
-            try {
-            Thread.sleep(Math.min(timeleft(captureMaxSize, currentStart), timeleft(endingTimeout, lastRead)));
-        } catch (InterruptedException ex) {
-
+    /**
+     * @return number of durations thrown away since the ring buffer was full.
+     */
+    public int getOverflows() {
+        lock.lock();
+        try {
+            return overflows;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -255,49 +288,134 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
 
     @Override
     public IrSequence receive() throws HarcHardwareException {
-        if (progThread == null)
+        ProgThread thread = progThread;
+        if (thread == null)
             throw new HarcHardwareException("LircMode2 not open");
 
-        if (!progThread.isAlive())
-            progThread.start();
-        reset();
-        waitInitialSilence();
-        if (data.isEmpty()) {
-            // beginTimeout hits
-            currentStart = new Date();
-            return null;
-        }
-        waitMaxLengthOrEndingTimeout();
-        waitEndingSilence();
-        int[] durations = getDurations();
+        lock.lock();
         try {
-            IrSequence seq = new IrSequence(durations);
-            return seq.getLength() > 0 ? seq : null;
+            if (System.nanoTime() - lastReceiveEnd > TimeUnit.MILLISECONDS.toNanos(endingTimeout))
+                size = 0;
+            if (thread.getState() == Thread.State.NEW)
+                thread.start();
+            int[] durations = nextSignal();
+            return durations != null ? new IrSequence(durations) : null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
         } catch (IncompatibleArgumentException ex) {
             // cannot happen, while I explicitly made sure that durations has even length;
+            return null;
+        } finally {
+            lastReceiveEnd = System.nanoTime();
+            lock.unlock();
         }
-        return null;
     }
 
-    private synchronized int[] getDurations() {
-        int length = data.size();
-        if (length % 2 == 1) {
-            length++;
+    // Called with lock held.
+    private int[] nextSignal() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(beginTimeout);
+        int first;
+        do {
+            while (size == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (endOfStream || stopRequest || remaining <= 0)
+                    return null;
+                dataAvailable.awaitNanos(remaining);
+            }
+            first = take();
+        } while (first < 0); // ignore starting spaces
+
+        int[] data = new int[64];
+        data[0] = first;
+        int length = 1;
+        long totalMicros = first;
+        long maxMicros = 1000L * captureMaxSize;
+        int endingGap = 1000 * endingTimeout;
+        long endingNanos = TimeUnit.MILLISECONDS.toNanos(endingTimeout);
+        boolean hasWarned = false;
+        while (true) {
+            while (size == 0) {
+                long remaining = lastArrival + endingNanos - System.nanoTime();
+                if (endOfStream || stopRequest || remaining <= 0)
+                    return finish(data, length);
+                dataAvailable.awaitNanos(remaining);
+            }
+            int duration = take();
+            if (duration <= -endingGap)
+                return finish(data, length);
+            if (length == 1 && duration > 0) {
+                // if two starting pulses, ignore the first
+                data[0] = duration;
+                totalMicros = duration;
+                continue;
+            }
+            totalMicros += Math.abs(duration);
+            if (totalMicros > maxMicros) {
+                if (!hasWarned && verbose) {
+                    System.err.println("Warning. Max capture length = "
+                            + captureMaxSize + "ms exceeded. Ignoring excess pairs. Capture will resume after next silence period.");
+                    hasWarned = true;
+                }
+                continue;
+            }
+            if (length == data.length)
+                data = Arrays.copyOf(data, 2 * length);
+            data[length++] = duration;
         }
-        int[] result = new int[length];
-        for (int i = 0; i < data.size(); i++)
-            result[i] = data.get(i);
-
-        if (data.size() % 2 == 1)
-            result[data.size()] = -100000;
+    }
 
-        reset();
+    private static int[] finish(int[] data, int length) {
+        if (length % 2 == 0)
+            return Arrays.copyOf(data, length);
+        int[] result = Arrays.copyOf(data, length + 1);
+        result[length] = trailingSilence;
         return result;
     }
 
-    public synchronized void reset() {
-        data.clear();
-        currentStart = new Date();
+    // Called with lock held.
+    private int take() {
+        int duration = ring[head];
+        head = (head + 1) % ring.length;
+        size--;
+        return duration;
+    }
+
+    private void put(int duration) {
+        lock.lock();
+        try {
+            if (size == ring.length) {
+                // Nobody is reading; drop the oldest.
+                head = (head + 1) % ring.length;
+                size--;
+                overflows++;
+            }
+            ring[(head + size) % ring.length] = duration;
+            size++;
+            lastArrival = System.nanoTime();
+            dataAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void endOfStream() {
+        lock.lock();
+        try {
+            endOfStream = true;
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void reset() {
+        lock.lock();
+        try {
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -312,17 +430,17 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
         final Process process;
         final LircMode2 lircMode2;
 
-        ProgThread(LircMode2 lircMode2) throws IOException {
-            process = lircMode2.cmd != null
-                    ? Runtime.getRuntime().exec(lircMode2.cmd)
-                    : Runtime.getRuntime().exec(lircMode2.cmdArray);
+        ProgThread(LircMode2 lircMode2, Process process) throws IOException {
+            super("LircMode2");
+            setDaemon(true);
+            this.process = process;
             this.lircMode2 = lircMode2;
 
             outFromProc = new BufferedReader(new InputStreamReader(process.getInputStream(), IrpUtils.dumbCharsetName));
             if (lircMode2.verbose) {
                 if (lircMode2.cmd != null)
                     System.err.println("Now started shell command \"" + lircMode2.cmd + "\"");
-                else {
+                else if (lircMode2.cmdArray != null) {
                     System.err.print("Now started shell command ");
                     for (String s : lircMode2.cmdArray) {
                         System.err.print(s + " ");
@@ -334,11 +452,11 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
 
         @Override
         public void run() {
-            lircMode2.currentStart = new Date();
-            boolean hasWarned = false;
-            while (!lircMode2.stopRequest) {
-                try {
+            try {
+                while (!lircMode2.stopRequest) {
                     String line = outFromProc.readLine();
+                    if (line == null)
+                        break;
                     int duration = parseMode2Line(line);
                     if (duration == 0) {
                         // silly line read
@@ -347,33 +465,12 @@ public final class LircMode2 implements IHarcHardware, ICapture, IReceive  {
                         else
                             break;
                     }
-                    synchronized (lircMode2.data) {
-                        if (lircMode2.data.isEmpty()) {
-                            if (duration <= 0) // ignore starting spaces
-                                continue;
-                            // if two starting pulses, ignore the first
-                            int next = parseMode2Line(outFromProc.readLine());
-                            if (next < 0) // normal case
-                                lircMode2.data.add(duration);
-
-                            lircMode2.data.add(next);
-                            lircMode2.currentStart = new Date();
-                            hasWarned = false;
-                        } else if (timeleft(lircMode2.captureMaxSize, lircMode2.currentStart) > 0) {
-                            lircMode2.data.add(duration);
-                        } else {
-                            if (!hasWarned && lircMode2.verbose) {
-                                System.err.println("Warning. Max capture length = "
-                                        + lircMode2.captureMaxSize + "ms exceeded. Ignoring excess pairs. Capture will resume after next silence period.");
-                                hasWarned = true;
-                            }
-                        }
-                        lircMode2.lastRead = new Date();
-                    }
-                } catch (IOException ex) {
-                    System.err.println(ex);
-                    break;
+                    lircMode2.put(duration);
                 }
+            } catch (IOException ex) {
+                System.err.println(ex);
+            } finally {
+                lircMode2.endOfStream();
             }
             if (lircMode2.verbose)
                 System.err.println("done, killing mode2 process");
@@ -0,0 +1,201 @@
+package org.harctoolbox.harchardware.ir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.harctoolbox.IrpMaster.IrSignal;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Runs the asynchronous sendir of GlobalCache against a fake iTach on a local socket.
+ */
+public class GlobalCacheNGTest {
+
+    private static final int[] durations = { 9024, 4512, 564, 1692, 9024, 2256, 564, 40000 };
+
+    /**
+     * A sendir command received by the fake, that the test replies to.
+     */
+    private static class Sendir {
+        private final OutputStream out;
+        private final String connector;
+        private final String index;
+
+        Sendir(OutputStream out, String line) {
+            this.out = out;
+            String[] parts = line.split(",");
+            connector = parts[1];
+            index = parts[2];
+        }
+
+        void reply(String reply) throws IOException {
+            synchronized (out) {
+                out.write((reply + "\r").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+        }
+
+        void complete() throws IOException {
+            reply("completeir," + connector + "," + index);
+        }
+    }
+
+    /**
+     * Emulation of an iTach with one IR module, accepting any number of connections.
+     * The sendir commands are queued for the test to reply to.
+     */
+    private static class FakeITach extends Thread {
+        private final ServerSocket serverSocket;
+        private final BlockingQueue<Sendir> commands = new LinkedBlockingQueue<>();
+        private volatile Socket lastSendirSocket;
+
+        FakeITach() throws IOException {
+            serverSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            } catch (IOException ex) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))) {
+                OutputStream out = socket.getOutputStream();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.equals("getdevices")) {
+                        synchronized (out) {
+                            out.write("device,0,0 ETHERNET\rdevice,1,3 IR\rendlistdevices\r".getBytes(StandardCharsets.US_ASCII));
+                            out.flush();
+                        }
+                    } else if (line.startsWith("sendir,")) {
+                        lastSendirSocket = socket;
+                        commands.add(new Sendir(out, line));
+                    }
+                }
+            } catch (IOException ex) {
+                // connection closed
+            }
+        }
+
+        Sendir take() throws InterruptedException {
+            Sendir sendir = commands.poll(5, TimeUnit.SECONDS);
+            if (sendir == null)
+                fail("No sendir received");
+            return sendir;
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    public GlobalCacheNGTest() {
+    }
+
+    /**
+     * Test of sendIrAsync method, of class GlobalCache: replies out of order, busyIR, errors, and cancel.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSendIrAsync() throws Exception {
+        System.out.println("sendIrAsync");
+        FakeITach fake = new FakeITach();
+        fake.start();
+        IrSignal irSignal = new IrSignal(durations, 2, 2, 38000);
+        try (GlobalCache globalCache = new GlobalCache("localhost", fake.getPort(), false, 2000, false)) {
+            assertEquals(globalCache.getIrModules().size(), 1);
+
+            Future<Boolean> first = globalCache.sendIrAsync(irSignal, 1, 1, 1);
+            Future<Boolean> second = globalCache.sendIrAsync(irSignal, 1, 1, 2);
+            Sendir firstCommand = fake.take();
+            Sendir secondCommand = fake.take();
+            assertEquals(firstCommand.connector, "1:1");
+            secondCommand.complete();
+            assertTrue(second.get(5, TimeUnit.SECONDS));
+            assertFalse(first.isDone());
+            firstCommand.complete();
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+
+            Future<Boolean> busy = globalCache.sendIrAsync(irSignal, 1, 1, 3);
+            Sendir busyCommand = fake.take();
+            busyCommand.reply("busyIR," + busyCommand.connector + "," + busyCommand.index);
+            assertFalse(busy.get(5, TimeUnit.SECONDS));
+
+            Future<Boolean> error = globalCache.sendIrAsync(irSignal, 1, 1, 2);
+            fake.take().reply("ERR_1:2,021");
+            try {
+                error.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+
+            // A cancelled command is no longer pending; the error to its connector is attributed to the next command.
+            Future<Boolean> cancelled = globalCache.sendIrAsync(irSignal, 1, 1, 1);
+            Sendir cancelledCommand = fake.take();
+            assertTrue(cancelled.cancel(false));
+            assertTrue(cancelled.isCancelled());
+            Future<Boolean> next = globalCache.sendIrAsync(irSignal, 1, 1, 3);
+            fake.take();
+            cancelledCommand.reply("ERR_1:1,021");
+            try {
+                next.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+            try {
+                cancelled.get();
+                fail();
+            } catch (CancellationException ex) {
+            }
+
+            // Losing the connection fails the pending commands.
+            Future<Boolean> lost = globalCache.sendIrAsync(irSignal, 1, 1, 1);
+            fake.take();
+            fake.lastSendirSocket.close();
+            try {
+                lost.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+        } finally {
+            fake.close();
+        }
+    }
+}
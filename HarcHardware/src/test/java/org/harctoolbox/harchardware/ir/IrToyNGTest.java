@@ -0,0 +1,255 @@
+package org.harctoolbox.harchardware.ir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.harctoolbox.IrpMaster.IrSignal;
+import org.harctoolbox.IrpMaster.ModulatedIrSequence;
+import org.harctoolbox.harchardware.comm.LocalSerialPortRaw;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Runs IrToy against a scripted emulation of the sampling mode protocol of the device.
+ */
+public class IrToyNGTest {
+
+    private static final double period = 21.3333;
+
+    // Samples, in periods of the IrToy, of a short signal, ending with the timeout marker.
+    private static final int[] samples = { 423, 211, 26, 26, 26, 79, 26, 79, 26, 1000, 26, 0xffff };
+    private static final int[] burstSamples = { 423, 211, 26, 26, 26, 79, 26, 79, 26, 0xffff };
+
+    // Intro of two bursts, repeat of two bursts.
+    private static final int[] durations = { 9024, 4512, 564, 1692, 9024, 2256, 564, 40000 };
+
+    /**
+     * Emulation of the IrToy in sampling mode. Replies are delivered a few bytes at a time,
+     * like a slow serial line. Returns 0 bytes when nothing is available, like a serial port timing out.
+     */
+    private static class FakeIrToy {
+        private static final int chunkSize = 5;
+        private static final int receivePinMask = 1 << 3;
+
+        private final ArrayDeque<Byte> replies = new ArrayDeque<>(256);
+        private final List<byte[]> transmissions = new ArrayList<>(4);
+        private final double frequency;
+        private int[] capture;
+        private int[] captured;
+        private int frequencySettings = 0;
+        private int command = -1;
+        private int argumentsLeft = 0;
+        private int ioData = 0;
+        private boolean transmitting = false;
+        private ByteArrayOutputStream transmission;
+        private int chunk;
+
+        FakeIrToy(double frequency) {
+            this.frequency = frequency;
+        }
+
+        LocalSerialPortRaw newPort() {
+            return new LocalSerialPortRaw("fake", inputStream, outputStream);
+        }
+
+        private final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() {
+                return replies.isEmpty() ? -1 : replies.poll() & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                int n = Math.min(Math.min(len, chunkSize), replies.size());
+                for (int i = 0; i < n; i++)
+                    b[off + i] = replies.poll();
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return replies.size();
+            }
+        };
+
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                received(b & 0xff);
+            }
+        };
+
+        private void reply(int... bytes) {
+            for (int b : bytes)
+                replies.add((byte) b);
+        }
+
+        private void reply(String string) {
+            for (char ch : string.toCharArray())
+                reply(ch);
+        }
+
+        private void reply2(int value) {
+            reply(value >> 8, value & 0xff);
+        }
+
+        private void received(int b) {
+            if (transmitting) {
+                transmitted(b);
+                return;
+            }
+            if (argumentsLeft > 0) {
+                argumentsLeft--;
+                if (command == 0x30 && argumentsLeft == 1) {
+                    ioData = b << 8;
+                } else if (command == 0x30 && argumentsLeft == 0) {
+                    boolean wasReceiving = (ioData & receivePinMask) != 0;
+                    ioData |= b;
+                    if (!wasReceiving && (ioData & receivePinMask) != 0 && capture != null) {
+                        for (int sample : capture)
+                            reply2(sample);
+                        captured = capture;
+                        capture = null;
+                    }
+                } else if (command == 0x06 && argumentsLeft == 1)
+                    frequencySettings++;
+                return;
+            }
+            command = b;
+            switch (b) {
+                case 'v':
+                    reply("V222");
+                    break;
+                case 's':
+                    reply("S01");
+                    break;
+                case 0x03:
+                    transmitting = true;
+                    transmission = new ByteArrayOutputStream();
+                    chunk = 0;
+                    reply(62);
+                    break;
+                case 0x04:
+                    int onTimes = 0;
+                    for (int i = 0; i < captured.length; i += 2)
+                        onTimes += Math.round(captured[i] * period);
+                    reply2(0);
+                    reply2(0);
+                    reply2(0);
+                    reply2((int) Math.round(frequency * onTimes * 1E-6));
+                    break;
+                case 0x06:
+                case 0x30:
+                case 0x31:
+                    argumentsLeft = 2;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void transmitted(int b) {
+            transmission.write(b);
+            chunk++;
+            byte[] data = transmission.toByteArray();
+            boolean end = data.length % 2 == 0 && data[data.length - 2] == (byte) 0xff && data[data.length - 1] == (byte) 0xff;
+            if (chunk == 62 || (end && chunk > 0)) {
+                reply(62);
+                chunk = 0;
+            }
+            if (end) {
+                transmitting = false;
+                transmissions.add(data);
+                reply('t');
+                reply2(data.length);
+                reply('C');
+            }
+        }
+    }
+
+    public IrToyNGTest() {
+    }
+
+    private static int[] periods(byte[] data) {
+        int[] result = new int[data.length / 2];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ((data[2 * i] & 0xff) << 8) | (data[2 * i + 1] & 0xff);
+        return result;
+    }
+
+    private static int[] expectedPeriods(IrSignal irSignal, int count) {
+        int[] data = irSignal.toIntArrayCount(count);
+        int[] result = new int[data.length];
+        for (int i = 0; i < data.length; i++)
+            result[i] = (int) Math.round(data[i] / period);
+        result[data.length - 1] = 0xffff;
+        return result;
+    }
+
+    /**
+     * Test of capture method, of class IrToy: samples, delivered in pieces not aligned with the samples,
+     * are decoded, twice with the same buffer.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCapture() throws Exception {
+        System.out.println("capture");
+        FakeIrToy fake = new FakeIrToy(38000);
+        try (IrToy irToy = new IrToy(fake.newPort(), IIrReader.defaultCaptureMaxSize, false)) {
+            irToy.open();
+            assertEquals(irToy.getVersion(), "V222");
+            for (int[] script : new int[][] { samples, burstSamples }) {
+                fake.capture = script;
+                ModulatedIrSequence seq = irToy.capture();
+                assertEquals(seq.getLength(), script.length);
+                for (int i = 0; i < script.length; i++)
+                    assertEquals(seq.iget(i), (int) Math.round(script[i] * period));
+                assertEquals(seq.getFrequency(), 38000, 400);
+            }
+        }
+    }
+
+    /**
+     * Test of sendIr method, of class IrToy: the handshake, and the encoding with copied repeats.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSendIr() throws Exception {
+        System.out.println("sendIr");
+        FakeIrToy fake = new FakeIrToy(38000);
+        IrSignal irSignal = new IrSignal(durations, 2, 2, 38000);
+        try (IrToy irToy = new IrToy(fake.newPort(), IIrReader.defaultCaptureMaxSize, false)) {
+            irToy.open();
+            assertTrue(irToy.sendIr(irSignal, 1, null));
+            assertTrue(irToy.sendIr(irSignal, 20, null)); // 80 durations, several handshake chunks
+            assertTrue(irToy.sendIr(irSignal, 3, null)); // shorter than the previous, same buffer
+        }
+        assertEquals(fake.transmissions.size(), 3);
+        assertEquals(periods(fake.transmissions.get(0)), expectedPeriods(irSignal, 1));
+        assertEquals(periods(fake.transmissions.get(1)), expectedPeriods(irSignal, 20));
+        assertEquals(periods(fake.transmissions.get(2)), expectedPeriods(irSignal, 3));
+    }
+
+    /**
+     * Test of sendIr method, of class IrToy, repeated-transmit mode.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSendIrRepeated() throws Exception {
+        System.out.println("sendIrRepeated");
+        FakeIrToy fake = new FakeIrToy(38000);
+        IrSignal irSignal = new IrSignal(durations, 2, 2, 38000);
+        try (IrToy irToy = new IrToy(fake.newPort(), IIrReader.defaultCaptureMaxSize, false)) {
+            irToy.open();
+            assertTrue(irToy.sendIr(irSignal, 2, 3, null));
+        }
+        assertEquals(fake.frequencySettings, 1);
+        assertEquals(fake.transmissions.size(), 3);
+        for (byte[] transmission : fake.transmissions)
+            assertEquals(periods(transmission), expectedPeriods(irSignal, 2));
+    }
+}
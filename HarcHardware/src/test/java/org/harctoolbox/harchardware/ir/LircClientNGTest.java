@@ -0,0 +1,169 @@
+package org.harctoolbox.harchardware.ir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Runs the persistent mode of LircClient against a fake lircd on a local socket.
+ */
+public class LircClientNGTest {
+
+    private static final String version = "0.9.4";
+
+    /**
+     * A command received by the fake, that the test replies to.
+     */
+    private static class Received {
+        private final Socket socket;
+        private final String command;
+
+        Received(Socket socket, String command) {
+            this.socket = socket;
+            this.command = command;
+        }
+
+        void reply(boolean success) throws IOException {
+            write(socket, "BEGIN\n" + command + "\n" + (success ? "SUCCESS" : "ERROR") + "\nEND\n");
+        }
+    }
+
+    /**
+     * Emulation of lircd, accepting any number of connections. VERSION is answered after a delay,
+     * other commands are queued for the test to reply to.
+     */
+    private static class FakeLircd extends Thread {
+        private static final int versionDelay = 300;
+
+        private final ServerSocket serverSocket;
+        private final BlockingQueue<Received> commands = new LinkedBlockingQueue<>();
+
+        FakeLircd() throws IOException {
+            serverSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            } catch (IOException ex) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.equals("VERSION")) {
+                        Thread.sleep(versionDelay);
+                        write(socket, "BEGIN\nVERSION\nSUCCESS\nDATA\n1\n" + version + "\nEND\n");
+                    } else
+                        commands.add(new Received(socket, line));
+                }
+            } catch (IOException | InterruptedException ex) {
+                // connection closed
+            }
+        }
+
+        Received take() throws InterruptedException {
+            Received received = commands.poll(5, TimeUnit.SECONDS);
+            if (received == null)
+                fail("No command received");
+            return received;
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    private static void write(Socket socket, String string) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        synchronized (out) {
+            out.write(string.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+
+    public LircClientNGTest() {
+    }
+
+    /**
+     * Test of persistent mode of LircClient: a timeout of 0 waits indefinitely,
+     * replies to pipelined commands are matched in order, and losing the connection fails the pending commands.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testPersistent() throws Exception {
+        System.out.println("persistent");
+        FakeLircd fake = new FakeLircd();
+        fake.start();
+        LircClient lircClient = new LircClient("localhost", fake.getPort(), false, 0, true);
+        try {
+            assertEquals(lircClient.getVersion(), version);
+
+            Future<Boolean> first = lircClient.sendIrCommandAsync("remote", "power", 1);
+            Future<Boolean> second = lircClient.sendIrCommandAsync("remote", "play", 2);
+            Received firstCommand = fake.take();
+            Received secondCommand = fake.take();
+            assertEquals(firstCommand.command, "SEND_ONCE remote power 0");
+            assertEquals(secondCommand.command, "SEND_ONCE remote play 1");
+            firstCommand.reply(true);
+            secondCommand.reply(false);
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertFalse(second.get(5, TimeUnit.SECONDS));
+
+            // The reply to a cancelled command is skipped.
+            Future<Boolean> cancelled = lircClient.sendIrCommandAsync("remote", "stop", 1);
+            Received cancelledCommand = fake.take();
+            assertTrue(cancelled.cancel(false));
+            Future<Boolean> next = lircClient.sendIrCommandAsync("remote", "pause", 1);
+            Received nextCommand = fake.take();
+            cancelledCommand.reply(false);
+            nextCommand.reply(true);
+            assertTrue(next.get(5, TimeUnit.SECONDS));
+
+            Future<Boolean> lost = lircClient.sendIrCommandAsync("remote", "power", 1);
+            fake.take().socket.close();
+            try {
+                lost.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+        } finally {
+            lircClient.close();
+            fake.close();
+        }
+    }
+}
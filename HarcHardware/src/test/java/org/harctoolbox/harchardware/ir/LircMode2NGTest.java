@@ -0,0 +1,135 @@
+package org.harctoolbox.harchardware.ir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.harctoolbox.IrpMaster.IrSequence;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Feeds recorded mode2 output to LircMode2 through a fake process.
+ */
+public class LircMode2NGTest {
+
+    // Shortened NEC1-like frame with one repeat, as output by mode2, followed by two more presses.
+    private static final String recording
+            = "space 3418287\n"
+            + "pulse 9024\nspace 4512\n"
+            + "pulse 564\nspace 564\npulse 564\nspace 1692\npulse 564\nspace 39756\n"
+            + "pulse 9024\nspace 2256\npulse 564\n"
+            + "space 1234567\n"
+            + "pulse 9000\nspace 4500\npulse 560\n"
+            + "timeout 120000\n"
+            + "pulse 8000\n";
+
+    private static final int[] first = {
+        9024, 4512, 564, 564, 564, 1692, 564, 39756, 9024, 2256, 564, 100000
+    };
+    private static final int[] second = { 9000, 4500, 560, 100000 };
+    private static final int[] third = { 8000, 100000 };
+
+    private static class FakeProcess extends Process {
+        private final InputStream inputStream;
+
+        FakeProcess(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        FakeProcess(String output) {
+            this(new ByteArrayInputStream(output.getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    public LircMode2NGTest() {
+    }
+
+    private static void assertDurations(IrSequence irSequence, int[] expected) {
+        double[] durations = irSequence.toDoubles();
+        assertEquals(durations.length, expected.length);
+        for (int i = 0; i < expected.length; i++)
+            assertEquals((int) Math.abs(durations[i]), expected[i]);
+    }
+
+    /**
+     * Test of receive method, of class LircMode2: signals are delimited by the long spaces,
+     * and the timeout line, of the recording.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testReceive() throws Exception {
+        System.out.println("receive");
+        try (LircMode2 lircMode2 = new LircMode2(new FakeProcess(recording), false, 1000, 500, 1000)) {
+            lircMode2.open();
+            assertDurations(lircMode2.receive(), first);
+            assertDurations(lircMode2.receive(), second);
+            assertDurations(lircMode2.receive(), third);
+            assertNull(lircMode2.receive());
+        }
+    }
+
+    /**
+     * Test of receive method, of class LircMode2: the signal is delivered as soon as its ending space
+     * has been read, while the process is still running.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testReceiveHandOff() throws Exception {
+        System.out.println("receiveHandOff");
+        PipedOutputStream mode2 = new PipedOutputStream();
+        try (LircMode2 lircMode2 = new LircMode2(new FakeProcess(new PipedInputStream(mode2)), false, 5000, 500, 1000)) {
+            lircMode2.open();
+            lircMode2.setBeginTimeout(10);
+            lircMode2.receive(); // starts the reader, returns null after the begin timeout
+            lircMode2.setBeginTimeout(5000);
+            write(mode2, "pulse 9000\nspace 4500\npulse 560\nspace 2000000\n");
+            long start = System.nanoTime();
+            assertDurations(lircMode2.receive(), second);
+            // far below the ending timeout of 1000 ms, that would have been waited for without the ending space.
+            assertTrue(System.nanoTime() - start < 500000000L);
+            mode2.close();
+            assertNull(lircMode2.receive());
+        }
+    }
+
+    private static void write(OutputStream stream, String string) throws IOException {
+        stream.write(string.getBytes(StandardCharsets.US_ASCII));
+        stream.flush();
+    }
+}
@@ -24,6 +24,7 @@ import javax.sound.sampled.LineUnavailableException;
 import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
 import org.harctoolbox.IrpMaster.ModulatedIrSequence;
 import org.harctoolbox.IrpMaster.Wave;
+import org.harctoolbox.IrpMaster.WaveGenerator;
 import org.harctoolbox.harchardware.ir.IrAudioDevice;
 
 public class AudioParametersBean extends javax.swing.JPanel {
@@ -98,6 +99,10 @@ public class AudioParametersBean extends javax.swing.JPanel {
         return new Wave(irSequence, getAudioFormat(), getOmitTrailingGap(), getSquare(), getDivideCarrier());
     }
 
+    public WaveGenerator newWaveGenerator(ModulatedIrSequence irSequence) {
+        return new WaveGenerator(irSequence, getAudioFormat(), getOmitTrailingGap(), getSquare(), getDivideCarrier());
+    }
+
     public IrAudioDevice newIrAudioDevice() {
         return new IrAudioDevice(getSampleFrequency(), getChannels(), getOmitTrailingGap(), verbose);
     }
@@ -107,7 +112,7 @@ public class AudioParametersBean extends javax.swing.JPanel {
     }
 
     public void play(ModulatedIrSequence irSequence) throws LineUnavailableException, IncompatibleArgumentException, IOException {
-        newWave(irSequence).play();
+        newWaveGenerator(irSequence).play();
     }
 
     /**
@@ -0,0 +1,111 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.irscrutinizer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a continuous capture session: signals captured, dropped since the analysis queue was full,
+ * analyzed, and the time spent analyzing. Thread safe.
+ */
+public class CaptureStatistics {
+
+    private final long startTime;
+    private volatile long stopTime = -1L;
+    private final AtomicInteger captured = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger analyzed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong analysisNanos = new AtomicLong();
+
+    public CaptureStatistics() {
+        startTime = System.currentTimeMillis();
+    }
+
+    void captured() {
+        captured.incrementAndGet();
+    }
+
+    void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    void analyzed(long nanos) {
+        analyzed.incrementAndGet();
+        analysisNanos.addAndGet(nanos);
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    void stop() {
+        stopTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return number of signals delivered by the capturing hardware.
+     */
+    public int getCaptured() {
+        return captured.get();
+    }
+
+    /**
+     * @return number of captured signals thrown away, since the analysis could not keep up.
+     */
+    public int getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of captured signals analyzed, including failures.
+     */
+    public int getAnalyzed() {
+        return analyzed.get();
+    }
+
+    /**
+     * @return number of captured signals that could not be analyzed or decoded.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return mean time of the analysis of a signal, in milliseconds.
+     */
+    public double getMeanAnalysisTime() {
+        int n = analyzed.get();
+        return n > 0 ? analysisNanos.get() / (1000000.0 * n) : 0;
+    }
+
+    /**
+     * @return analyzed signals per second, up to now or the end of the session.
+     */
+    public double getThroughput() {
+        long end = stopTime >= 0 ? stopTime : System.currentTimeMillis();
+        return end > startTime ? 1000.0 * analyzed.get() / (end - startTime) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d captured, %d dropped, %d analyzed (%d failed), %.1f ms/signal, %.2f signals/s",
+                getCaptured(), getDropped(), getAnalyzed(), getFailed(), getMeanAnalysisTime(), getThroughput());
+    }
+}
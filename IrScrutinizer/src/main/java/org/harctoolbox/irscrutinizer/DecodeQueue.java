@@ -0,0 +1,268 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.irscrutinizer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.SwingUtilities;
+import org.harctoolbox.IrpMaster.DecodeIR;
+import org.harctoolbox.IrpMaster.ExchangeIR;
+import org.harctoolbox.IrpMaster.IrSignal;
+
+/**
+ * Decodes, and possibly analyzes, RawIrSignals with a pool of background threads,
+ * so that large imports do not block the GUI. The results are handed to the RawIrSignal,
+ * and to the Listener, on the event dispatch thread.
+ *
+ * <p>Results are cached, keyed by the timing data of the signal, so decoding a signal seen before is free.
+ * The cache, and the serialization of the calls to DecodeIR, is shared with the synchronous
+ * decoding in RawIrSignal and ParametrizedIrSignal.
+ */
+public class DecodeQueue {
+
+    private static final int cacheSize = 10000;
+
+    private static final Map<Key, Result> cache = Collections.synchronizedMap(new LinkedHashMap<Key, Result>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+            return size() > cacheSize;
+        }
+    });
+
+    // DecodeIR is a native library of unknown reentrancy; call it from one thread at a time.
+    private static final Object decodeIrLock = new Object();
+
+    /**
+     * Returns the decodes and the analysis of the signal, from the cache, or computed.
+     *
+     * @param irSignal
+     * @param invokeAnalyzer if false, the analyzer string of the result is null.
+     * @return Result, never null.
+     */
+    static Result analyze(IrSignal irSignal, boolean invokeAnalyzer) {
+        Key key = new Key(irSignal);
+        Result result = lookup(key, invokeAnalyzer);
+        if (result != null)
+            return result;
+
+        Result cached = cache.get(key);
+        DecodeIR.DecodedSignal[] decodes;
+        if (cached != null)
+            decodes = cached.decodes;
+        else {
+            synchronized (decodeIrLock) {
+                decodes = DecodeIR.decode(irSignal);
+            }
+        }
+        // Analyzer misbehaves on zero length signals, be careful.
+        String analyzerString = invokeAnalyzer && irSignal.getIntroLength() > 0 ? ExchangeIR.newAnalyzer(irSignal).toString() : null;
+        result = new Result(decodes, analyzerString, invokeAnalyzer);
+        cache.put(key, result);
+        return invokeAnalyzer ? result : result.withoutAnalyzer();
+    }
+
+    private static Result lookup(Key key, boolean invokeAnalyzer) {
+        Result cached = cache.get(key);
+        return cached == null ? null
+                : !invokeAnalyzer ? cached.withoutAnalyzer()
+                : cached.analyzed ? cached
+                : null;
+    }
+
+    /**
+     * Receives the completion of every signal submitted, on the event dispatch thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when signal has been decoded, or skipped by cancel().
+         * @param signal
+         * @param completed number of signals completed since the queue was last idle, including this one.
+         * @param submitted number of signals submitted since the queue was last idle.
+         */
+        public void decoded(RawIrSignal signal, int completed, int submitted);
+    }
+
+    private final ExecutorService executor;
+    private final Listener listener;
+    private int generation = 0;
+    private int submitted = 0;
+    private int completed = 0;
+
+    /**
+     * @param threads number of worker threads.
+     * @param listener
+     */
+    public DecodeQueue(int threads, Listener listener) {
+        this.listener = listener;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int number = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DecodeQueue-" + ++number);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Uses one thread per available processor.
+     * @param listener
+     */
+    public DecodeQueue(Listener listener) {
+        this(Runtime.getRuntime().availableProcessors(), listener);
+    }
+
+    /**
+     * Queues the signal for decoding. If the result is in the cache, it is delivered at once,
+     * otherwise the signal is decoded in the background.
+     * If the IrSignal of the RawIrSignal has been changed in the mean time, the result is discarded.
+     *
+     * @param signal RawIrSignal, normally constructed pending.
+     * @param invokeAnalyzer
+     */
+    public void submit(final RawIrSignal signal, final boolean invokeAnalyzer) {
+        final IrSignal irSignal = signal.getIrSignal();
+        final int submitGeneration;
+        synchronized (this) {
+            submitted++;
+            submitGeneration = generation;
+        }
+
+        Result cached = lookup(new Key(irSignal), invokeAnalyzer);
+        if (cached != null) {
+            deliver(signal, irSignal, cached);
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Result result = isCurrent(submitGeneration) ? analyze(irSignal, invokeAnalyzer) : null;
+                deliver(signal, irSignal, result);
+            }
+        });
+    }
+
+    /**
+     * Skips all signals not yet being decoded; they are delivered as not decoded.
+     */
+    public synchronized void cancel() {
+        generation++;
+    }
+
+    /**
+     * @return true if all signals submitted have been delivered.
+     */
+    public synchronized boolean isIdle() {
+        return completed == submitted;
+    }
+
+    /**
+     * Stops the worker threads. Signals not yet decoded are never delivered.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private synchronized boolean isCurrent(int submitGeneration) {
+        return submitGeneration == generation;
+    }
+
+    private void deliver(final RawIrSignal signal, final IrSignal irSignal, final Result result) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                if (signal.getIrSignal() == irSignal)
+                    signal.setResult(result);
+                int done;
+                int total;
+                synchronized (DecodeQueue.this) {
+                    done = ++completed;
+                    total = submitted;
+                    if (completed == submitted)
+                        completed = submitted = 0;
+                }
+                if (listener != null)
+                    listener.decoded(signal, done, total);
+            }
+        };
+        if (SwingUtilities.isEventDispatchThread())
+            runnable.run();
+        else
+            SwingUtilities.invokeLater(runnable);
+    }
+
+    /**
+     * Decodes and analyzer string of a signal.
+     */
+    static final class Result {
+        final DecodeIR.DecodedSignal[] decodes;
+        final String analyzerString;
+        final boolean analyzed;
+
+        private Result(DecodeIR.DecodedSignal[] decodes, String analyzerString, boolean analyzed) {
+            this.decodes = decodes;
+            this.analyzerString = analyzerString;
+            this.analyzed = analyzed;
+        }
+
+        private Result withoutAnalyzer() {
+            return analyzed ? new Result(decodes, null, false) : this;
+        }
+    }
+
+    // The data used by DecodeIR and the Analyzer.
+    private static final class Key {
+        private final int[] data;
+        private final int introBursts;
+        private final int repeatBursts;
+        private final double frequency;
+        private final int hashCode;
+
+        Key(IrSignal irSignal) {
+            data = irSignal.toIntArray();
+            introBursts = irSignal.getIntroBursts();
+            repeatBursts = irSignal.getRepeatBursts();
+            frequency = irSignal.getFrequency();
+            hashCode = 31 * (31 * (31 * Arrays.hashCode(data) + introBursts) + repeatBursts) + Double.valueOf(frequency).hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key key = (Key) obj;
+            return hashCode == key.hashCode && introBursts == key.introBursts && repeatBursts == key.repeatBursts
+                    && frequency == key.frequency && Arrays.equals(data, key.data);
+        }
+    }
+}
@@ -46,6 +46,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import javax.comm.DriverGenUnix;
 import javax.swing.AbstractButton;
 import javax.swing.DefaultComboBoxModel;
@@ -53,6 +61,7 @@ import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
 import javax.swing.JPopupMenu.Separator;
 import javax.swing.JTable;
+import javax.swing.ProgressMonitor;
 import javax.swing.TransferHandler;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableModel;
@@ -117,15 +126,21 @@ public class GuiMain extends javax.swing.JFrame {
     private final RawIrSignal.RawTableModel rawTableModel;
     private final ParametrizedIrSignal.ParameterIrSignalTableModel parameterTableModel;
     private transient CaptureThread captureThread = null;
+    private transient volatile CaptureStatistics captureStatistics = null;
     private final String[] prontoModelNames;
     private transient ExportFormatManager exportFormatManager;
     private transient SendingHardwareManager sendingHardwareManager = null;
     private transient SendingLircClient sendingLircClient;
     private transient CapturingHardwareManager capturingHardwareManager;
+    private transient DecodeQueue decodeQueue = null;
+    private transient ProgressMonitor decodeProgressMonitor = null;
+    private boolean decodeCancelled = false;
 
     private Remote.MetaData metaData = new Remote.MetaData("unnamed");
 
     private final static int importSequenceAskThreshold = 3;
+    private final static int decodeProgressThreshold = 100;
+    private final static int captureQueueSize = 32;
     private final static int maxCharsInGuiMessages = 150;
     private final static int transmitSignalMouseButton = 2;
 
@@ -784,6 +799,8 @@ public class GuiMain extends javax.swing.JFrame {
         }
         capturingHardwareManager.close();
         sendingHardwareManager.close();
+        if (decodeQueue != null)
+            decodeQueue.shutdown();
         try {
             if (!properties.getWasReset())
                 properties.setBounds(getBounds());
@@ -1341,15 +1358,15 @@ public class GuiMain extends javax.swing.JFrame {
     private static ModulatedIrSequence concatenateAsSequence(Collection<Command>commands) throws IrpMasterException {
         double frequency = IrpUtils.invalid;
         double dutyCycle = IrpUtils.invalid;
-        IrSequence seq = new IrSequence();
+        IrSequenceBuilder builder = new IrSequenceBuilder();
         for (Command c : commands) {
             if (frequency < 0) // take the first sensible frequency
                 frequency = c.getFrequency();
             if (dutyCycle <= 0)
                 dutyCycle = c.getDutyCycle();
-            seq = seq.append(c.toIrSignal().toModulatedIrSequence(1));
+            builder.append(c.toIrSignal().toModulatedIrSequence(1));
         }
-        return new ModulatedIrSequence(seq, frequency, dutyCycle);
+        return builder.toModulatedIrSequence(frequency, dutyCycle);
     }
 
     private void importSequence(ICommandImporter importer) throws IrpMasterException {
@@ -1474,37 +1491,61 @@ public class GuiMain extends javax.swing.JFrame {
 
     private void registerRawCommands(Collection<Command> commands) throws IrpMasterException {
         for (Command command : commands)
-            registerRawCommand(new RawIrSignal(command, properties.getInvokeAnalyzer()));
+            registerRawCommand(command);
     }
 
+    // The row is inserted at once, the decode is filled in by the DecodeQueue.
     private void registerRawCommand(Command command) throws IrpMasterException {
-        registerRawCommand(new RawIrSignal(command, properties.getInvokeAnalyzer()));
+        RawIrSignal rawIrSignal = new RawIrSignal(command);
+        registerRawCommand(rawIrSignal);
+        getDecodeQueue().submit(rawIrSignal, properties.getInvokeAnalyzer());
     }
 
-    private void registerParameterCommand(Command command) throws IrpMasterException {
-        registerParameterSignal(new ParametrizedIrSignal(command));
+    private DecodeQueue getDecodeQueue() {
+        if (decodeQueue == null)
+            decodeQueue = new DecodeQueue(new DecodeQueue.Listener() {
+                @Override
+                public void decoded(RawIrSignal signal, int completed, int submitted) {
+                    rawTableModel.updateDecode(signal);
+                    updateDecodeProgress(completed, submitted);
+                }
+            });
+        return decodeQueue;
     }
 
-    private void registerRawSignal(IrSignal irSignal, String name, String comment) {
-        if (irSignal != null) {
-            RawIrSignal cis = new RawIrSignal(irSignal, name, comment, properties.getInvokeAnalyzer());
-            registerRawCommand(cis);
+    private void updateDecodeProgress(int completed, int submitted) {
+        if (completed == submitted) {
+            if (decodeProgressMonitor != null)
+                decodeProgressMonitor.close();
+            decodeProgressMonitor = null;
+            decodeCancelled = false;
+            return;
         }
+        if (decodeCancelled)
+            return;
+
+        if (decodeProgressMonitor == null) {
+            if (submitted < decodeProgressThreshold)
+                return;
+            decodeProgressMonitor = new ProgressMonitor(this, "Decoding imported signals", null, 0, submitted);
+        }
+        if (decodeProgressMonitor.isCanceled()) {
+            decodeQueue.cancel();
+            decodeCancelled = true;
+            decodeProgressMonitor = null;
+            return;
+        }
+        decodeProgressMonitor.setMaximum(submitted);
+        decodeProgressMonitor.setProgress(completed);
+        decodeProgressMonitor.setNote(completed + "/" + submitted);
     }
 
-    private void registerRawCommand(RawIrSignal cir) {
-        rawTableModel.addSignal(cir);
+    private void registerParameterCommand(Command command) throws IrpMasterException {
+        registerParameterSignal(new ParametrizedIrSignal(command));
     }
 
-    private void registerParameterSignal(IrSignal irSignal, String name, String comment) {
-        if (irSignal != null) {
-            try {
-                ParametrizedIrSignal pir = new ParametrizedIrSignal(irSignal, name, comment, properties.getParametrizedLearnIgnoreT());
-                registerParameterSignal(pir);
-            } catch (DecodeIrException ex) {
-                guiUtils.message("Undecodable signal, ignored");
-            }
-        }
+    private void registerRawCommand(RawIrSignal cir) {
+        rawTableModel.addSignal(cir);
     }
 
     private void registerParameterSignal(Collection<Command> commands) throws IrpMasterException {
@@ -1541,33 +1582,122 @@ public class GuiMain extends javax.swing.JFrame {
         (new CopyClipboardText(null)).toClipboard(str.toString());
     }
 
+    /**
+     * Continuous capture. This thread only captures, and re-arms the hardware immediately;
+     * the captured sequences are analyzed (repeat finder, cleaner, DecodeIR) by a pool of threads,
+     * and registered, in capture order, by a separate thread.
+     * If more than captureQueueSize signals are waiting for analysis, new captures are dropped.
+     */
     private class CaptureThread extends Thread {
+        private final ExecutorService analyzers;
+        private final BlockingQueue<Future<NamedIrSignal>> analyses = new ArrayBlockingQueue<>(captureQueueSize);
+        private final Future<NamedIrSignal> endOfCapture = new FutureTask<>(new Callable<NamedIrSignal>() {
+            @Override
+            public NamedIrSignal call() {
+                return null;
+            }
+        });
+        private final CaptureStatistics statistics = new CaptureStatistics();
+
         CaptureThread() {
+            super("CaptureThread");
+            analyzers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
         }
 
         @Override
         public void run() {
-            while (startStopToggleButton.isSelected()) {
-                try {
-                    ModulatedIrSequence sequence = captureIrSequence();
-                    if (sequence != null) {
-                        IrSignal irSignal = InterpretString.interpretIrSequence(sequence,
-                                properties.getInvokeRepeatFinder(),
-                                properties.getInvokeCleaner());
-                        if (rawPanel.isVisible()) {
-                            registerRawSignal(irSignal, null, null);
-                        } else {
-                            registerParameterSignal(irSignal, null, null);
+            captureStatistics = statistics;
+            Thread registrar = new Thread("CaptureRegistrar") {
+                @Override
+                public void run() {
+                    register();
+                }
+            };
+            registrar.start();
+            try {
+                while (startStopToggleButton.isSelected()) {
+                    try {
+                        ModulatedIrSequence sequence = captureIrSequence();
+                        if (sequence != null) {
+                            statistics.captured();
+                            // This is the only producer, so the capacity cannot shrink before the put.
+                            if (analyses.remainingCapacity() == 0)
+                                statistics.dropped();
+                            else
+                                analyses.put(analyzers.submit(newAnalysis(sequence, rawPanel.isVisible())));
                         }
+                    } catch (IOException | HarcHardwareException | IrpMasterException ex) {
+                        guiUtils.error(ex);
+                        startStopToggleButton.setSelected(false);
                     }
-                } catch (IOException | HarcHardwareException | IrpMasterException ex) {
-                    guiUtils.error(ex);
-                    startStopToggleButton.setSelected(false);
                 }
+                analyses.put(endOfCapture);
+                registrar.join();
+            } catch (InterruptedException ex) {
+                registrar.interrupt();
+            } finally {
+                analyzers.shutdownNow();
+                statistics.stop();
             }
+            if (properties.getVerbose())
+                System.err.println("Capture: " + statistics);
             captureThread = null;
             enableRawCaptureOnly(false);
         }
+
+        private Callable<NamedIrSignal> newAnalysis(final ModulatedIrSequence sequence, final boolean raw) {
+            final boolean invokeRepeatFinder = properties.getInvokeRepeatFinder();
+            final boolean invokeCleaner = properties.getInvokeCleaner();
+            final boolean invokeAnalyzer = properties.getInvokeAnalyzer();
+            final boolean ignoreT = properties.getParametrizedLearnIgnoreT();
+            return new Callable<NamedIrSignal>() {
+                @Override
+                public NamedIrSignal call() throws DecodeIrException {
+                    long start = System.nanoTime();
+                    try {
+                        IrSignal irSignal = InterpretString.interpretIrSequence(sequence, invokeRepeatFinder, invokeCleaner);
+                        return irSignal == null ? null
+                                : raw ? new RawIrSignal(irSignal, null, null, invokeAnalyzer)
+                                : new ParametrizedIrSignal(irSignal, null, null, ignoreT);
+                    } finally {
+                        statistics.analyzed(System.nanoTime() - start);
+                    }
+                }
+            };
+        }
+
+        private void register() {
+            try {
+                while (true) {
+                    Future<NamedIrSignal> analysis = analyses.take();
+                    if (analysis == endOfCapture)
+                        return;
+                    try {
+                        NamedIrSignal signal = analysis.get();
+                        if (signal instanceof RawIrSignal)
+                            registerRawCommand((RawIrSignal) signal);
+                        else if (signal != null)
+                            registerParameterSignal((ParametrizedIrSignal) signal);
+                    } catch (ExecutionException ex) {
+                        statistics.failed();
+                        if (ex.getCause() instanceof DecodeIrException)
+                            guiUtils.message("Undecodable signal, ignored");
+                        else
+                            guiUtils.error(ex.getCause().getMessage());
+                    }
+                }
+            } catch (InterruptedException ex) {
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of the current, or the last, continuous capture session.
+     *
+     * @return CaptureStatistics, or null if there has been no capture session.
+     */
+    public CaptureStatistics getCaptureStatistics() {
+        return captureStatistics;
     }
 
     private void enableRawCaptureOnly(boolean value) {
@@ -109,7 +109,7 @@ public class ParametrizedIrSignal extends NamedIrSignal {
 
     public ParametrizedIrSignal(IrSignal irSignal, String name, String comment, boolean ignoreT) throws DecodeIrException {
         super(name, comment);
-        DecodeIR.DecodedSignal[] decodes = DecodeIR.decode(irSignal);
+        DecodeIR.DecodedSignal[] decodes = DecodeQueue.analyze(irSignal, false).decodes;
         if (decodes.length == 0) {
             decrementCount();
             throw new DecodeIR.DecodeIrException("No decode");
@@ -17,8 +17,8 @@ this program. If not, see http://www.gnu.org/licenses/.
 
 package org.harctoolbox.irscrutinizer;
 
+import java.util.Vector;
 import org.harctoolbox.IrpMaster.DecodeIR;
-import org.harctoolbox.IrpMaster.ExchangeIR;
 import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
 import org.harctoolbox.IrpMaster.IrSequence;
 import org.harctoolbox.IrpMaster.IrSignal;
@@ -48,9 +48,12 @@ public class RawIrSignal extends NamedIrSignal {
         decode = aDecode;
     }
     
+    private static final String pendingDecodeString = "(decoding...)";
+
     private IrSignal irSignal;
     private String analyzerString;
     private DecodeIR.DecodedSignal[] decodes;
+    private boolean pending;
 
     public RawIrSignal(IrSignal irSignal, String name, String comment, boolean invokeAnalyzer) {
         super(name, comment);
@@ -61,11 +64,36 @@ public class RawIrSignal extends NamedIrSignal {
         this(command.toIrSignal(), command.getName(), command.getComment(), invokeAnalyzer);
     }
 
+    /**
+     * Constructs a RawIrSignal with its decode pending, to be submitted to a DecodeQueue.
+     * @param command
+     * @throws IrpMasterException
+     */
+    public RawIrSignal(Command command) throws IrpMasterException {
+        super(command.getName(), command.getComment());
+        irSignal = command.toIrSignal();
+        pending = true;
+    }
+
     private void setIrSignal(IrSignal irSignal, boolean invokeAnalyzer) {
         this.irSignal = irSignal;
-        decodes = DecodeIR.decode(irSignal);
-        if (invokeAnalyzer  && irSignal.getIntroLength() > 0) // Analyzer misbehaves on zero length signals, be careful.
-            analyzerString = ExchangeIR.newAnalyzer(irSignal).toString();
+        setResult(DecodeQueue.analyze(irSignal, invokeAnalyzer));
+    }
+
+    /**
+     * Sets the decodes and analysis; null for a signal that was not decoded.
+     */
+    void setResult(DecodeQueue.Result result) {
+        decodes = result != null ? result.decodes : null;
+        analyzerString = result != null ? result.analyzerString : null;
+        pending = false;
+    }
+
+    /**
+     * @return true if the decode has not yet been delivered by the DecodeQueue.
+     */
+    public boolean isPending() {
+        return pending;
     }
 
     public Command toCommand() {
@@ -82,11 +110,11 @@ public class RawIrSignal extends NamedIrSignal {
     }
 
     public String getDecodeString() {
-        return DecodeIR.DecodedSignal.toPrintString(decodes, false);
+        return pending ? pendingDecodeString : DecodeIR.DecodedSignal.toPrintString(decodes, false);
     }
 
     public int getNoDecodes() {
-        return decodes.length;
+        return decodes != null ? decodes.length : 0;
     }
 
     public String getAnalyzerString() {
@@ -149,6 +177,8 @@ public class RawIrSignal extends NamedIrSignal {
         public static final int posRepetition = 3;
         public static final int posEnding = 4;
         public static final int posName = 5;
+        public static final int posDecode = 6;
+        public static final int posAnalyze = 7;
         public static final int posVerified = 8;
         public static final int posComment = 9;
         public static final int posFrequency = 10;
@@ -215,6 +245,8 @@ public class RawIrSignal extends NamedIrSignal {
     }
 
     public static class RawTableModel extends NamedIrSignal.LearnedIrSignalTableModel {
+        private int lastUpdatedRow = 0;
+
         public RawTableModel() {
             super(new CapturedIrSignalColumns());
         }
@@ -231,6 +263,29 @@ public class RawIrSignal extends NamedIrSignal {
             return rir.toCommand();
         }
 
+        /**
+         * Updates the decode and analyze columns of the row of the signal, if still present,
+         * after the DecodeQueue has delivered it.
+         * @param signal
+         */
+        @SuppressWarnings("unchecked")
+        public void updateDecode(RawIrSignal signal) {
+            // Signals are normally delivered in the order they were added, so start looking where the last one was found.
+            int rows = getRowCount();
+            for (int i = 0; i < rows; i++) {
+                int row = (lastUpdatedRow + i) % rows;
+                if (getValueAt(row, CapturedIrSignalColumns.posCapturedIrSignal) == signal) {
+                    // Not setValueAt, since fireTableCellUpdated is for user edits.
+                    Vector<Object> rowData = (Vector<Object>) getDataVector().get(row);
+                    rowData.set(CapturedIrSignalColumns.posDecode, signal.getDecodeString());
+                    rowData.set(CapturedIrSignalColumns.posAnalyze, signal.getAnalyzerString());
+                    fireTableRowsUpdated(row, row);
+                    lastUpdatedRow = row;
+                    return;
+                }
+            }
+        }
+
         @Override
         public void fireTableCellUpdated(int row, int column) {
             boolean invokeAnalyzer = true; // ???
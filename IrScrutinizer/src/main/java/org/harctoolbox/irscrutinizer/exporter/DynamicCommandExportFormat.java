@@ -20,8 +20,11 @@ package org.harctoolbox.irscrutinizer.exporter;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import org.harctoolbox.IrpMaster.IrpMasterException;
 import org.harctoolbox.IrpMaster.IrpUtils;
 import org.harctoolbox.IrpMaster.XmlUtils;
@@ -41,7 +44,7 @@ public class DynamicCommandExportFormat extends RemoteSetExporter implements ICo
     private final boolean simpleSequence;
     private final boolean binary;
     private final Document xslt;
-
+    private final Templates templates;
 
     public DynamicCommandExportFormat(Element el) {
         super();
@@ -52,6 +55,7 @@ public class DynamicCommandExportFormat extends RemoteSetExporter implements ICo
         xslt = XmlUtils.newDocument(true);
         Node stylesheet = el.getElementsByTagName("xsl:stylesheet").item(0);
         xslt.appendChild(xslt.importNode(stylesheet, true));
+        templates = DynamicRemoteSetExportFormat.newTemplates(xslt, Collections.singletonList("noRepeats"), formatName);
     }
 
     @Override
@@ -78,7 +82,7 @@ public class DynamicCommandExportFormat extends RemoteSetExporter implements ICo
     public void export(RemoteSet remoteSet, String title, int noRepeats, File saveFile, String charsetName)
             throws IrpMasterException, IOException {
 
-        Document document = remoteSet.xmlExportDocument(title,
+        Source source = remoteSet.xmlExportSource(title,
                 null,
                 null,
                 true, //fatRaw,
@@ -87,15 +91,21 @@ public class DynamicCommandExportFormat extends RemoteSetExporter implements ICo
                 true, //generateCcf,
                 true //generateParameters)
                 );
-        export(document, saveFile.getCanonicalPath(), charsetName, noRepeats);
+        export(new XmlExporter(source), saveFile.getCanonicalPath(), charsetName, noRepeats);
     }
 
     void export(Document document, String fileName, String charsetName, int noRepeats) throws IOException, IrpMasterException {
-        XmlExporter xmlExporter = new XmlExporter(document);
+        export(new XmlExporter(document), fileName, charsetName, noRepeats);
+    }
+
+    private void export(XmlExporter xmlExporter, String fileName, String charsetName, int noRepeats) throws IOException, IrpMasterException {
         try (OutputStream out = IrpUtils.getPrintSteam(fileName)) {
-            Map<String, String> parameters = new HashMap<>(1);
-            parameters.put("noRepeats", Integer.toString(noRepeats));
-            xmlExporter.printDOM(out, xslt, parameters, binary, charsetName);
+            Map<String, Integer> parameters = new HashMap<>(1);
+            parameters.put("noRepeats", noRepeats);
+            if (templates != null)
+                xmlExporter.printDOM(out, templates, parameters, binary, charsetName);
+            else
+                xmlExporter.printDOM(out, xslt, DynamicRemoteSetExportFormat.quote(parameters), binary, charsetName);
         }
     }
 }
@@ -24,6 +24,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -31,6 +33,9 @@ import java.util.Map;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
 import org.harctoolbox.IrpMaster.IrpMasterException;
 import org.harctoolbox.IrpMaster.IrpUtils;
 import org.harctoolbox.IrpMaster.XmlUtils;
@@ -50,6 +55,30 @@ public class DynamicRemoteSetExportFormat extends RemoteSetExporter implements I
     public final static String exportFormatNamespace = "http://www.harctoolbox.org/exportformats";
     private static JCommander argumentParser;
     private static final CommandLineArgs commandLineArgs = new CommandLineArgs();
+    private static final List<String> standardParameterNames = Arrays.asList("encoding", "creatingUser", "creatingTool", "creatingDate");
+
+    /**
+     * Compiles the stylesheet of an export format.
+     * @return compiled stylesheet, or null if it cannot be compiled, in which case the stylesheet is used as it is.
+     */
+    static Templates newTemplates(Document xslt, Collection<String> parameterNames, String formatName) {
+        try {
+            return XmlExporter.newTemplates(xslt, parameterNames);
+        } catch (TransformerConfigurationException ex) {
+            System.err.println("Export format " + formatName + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Turns parameter values into XPath string literals, as required when not using Templates.
+     */
+    static Map<String, String> quote(Map<String, ?> parameters) {
+        Map<String, String> result = new HashMap<>(parameters.size());
+        for (Map.Entry<String, ?> kvp : parameters.entrySet())
+            result.put(kvp.getKey(), kvp.getValue() instanceof String ? "'" + kvp.getValue() + "'" : kvp.getValue().toString());
+        return result;
+    }
 
     static Map<String, IExporterFactory> parseExportFormats(File file) throws ParserConfigurationException, SAXException, IOException {
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -149,6 +178,7 @@ public class DynamicRemoteSetExportFormat extends RemoteSetExporter implements I
     private final boolean binary;
     private final boolean metadata;
     private final Document xslt;
+    private final Templates templates;
 
     private DynamicRemoteSetExportFormat(Element el) {
         super();
@@ -161,6 +191,7 @@ public class DynamicRemoteSetExportFormat extends RemoteSetExporter implements I
         xslt = XmlUtils.newDocument(true);
         Node stylesheet = el.getElementsByTagNameNS("http://www.w3.org/1999/XSL/Transform", "stylesheet").item(0);
         xslt.appendChild(xslt.importNode(stylesheet, true));
+        templates = newTemplates(xslt, standardParameterNames, formatName);
     }
 
     @Override
@@ -194,7 +225,7 @@ public class DynamicRemoteSetExportFormat extends RemoteSetExporter implements I
     }
 
     private void export(RemoteSet remoteSet, String title, int count, String fileName, String charsetName) throws IOException, IrpMasterException {
-        Document document = remoteSet.xmlExportDocument(title,
+        Source source = remoteSet.xmlExportSource(title,
                 null,
                 null,
                 true, //fatRaw,
@@ -203,22 +234,28 @@ public class DynamicRemoteSetExportFormat extends RemoteSetExporter implements I
                 true, //generateCcf,
                 true //generateParameters)
         );
-        export(document, fileName, charsetName);
+        export(new XmlExporter(source), fileName, charsetName);
     }
 
     private void export(Document document, String fileName, String charsetName) throws IOException, IrpMasterException {
-        XmlExporter xmlExporter = new XmlExporter(document);
+        export(new XmlExporter(document), fileName, charsetName);
+    }
+
+    private void export(XmlExporter xmlExporter, String fileName, String charsetName) throws IOException, IrpMasterException {
         try (OutputStream out = IrpUtils.getPrintSteam(fileName)) {
-            xmlExporter.printDOM(out, xslt, standardParameter(charsetName), binary, charsetName);
+            if (templates != null)
+                xmlExporter.printDOM(out, templates, standardParameter(charsetName), binary, charsetName);
+            else
+                xmlExporter.printDOM(out, xslt, quote(standardParameter(charsetName)), binary, charsetName);
         }
     }
 
     private Map<String, String> standardParameter(String charsetName) {
         Map<String, String> parameters = new HashMap<>(8);
-        parameters.put("encoding", "'" + charsetName + "'");
-        parameters.put("creatingUser", "'" + creatingUser + "'");
-        parameters.put("creatingTool", "'" + org.harctoolbox.irscrutinizer.Version.versionString + "'");
-        parameters.put("creatingDate", "'" + (new Date()).toString() + "'");
+        parameters.put("encoding", charsetName);
+        parameters.put("creatingUser", String.valueOf(creatingUser));
+        parameters.put("creatingTool", org.harctoolbox.irscrutinizer.Version.versionString);
+        parameters.put("creatingDate", (new Date()).toString());
         return parameters;
     }
 
@@ -19,11 +19,11 @@ package org.harctoolbox.irscrutinizer.exporter;
 
 import java.io.File;
 import java.io.IOException;
+import javax.xml.transform.Source;
 import org.harctoolbox.IrpMaster.IrpMasterException;
 import org.harctoolbox.girr.Command;
 import org.harctoolbox.girr.RemoteSet;
 import org.harctoolbox.girr.XmlExporter;
-import org.w3c.dom.Document;
 
 /**
  * This class does something interesting and useful. Or not...
@@ -62,9 +62,9 @@ public class GirrExporter extends RemoteSetExporter implements IRemoteSetExporte
     public void export(RemoteSet remoteSet, String title, int count, File file, String charsetName) throws IOException, IrpMasterException {
         for (Command.CommandTextFormat formatter : extraFormats)
             remoteSet.addFormat(formatter, count);
-        Document document = remoteSet.xmlExportDocument(title, girrStyleSheetType, girrStyleSheetUrl, fatRaw, createSchemaLocation,
+        Source source = remoteSet.xmlExportSource(title, girrStyleSheetType, girrStyleSheetUrl, fatRaw, createSchemaLocation,
                 generateRaw, generateCcf, generateParameters);
-        (new XmlExporter(document)).printDOM(file, charsetName);
+        (new XmlExporter(source)).printDOM(file, charsetName);
     }
 
     @Override
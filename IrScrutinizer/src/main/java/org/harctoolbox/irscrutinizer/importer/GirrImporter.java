@@ -29,6 +29,7 @@ import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import org.harctoolbox.IrpMaster.XmlUtils;
 import org.harctoolbox.girr.RemoteSet;
+import org.harctoolbox.girr.XmlImporter;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
@@ -87,7 +88,10 @@ public class GirrImporter extends RemoteSetImporter implements IReaderImporter,
         if (!doc.getDocumentElement().getTagName().equals("remotes")) {
             throw new NotGirrRemoteSetException();
         }
-        RemoteSet rs = new RemoteSet(doc);
+        loadIncremental(new RemoteSet(doc));
+    }
+
+    private void loadIncremental(RemoteSet rs) {
         if (remoteSet == null)
             remoteSet = rs;
         else
@@ -164,6 +168,14 @@ public class GirrImporter extends RemoteSetImporter implements IReaderImporter,
                 loadRecursive(file, file.getCanonicalPath());
             }
         } else {
+            if (!validate) {
+                // Fast path, without DOM; on failure, e.g. XInclude, retry with DOM for its diagnostics.
+                try {
+                    loadIncremental(XmlImporter.parse(fileOrDirectory, false));
+                    return;
+                } catch (ParseException ex) {
+                }
+            }
             try {
                 loadIncremental(XmlUtils.openXmlFile(fileOrDirectory, validate ? schema : null, true, true), origin);
             } catch (SAXParseException | ParseException ex) {
@@ -21,11 +21,13 @@ import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import javax.sound.sampled.UnsupportedAudioFileException;
+import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
 import org.harctoolbox.IrpMaster.ModulatedIrSequence;
-import org.harctoolbox.IrpMaster.Wave;
+import org.harctoolbox.IrpMaster.WaveAnalyzer;
 
 /**
- * This class wraps the IrpMaster Wave class to an importer.
+ * This class wraps the IrpMaster WaveAnalyzer class to an importer.
+ * The file is analyzed as one sequence, keeping the gaps between the burst groups.
  */
 public class WaveImporter extends FileImporter implements IModulatedIrSequenceImporter,IFileImporter {
 
@@ -47,9 +49,10 @@ public class WaveImporter extends FileImporter implements IModulatedIrSequenceIm
     @Override
     public void load(File file, String origin, String charsetName /* ignored */) throws IOException {
         try {
-            Wave wave = new Wave(file);
-            sequence = wave.analyze(divideCarrier);
-        } catch (UnsupportedAudioFileException ex) {
+            sequence = WaveAnalyzer.analyzeSequence(file, divideCarrier);
+            if (sequence == null)
+                throw new IOException("No signal found in " + file + ", only silence.");
+        } catch (UnsupportedAudioFileException | IncompatibleArgumentException ex) {
             throw new IOException(ex.getMessage());
         }
     }
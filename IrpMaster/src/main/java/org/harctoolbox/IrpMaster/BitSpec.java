@@ -28,10 +28,12 @@ public class BitSpec extends IrStreamItem {
     private int chunkSize;
     
     private PrimaryIrStream[] bitCodes;
+
+    private DurationBuffer.Pattern[] patterns = null;
     
     // Computes the upper integer part of the 2-logarithm of the integer n.
     // Treat n = 1 differently, since coding on a one-letter alphaber is ... special.
-    private static int computeNoBits(int n) {
+    static int computeNoBits(int n) {
         if (n == 1)
             return 1;
         int x = n-1;
@@ -57,6 +59,20 @@ public class BitSpec extends IrStreamItem {
         return this.bitCodes[index];
     }
     
+    /**
+     * Returns the durations of the alternative, evaluated on first use.
+     * Since a BitSpec is created for every traversal, this is once per rendering.
+     */
+    DurationBuffer.Pattern getPattern(int index) throws IncompatibleArgumentException, UnassignedException {
+        if (patterns == null)
+            patterns = new DurationBuffer.Pattern[bitCodes.length];
+        if (index < patterns.length && patterns[index] != null)
+            return patterns[index];
+        PrimaryIrStream irs = getBitIrsteam(index);
+        patterns[index] = new DurationBuffer.Pattern(irs.evaluate(null));
+        return patterns[index];
+    }
+
     public void assignBitSpecs(BitSpec bitSpec) {
         for (PrimaryIrStream pis : bitCodes) {
             pis.assignBitSpecs(bitSpec);
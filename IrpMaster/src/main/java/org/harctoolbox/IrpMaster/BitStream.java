@@ -118,6 +118,20 @@ public class BitStream extends PrimitiveIrStreamItem {
         return list;
     }
 
+    @Override
+    void render(BitSpec bitSpec, DurationBuffer buffer) throws UnassignedException, IncompatibleArgumentException {
+        if (bitSpec == null)
+            throw new UnassignedException("BitStream " + toString() + " has no associated BitSpec, cannot compute IRStream");
+        if (length % bitSpec.getChunkSize() != 0)
+            throw new IncompatibleArgumentException("chunksize (= " + bitSpec.getChunkSize() + ") does not divide bitstream length (= " + length + ").");
+
+        int noChunks = length/bitSpec.getChunkSize();
+        for (int n = 0; n < noChunks; n++) {
+            int chunkNo = noChunks - n - 1;
+            buffer.add(bitSpec.getPattern(getChunkNo(chunkNo, bitSpec.getChunkSize())));
+        }
+    }
+
     @Override
     public boolean isEmpty() {
         return length == 0;
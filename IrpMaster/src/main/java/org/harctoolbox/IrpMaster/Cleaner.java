@@ -19,103 +19,79 @@ package org.harctoolbox.IrpMaster;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 
 /**
+ * Replaces every duration by the average of its class of durations, equal within the tolerances.
  *
+ * The durations are sorted in an int array; a class is a run of sorted durations equal to its first (smallest) member.
+ * The durations are mapped to their class by binary search in the sorted durations.
  */
 public class Cleaner {
 
-    private int rawData[];
-    private List<Integer> dumbTimingsTable;
-    private List<Integer> timingsTable;
-    private HashMap<Integer, Integer> histogram;
-    private int cookedData[];
-    private int[] sorted;
-    private HashMap<Integer, Integer> lookDownTable;
+    private int[] sorted;        // all durations, sorted
+    private int[] sortedClasses; // class number of the elements of sorted
+    private int[] timingsTable;  // average duration of the class
 
-    private Cleaner(IrSequence irSequence, int absoluteTolerance, double relativeTolerance) {
-        rawData = irSequence.toInts();
-        createHistogram();
-        createDumbTimingsTable(absoluteTolerance, relativeTolerance);
-        improveTimingsTable(absoluteTolerance, relativeTolerance);
-        createCookedData();
-    }
-
-    private Cleaner() {
+    private Cleaner(int[] durations, int absoluteTolerance, double relativeTolerance) {
+        sorted = durations;
+        Arrays.sort(sorted);
+        createTimingsTable(absoluteTolerance, relativeTolerance);
     }
 
-    private void createHistogram() {
-        histogram = new HashMap<>();
-        for (int d : rawData) {
-            int old = histogram.containsKey(d) ? histogram.get(d) : 0;
-            histogram.put(d, old + 1);
-        }
+    private Cleaner(IrSequence irSequence, int absoluteTolerance, double relativeTolerance) {
+        this(irSequence.toInts(), absoluteTolerance, relativeTolerance);
     }
 
-    private void createDumbTimingsTable(int absoluteTolerance, double relativeTolerance) {
-        dumbTimingsTable = new ArrayList<>();
-        sorted = rawData.clone();
-        Arrays.sort(sorted);
-        int last = Integer.MIN_VALUE;
-        for (int d : sorted) {
-            if (!IrpUtils.isEqual(d, last, absoluteTolerance, relativeTolerance)) {
-                dumbTimingsTable.add(d);
-                last = d;
-            }
-        }
+    private Cleaner() {
     }
 
-    private void improveTimingsTable(int absoluteTolerance, double relativeTolerance) {
-        lookDownTable = new HashMap<>();
-        timingsTable = new ArrayList<>();
-        int indexInSortedTimings = 0;
-        for (int timingsIndex = 0; timingsIndex < dumbTimingsTable.size(); timingsIndex++) {
-            int dumbTiming = dumbTimingsTable.get(timingsIndex);
-            int sum = 0;
+    private void createTimingsTable(int absoluteTolerance, double relativeTolerance) {
+        sortedClasses = new int[sorted.length];
+        int[] table = new int[sorted.length];
+        int noClasses = 0;
+        int index = 0;
+        while (index < sorted.length) {
+            int first = sorted[index];
+            long sum = 0;
             int terms = 0;
-            int lastDuration = -1;
-            while (indexInSortedTimings < sorted.length
-                    && IrpUtils.isEqual(dumbTiming, sorted[indexInSortedTimings], absoluteTolerance, relativeTolerance)) {
-                int duration = sorted[indexInSortedTimings++];
-                if (duration == lastDuration)
-                    continue;
-                lastDuration = duration;
-                int noHits = histogram.get(duration);
-                sum += noHits * duration;
-                terms += noHits;
-                lookDownTable.put(duration, timingsIndex);
+            while (index < sorted.length && IrpUtils.isEqual(first, sorted[index], absoluteTolerance, relativeTolerance)) {
+                sum += sorted[index];
+                terms++;
+                sortedClasses[index++] = noClasses;
             }
-            int average = (int) Math.round((double)sum/(double)terms);
-            timingsTable.add(average);
+            table[noClasses++] = (int) Math.round((double) sum / (double) terms);
         }
+        timingsTable = Arrays.copyOf(table, noClasses);
     }
 
-    private void createCookedData() {
-        cookedData = new int[rawData.length];
-        for (int i = 0; i < rawData.length; i++)
-            cookedData[i] = lookDownTable.get(rawData[i]);
+    private int cookedDuration(int duration) {
+        return timingsTable[sortedClasses[Arrays.binarySearch(sorted, duration)]];
     }
 
-    private int[] toDurations() {
+    private int[] toDurations(int[] rawData) {
         int[] data = new int[rawData.length];
         for (int i = 0; i < rawData.length; i++)
-            data[i] = timingsTable.get(cookedData[i]);
+            data[i] = cookedDuration(rawData[i]);
         return data;
     }
 
-    private IrSequence toIrSequence() {
+    private IrSequence toIrSequence(IrSequence irSequence) {
         try {
-            return new IrSequence(toDurations());
+            return new IrSequence(toDurations(irSequence.toInts()));
         } catch (IncompatibleArgumentException ex) {
             throw new InternalError();
         }
     }
 
+    private ModulatedIrSequence toModulatedIrSequence(ModulatedIrSequence irSequence) {
+        return new ModulatedIrSequence(toIrSequence(irSequence), irSequence.getFrequency(), irSequence.getDutyCycle());
+    }
+
     public static IrSequence clean(IrSequence irSequence, int absoluteTolerance, double relativeTolerance) {
         Cleaner cleaner = new Cleaner(irSequence, absoluteTolerance, relativeTolerance);
-        return cleaner.toIrSequence();
+        return cleaner.toIrSequence(irSequence);
     }
 
     //public static IrSequence clean(IrSequence irSequence) {
@@ -124,10 +100,40 @@ public class Cleaner {
 
     public static ModulatedIrSequence clean(ModulatedIrSequence irSequence, int absoluteTolerance, double relativeTolerance) {
         Cleaner cleaner = new Cleaner(irSequence, absoluteTolerance, relativeTolerance);
-        return new ModulatedIrSequence(cleaner.toIrSequence(), irSequence.getFrequency(), irSequence.getDutyCycle());
+        return cleaner.toModulatedIrSequence(irSequence);
     }
 
     //public static ModulatedIrSequence clean(ModulatedIrSequence irSequence) {
     //     return clean(irSequence, (int) IrpUtils.defaultAbsoluteTolerance, IrpUtils.defaultRelativeTolerance);
     //}
+
+    /**
+     * Cleans several IrSequences against one timings table, computed from the durations of all of them.
+     * ModulatedIrSequences are returned as ModulatedIrSequences, with frequency and duty cycle preserved.
+     *
+     * @param irSequences IrSequences to clean.
+     * @param absoluteTolerance
+     * @param relativeTolerance
+     * @return List of cleaned IrSequences, in the order of the argument.
+     */
+    public static List<IrSequence> clean(Collection<? extends IrSequence> irSequences, int absoluteTolerance, double relativeTolerance) {
+        int length = 0;
+        for (IrSequence irSequence : irSequences)
+            length += irSequence.getLength();
+        int[] durations = new int[length];
+        int offset = 0;
+        for (IrSequence irSequence : irSequences) {
+            int[] data = irSequence.toInts();
+            System.arraycopy(data, 0, durations, offset, data.length);
+            offset += data.length;
+        }
+
+        Cleaner cleaner = new Cleaner(durations, absoluteTolerance, relativeTolerance);
+        List<IrSequence> result = new ArrayList<>(irSequences.size());
+        for (IrSequence irSequence : irSequences)
+            result.add(irSequence instanceof ModulatedIrSequence
+                    ? cleaner.toModulatedIrSequence((ModulatedIrSequence) irSequence)
+                    : cleaner.toIrSequence(irSequence));
+        return result;
+    }
 }
@@ -114,6 +114,11 @@ public class Duration extends PrimitiveIrStreamItem {
         return list;
     }
 
+    @Override
+    void render(BitSpec bitSpec, DurationBuffer buffer) throws IncompatibleArgumentException {
+        buffer.add(this);
+    }
+
     @Override
     public String toString() {
         return durationType + ":" + (us != IrpUtils.invalid ? (us + "u") : time_periods != IrpUtils.invalid  ? (time_periods + "p") : (this.time_units + "u"));
@@ -0,0 +1,103 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.IrpMaster;
+
+import java.util.ArrayList;
+
+/**
+ * Receives the durations of a PrimaryIrStream as it is rendered, and turns them into an IrSequence,
+ * without intermediate lists. Corresponds to the evaluate(null) in PrimaryIrStream.toIrSequence followed by the loop there.
+ */
+final class DurationBuffer {
+
+    /**
+     * The durations of a bitspec alternative, evaluated once. Extents depend on the elapsed time,
+     * so they are kept, and evaluated when emitted.
+     */
+    static final class Pattern {
+        private final double[] durations;
+        private final Extent[] extents;
+
+        Pattern(ArrayList<PrimitiveIrStreamItem> items) throws IncompatibleArgumentException {
+            durations = new double[items.size()];
+            Extent[] ext = null;
+            for (int i = 0; i < durations.length; i++) {
+                Duration duration = (Duration) items.get(i);
+                if (duration instanceof Extent) {
+                    if (ext == null)
+                        ext = new Extent[durations.length];
+                    ext[i] = (Extent) duration;
+                } else
+                    durations[i] = duration.evaluate_sign(0.0);
+            }
+            extents = ext;
+        }
+    }
+
+    private final IrSequenceBuilder data;
+    private int count = 0;
+    private double elapsed = 0;
+    private boolean seenPositive = false;
+
+    DurationBuffer(int capacity) {
+        data = new IrSequenceBuilder(capacity);
+    }
+
+    void add(Duration duration) throws IncompatibleArgumentException {
+        if (duration instanceof Extent)
+            addExtent((Extent) duration);
+        else
+            add(duration.evaluate_sign(elapsed));
+    }
+
+    void add(Pattern pattern) throws IncompatibleArgumentException {
+        if (pattern.extents == null) {
+            for (double duration : pattern.durations)
+                add(duration);
+        } else {
+            for (int i = 0; i < pattern.durations.length; i++) {
+                if (pattern.extents[i] != null)
+                    addExtent(pattern.extents[i]);
+                else
+                    add(pattern.durations[i]);
+            }
+        }
+    }
+
+    private void addExtent(Extent extent) throws IncompatibleArgumentException {
+        add(extent.evaluate_sign(elapsed));
+        elapsed = 0;
+    }
+
+    private void add(double duration) {
+        count++;
+        if (duration > 0)
+            seenPositive = true;
+
+        if (seenPositive) {
+            elapsed += Math.abs(duration);
+            data.add(duration); // merges equal signs
+        }
+    }
+
+    IrSequence toIrSequence() throws IncompatibleArgumentException {
+        if (count % 2 == 1)
+            add(-0.001); // ????
+        return data.toIrSequence();
+    }
+}
@@ -17,7 +17,9 @@ this program. If not, see http://www.gnu.org/licenses/.
 package org.harctoolbox.IrpMaster;
 
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 /**
@@ -36,16 +38,132 @@ import java.util.Collection;
  * <p>The class is (almost) immutable: it can only be constructed and then read from.
  * Also note that there is no modulation frequency herein.
  *
+ * <p>A sequence can be constructed with compact storage (see IrSequence(IrSequence, boolean)): if its durations are
+ * all integers, they are stored in an int array instead, halving the memory used. The sequences of an IrSignal
+ * constructed with compact storage from an integer array share one array. Apart from isCompact(),
+ * this is not visible through the API.
+ *
  * @see ModulatedIrSequence
  *
  */
 public class IrSequence implements Cloneable, Serializable {
-    /**
-     * Duration data, possibly with signs, which are ignored (by this class).
-     */
-    protected double[] data;
+    // Duration data, possibly with signs, which are ignored (by this class).
+    // Null if the sequence is stored compactly.
+    private double[] data;
+
+    // Compact storage: the durations are idata[offset], ..., idata[offset + length - 1].
+    // The array may be shared by other sequences (views of the same signal), using disjoint ranges.
+    private int[] idata = null;
+    private int offset = 0;
+    private int length = 0;
+
+    private transient volatile SoftReference<Pulses> pulsesCache = null;
+
     private static final double epsilon = 0.001;
     private static final int dummySpaceDuration = 50; // should not translate to 0000 in Pronto
+    private static final long negativeZeroBits = Double.doubleToRawLongBits(-0.0);
+
+    /**
+     * @return true if the durations are stored in an int array.
+     */
+    public final boolean isCompact() {
+        return data == null;
+    }
+
+    private static boolean isIntegral(double x) {
+        return x == (int) x && Double.doubleToRawLongBits(x) != negativeZeroBits;
+    }
+
+    // Takes over the array, which must not be used by the caller afterwards.
+    static IrSequence wrap(double[] array) {
+        IrSequence irSequence = new IrSequence();
+        irSequence.setData(array, false);
+        return irSequence;
+    }
+
+    private void setData(double[] array, boolean compact) {
+        pulsesCache = null;
+        if (compact) {
+            boolean integral = true;
+            for (double x : array)
+                if (!isIntegral(x)) {
+                    integral = false;
+                    break;
+                }
+            if (integral) {
+                int[] ints = new int[array.length];
+                for (int i = 0; i < array.length; i++)
+                    ints[i] = (int) array[i];
+                setData(ints, 0, ints.length, true);
+                return;
+            }
+        }
+        data = array;
+        idata = null;
+        offset = 0;
+        length = 0;
+    }
+
+    // Uses the array, without copying, if compact is true.
+    private void setData(int[] array, int offset, int length, boolean compact) {
+        pulsesCache = null;
+        if (compact) {
+            data = null;
+            idata = array;
+            this.offset = offset;
+            this.length = length;
+        } else {
+            data = new double[length];
+            for (int i = 0; i < length; i++)
+                data[i] = (double) array[i + offset];
+            idata = null;
+            this.offset = 0;
+            this.length = 0;
+        }
+    }
+
+    // Makes this use the same storage as src. Both are considered immutable after this.
+    final void share(IrSequence src) {
+        data = src.data;
+        idata = src.idata;
+        offset = src.offset;
+        length = src.length;
+        pulsesCache = src.pulsesCache;
+    }
+
+    /**
+     * Copies the durations to the array given.
+     * @param dest
+     * @param destPos
+     */
+    final void copyTo(double[] dest, int destPos) {
+        if (data != null)
+            System.arraycopy(data, 0, dest, destPos, data.length);
+        else
+            for (int i = 0; i < length; i++)
+                dest[destPos + i] = idata[offset + i];
+    }
+
+    private double at(int i) {
+        return data != null ? data[i] : idata[offset + i];
+    }
+
+    private void put(int i, double value) {
+        pulsesCache = null;
+        if (data != null)
+            data[i] = value;
+        else if (isIntegral(value))
+            idata[offset + i] = (int) value;
+        else {
+            double[] array = new double[length];
+            copyTo(array, 0);
+            array[i] = value;
+            data = array;
+            idata = null;
+            offset = 0;
+            length = 0;
+        }
+    }
 
     /**
      * Returns the i'th value, a duration in micro seconds.
@@ -54,7 +172,7 @@ public class IrSequence implements Cloneable, Serializable {
      * @return duration in microseconds, possibly with sign,
      */
     public final double get(int i) {
-        return data[i];
+        return at(i);
     }
 
     /**
@@ -63,7 +181,7 @@ public class IrSequence implements Cloneable, Serializable {
      * @return duration in microseconds, possibly with sign.
      */
     public final int iget(int i) {
-        return (int) Math.round(Math.abs(data[i]));
+        return data != null ? (int) Math.round(Math.abs(data[i])) : Math.abs(idata[offset + i]);
     }
 
     /**
@@ -82,9 +200,9 @@ public class IrSequence implements Cloneable, Serializable {
      * @return integer array of durations in micro seconds.
      */
     public final int[] toInts(boolean alternatingSigns) {
-        int[] array = new int[data.length];
-        for (int i = 0; i < data.length; i++) {
-            int duration = (int) Math.round(Math.abs(data[i]));
+        int[] array = new int[getLength()];
+        for (int i = 0; i < array.length; i++) {
+            int duration = iget(i);
             array[i] = (alternatingSigns && (i % 2 != 0)) ? -duration : duration;
         }
 
@@ -97,7 +215,11 @@ public class IrSequence implements Cloneable, Serializable {
      * @return double array of durations in micro seconds.
      */
     public final double[] toDoubles() {
-        return data.clone();
+        if (data != null)
+            return data.clone();
+        double[] array = new double[length];
+        copyTo(array, 0);
+        return array;
     }
 
     /**
@@ -106,10 +228,24 @@ public class IrSequence implements Cloneable, Serializable {
      * @return integer array of durations in periods of frequency.
      */
     public final int[] toPulses(double frequency) {
-        int[] array = new int[data.length];
-        for (int i = 0; i < data.length; i++)
-            array[i] = (int) Math.round(Math.abs(frequency*data[i]/1000000.0));
+        return pulses(frequency).clone();
+    }
 
+    /**
+     * As toPulses, but returns the cached array of the last frequency used, that must not be modified.
+     * @param frequency
+     * @return durations in periods of frequency.
+     */
+    final int[] pulses(double frequency) {
+        SoftReference<Pulses> reference = pulsesCache;
+        Pulses cached = reference != null ? reference.get() : null;
+        if (cached != null && cached.frequency == frequency)
+            return cached.pulses;
+
+        int[] array = new int[getLength()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = (int) Math.round(Math.abs(frequency*at(i)/1000000.0));
+        pulsesCache = new SoftReference<>(new Pulses(frequency, array));
         return array;
     }
 
@@ -117,7 +253,7 @@ public class IrSequence implements Cloneable, Serializable {
      * Constructs an empty IrSequence,
      */
     public IrSequence() {
-        data = new double[0];
+        setData(new double[0], false);
     }
 
     /**
@@ -128,7 +264,7 @@ public class IrSequence implements Cloneable, Serializable {
     public IrSequence(double[] data) throws IncompatibleArgumentException {
         if (data.length % 2 != 0)
             throw new IncompatibleArgumentException("IrSequence has odd length = " + data.length);
-        this.data = data.clone();
+        setData(data.clone(), false);
     }
 
     /**
@@ -155,10 +291,7 @@ public class IrSequence implements Cloneable, Serializable {
                 throw new IncompatibleArgumentException("IrSequence has odd length = " + idata.length);
         }
 
-        data = new double[length];
-        for (int i = 0; i < length; i++) {
-            data[i] = (double) idata[i];
-        }
+        setData(idata, 0, length, false);
     }
 
     /**
@@ -171,7 +304,7 @@ public class IrSequence implements Cloneable, Serializable {
      */
     public IrSequence(String str, boolean fixOddSequences) throws IncompatibleArgumentException, NumberFormatException {
         if (str == null || str.trim().isEmpty()) {
-            data = new double[0];
+            setData(new double[0], false);
         } else {
             String[] strings = str.trim().split("[\\s,;]+");
             if (strings.length == 1)
@@ -205,9 +338,7 @@ public class IrSequence implements Cloneable, Serializable {
                 else
                     throw new IncompatibleArgumentException("IrSequence ends with a space");
             }
-            data = new double[index+1];
-            for (int i = 0; i < index+1; i++)
-                data[i] = (double) tmplist[i];
+            setData(tmplist, 0, index + 1, false);
         }
     }
 
@@ -234,6 +365,14 @@ public class IrSequence implements Cloneable, Serializable {
      */
     // @throws RuntimeException If data is contradictory or erroneous.
     public IrSequence(int[] idata, int offset, int length) /*throws IncompatibleArgumentException*/ {
+        this(idata, offset, length, false);
+    }
+
+    /**
+     * As the public version, but if shared is true, the sequence is stored compactly, as a view of the array,
+     * which the caller must not modify afterwards.
+     */
+    IrSequence(int[] idata, int offset, int length, boolean shared) {
         if (length % 2 != 0)
             throw new RuntimeException("IrSequence has odd length = " + length);
         if (offset >= idata.length && length != 0)
@@ -241,9 +380,7 @@ public class IrSequence implements Cloneable, Serializable {
         if (offset + length > idata.length)
             throw new RuntimeException("IrSequence: length too large.");
 
-        data = new double[length];
-        for (int i = 0; i < length; i++)
-            data[i] = (double) idata[i+offset];
+        setData(idata, offset, length, shared);
     }
 
     /**
@@ -258,9 +395,10 @@ public class IrSequence implements Cloneable, Serializable {
         ArrayList<Double> normalized = normalize(list, true);
         if (normalized.size() % 2 != 0)
             throw new IncompatibleArgumentException("IrSequence cannot end with a flash.");
-        data = new double[normalized.size()];
+        double[] array = new double[normalized.size()];
         for (int i = 0; i < normalized.size(); i++)
-            data[i] = normalized.get(i);
+            array[i] = normalized.get(i);
+        setData(array, false);
     }
 
     /**
@@ -270,7 +408,7 @@ public class IrSequence implements Cloneable, Serializable {
      * @throws UnassignedException
      */
     public IrSequence(PrimaryIrStream irStream) throws IncompatibleArgumentException, UnassignedException {
-        this(irStream.toIrSequence());
+        share(irStream.toIrSequence());
     }
 
     /**
@@ -278,7 +416,19 @@ public class IrSequence implements Cloneable, Serializable {
      * @param src Original
      */
     public IrSequence(IrSequence src) {
-        data = src.data.clone();
+        this(src, src.isCompact());
+    }
+
+    /**
+     * Constructs an IrSequence from the parameter data, by cloning, selecting the storage.
+     * @param src Original
+     * @param compact If true, and all durations are integers, they are stored in an int array.
+     */
+    public IrSequence(IrSequence src, boolean compact) {
+        if (src.data == null && compact)
+            setData(Arrays.copyOfRange(src.idata, src.offset, src.offset + src.length), 0, src.length, true);
+        else
+            setData(src.toDoubles(), compact);
     }
 
     /**
@@ -287,11 +437,13 @@ public class IrSequence implements Cloneable, Serializable {
      * @return new IrSequence
      */
     public static IrSequence concatenate(Collection<IrSequence> sequences) {
-        IrSequence s = new IrSequence();
-        for (IrSequence seq : sequences) {
-            s = s.append(seq);
-        }
-        return s;
+        int length = 0;
+        for (IrSequence seq : sequences)
+            length += seq.getLength();
+        IrSequenceBuilder builder = new IrSequenceBuilder(length);
+        for (IrSequence seq : sequences)
+            builder.append(seq);
+        return builder.build();
     }
 
     /**
@@ -302,13 +454,11 @@ public class IrSequence implements Cloneable, Serializable {
      * @return new IrSequence
      */
     public IrSequence append(IrSequence tail, int repetitions) {
-        double[] newData = new double[data.length + repetitions*tail.data.length];
-        System.arraycopy(data, 0, newData, 0, data.length);
+        double[] newData = new double[getLength() + repetitions*tail.getLength()];
+        copyTo(newData, 0);
         for (int r = 0; r < repetitions; r++)
-            System.arraycopy(tail.data, 0, newData, data.length + r*tail.data.length, tail.data.length);
-        IrSequence irSequence = new IrSequence();
-        irSequence.data = newData;
-        return irSequence;
+            tail.copyTo(newData, getLength() + r*tail.getLength());
+        return wrap(newData);
     }
 
      /**
@@ -328,10 +478,10 @@ public class IrSequence implements Cloneable, Serializable {
      * @throws IncompatibleArgumentException
      */
     public IrSequence append(double delay) throws IncompatibleArgumentException {
-        if (data.length == 0)
+        if (getLength() == 0)
             throw new IncompatibleArgumentException("IrSequence is empty");
         IrSequence irSequence = new IrSequence(this);
-        irSequence.data[data.length-1] = -(Math.abs(data[data.length-1]) + Math.abs(delay));
+        irSequence.put(getLength()-1, -(Math.abs(at(getLength()-1)) + Math.abs(delay)));
         return irSequence;
     }
 
@@ -357,7 +507,8 @@ public class IrSequence implements Cloneable, Serializable {
         if (start % 2 != 0)
             throw new IncompatibleArgumentException("Starting index has to be even, was " + start);
         double[] newData = new double[length];
-        System.arraycopy(this.data, start, newData, 0, length);
+        for (int i = 0; i < length; i++)
+            newData[i] = at(start + i);
         return new IrSequence(newData);
     }
 
@@ -380,15 +531,12 @@ public class IrSequence implements Cloneable, Serializable {
     public IrSequence[] chop(double threshold) {
         ArrayList<IrSequence> arrayList = new ArrayList<>();
         int beg = 0;
-        for (int i = 1; i < data.length; i += 2) {
-            if (data[i] >= threshold || i == data.length - 1) {
+        for (int i = 1; i < getLength(); i += 2) {
+            if (at(i) >= threshold || i == getLength() - 1) {
                 double[] arr = new double[i - beg + 1];
-                System.arraycopy(data, beg, arr, 0, i - beg + 1);
-                try {
-                    arrayList.add(new IrSequence(arr));
-                } catch (IncompatibleArgumentException ex) {
-                    throw new InternalError();
-                }
+                for (int j = beg; j <= i; j++)
+                    arr[j - beg] = at(j);
+                arrayList.add(wrap(arr));
                 beg = i + 1;
             }
         }
@@ -408,8 +556,8 @@ public class IrSequence implements Cloneable, Serializable {
         } catch (CloneNotSupportedException ex) {
             return null;
         }
-        for (int i = 0; i < data.length; i += 2) {
-            clone.data[i] += clone.data[i] > 0 ? amount : -amount;
+        for (int i = 0; i < getLength(); i += 2) {
+            clone.put(i, clone.at(i) + (clone.at(i) > 0 ? amount : -amount));
         }
         return clone;
     }
@@ -428,8 +576,8 @@ public class IrSequence implements Cloneable, Serializable {
         } catch (CloneNotSupportedException ex) {
             return null;
         }
-        for (int i = 1; i < data.length; i += 2) {
-            clone.data[i] += clone.data[i] > 0 ? amount : -amount;
+        for (int i = 1; i < getLength(); i += 2) {
+            clone.put(i, clone.at(i) + (clone.at(i) > 0 ? amount : -amount));
         }
         return clone;
     }
@@ -459,10 +607,10 @@ public class IrSequence implements Cloneable, Serializable {
         } catch (CloneNotSupportedException ex) {
             return null;
         }
-        for (int i = 0; i < data.length; i += 2) {
+        for (int i = 0; i < getLength(); i += 2) {
             double t = max * (2 * Math.random() - 1);
-            clone.data[i] += t;
-            clone.data[i + 1] -= t;
+            clone.put(i, clone.at(i) + t);
+            clone.put(i + 1, clone.at(i + 1) - t);
         }
         return clone;
     }
@@ -485,11 +633,11 @@ public class IrSequence implements Cloneable, Serializable {
      * @return equality within tolerance.
      */
     public boolean isEqual(IrSequence irSequence, double absoluteTolerance, double relativeTolerance) {
-        if (irSequence == null || (data.length != irSequence.data.length))
+        if (irSequence == null || (getLength() != irSequence.getLength()))
             return false;
 
-        for (int i = 0; i < data.length; i++)
-            if (!IrpUtils.isEqual(data[i], irSequence.data[i], absoluteTolerance, relativeTolerance))
+        for (int i = 0; i < getLength(); i++)
+            if (!IrpUtils.isEqual(at(i), irSequence.at(i), absoluteTolerance, relativeTolerance))
                 return false;
 
         return true;
@@ -507,16 +655,16 @@ public class IrSequence implements Cloneable, Serializable {
      * @return if the subsequences are approximately equal.
      */
     public boolean isEqual(int beginning, int compareStart, int length, double absoluteTolerance, double relativeTolerance, double lastLimit) {
-        boolean specialTreatment = compareStart + length == data.length && lastLimit > 0;
+        boolean specialTreatment = compareStart + length == getLength() && lastLimit > 0;
         for (int i = 0; i < (specialTreatment ? length - 1 : length); i++) {
-            if (!IrpUtils.isEqual(Math.abs(data[beginning+i]), Math.abs(data[compareStart+i]), absoluteTolerance, relativeTolerance))
+            if (!IrpUtils.isEqual(Math.abs(at(beginning+i)), Math.abs(at(compareStart+i)), absoluteTolerance, relativeTolerance))
                 return false;
         }
 
         if (specialTreatment) {
             if (!(
-                    IrpUtils.isEqual(Math.abs(data[beginning+length-1]), Math.abs(data[compareStart+length-1]), absoluteTolerance, relativeTolerance)
-                    || (Math.abs(data[beginning+length-1]) >= lastLimit && Math.abs(data[compareStart+length-1]) >= lastLimit)))
+                    IrpUtils.isEqual(Math.abs(at(beginning+length-1)), Math.abs(at(compareStart+length-1)), absoluteTolerance, relativeTolerance)
+                    || (Math.abs(at(beginning+length-1)) >= lastLimit && Math.abs(at(compareStart+length-1)) >= lastLimit)))
                 return false;
         }
         return true;
@@ -565,7 +713,7 @@ public class IrSequence implements Cloneable, Serializable {
      * @return number of gaps/flashes.
      */
     public final int getLength() {
-        return data.length;
+        return data != null ? data.length : length;
     }
 
     /**
@@ -573,7 +721,7 @@ public class IrSequence implements Cloneable, Serializable {
      * @return
      */
     public double getGap() {
-        return data.length > 0 ? Math.abs(data[data.length - 1]) : -1.0;
+        return getLength() > 0 ? Math.abs(at(getLength() - 1)) : -1.0;
     }
 
     /**
@@ -581,7 +729,7 @@ public class IrSequence implements Cloneable, Serializable {
      * @return emptyness of the sequence.
      */
     public final boolean isEmpty() {
-        return data.length == 0;
+        return getLength() == 0;
     }
 
     /**
@@ -589,8 +737,8 @@ public class IrSequence implements Cloneable, Serializable {
      * @return existence of zero durations.
      */
     public final boolean containsZeros() {
-        for (double t : data)
-            if (Math.abs(t) < epsilon)
+        for (int i = 0; i < getLength(); i++)
+            if (Math.abs(at(i)) < epsilon)
                 return true;
         return false;
     }
@@ -602,9 +750,9 @@ public class IrSequence implements Cloneable, Serializable {
      */
     public final boolean replaceZeros(double replacement) {
         boolean wasChanged = false;
-        for (int i = 0; i < data.length; i++)
-            if (Math.abs(data[i]) < epsilon) {
-                data[i] = replacement;
+        for (int i = 0; i < getLength(); i++)
+            if (Math.abs(at(i)) < epsilon) {
+                put(i, replacement);
                 wasChanged = true;
             }
         return wasChanged;
@@ -615,7 +763,7 @@ public class IrSequence implements Cloneable, Serializable {
      * @return number bursts.
      */
     public final int getNumberBursts() {
-        return data.length/2;
+        return getLength()/2;
     }
 
     /**
@@ -624,7 +772,7 @@ public class IrSequence implements Cloneable, Serializable {
      * @return Length of the IR sequence in microseconds.
      */
     public double getDuration() {
-        return getDuration(0, data.length);
+        return getDuration(0, getLength());
     }
 
     /**
@@ -635,7 +783,12 @@ public class IrSequence implements Cloneable, Serializable {
      * @return Length of the IR sequence in microseconds.
      */
     public double getDuration(int begin, int length) {
-        return IrpUtils.l1Norm(data, begin, length);
+        if (data != null)
+            return IrpUtils.l1Norm(data, begin, length);
+        double sum = 0;
+        for (int i = begin; i < begin + length; i++)
+            sum += Math.abs(at(i));
+        return sum;
     }
 
     /**
@@ -648,18 +801,18 @@ public class IrSequence implements Cloneable, Serializable {
     public String toPrintString(boolean alternatingSigns, boolean noSigns, String separator) {
         StringBuilder s = new StringBuilder();
         if (alternatingSigns) {
-            for (int i = 0; i < data.length; i++) {
-                int x = (int) Math.abs(Math.round(data[i]));
+            for (int i = 0; i < getLength(); i++) {
+                int x = (int) Math.abs(Math.round(at(i)));
                 s.append(String.format((i % 2 == 0) ? (i > 0 ? (separator + "+%d") : "+%d") : (separator + "-%d"), x));
             }
         } else if (noSigns) {
-            for (int i = 0; i < data.length; i++) {
-                int x = (int) Math.abs(Math.round(data[i]));
+            for (int i = 0; i < getLength(); i++) {
+                int x = (int) Math.abs(Math.round(at(i)));
                 s.append(String.format((i % 2 == 0) ? (i > 0 ? (separator + "%d") : "%d") : (separator + "%d"), x));
             }
         } else {
-            for (int i = 0; i < data.length; i++) {
-                s.append(String.format((i > 0 ? (separator + "%d") : "%d"), (int) Math.round(data[i])));
+            for (int i = 0; i < getLength(); i++) {
+                s.append(String.format((i > 0 ? (separator + "%d") : "%d"), (int) Math.round(at(i))));
             }
         }
         return s.toString();
@@ -698,12 +851,12 @@ public class IrSequence implements Cloneable, Serializable {
      */
     @Override
     public String toString() {
-        if (data.length == 0)
+        if (getLength() == 0)
             return "[]";
         StringBuilder result = new StringBuilder();
-        result.append("[").append(Math.round(data[0]));
-        for (int i = 1; i < data.length; i++)
-            result.append(",").append(Math.round(data[i]));
+        result.append("[").append(Math.round(at(0)));
+        for (int i = 1; i < getLength(); i++)
+            result.append(",").append(Math.round(at(i)));
 
         return result.append("]").toString();
     }
@@ -715,16 +868,27 @@ public class IrSequence implements Cloneable, Serializable {
      * @return nice string.
      */
     public String toString(boolean alternatingSigns) {
-        if (data.length == 0)
+        if (getLength() == 0)
             return "[]";
         StringBuilder result = new StringBuilder();
-        result.append("[").append(Math.round(Math.abs(data[0])));
-        for (int i = 1; i < data.length; i++)
-            result.append(",").append((alternatingSigns && (i % 2 != 0) ? "-" : "")).append(Math.round(Math.abs(data[i])));
+        result.append("[").append(Math.round(Math.abs(at(0))));
+        for (int i = 1; i < getLength(); i++)
+            result.append(",").append((alternatingSigns && (i % 2 != 0) ? "-" : "")).append(Math.round(Math.abs(at(i))));
 
         return result.append("]").toString();
     }
 
+    // Durations in periods of a frequency.
+    private static final class Pulses {
+        private final double frequency;
+        private final int[] pulses;
+
+        Pulses(double frequency, int[] pulses) {
+            this.frequency = frequency;
+            this.pulses = pulses;
+        }
+    }
+
     /**
      * Just for testing.
      * @param args the command line arguments
@@ -0,0 +1,169 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.IrpMaster;
+
+import java.util.Arrays;
+
+/**
+ * This class is a mutable, growable, sequence of durations, for building an IrSequence piece by piece
+ * in amortized constant time per duration, instead of copying everything in every IrSequence.append.
+ * Signs are preserved, as in IrSequence.
+ *
+ * <p>Not thread safe. The builder can be used further after toIrSequence(), the IrSequence produced is not affected.
+ *
+ * @see IrSequence
+ */
+public final class IrSequenceBuilder {
+
+    private static final int defaultCapacity = 16;
+
+    private double[] data;
+    private int length;
+
+    public IrSequenceBuilder() {
+        this(defaultCapacity);
+    }
+
+    /**
+     * @param capacity number of durations that can be added before growing.
+     */
+    public IrSequenceBuilder(int capacity) {
+        data = new double[Math.max(capacity, 2)];
+        length = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length)
+            data = Arrays.copyOf(data, Math.max(capacity, 2 * data.length));
+    }
+
+    private static boolean equalSign(double x, double y) {
+        return x <= 0 && y <= 0 || x >= 0 && y >= 0;
+    }
+
+    /**
+     * Appends a signed duration, positive for a flash, negative for a gap.
+     * A duration with the same sign as the last one (zero having any sign) is merged into it,
+     * and leading gaps are ignored, as in the IrSequence(ArrayList&lt;Double&gt;) constructor.
+     *
+     * @param duration duration in micro seconds, with sign.
+     * @return this
+     */
+    public IrSequenceBuilder add(double duration) {
+        if (length == 0) {
+            if (duration > 0) {
+                ensureCapacity(1);
+                data[length++] = duration;
+            }
+        } else if (equalSign(data[length - 1], duration))
+            data[length - 1] += duration;
+        else {
+            ensureCapacity(length + 1);
+            data[length++] = duration;
+        }
+        return this;
+    }
+
+    /**
+     * Appends a flash, merged with a previous flash.
+     * @param duration duration in micro seconds, sign ignored.
+     * @return this
+     */
+    public IrSequenceBuilder flash(double duration) {
+        return add(Math.abs(duration));
+    }
+
+    /**
+     * Appends a gap, merged with a previous gap. Leading gaps are ignored.
+     * @param duration duration in micro seconds, sign ignored.
+     * @return this
+     */
+    public IrSequenceBuilder gap(double duration) {
+        return add(-Math.abs(duration));
+    }
+
+    /**
+     * Appends the durations of the argument as they are, without merging.
+     * @param irSequence
+     * @return this
+     */
+    public IrSequenceBuilder append(IrSequence irSequence) {
+        return append(irSequence, 1);
+    }
+
+    /**
+     * Appends repetitions copies of the durations of the argument as they are, without merging.
+     * @param irSequence
+     * @param repetitions
+     * @return this
+     */
+    public IrSequenceBuilder append(IrSequence irSequence, int repetitions) {
+        int n = irSequence.getLength();
+        ensureCapacity(length + repetitions * n);
+        for (int r = 0; r < repetitions; r++) {
+            irSequence.copyTo(data, length);
+            length += n;
+        }
+        return this;
+    }
+
+    /**
+     * @return number of durations added.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Removes all durations, keeping the allocated capacity.
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Returns an IrSequence of the durations added so far.
+     * @return new IrSequence.
+     * @throws IncompatibleArgumentException if the length is odd, i.e., the sequence ends with a flash.
+     */
+    public IrSequence toIrSequence() throws IncompatibleArgumentException {
+        if (length % 2 != 0)
+            throw new IncompatibleArgumentException("IrSequence cannot end with a flash.");
+        return build();
+    }
+
+    // For callers that only appended IrSequences, which are of even length.
+    IrSequence build() {
+        return IrSequence.wrap(Arrays.copyOf(data, length));
+    }
+
+    /**
+     * Returns a ModulatedIrSequence of the durations added so far.
+     * @param frequency
+     * @param dutyCycle
+     * @return new ModulatedIrSequence.
+     * @throws IncompatibleArgumentException if the length is odd, i.e., the sequence ends with a flash.
+     */
+    public ModulatedIrSequence toModulatedIrSequence(double frequency, double dutyCycle) throws IncompatibleArgumentException {
+        return new ModulatedIrSequence(toIrSequence(), frequency, dutyCycle);
+    }
+}
@@ -380,10 +380,29 @@ public class IrSignal {
      * @param dutyCycle Duty cycle of modulation pulse, between 0 and 1. Use -1 for not specified.
      */
     public IrSignal(int[] durations, int noIntroBursts, int noRepeatBursts, int frequency, double dutyCycle) {
-        this((double) frequency, dutyCycle,
-                new IrSequence(durations, 0, 2*noIntroBursts),
-                new IrSequence(durations, 2*noIntroBursts, 2*noRepeatBursts),
-                new IrSequence(durations, 2*(noIntroBursts+noRepeatBursts), durations.length - 2*(noIntroBursts + noRepeatBursts)));
+        this(durations, noIntroBursts, noRepeatBursts, frequency, dutyCycle, false);
+    }
+
+    /**
+     * As IrSignal(int[], int, int, int, double), but if compact is true, the durations are copied once,
+     * and the intro, repeat, and ending sequences are compactly stored views of the copy.
+     *
+     * @param durations Integer array of durations. Signs of the entries are ignored,
+     * @param noIntroBursts Number of bursts (half the number of entries) belonging to the intro sequence.
+     * @param noRepeatBursts Number of bursts (half the number of entries) belonging to the intro sequence.
+     * @param frequency Modulation frequency in Hz.
+     * @param dutyCycle Duty cycle of modulation pulse, between 0 and 1. Use -1 for not specified.
+     * @param compact If true, the durations are stored as integers, see IrSequence.isCompact().
+     */
+    public IrSignal(int[] durations, int noIntroBursts, int noRepeatBursts, int frequency, double dutyCycle, boolean compact) {
+        this((double) frequency, dutyCycle, compact ? durations.clone() : durations, noIntroBursts, noRepeatBursts, compact);
+    }
+
+    private IrSignal(double frequency, double dutyCycle, int[] durations, int noIntroBursts, int noRepeatBursts, boolean compact) {
+        this(frequency, dutyCycle,
+                new IrSequence(durations, 0, 2*noIntroBursts, compact),
+                new IrSequence(durations, 2*noIntroBursts, 2*noRepeatBursts, compact),
+                new IrSequence(durations, 2*(noIntroBursts+noRepeatBursts), durations.length - 2*(noIntroBursts + noRepeatBursts), compact));
     }
 
     /**
@@ -393,6 +412,22 @@ public class IrSignal {
         this(new int[0], 0, 0, (int) IrpUtils.defaultFrequency);
     }
 
+    /**
+     * Constructs an IrSignal from the parameter data, by cloning its sequences.
+     * @param src Original
+     */
+    public IrSignal(IrSignal src) {
+        frequency = src.frequency;
+        dutyCycle = src.dutyCycle;
+        introSequence = new IrSequence(src.introSequence);
+        repeatSequence = new IrSequence(src.repeatSequence);
+        endingSequence = new IrSequence(src.endingSequence);
+        map = new EnumMap<>(Pass.class);
+        map.put(Pass.intro, introSequence);
+        map.put(Pass.repeat, repeatSequence);
+        map.put(Pass.ending, endingSequence);
+    }
+
     // Plunders the victim. Therefore private, othewise would violate immutability.
     private void copyFrom(IrSignal victim) {
         dutyCycle = victim.dutyCycle;
@@ -509,16 +544,16 @@ public class IrSignal {
             if (parameters.isEmpty())
                 throw new IncompatibleArgumentException("No parameters given.");
 
-            IrpMaster irpMaster = new IrpMaster(protocolsIniPath);
-            Protocol protocol = irpMaster.newProtocol(protocolName);
-            IrSignal irSignal = protocol.renderIrSignal(parameters);
+            Protocol protocol = ProtocolRegistry.getIrpMaster(protocolsIniPath).getProtocol(protocolName);
+            IrSignal irSignal = protocol.renderIrSignal(protocol.newRenderState(), parameters);
             copyFrom(irSignal);
         }
     }
 
     /**
      * Convenience version of the constructor with an IrpMaster instance.
-     * Equivalent to IrSignal(new IrpMaster(protocolsIniPath), protocolName, parameters).
+     * Equivalent to IrSignal(new IrpMaster(protocolsIniPath), protocolName, parameters),
+     * but the IrpMaster is taken from the ProtocolRegistry.
      *
      * @param protocolsIniPath Path to IrpProtocols.ini
      * @param protocolName name of protocol
@@ -527,7 +562,7 @@ public class IrSignal {
      * @throws IrpMasterException
      */
     public IrSignal(String protocolsIniPath, String protocolName, Map<String, Long> parameters) throws FileNotFoundException, IrpMasterException {
-        this(new IrpMaster(protocolsIniPath), protocolName, parameters);
+        this(ProtocolRegistry.getIrpMaster(protocolsIniPath), protocolName, parameters);
     }
 
     /**
@@ -538,11 +573,8 @@ public class IrSignal {
      * @throws IrpMasterException
      */
     public IrSignal(IrpMaster irpMaster, String protocolName, Map<String, Long> parameters) throws IrpMasterException {
-        Protocol protocol = irpMaster.newProtocol(protocolName);
-        if (protocol == null)
-            throw new IrpMasterException("Protocol \"" + protocolName + "\" is not known.");
-
-        IrSignal irSignal = protocol.renderIrSignal(parameters);
+        Protocol protocol = irpMaster.getProtocol(protocolName);
+        IrSignal irSignal = protocol.renderIrSignal(protocol.newRenderState(), parameters);
         copyFrom(irSignal);
     }
 
@@ -578,9 +610,14 @@ public class IrSignal {
      * @return ModulatedIrSequence.
      */
     public final ModulatedIrSequence toModulatedIrSequence(boolean intro, int repetitions, boolean ending) {
-        IrSequence seq1 = intro ? introSequence : new IrSequence();
-        IrSequence seq2 = seq1.append(repeatSequence, repetitions);
-        return new ModulatedIrSequence(ending ? seq2.append(endingSequence) : seq2, frequency, dutyCycle);
+        IrSequenceBuilder builder = new IrSequenceBuilder((intro ? introSequence.getLength() : 0)
+                + repetitions * repeatSequence.getLength() + (ending ? endingSequence.getLength() : 0));
+        if (intro)
+            builder.append(introSequence);
+        builder.append(repeatSequence, repetitions);
+        if (ending)
+            builder.append(endingSequence);
+        return new ModulatedIrSequence(builder.build(), frequency, dutyCycle);
     }
 
     /**
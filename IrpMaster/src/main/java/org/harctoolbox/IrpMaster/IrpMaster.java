@@ -22,7 +22,9 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
@@ -84,7 +86,7 @@ public class IrpMaster implements Serializable {
             + "\n"
             + "where OPTIONS=--stringtree <filename>,--dot <dotfilename>,--xmlprotocol <xmlprotocolfilename>,-c|--config <configfile>,-d|--debug <debugcode>|?,-s|--seed <seed>,"
             + "-q|--quiet,-P|--pass <intro|repeat|ending|all>,--interactive,--decodeir,--analyze,"
-            + "-o|--outfile <outputfilename>, -x|--xml, -r|--raw, -p|--pronto, -u|--uei, --disregard-repeat-mins, -#|--repetitions <number_repetitions>.\n\n"
+            + "-o|--outfile <outputfilename>, -x|--xml, -r|--raw, -p|--pronto, -u|--uei, --disregard-repeat-mins, -#|--repetitions <number_repetitions>, -j|--threads <number_threads>.\n\n"
             + "Any filename can be given as `-', meaning stdin or stdout.\n"
             + "PARAMETERASSIGNMENT is one or more expressions like `name=value' (without spaces!). "
             + "One value without name defaults to `F`, two values defaults to `D` and `F`, three values defaults to `D`, `S`, and `F`, four values to `D`, `S`, `F', and `T`, in the order given.\n\n"
@@ -92,11 +94,16 @@ public class IrpMaster implements Serializable {
             + "They must be less or equal to 2^63-1 = 9223372036854775807.\n\n"
             + "All parameter assignment, both with explicit name and without, can be given as intervals, like `0..255' or '0:255', causing the program to generate all signals within the interval. "
             + "Also * can be used for parameter intervals, in which case min and max are taken from the parameterspecs in the (extended) IRP notation. "
-            + "The notation #<number> can also be used for parameter intervals, in which case <number> random values between min and max are generated.";
+            + "The notation #<number> can also be used for parameter intervals, in which case <number> random values between min and max are generated.\n\n"
+            + "Signals are rendered on as many threads as given by --threads, per default the number of processors, "
+            + "unless --pass, --decodeir, or --analyze are given.";
 
     // The key is the protocol name folded to lower case. Case preserved name is in UnparsedProtocol.name.
     private LinkedHashMap<String, UnparsedProtocol> protocols;
 
+    // Parsed protocols, with the same keys as protocols. Lazily filled by getProtocol.
+    private transient ConcurrentHashMap<String, Protocol> parsedProtocols;
+
     private void dump(PrintStream ps, String name) {
         ps.println(protocols.get(name));
     }
@@ -123,7 +130,7 @@ public class IrpMaster implements Serializable {
     }
 
     public static boolean isKnown(String protocolsPath, String protocol) throws FileNotFoundException, IncompatibleArgumentException {
-        return (new IrpMaster(protocolsPath)).isKnown(protocol);
+        return ProtocolRegistry.getIrpMaster(protocolsPath).isKnown(protocol);
     }
 
     public String getIrp(String name) {
@@ -150,21 +157,52 @@ public class IrpMaster implements Serializable {
         return prot == null ? null : prot.ueiProtocol;
     }
 
+    private synchronized ConcurrentHashMap<String, Protocol> getParsedProtocols() {
+        if (parsedProtocols == null)
+            parsedProtocols = new ConcurrentHashMap<>(protocols.size());
+        return parsedProtocols;
+    }
+
+    /**
+     * Returns the Protocol with requested name, parsed only the first time it is requested.
+     * The returned instance is shared, and should only be used with the thread safe functions
+     * taking a RenderPlan.RenderState argument; use newProtocol for a private instance.
+     *
+     * @param name protocol name in the configuration file/data base
+     * @return shared, parsed protocol
+     * @throws UnassignedException
+     * @throws ParseException
+     * @throws UnknownProtocolException
+     */
+    public Protocol getProtocol(String name) throws UnassignedException, ParseException, UnknownProtocolException {
+        String key = name.toLowerCase(IrpUtils.dumbLocale);
+        ConcurrentHashMap<String, Protocol> parsed = getParsedProtocols();
+        Protocol protocol = parsed.get(key);
+        if (protocol == null) {
+            UnparsedProtocol unparsed = protocols.get(key);
+            if (unparsed == null)
+                throw new UnknownProtocolException(name);
+            protocol = new Protocol(unparsed.name.toLowerCase(IrpUtils.dumbLocale), unparsed.irp, unparsed.documentation);
+            Protocol old = parsed.putIfAbsent(key, protocol);
+            if (old != null)
+                protocol = old;
+        }
+        return protocol;
+    }
+
     /**
      * Constructs a new Protocol with requested name, taken from the configuration
      * file/data base within the current IrpMaster.
+     * The IRP is parsed only once; the returned Protocol shares it, but has its own name engine.
      *
      * @param name protocol name in the configuration file/data base
-     * @return newly parsed protocol
+     * @return new protocol
      * @throws UnassignedException
      * @throws ParseException
      * @throws org.harctoolbox.IrpMaster.UnknownProtocolException
      */
     public Protocol newProtocol(String name) throws UnassignedException, ParseException, UnknownProtocolException {
-        UnparsedProtocol protocol = protocols.get(name.toLowerCase(IrpUtils.dumbLocale));
-        if (protocol == null)
-            throw new UnknownProtocolException(name);
-        return new Protocol(protocol.name.toLowerCase(IrpUtils.dumbLocale), protocol.irp, protocol.documentation);
+        return new Protocol(getProtocol(name));
     }
 
     public Protocol newProtocolOrNull(String name) throws UnassignedException, ParseException, UnknownProtocolException {
@@ -364,6 +402,7 @@ public class IrpMaster implements Serializable {
         int seed = (int) IrpUtils.invalid;
         int arg_i = 0;
         int no_repetitions = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
         boolean considerRepeatMins = true;
         boolean interactive = false;
         String irpString = null;
@@ -443,6 +482,11 @@ public class IrpMaster implements Serializable {
                 } else if (args[arg_i].startsWith("--interactive")) {
                     arg_i++;
                     interactive = true;
+                } else if (args[arg_i].equals("-j") || args[arg_i].equals("--threads")) {
+                    arg_i++;
+                    threads = (int) IrpUtils.parseLong(args[arg_i++], false);
+                    if (threads < 1)
+                        usage(IrpUtils.exitUsageError);
                 } else if (args[arg_i].equals("-l") || args[arg_i].startsWith("--log")) {
                     arg_i++;
                     logFileName = args[arg_i++];
@@ -696,7 +740,9 @@ public class IrpMaster implements Serializable {
                 System.exit(IrpUtils.exitUsageError);
             }
 
-            if (doXML)
+            // Rendering and output, but nothing else, can be done by the ParameterSweep.
+            boolean sweep = pass == IrpUtils.all && !invokeDecodeIR && !invokeAnalyzeIR;
+            if (doXML && !sweep)
                 protocol.setupDOM();
 
             try {
@@ -719,6 +765,24 @@ public class IrpMaster implements Serializable {
                 System.exit(IrpUtils.exitSuccess);
             }
 
+            if (sweep) {
+                ParameterSweep parameterSweep = new ParameterSweep(protocol, threads);
+                parameterSweep.setConsiderRepeatMins(considerRepeatMins);
+                parameterSweep.setRaw(doRaw);
+                parameterSweep.setPronto(doPronto);
+                parameterSweep.setUei(doUei);
+                parameterSweep.setXml(doXML);
+                parameterSweep.setRepetitions(no_repetitions);
+                try {
+                    parameterSweep.run(inputVariableSetValues, printStream);
+                } finally {
+                    printStream.close();
+                    if (logFile != null)
+                        logFile.close();
+                }
+                return;
+            }
+
             for (LinkedHashMap<String, Long> actualParameters : inputVariableSetValues) {
                 // Iterate no_repetitions (for testing toggle updates etc.)
                 for (int iterate = 0; iterate < no_repetitions; iterate++) {
@@ -803,7 +867,7 @@ public class IrpMaster implements Serializable {
                 UserComm.print(irpString);
                 UserComm.print(IrpUtils.spaces(ex.charPositionInLine) + "^");
             }
-        } catch (FileNotFoundException | IrpMasterException ex) {
+        } catch (IOException | IrpMasterException ex) {
             if (irpMaster != null)
                 irpMaster.userComm.exceptionMsg(ex);
             else
@@ -816,7 +880,7 @@ public class IrpMaster implements Serializable {
     // just the API is makehex-like.
 
     /**
-     * Static version of getIrp.
+     * Static version of getIrp. The configuration file is read through the ProtocolRegistry.
      *
      * @param configFilename
      * @param protocolName
@@ -825,7 +889,7 @@ public class IrpMaster implements Serializable {
     public static String getIrp(String configFilename, String protocolName) {
         IrpMaster irpMaster = null;
         try {
-            irpMaster = new IrpMaster(configFilename);
+            irpMaster = ProtocolRegistry.getIrpMaster(configFilename);
         } catch (FileNotFoundException | IncompatibleArgumentException ex) {
         }
         return irpMaster == null ? null : irpMaster.getIrp(protocolName);
@@ -847,13 +911,33 @@ public class IrpMaster implements Serializable {
 
     public static int makeHex(String outFile, boolean append, String configFileName,
             String preamble, String protocolName, String device, String OBC) {
-        String irp = getIrp(configFileName, protocolName);
-
-        return irp == null ? -1 : makeHexIRP(outFile, append, irp, preamble, protocolName, device, OBC);
+        Protocol protocol;
+        try {
+            protocol = ProtocolRegistry.getIrpMaster(configFileName).getProtocol(protocolName);
+        } catch (FileNotFoundException | IncompatibleArgumentException | UnknownProtocolException ex) {
+            return -1;
+        } catch (UnassignedException | ParseException ex) {
+            return -2;
+        }
+        String[] param = device.split("\\.");
+        int dev = Integer.parseInt(param[0]);
+        int subdev = param.length > 1 ? Integer.parseInt(param[1]) : (int) IrpUtils.invalid;
+        int obc = Integer.parseInt(OBC);
+        try {
+            Map<String, Long> parameters = Protocol.parseParams(dev, subdev, obc, (int) IrpUtils.invalid, "");
+            IrSignal irSignal = protocol.renderIrSignal(protocol.newRenderState(), parameters);
+            return writeHex(outFile, append, preamble, irSignal.ccfString());
+        } catch (IncompatibleArgumentException | InvalidRepeatException | DomainViolationException ex) {
+            return -3;
+        } catch (UnassignedException ex) {
+            return -2;
+        }
     }
 
     /**
      * Returns the Pronto form of the IR signal.
+     * The configuration file is read, and the protocol parsed, only the first time, through the ProtocolRegistry.
+     * This function is thread safe.
      *
      * @param configFileName
      * @param protocolName
@@ -863,14 +947,14 @@ public class IrpMaster implements Serializable {
      * @return String in Pronto format representing the IR signal.
      */
     public static String makeHex(String configFileName, String protocolName, int device, int subdevice, int obc) {
-        IrpMaster irpMaster;
         try {
-            irpMaster = new IrpMaster(configFileName);
-        } catch (FileNotFoundException | IncompatibleArgumentException ex) {
+            Protocol protocol = ProtocolRegistry.getIrpMaster(configFileName).getProtocol(protocolName);
+            Map<String, Long> parameters = Protocol.parseParams(device, subdevice, obc, (int) IrpUtils.invalid, "");
+            IrSignal irSignal = protocol.renderIrSignal(protocol.newRenderState(), parameters);
+            return irSignal.ccfString();
+        } catch (FileNotFoundException | IrpMasterException ex) {
             return null;
         }
-
-        return makeHexIRP(irpMaster.getIrp(protocolName), device, subdevice, obc);
     }
 
     /**
@@ -910,27 +994,25 @@ public class IrpMaster implements Serializable {
      */
     public static int makeHexIRP(String outFile, boolean append, String irp,
             String preamble, String protocolName, int device, int subdevice, int obc) {
-        PrintStream out = null;
-        int status = 1;
         try {
-            String ccf = makeHexIRPPriv(irp, device, subdevice, obc);
+            return writeHex(outFile, append, preamble, makeHexIRPPriv(irp, device, subdevice, obc));
+        } catch (IncompatibleArgumentException | InvalidRepeatException | DomainViolationException ex) {
+            return -3;
+        } catch (UnassignedException | ParseException ex) {
+            return -2;
+        }
+    }
 
-            out = IrpUtils.getPrintSteam(append ? ("+" + outFile) : outFile);
+    // return code: 1: Success, 0: Unable to open output file
+    private static int writeHex(String outFile, boolean append, String preamble, String ccf) {
+        try (PrintStream out = IrpUtils.getPrintSteam(append ? ("+" + outFile) : outFile)) {
             if (preamble != null && !preamble.isEmpty())
                 out.println(preamble);
-
             out.println(ccf);
-        } catch (IncompatibleArgumentException | InvalidRepeatException | DomainViolationException ex) {
-            status = -3;
+            return 1;
         } catch (FileNotFoundException ex) {
-           status = 0;
-        } catch (UnassignedException | ParseException ex) {
-            status = -2;
-        } finally {
-            if (out != null)
-                out.close();
+            return 0;
         }
-        return status;
     }
 
     /**
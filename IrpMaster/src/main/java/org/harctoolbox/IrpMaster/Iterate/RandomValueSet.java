@@ -74,7 +74,7 @@ public class RandomValueSet extends ValueSet {
                     throw new RuntimeException("Must call RandomValueSet.initRng() before using RandomValueSet");
 
                 index++;
-                current = rng.nextInt((int) max + 1);
+                current = min + rng.nextInt((int) (max - min) + 1);
 
                 return current;
             }
@@ -65,7 +65,7 @@ public class ModulatedIrSequence extends IrSequence {
      * @param dutyCycle
      */
     public ModulatedIrSequence(IrSequence irSequence, double frequency, double dutyCycle) {
-        data = irSequence.data;
+        share(irSequence);
         this.frequency = frequency;
         this.dutyCycle = dutyCycle;
     }
@@ -117,19 +117,20 @@ public class ModulatedIrSequence extends IrSequence {
         for (ModulatedIrSequence seq : seqs) {
             minf = Math.min(minf, seq.frequency);
             maxf = Math.max(maxf, seq.frequency);
-            mindc = Math.min(mindc, seq.frequency);
-            maxdc = Math.max(maxdc, seq.frequency);
+            mindc = Math.min(mindc, seq.dutyCycle);
+            maxdc = Math.max(maxdc, seq.dutyCycle);
             cumulatedLength += seq.getLength();
         }
 
-        dutyCycle = mindc > 0 ? (mindc + maxdc)/2 : (double) IrpUtils.invalid;
-        frequency = minf > 0 ? (minf + maxf)/2 : 0;
-        data = new double[cumulatedLength];
+        dutyCycle = seqs.length > 0 && mindc > 0 ? (mindc + maxdc)/2 : (double) IrpUtils.invalid;
+        frequency = seqs.length > 0 && minf > 0 ? (minf + maxf)/2 : 0;
+        double[] array = new double[cumulatedLength];
         int beginIndex = 0;
         for (ModulatedIrSequence seq : seqs) {
-            System.arraycopy(seq.data, 0, data, beginIndex, seq.data.length);
-            beginIndex += seq.data.length;
+            seq.copyTo(array, beginIndex);
+            beginIndex += seq.getLength();
         }
+        share(wrap(array));
     }
 
     /**
@@ -0,0 +1,325 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.IrpMaster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * This class renders a protocol for a sequence of parameter assignments, typically an
+ * InputVariableSetValues, on a number of worker threads, writing the same output as the
+ * sequential loop in IrpMaster.main: raw, Pronto, and UEI learned signals, as text or as XML.
+ *
+ * <p>The assignments are taken from the iterator on the calling thread, so random values come
+ * in the same order as in the sequential case. They are divided in blocks, that are rendered
+ * by the workers, each with its own RenderState, and written in the original order.
+ * At most a fixed number of blocks are in progress, so memory use does not grow with the number of signals.
+ * In particular, XML is written signal by signal, instead of collected in a DOM.
+ */
+public final class ParameterSweep {
+
+    public static final int defaultBlockSize = 64;
+
+    private static final Charset utf8 = Charset.forName("UTF-8");
+    private static final String markerTagName = "sweep-marker";
+
+    private final RenderPlan renderPlan;
+    private final Protocol protocol;
+    private final int threads;
+    private boolean considerRepeatMins = true;
+    private boolean doRaw = false;
+    private boolean doPronto = false;
+    private boolean doUei = false;
+    private boolean doXML = false;
+    private int repetitions = 1;
+    private int blockSize = defaultBlockSize;
+
+    // Serialization of the XML document with no signals, as prefix and suffix of the signals.
+    private byte[] xmlPrefix;
+    private byte[] xmlSuffix;
+
+    /**
+     * @param protocol Protocol to render; only its RenderPlan is used, so its state is not affected.
+     * @param threads Number of worker threads, at least 1.
+     */
+    public ParameterSweep(Protocol protocol, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        this.protocol = protocol;
+        this.renderPlan = protocol.getRenderPlan();
+        this.threads = threads;
+    }
+
+    public void setConsiderRepeatMins(boolean considerRepeatMins) {
+        this.considerRepeatMins = considerRepeatMins;
+    }
+
+    public void setRaw(boolean doRaw) {
+        this.doRaw = doRaw;
+    }
+
+    public void setPronto(boolean doPronto) {
+        this.doPronto = doPronto;
+    }
+
+    public void setUei(boolean doUei) {
+        this.doUei = doUei;
+    }
+
+    public void setXml(boolean doXML) {
+        this.doXML = doXML;
+    }
+
+    /**
+     * @param repetitions Number of times each signal is output, as the --repetitions option.
+     */
+    public void setRepetitions(int repetitions) {
+        this.repetitions = repetitions;
+    }
+
+    /**
+     * @param blockSize Number of assignments rendered by a worker in one go.
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Block size must be at least 1");
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Renders the signals for all the parameter assignments, and writes them to the stream.
+     * The iterator may return the same, modified, map every time, as InputVariableSetValues does.
+     * Rendering stops at the first failing signal, after all signals before it have been written.
+     * (The sequential loop, collecting the XML in a DOM, writes no XML at all in that case.)
+     *
+     * @param parameters Parameter assignments
+     * @param out Stream to write to; not closed.
+     * @throws IrpMasterException The rendering of an assignment failed.
+     * @throws IOException
+     */
+    public void run(Iterable<? extends Map<String, Long>> parameters, OutputStream out) throws IrpMasterException, IOException {
+        if (doXML)
+            setupXml();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ParameterSweep");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                return new Worker();
+            }
+        };
+        int maxPending = 2 * threads;
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>(maxPending);
+        boolean open = false;
+        try {
+            if (doXML) {
+                out.write(xmlPrefix);
+                open = true;
+            }
+            Iterator<? extends Map<String, Long>> iterator = parameters.iterator();
+            while (iterator.hasNext()) {
+                ArrayList<LinkedHashMap<String, Long>> block = new ArrayList<>(blockSize);
+                while (block.size() < blockSize && iterator.hasNext())
+                    block.add(new LinkedHashMap<>(iterator.next()));
+                if (pending.size() == maxPending)
+                    write(pending.poll(), out);
+                pending.add(executor.submit(new Block(block, workers)));
+            }
+            while (!pending.isEmpty())
+                write(pending.poll(), out);
+        } finally {
+            executor.shutdownNow();
+            // Also after a failure, the XML written so far is completed to a well-formed document.
+            if (open)
+                out.write(xmlSuffix);
+            out.flush();
+        }
+    }
+
+    private static void write(Future<Block> future, OutputStream out) throws IrpMasterException, IOException {
+        Block block;
+        try {
+            block = future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IrpMasterException)
+                throw (IrpMasterException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+        out.write(block.output);
+        if (block.failure != null)
+            throw block.failure;
+    }
+
+    // Splits the serialization of the empty document at a marker element.
+    private void setupXml() {
+        Document document = protocol.newSignalsDocument();
+        document.getDocumentElement().appendChild(document.createElement(markerTagName));
+        String xml = new String(serialize(newXmlTransformer(), document), utf8);
+        int marker = xml.indexOf("<" + markerTagName);
+        int start = xml.lastIndexOf('\n', marker) + 1;
+        int end = xml.indexOf('\n', marker) + 1;
+        xmlPrefix = xml.substring(0, start).getBytes(utf8);
+        xmlSuffix = xml.substring(end).getBytes(utf8);
+    }
+
+    private static Transformer newXmlTransformer() {
+        try {
+            return XmlExport.newTransformer(null);
+        } catch (TransformerException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static byte[] serialize(Transformer transformer, Document document) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(1024);
+        try {
+            transformer.transform(new DOMSource(document), new StreamResult(stream));
+        } catch (TransformerException ex) {
+            throw new RuntimeException(ex);
+        }
+        return stream.toByteArray();
+    }
+
+    // Per thread state.
+    private final class Worker {
+        private final RenderPlan.RenderState renderState = renderPlan.newRenderState();
+        private final Document document;
+        private final Element root;
+        private final Transformer transformer;
+
+        Worker() {
+            document = doXML ? protocol.newSignalsDocument() : null;
+            root = doXML ? document.getDocumentElement() : null;
+            transformer = doXML ? newXmlTransformer() : null;
+        }
+
+        IrSignal render(Map<String, Long> actualParameters) throws IrpMasterException {
+            // A fresh state for every signal, like Protocol.renderIrSignal(Map, int, boolean).
+            renderState.reset();
+            IrSignal irSignal = renderPlan.renderIrSignal(renderState, actualParameters, (int) IrpUtils.all, considerRepeatMins);
+            Debug.debugMain(irSignal.toString());
+            Debug.debugIrSignals("Total signal duration (us): " + Math.round(irSignal.getDuration()));
+            return irSignal;
+        }
+
+        void print(PrintStream printStream, Map<String, Long> actualParameters, IrSignal irSignal) throws IncompatibleArgumentException {
+            if (!doRaw && !doPronto && !doUei)
+                return;
+            printStream.println(IrpUtils.variableHeader(actualParameters));
+            if (doRaw)
+                printStream.println(irSignal.toPrintString());
+            if (doPronto)
+                printStream.println(irSignal.ccfString());
+            if (doUei)
+                printStream.println(UeiLearnedSignal.newUeiLearned(irSignal).toString());
+        }
+
+        void add(Map<String, Long> actualParameters, IrSignal irSignal) throws IncompatibleArgumentException {
+            Element el = Protocol.newSignalElement(document, actualParameters);
+            if (doRaw)
+                el.appendChild(Protocol.newRawSignalRepresentation(document, irSignal));
+            if (doPronto)
+                el.appendChild(Protocol.newXmlNode(document, "pronto", irSignal.ccfString()));
+            if (doUei)
+                el.appendChild(Protocol.newXmlNode(document, "uei-learned", UeiLearnedSignal.newUeiLearned(irSignal).toString()));
+            root.appendChild(el);
+        }
+
+        // The signal elements, serialized as in the complete document.
+        byte[] serializeSignals() {
+            if (!root.hasChildNodes())
+                return new byte[0];
+            byte[] xml = serialize(transformer, document);
+            while (root.hasChildNodes())
+                root.removeChild(root.getFirstChild());
+            int length = xml.length - xmlPrefix.length - xmlSuffix.length;
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(length);
+            stream.write(xml, xmlPrefix.length, length);
+            return stream.toByteArray();
+        }
+    }
+
+    // The output of a number of consecutive assignments, and the failure ending it, if any.
+    private final class Block implements Callable<Block> {
+        private final ArrayList<LinkedHashMap<String, Long>> assignments;
+        private final ThreadLocal<Worker> workers;
+        private byte[] output;
+        private IrpMasterException failure = null;
+
+        Block(ArrayList<LinkedHashMap<String, Long>> assignments, ThreadLocal<Worker> workers) {
+            this.assignments = assignments;
+            this.workers = workers;
+        }
+
+        @Override
+        public Block call() {
+            Worker worker = workers.get();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(256 * assignments.size());
+            PrintStream printStream = new PrintStream(stream);
+            try {
+                for (LinkedHashMap<String, Long> actualParameters : assignments) {
+                    IrSignal irSignal = worker.render(actualParameters);
+                    for (int i = 0; i < repetitions; i++) {
+                        if (doXML)
+                            worker.add(actualParameters, irSignal);
+                        else
+                            worker.print(printStream, actualParameters, irSignal);
+                    }
+                }
+            } catch (IrpMasterException ex) {
+                failure = ex;
+            }
+            printStream.flush();
+            output = doXML ? worker.serializeSignals() : stream.toByteArray();
+            return this;
+        }
+    }
+}
@@ -105,35 +105,36 @@ public class PrimaryIrStream extends PrimaryIrStreamItem {
         return list;
     }
 
-    public IrSequence toIrSequence() throws IncompatibleArgumentException, UnassignedException {
-        ArrayList<PrimitiveIrStreamItem> durationList = evaluate(null);
-        if (durationList.size() % 2 == 1)
-            durationList.add(new Duration(environment, 0.001, DurationType.gap)); // ????
-        int size = durationList.size();
-        ArrayList<Double> data = new ArrayList<>(size);
-        double elapsed = 0;
-        boolean seenPositive = false;
-
-        for (PrimitiveIrStreamItem item : durationList) {
-            try {
-                if (!Class.forName("org.harctoolbox.IrpMaster.Duration").isInstance(item))
-                    throw new RuntimeException("Programming error detected: This cannot happen");
-
-            double duration = ((Duration) item).evaluate_sign(elapsed);
-            if (duration > 0)
-                seenPositive = true;
-
-            if (seenPositive) {
-                elapsed += Math.abs(duration);
-                data.add(duration);
-            }
-            if (Class.forName("org.harctoolbox.IrpMaster.Extent").isInstance(item))
-                elapsed = 0;
-            } catch (ClassNotFoundException ex) {
-                // This cannot happen
-                assert false;
+    @Override
+    void render(BitSpec bitSpec, DurationBuffer buffer) throws IncompatibleArgumentException, UnassignedException {
+        BitSpec bs = (bitSpec == null || this.bitSpec != null) ? this.bitSpec : bitSpec;
+        BitStream bitStream = null;
+        for (PrimaryIrStreamItem item : irStreamItems)
+            if (item instanceof BitField) {
+                if (bitStream == null)
+                    bitStream = new BitStream(environment);
+                bitStream.add((BitField) item);
+            } else {
+                if (bitStream != null && !bitStream.isEmpty()) {
+                    bitStream.render(bs, buffer);
+                    bitStream = null;
+                }
+
+                item.render(bs, buffer);
             }
-        }
-        return new IrSequence(data);
+        if (bitStream != null && !bitStream.isEmpty())
+            bitStream.render(bs, buffer);
+    }
+
+    /**
+     * Renders the durations directly into a primitive buffer, the bitspec alternatives being evaluated only once.
+     * @return IrSequence
+     * @throws IncompatibleArgumentException
+     * @throws UnassignedException
+     */
+    public IrSequence toIrSequence() throws IncompatibleArgumentException, UnassignedException {
+        DurationBuffer buffer = new DurationBuffer(2*irStreamItems.size() + 16);
+        render(null, buffer);
+        return buffer.toIrSequence();
     }
 }
@@ -33,6 +33,19 @@ public abstract class PrimaryIrStreamItem extends IrStreamItem {
      */
     public abstract ArrayList<PrimitiveIrStreamItem> evaluate(BitSpec bitSpec) throws IncompatibleArgumentException, UnassignedException;
 
+    /**
+     * Like evaluate, but emits the Durations to the DurationBuffer instead of collecting them in a list.
+     *
+     * @param bitSpec
+     * @param buffer
+     * @throws IncompatibleArgumentException
+     * @throws UnassignedException
+     */
+    void render(BitSpec bitSpec, DurationBuffer buffer) throws IncompatibleArgumentException, UnassignedException {
+        for (PrimitiveIrStreamItem item : evaluate(bitSpec))
+            buffer.add((Duration) item);
+    }
+
     protected void debugBegin() {
         if (Debug.getInstance().debugOn(Debug.Item.Evaluate))
            Debug.debugEvaluate("Entering " + this.getClass().getSimpleName() + ": " + toString());
@@ -333,7 +333,7 @@ public class Pronto {
      * @return CCF array
      */
     public final int[] initArray() {
-        return toArray(irSignal.frequency, irSignal.introSequence.data);
+        return toArray(irSignal.frequency, irSignal.introSequence.toDoubles());
     }
 
     /**
@@ -341,7 +341,7 @@ public class Pronto {
      * @return CCF array
      */
     public final int[] repeatArray() {
-        return toArray(irSignal.frequency, irSignal.repeatSequence.data);
+        return toArray(irSignal.frequency, irSignal.repeatSequence.toDoubles());
     }
 
     /**
@@ -385,11 +385,11 @@ public class Pronto {
         data[index++] = getProntoCode(irSignal.getFrequency());
         data[index++] = irSignal.getIntroLength()/2;
         data[index++] = irSignal.getRepeatLength()/2;
-        for (int i = 0; i < irSignal.getIntroLength(); i++)
-            data[index++] = pulses(irSignal.getIntroDouble(i), irSignal.getFrequency());
-
-        for (int i = 0; i < irSignal.getRepeatLength(); i++)
-            data[index++] = pulses(irSignal.getRepeatDouble(i), irSignal.getFrequency());
+        // same as pulses(double, double), cached by the sequences
+        double frequency = irSignal.getFrequency() > 0 ? irSignal.getFrequency() : dummyFrequency;
+        System.arraycopy(irSignal.introSequence.pulses(frequency), 0, data, index, irSignal.getIntroLength());
+        index += irSignal.getIntroLength();
+        System.arraycopy(irSignal.repeatSequence.pulses(frequency), 0, data, index, irSignal.getRepeatLength());
 
         return data;
     }
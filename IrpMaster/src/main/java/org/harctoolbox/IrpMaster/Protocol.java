@@ -40,18 +40,26 @@ import org.w3c.dom.Element;
  *
  * There are too many public functions in the API...
  *
+ * <p>The parsed protocol (AST, GeneralSpec, ParameterSpecs) is immutable. The functions taking a
+ * RenderPlan.RenderState as argument use a shared, lazily compiled RenderPlan, and are thread safe;
+ * a Protocol can thus be shared between threads using them. The other render functions use the mutable
+ * name engine of the Protocol, and are not thread safe.
+ *
  */
 public class Protocol {
 
-    private String name;
-    private String documentation;
-    private String irpString;
-    private CommonTree AST;
-    private GeneralSpec generalSpec;
-    private NameEngine nameEngine;
-    private ParameterSpecs parameterSpecs;
-    private CommonTree topBitspecIrsteam;
-    private CommonTokenStream tokens;
+    private final String name;
+    private final String documentation;
+    private final String irpString;
+    private final CommonTree AST;
+    private final GeneralSpec generalSpec;
+    private final NameEngine nameEngine;
+    private final ParameterSpecs parameterSpecs;
+    private final CommonTree topBitspecIrsteam;
+    private final CommonTokenStream tokens;
+
+    // Lazily compiled; racing threads may compile it twice, which is harmless.
+    private volatile RenderPlan renderPlan = null;
 
     // True the first time render is called, then false -- to be able to initialize.
     private boolean virgin = true;
@@ -236,8 +244,34 @@ public class Protocol {
     public Protocol(GeneralSpec generalSpec) {
         if (generalSpec == null)
             throw new RuntimeException("empty generalSpec");
+        this.name = null;
+        this.documentation = null;
+        this.irpString = null;
+        this.AST = null;
         this.generalSpec = generalSpec;
         this.nameEngine = new NameEngine();
+        this.parameterSpecs = null;
+        this.topBitspecIrsteam = null;
+        this.tokens = null;
+    }
+
+    /**
+     * Creates a Protocol sharing the parsed, immutable parts (AST, GeneralSpec, ParameterSpecs, RenderPlan) with its argument,
+     * but with its own name engine. This is considerably cheaper than parsing the IRP again.
+     *
+     * @param protocol
+     */
+    Protocol(Protocol protocol) {
+        this.name = protocol.name;
+        this.documentation = protocol.documentation;
+        this.irpString = protocol.irpString;
+        this.AST = protocol.AST;
+        this.generalSpec = protocol.generalSpec;
+        this.nameEngine = new NameEngine();
+        this.parameterSpecs = protocol.parameterSpecs;
+        this.topBitspecIrsteam = protocol.topBitspecIrsteam;
+        this.tokens = protocol.tokens;
+        this.renderPlan = protocol.renderPlan;
     }
 
     /** Just for testing and debugging */
@@ -261,17 +295,20 @@ public class Protocol {
         }
         AST = r.getTree();
 
+        GeneralSpec gs = null;
+        ParameterSpecs ps = null;
+        CommonTree bitspecIrstream = null;
         for (int i = 0; i < AST.getChildCount(); i++) {
             CommonTree ch = (CommonTree) AST.getChild(i);
             switch (ch.getText()) {
                 case "GENERALSPEC":
-                    generalSpec = new GeneralSpec(ch);
+                    gs = new GeneralSpec(ch);
                     break;
                 case "PARAMETER_SPECS":
-                    parameterSpecs = new ParameterSpecs(ch);
+                    ps = new ParameterSpecs(ch);
                     break;
                 case "BITSPEC_IRSTREAM":
-                    topBitspecIrsteam = ch;
+                    bitspecIrstream = ch;
                     break;
                 case "DEFINITIONS":
                     // nothing to do
@@ -280,13 +317,16 @@ public class Protocol {
                     throw new RuntimeException("This cannot happen");
             }
         }
-        if (parameterSpecs == null) {
+        if (ps == null) {
             UserComm.warning("Parameter specs are missing from protocol. Runtime errors due to unassigned variables are possile. Also silent truncation of parameters can occur. Further messages on parameters will be suppressed.");
-            parameterSpecs = new ParameterSpecs();
+            ps = new ParameterSpecs();
         }
-        if (generalSpec == null) {
+        if (gs == null) {
             throw new UnassignedException("GeneralSpec missing from protocol");
         }
+        generalSpec = gs;
+        parameterSpecs = ps;
+        topBitspecIrsteam = bitspecIrstream;
 
         Debug.debugIrpParser("GeneralSpec: " + generalSpec);
         Debug.debugIrpParser("nameEngine: " + nameEngine);
@@ -324,49 +364,71 @@ public class Protocol {
     }
 
     public void setupDOM() {
+        doc = newSignalsDocument();
+        root = doc.getDocumentElement();
+    }
+
+    /**
+     * Returns a new document with an empty protocol element, to which signal elements are added.
+     * @return new Document
+     */
+    Document newSignalsDocument() {
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         factory.setValidating(false);
         factory.setNamespaceAware(false);
+        Document document = null;
         try {
             DocumentBuilder builder = factory.newDocumentBuilder();
-            doc = builder.newDocument();
+            document = builder.newDocument();
         } catch (ParserConfigurationException ex) {
             System.err.println(ex.getMessage());
         }
 
-        root = doc.createElement("protocol");
-        root.setAttribute("name", name);
-        doc.appendChild(root);
-        root.setAttribute("frequency", Long.toString(Math.round(generalSpec.getFrequency())));
+        Element protocolElement = document.createElement("protocol");
+        protocolElement.setAttribute("name", name);
+        document.appendChild(protocolElement);
+        protocolElement.setAttribute("frequency", Long.toString(Math.round(generalSpec.getFrequency())));
         if (generalSpec.getDutyCycle() > 0)
-            root.setAttribute("dutycycle", Double.toString(generalSpec.getDutyCycle()));
+            protocolElement.setAttribute("dutycycle", Double.toString(generalSpec.getDutyCycle()));
+        return document;
     }
 
     public void addSignal(Map<String, Long> actualParameters) {
-        Element el = doc.createElement("signal");
-        for (Entry<String, Long> entry : actualParameters.entrySet())
-            el.setAttribute(entry.getKey(), Long.toString(entry.getValue()));
-
+        Element el = newSignalElement(doc, actualParameters);
         root.appendChild(el);
         currentElement = el;
+    }
 
+    static Element newSignalElement(Document document, Map<String, Long> actualParameters) {
+        Element el = document.createElement("signal");
+        for (Entry<String, Long> entry : actualParameters.entrySet())
+            el.setAttribute(entry.getKey(), Long.toString(entry.getValue()));
+        return el;
     }
 
     public void addXmlNode(String gid, String content) {
-        Element el = doc.createElement(gid);
+        currentElement.appendChild(newXmlNode(doc, gid, content));
+    }
+
+    static Element newXmlNode(Document document, String gid, String content) {
+        Element el = document.createElement(gid);
         el.setTextContent(content);
-        currentElement.appendChild(el);
+        return el;
     }
 
     public void addRawSignalRepresentation(IrSignal irSignal) {
-        Element raw_el = doc.createElement("raw");
-        currentElement.appendChild(raw_el);
-        insertXMLNode(raw_el, irSignal, Pass.intro);
-        insertXMLNode(raw_el, irSignal, Pass.repeat);
-        insertXMLNode(raw_el, irSignal, Pass.ending);
+        currentElement.appendChild(newRawSignalRepresentation(doc, irSignal));
     }
 
-    private void insertXMLNode(Element parent, IrSignal irSignal, Pass pass) {
+    static Element newRawSignalRepresentation(Document document, IrSignal irSignal) {
+        Element raw_el = document.createElement("raw");
+        insertXMLNode(document, raw_el, irSignal, Pass.intro);
+        insertXMLNode(document, raw_el, irSignal, Pass.repeat);
+        insertXMLNode(document, raw_el, irSignal, Pass.ending);
+        return raw_el;
+    }
+
+    private static void insertXMLNode(Document doc, Element parent, IrSignal irSignal, Pass pass) {
         if (irSignal.getLength(pass) > 0) {
             Element el = doc.createElement(pass.name());
             parent.appendChild(el);
@@ -602,6 +664,64 @@ public class Protocol {
         return new IrSequence(irStream);
     }
 
+    /**
+     * Compiles the protocol into a RenderPlan, which renders the same signals as renderIrSignal,
+     * without re-traversing the AST for each signal.
+     *
+     * @return newly compiled RenderPlan
+     */
+    public RenderPlan compile() {
+        if (AST == null)
+            throw new RuntimeException("Protocol has no IRP to compile");
+        return new RenderPlan(AST, generalSpec, parameterSpecs, topBitspecIrsteam);
+    }
+
+    /**
+     * Returns the RenderPlan of the protocol, compiling it the first time it is called.
+     * The RenderPlan is immutable, and shared by all callers.
+     *
+     * @return RenderPlan
+     */
+    public RenderPlan getRenderPlan() {
+        RenderPlan plan = renderPlan;
+        if (plan == null) {
+            plan = compile();
+            renderPlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * Returns a new RenderState, for keeping toggles and $count between calls to the thread safe render functions.
+     *
+     * @return new RenderState
+     */
+    public RenderPlan.RenderState newRenderState() {
+        return getRenderPlan().newRenderState();
+    }
+
+    /**
+     * Thread safe version of renderIrSignal. All state is kept in the RenderState argument,
+     * which must not be shared between threads.
+     *
+     * @param renderState State from newRenderState; a new one each call gives the semantic of renderIrSignal(Map, int, boolean).
+     * @param actualVars Parameter assignment
+     * @param pass Pass to render, or IrpUtils.all
+     * @param considerRepeatMins
+     * @return IrSignal
+     * @throws DomainViolationException
+     * @throws UnassignedException
+     * @throws IncompatibleArgumentException
+     * @throws InvalidRepeatException
+     */
+    public IrSignal renderIrSignal(RenderPlan.RenderState renderState, Map<String, Long>actualVars, int pass, boolean considerRepeatMins) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        return getRenderPlan().renderIrSignal(renderState, actualVars, pass, considerRepeatMins);
+    }
+
+    public IrSignal renderIrSignal(RenderPlan.RenderState renderState, Map<String, Long>actualVars) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        return renderIrSignal(renderState, actualVars, (int) IrpUtils.all, true);
+    }
+
     public IrSignal renderIrSignal(Map<String, Long>actualVars, int pass, boolean considerRepeatMins) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
         virgin = true;
         IrSequence intro  = (pass == Pass.intro.toInt()  || pass == IrpUtils.all) ? render(actualVars, Pass.intro,  considerRepeatMins,  true) : null; //TODO: what is correct?
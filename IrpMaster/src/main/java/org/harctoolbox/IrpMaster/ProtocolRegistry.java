@@ -0,0 +1,111 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.IrpMaster;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of IrpMaster instances, keyed by the path of the configuration file.
+ * An entry is reused as long as the modification time and the size of the file are unchanged,
+ * otherwise the file is read anew.
+ *
+ * <p>The IrpMaster instances returned are shared, and should not be modified.
+ * Since an IrpMaster caches its parsed protocols (see IrpMaster.getProtocol),
+ * also these are parsed only once per file.
+ */
+public final class ProtocolRegistry {
+
+    private static final class Entry {
+        private final long lastModified;
+        private final long length;
+        private final IrpMaster irpMaster;
+
+        Entry(long lastModified, long length, IrpMaster irpMaster) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.irpMaster = irpMaster;
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entry> registry = new ConcurrentHashMap<>(4);
+
+    private static String key(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException ex) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Returns the IrpMaster for the configuration file given as argument,
+     * reading it only if it has not been read before, or it has been modified since.
+     * The special name "-" (standard input) is never cached.
+     *
+     * @param protocolsIniPath Path to the configuration file, typically IrpProtocols.ini.
+     * @return shared IrpMaster
+     * @throws FileNotFoundException
+     * @throws IncompatibleArgumentException
+     */
+    public static IrpMaster getIrpMaster(String protocolsIniPath) throws FileNotFoundException, IncompatibleArgumentException {
+        if (protocolsIniPath.equals("-"))
+            return new IrpMaster(protocolsIniPath);
+
+        File file = new File(protocolsIniPath);
+        if (!file.isFile())
+            throw new FileNotFoundException(protocolsIniPath + " (No such file)");
+
+        String key = key(file);
+        Entry entry = registry.get(key);
+        if (entry != null && entry.isCurrent(file))
+            return entry.irpMaster;
+
+        // Read the time stamp before the file, so that a modification while reading is detected next time.
+        long lastModified = file.lastModified();
+        long length = file.length();
+        IrpMaster irpMaster = new IrpMaster(protocolsIniPath);
+        registry.put(key, new Entry(lastModified, length, irpMaster));
+        return irpMaster;
+    }
+
+    /**
+     * Forgets the cached IrpMaster of the file given as argument, if any.
+     *
+     * @param protocolsIniPath
+     */
+    public static void invalidate(String protocolsIniPath) {
+        registry.remove(key(new File(protocolsIniPath)));
+    }
+
+    /**
+     * Forgets all cached IrpMasters.
+     */
+    public static void clear() {
+        registry.clear();
+    }
+
+    private ProtocolRegistry() {
+    }
+}
@@ -0,0 +1,1352 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+package org.harctoolbox.IrpMaster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.antlr.runtime.tree.CommonTree;
+
+/**
+ * This class is a compiled form of a Protocol. The AST is translated once into flattened
+ * (postfix) expressions, numbered variable slots, precomputed durations and, where possible,
+ * pre-resolved bitspecs. Rendering then works on these structures only; the ANTLR tree is not consulted.
+ *
+ * <p>The rendered signals are identical to those of Protocol.renderIrSignal on a freshly constructed Protocol.
+ * Instances are immutable, and can be shared between threads. Every render call uses its own private
+ * context, unless an explicit RenderState is passed.
+ *
+ * @see Protocol#compile()
+ */
+public final class RenderPlan {
+
+    // Op codes of the compiled expressions
+    private static final int CONSTANT = 0;
+    private static final int NAME = 1;
+    private static final int POWER = 2;
+    private static final int MODULO = 3;
+    private static final int DIVIDE = 4;
+    private static final int MULTIPLY = 5;
+    private static final int SUBTRACT = 6;
+    private static final int ADD = 7;
+    private static final int AND = 8;
+    private static final int XOR = 9;
+    private static final int OR = 10;
+    private static final int NEGATE = 11;
+    private static final int BITCOUNT = 12;
+    private static final int BITFIELD = 13;
+
+    // Flags to the BITFIELD op code
+    private static final int COMPLEMENT = 1;
+    private static final int REVERSE = 2;
+    private static final int INFINITE = 4;
+    private static final int SKIP = 8;
+
+    // Units of durations
+    private static final int UNITS = 0;
+    private static final int PERIODS = 1;
+    private static final int MILLISECONDS = 2;
+    private static final int MICROSECONDS = 3;
+
+    // Contents of a variable slot
+    private static final byte UNASSIGNED = 0;
+    private static final byte VALUE = 1;
+    private static final byte EXPRESSION = 2;
+
+    // Replaces the StackOverflowError that detects recursive definitions in Protocol.evaluateName.
+    private static final int maxEvaluationDepth = 1000;
+
+    private final double frequency;
+    private final double dutyCycle;
+    private final double unit;
+    private final BitDirection bitDirection;
+    private final ParameterSpecs parameterSpecs;
+
+    private final String[] names;
+    private final HashMap<String, Integer> slots;
+    private final int stateSlot;
+    private final int passSlot;
+    private final int finalStateSlot;
+    private final int countSlot;
+
+    private final int[] definitionSlots;
+    private final CompiledExpression[] definitions;
+
+    private final int[] parameterSlots;
+    private final CompiledExpression[] parameterDefaults;
+    private final boolean[] parameterMemory;
+
+    private final BitspecIrStreamNode top;
+
+    /**
+     * Compiles the parts of a parsed protocol. Normally called through Protocol.compile().
+     *
+     * @param ast Complete AST of the protocol, the source of the definitions.
+     * @param generalSpec
+     * @param parameterSpecs
+     * @param bitspecIrstream The top level BITSPEC_IRSTREAM of the AST.
+     */
+    RenderPlan(CommonTree ast, GeneralSpec generalSpec, ParameterSpecs parameterSpecs, CommonTree bitspecIrstream) {
+        frequency = generalSpec.getFrequency();
+        dutyCycle = generalSpec.getDutyCycle();
+        unit = generalSpec.getUnit();
+        bitDirection = generalSpec.getBitDirection();
+        this.parameterSpecs = parameterSpecs;
+
+        Compiler compiler = new Compiler();
+        stateSlot = compiler.slot("$state");
+        passSlot = compiler.slot("$pass");
+        finalStateSlot = compiler.slot("$final_state");
+        countSlot = compiler.slot("$count");
+
+        ArrayList<CommonTree> definitionTrees = new ArrayList<>();
+        for (int i = 0; i < ast.getChildCount(); i++) {
+            CommonTree ch = (CommonTree) ast.getChild(i);
+            if (ch.getText().equals("DEFINITIONS"))
+                for (int j = 0; j < ch.getChildCount(); j++)
+                    definitionTrees.add((CommonTree) ch.getChild(j));
+        }
+        definitionSlots = new int[definitionTrees.size()];
+        definitions = new CompiledExpression[definitionTrees.size()];
+        for (int i = 0; i < definitionTrees.size(); i++) {
+            CommonTree t = definitionTrees.get(i);
+            definitionSlots[i] = compiler.slot(t.getChild(0).getText().trim());
+            definitions[i] = compiler.expression((CommonTree) t.getChild(1));
+        }
+
+        // Keep the iteration order of ParameterSpecs, it determines which error is reported first.
+        ArrayList<ParameterSpec> params = new ArrayList<>(parameterSpecs.getParams());
+        parameterSlots = new int[params.size()];
+        parameterDefaults = new CompiledExpression[params.size()];
+        parameterMemory = new boolean[params.size()];
+        for (int i = 0; i < params.size(); i++) {
+            ParameterSpec ps = params.get(i);
+            parameterSlots[i] = compiler.slot(ps.getName());
+            parameterDefaults[i] = ps.getDefault() != null ? compiler.expression(ps.getDefault()) : null;
+            parameterMemory[i] = ps.hasMemory();
+        }
+
+        top = compiler.bitspecIrStream(bitspecIrstream, false, null);
+
+        names = compiler.names.toArray(new String[compiler.names.size()]);
+        slots = compiler.slots;
+    }
+
+    public double getFrequency() {
+        return frequency;
+    }
+
+    public double getDutyCycle() {
+        return dutyCycle;
+    }
+
+    /**
+     * Returns a new RenderState, to be used for keeping toggles and $count between render calls.
+     * @return new RenderState in its initial state.
+     */
+    public RenderState newRenderState() {
+        return new RenderState();
+    }
+
+    private void checkRenderState(RenderState renderState) {
+        if (renderState.getRenderPlan() != this)
+            throw new IllegalArgumentException("RenderState belongs to another RenderPlan");
+    }
+
+    /**
+     * Renders the protocol with the parameters given, using and updating the state given as first argument.
+     * On a new (or reset) RenderState, this corresponds to Protocol.renderIrSignal.
+     * On subsequent calls, parameters with memory (like toggles) keep their values, and $count continues to count.
+     *
+     * @param renderState State to use; must have been obtained from this RenderPlan.
+     * @param actualVars Parameter assignment
+     * @param pass Pass to render, or IrpUtils.all
+     * @param considerRepeatMins
+     * @return IrSignal
+     * @throws DomainViolationException
+     * @throws UnassignedException
+     * @throws IncompatibleArgumentException
+     * @throws InvalidRepeatException
+     */
+    public IrSignal renderIrSignal(RenderState renderState, Map<String, Long> actualVars, int pass, boolean considerRepeatMins) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        checkRenderState(renderState);
+        boolean initial = renderState.virgin;
+        IrSequence intro  = (pass == Pass.intro.toInt()  || pass == IrpUtils.all) ? renderState.render(actualVars, Pass.intro.toInt(),  considerRepeatMins, initial) : null;
+        IrSequence repeat = (pass == Pass.repeat.toInt() || pass == IrpUtils.all) ? renderState.render(actualVars, Pass.repeat.toInt(), false, false) : null;
+        IrSequence ending = (pass == Pass.ending.toInt() || pass == IrpUtils.all) ? renderState.render(actualVars, Pass.ending.toInt(), false, false) : null;
+        return new IrSignal(frequency, dutyCycle, intro, repeat, ending);
+    }
+
+    public IrSignal renderIrSignal(RenderState renderState, Map<String, Long> actualVars) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        return renderIrSignal(renderState, actualVars, (int) IrpUtils.all, true);
+    }
+
+    /**
+     * Renders the protocol with the parameters given, corresponding to Protocol.renderIrSignal.
+     *
+     * @param actualVars Parameter assignment
+     * @param pass Pass to render, or IrpUtils.all
+     * @param considerRepeatMins
+     * @return IrSignal
+     * @throws DomainViolationException
+     * @throws UnassignedException
+     * @throws IncompatibleArgumentException
+     * @throws InvalidRepeatException
+     */
+    public IrSignal renderIrSignal(Map<String, Long> actualVars, int pass, boolean considerRepeatMins) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        return renderIrSignal(new RenderState(), actualVars, pass, considerRepeatMins);
+    }
+
+    public IrSignal renderIrSignal(Map<String, Long> actualVars, boolean considerRepeatMins) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        return renderIrSignal(actualVars, (int) IrpUtils.all, considerRepeatMins);
+    }
+
+    public IrSignal renderIrSignal(Map<String, Long> actualVars) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        return renderIrSignal(actualVars, (int) IrpUtils.all, true);
+    }
+
+    /**
+     * Renders one single pass, corresponding to Protocol.render with initialize = true.
+     *
+     * @param actualVars Parameter assignment
+     * @param pass Pass number
+     * @param considerRepeatMins
+     * @return IrSequence
+     * @throws DomainViolationException
+     * @throws UnassignedException
+     * @throws IncompatibleArgumentException
+     * @throws InvalidRepeatException
+     */
+    public IrSequence render(Map<String, Long> actualVars, int pass, boolean considerRepeatMins) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        return new RenderState().render(actualVars, pass, considerRepeatMins, true);
+    }
+
+    /**
+     * Renders one single pass using the state given, corresponding to Protocol.render with initialize
+     * true only the first time the RenderState is used.
+     *
+     * @param renderState State to use; must have been obtained from this RenderPlan.
+     * @param actualVars Parameter assignment
+     * @param pass Pass number
+     * @param considerRepeatMins
+     * @return IrSequence
+     * @throws DomainViolationException
+     * @throws UnassignedException
+     * @throws IncompatibleArgumentException
+     * @throws InvalidRepeatException
+     */
+    public IrSequence render(RenderState renderState, Map<String, Long> actualVars, int pass, boolean considerRepeatMins) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+        checkRenderState(renderState);
+        return renderState.render(actualVars, pass, considerRepeatMins, renderState.virgin);
+    }
+
+    private static long evaluateExpression(CompiledExpression expression, RenderState context) throws UnassignedException, DomainViolationException {
+        if (expression.isConstant)
+            return expression.value;
+
+        int[] code = expression.code;
+        long[] stack = new long[expression.stackSize];
+        int sp = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CONSTANT:
+                    stack[sp++] = expression.constants[code[++pc]];
+                    break;
+                case NAME:
+                    stack[sp++] = context.evaluateName(code[++pc]);
+                    break;
+                case POWER:
+                    sp--;
+                    stack[sp-1] = IrpUtils.power(stack[sp-1], stack[sp]);
+                    break;
+                case MODULO:
+                    sp--;
+                    stack[sp-1] %= stack[sp];
+                    break;
+                case DIVIDE:
+                    sp--;
+                    stack[sp-1] /= stack[sp];
+                    break;
+                case MULTIPLY:
+                    sp--;
+                    stack[sp-1] *= stack[sp];
+                    break;
+                case SUBTRACT:
+                    sp--;
+                    stack[sp-1] -= stack[sp];
+                    break;
+                case ADD:
+                    sp--;
+                    stack[sp-1] += stack[sp];
+                    break;
+                case AND:
+                    sp--;
+                    stack[sp-1] &= stack[sp];
+                    break;
+                case XOR:
+                    sp--;
+                    stack[sp-1] ^= stack[sp];
+                    break;
+                case OR:
+                    sp--;
+                    stack[sp-1] |= stack[sp];
+                    break;
+                case NEGATE:
+                    stack[sp-1] = -stack[sp-1];
+                    break;
+                case BITCOUNT:
+                    stack[sp-1] = (long) Long.bitCount(stack[sp-1]);
+                    break;
+                case BITFIELD: {
+                    int flags = code[++pc];
+                    long skip = (flags & SKIP) != 0 ? stack[--sp] : 0L;
+                    long width = (flags & INFINITE) != 0 ? BitField.maxWidth : stack[--sp];
+                    long data = stack[--sp];
+                    stack[sp++] = bitFieldValue(flags, data, width, skip);
+                    break;
+                }
+                default:
+                    throw new RuntimeException("Programming error detected: This cannot happen");
+            }
+        }
+        return stack[0];
+    }
+
+    // Same checks and computation as the BitField constructor.
+    private static long bitFieldValue(int flags, long data, long width, long skip) throws DomainViolationException {
+        if (width > BitField.maxWidth)
+            throw new DomainViolationException("Max width of bitfields (= " + BitField.maxWidth + ") exceeded.");
+        if (width < 0)
+            throw new DomainViolationException("Width of bitfield must be nonnegative.");
+        if (skip > BitField.maxWidth)
+            throw new DomainViolationException("Max skip value in bitfields (= " + BitField.maxWidth + ") exceeded.");
+        if (skip < 0)
+            throw new DomainViolationException("Skip value of bitfield must be nonnegative.");
+
+        int w = (int) width;
+        long x = data >> (int) skip;
+        if ((flags & COMPLEMENT) != 0)
+            x = ~x;
+        x &= ((1L << w) - 1L);
+        if ((flags & REVERSE) != 0)
+            x = IrpUtils.reverse(x, w);
+        return x;
+    }
+
+    // Same semantic as Duration.evaluate(0.0), including the treatment of a time equal to IrpUtils.invalid.
+    private double durationValue(double time, int unitType) {
+        switch (unitType) {
+            case PERIODS:
+                if (time == IrpUtils.invalid)
+                    return IrpUtils.invalid;
+                if (frequency > 0)
+                    return 1000000.0*time/frequency;
+                else
+                    throw new ArithmeticException("Units in p and frequency == 0 do not go together.");
+            case UNITS:
+                if (time == IrpUtils.invalid)
+                    return IrpUtils.invalid;
+                if (unit > 0)
+                    return time * unit;
+                else
+                    throw new ArithmeticException("Relative units and unit == 0 do not go together.");
+            case MILLISECONDS:
+                return 1000 * time;
+            default:
+                return time;
+        }
+    }
+
+    // Counterpart of Duration/Extent and the isEmpty() test performed by bare_irstream.
+    private Item pulse(DurationType type, double time, int unitType) throws IncompatibleArgumentException {
+        double value = durationValue(time, unitType);
+        if (type == DurationType.extent && value < 0)
+            throw new IncompatibleArgumentException("Argument of extent smaller than actual duration.");
+        return value == 0 ? EMPTY
+                : new Pulse(type == DurationType.gap ? -value : value, type == DurationType.extent);
+    }
+
+    private static Item field(int flags, long data, long width, long skip) throws DomainViolationException {
+        boolean infinite = (flags & INFINITE) != 0;
+        long value = bitFieldValue(flags, data, infinite ? BitField.maxWidth : width, skip);
+        int w = infinite ? BitField.maxWidth : (int) width;
+        return w == 0 ? EMPTY : new Field(value, w, infinite);
+    }
+
+    private static final class CompiledExpression {
+        private final int[] code;
+        private final long[] constants;
+        private final int stackSize;
+        private final boolean isConstant;
+        private final long value;
+
+        CompiledExpression(int[] code, long[] constants, int stackSize) {
+            this.code = code;
+            this.constants = constants;
+            this.stackSize = stackSize;
+            this.isConstant = false;
+            this.value = 0L;
+        }
+
+        CompiledExpression(long value) {
+            this.code = new int[0];
+            this.constants = new long[0];
+            this.stackSize = 0;
+            this.isConstant = true;
+            this.value = value;
+        }
+
+        boolean usesNames() {
+            for (int pc = 0; pc < code.length; pc++) {
+                if (code[pc] == NAME)
+                    return true;
+                if (code[pc] == CONSTANT || code[pc] == BITFIELD)
+                    pc++; // skip operand
+            }
+            return false;
+        }
+    }
+
+    // Compile time representation of the IrStream
+
+    private static abstract class Node {
+    }
+
+    private static final class DurationNode extends Node {
+        private final DurationType type;
+        private final int unitType;
+        private final boolean forceOk;
+        private final int timeSlot; // -1 for literal time
+        private final double time;
+        private final Item item; // precomputed, or null
+
+        DurationNode(DurationType type, int unitType, boolean forceOk, int timeSlot, double time, Item item) {
+            this.type = type;
+            this.unitType = unitType;
+            this.forceOk = forceOk;
+            this.timeSlot = timeSlot;
+            this.time = time;
+            this.item = item;
+        }
+    }
+
+    private static final class BitFieldNode extends Node {
+        private final int flags;
+        private final boolean forceOk;
+        private final CompiledExpression data;
+        private final CompiledExpression width; // null if infinite
+        private final CompiledExpression skip; // null if absent
+        private final Item item; // precomputed, or null
+
+        BitFieldNode(int flags, boolean forceOk, CompiledExpression data, CompiledExpression width, CompiledExpression skip, Item item) {
+            this.flags = flags;
+            this.forceOk = forceOk;
+            this.data = data;
+            this.width = width;
+            this.skip = skip;
+            this.item = item;
+        }
+    }
+
+    private static final class AssignmentNode extends Node {
+        private final int slot;
+        private final CompiledExpression expression;
+        private final boolean forceOk;
+
+        AssignmentNode(int slot, CompiledExpression expression, boolean forceOk) {
+            this.slot = slot;
+            this.expression = expression;
+            this.forceOk = forceOk;
+        }
+    }
+
+    private static final class BareIrStreamNode extends Node {
+        private final Node[] items;
+
+        BareIrStreamNode(Node[] items) {
+            this.items = items;
+        }
+    }
+
+    private static final class IrStreamNode extends Node {
+        private final BareIrStreamNode bareIrStream;
+        private final int min;
+        private final int max;
+        private final boolean infinite;
+        private final boolean hierarchicalRepeat;
+
+        IrStreamNode(BareIrStreamNode bareIrStream, RepeatMarker repeatMarker, boolean hierarchicalRepeat) {
+            this.bareIrStream = bareIrStream;
+            this.min = repeatMarker.min;
+            this.max = repeatMarker.max;
+            this.infinite = repeatMarker.isInfinite();
+            this.hierarchicalRepeat = hierarchicalRepeat;
+        }
+    }
+
+    private static final class BitSpecNode extends Node {
+        private final BareIrStreamNode[] alternatives;
+        private final BitSpecInstance constant; // null unless all alternatives are constant
+
+        BitSpecNode(BareIrStreamNode[] alternatives, BitSpecInstance constant) {
+            this.alternatives = alternatives;
+            this.constant = constant;
+        }
+    }
+
+    private static final class BitspecIrStreamNode extends Node {
+        private final BitSpecNode bitSpec;
+        private final IrStreamNode irStream;
+
+        BitspecIrStreamNode(BitSpecNode bitSpec, IrStreamNode irStream) {
+            this.bitSpec = bitSpec;
+            this.irStream = irStream;
+        }
+    }
+
+    private static final class VariationNode extends Node {
+        private final BareIrStreamNode[] alternatives;
+
+        VariationNode(BareIrStreamNode[] alternatives) {
+            this.alternatives = alternatives;
+        }
+    }
+
+    // Run time representation of the IrStream, corresponding to PrimaryIrStream and its items.
+
+    private static abstract class Item {
+        abstract boolean isEmpty();
+
+        int getNoAlternatives() {
+            return 0;
+        }
+    }
+
+    // Durations with value 0, and bitfields with width 0.
+    private static final Item EMPTY = new Item() {
+        @Override
+        boolean isEmpty() {
+            return true;
+        }
+    };
+
+    // Result of an assignment; it is not empty, and breaks bitstreams.
+    private static final Item ASSIGNMENT = new Item() {
+        @Override
+        boolean isEmpty() {
+            return false;
+        }
+    };
+
+    private static final class Pulse extends Item {
+        // Signed duration for flashes and gaps, unsigned extent for extents.
+        private final double value;
+        private final boolean extent;
+
+        Pulse(double value, boolean extent) {
+            this.value = value;
+            this.extent = extent;
+        }
+
+        @Override
+        boolean isEmpty() {
+            return false;
+        }
+    }
+
+    private static final class Field extends Item {
+        private final long value;
+        private final int width;
+        private final boolean infinite;
+
+        Field(long value, int width, boolean infinite) {
+            this.value = value;
+            this.width = width;
+            this.infinite = infinite;
+        }
+
+        @Override
+        boolean isEmpty() {
+            return false;
+        }
+    }
+
+    private static final class Segment extends Item {
+        private final ArrayList<Item> items;
+        private final BitSpecInstance bitSpec;
+        private final int noAlternatives;
+
+        Segment(ArrayList<Item> items, BitSpecInstance bitSpec, int noAlternatives) {
+            this.items = items;
+            this.bitSpec = bitSpec;
+            this.noAlternatives = noAlternatives;
+        }
+
+        @Override
+        boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        @Override
+        int getNoAlternatives() {
+            return noAlternatives;
+        }
+    }
+
+    private static final class BitSpecInstance {
+        private final Segment[] bitCodes;
+        private final int chunkSize;
+
+        BitSpecInstance(Segment[] bitCodes) {
+            this.bitCodes = bitCodes;
+            chunkSize = BitSpec.computeNoBits(bitCodes.length);
+        }
+
+        Segment getBitIrStream(int index) throws IncompatibleArgumentException {
+            if (index >= bitCodes.length)
+                throw new IncompatibleArgumentException("Cannot encode " + index + " with current bitspec.");
+            return bitCodes[index];
+        }
+    }
+
+    // The BitSpec in effect, together with the one in effect for its alternatives.
+    private static final class Scope {
+        private final BitSpecInstance bitSpec;
+        private final Scope parent;
+
+        Scope(BitSpecInstance bitSpec, Scope parent) {
+            this.bitSpec = bitSpec;
+            this.parent = parent;
+        }
+    }
+
+    // Port of BitStream, to be bit compatible also in the case of more than 64 bits.
+    private static final class BitBuffer {
+        private int length = 0;
+        private long[] data = new long[] { 0L };
+
+        void add(Field field, BitDirection bitDirection) throws IncompatibleArgumentException {
+            if (field.infinite)
+                throw new IncompatibleArgumentException("Infinite bitfields cannot be converted to bitstreams.");
+
+            long newData = bitDirection == BitDirection.msb ? field.value : IrpUtils.reverse(field.value, field.width);
+            length += field.width;
+
+            if (length > Long.SIZE) {
+                if (longsNeeded(length) > data.length) {
+                    long[] newdata = new long[data.length + 1];
+                    System.arraycopy(data, 0, newdata, 0, data.length);
+                    data = newdata;
+                }
+                for (int i = data.length - 1; i > 0; i--)
+                    data[i] = data[i] << field.width | getLeftmostBits(data[i-1], field.width);
+            }
+            data[0] = data[0] << field.width | newData;
+        }
+
+        private static long getLeftmostBits(long x, int n) {
+            return x >> (Long.SIZE - n) & ((1L << n) - 1L);
+        }
+
+        private static int longsNeeded(int n) {
+            return n/Long.SIZE + ((n % Long.SIZE == 0) ? 0 : 1);
+        }
+
+        int getChunkNo(int n, int chunksize) {
+            if (n < 0 || (length > 0 && (n+1)*chunksize-1 >= length))
+                throw new IndexOutOfBoundsException("Illegal bit " + n + " in getChunkNo");
+            if (((n+1)*chunksize-1)/Long.SIZE != (n*chunksize)/Long.SIZE)
+                throw new RuntimeException("Case not implemented");
+            return (int)(data[n*chunksize/Long.SIZE] >> n*chunksize) & ((1 << chunksize)- 1);
+        }
+
+        @Override
+        public String toString() {
+            if (data.length == 1)
+                return "BitStream, length = " + length + ", data = " + data[0] + " = " + Long.toBinaryString(data[0]);
+            StringBuilder dataString = new StringBuilder();
+            dataString.append("[ ");
+            StringBuilder binString = new StringBuilder();
+            for (int i = data.length - 1; i >= 0; i--) {
+                dataString.append(Long.toString(data[i])).append(" ");
+                binString.append(Long.toBinaryString(data[i])).append(" ");
+            }
+            return "BitStream, length = " + length + ", data = " + dataString + "] = " + binString;
+        }
+    }
+
+    // Growable list of the primitive durations produced by evaluating a Segment.
+    private static final class PulseList {
+        private double[] values = new double[64];
+        private boolean[] extents = new boolean[64];
+        private int size = 0;
+
+        void add(double value, boolean extent) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2*size);
+                extents = Arrays.copyOf(extents, 2*size);
+            }
+            values[size] = value;
+            extents[size] = extent;
+            size++;
+        }
+    }
+
+    /**
+     * Translates the AST into the node structure, mirroring the traversal in ASTTraverser.
+     * The forceOk and parent repeat arguments of ASTTraverser are static properties of the tree,
+     * so they are resolved here.
+     */
+    private final class Compiler {
+        private final ArrayList<String> names = new ArrayList<>();
+        private final HashMap<String, Integer> slots = new HashMap<>();
+
+        int slot(String name) {
+            Integer slot = slots.get(name);
+            if (slot == null) {
+                slot = names.size();
+                names.add(name);
+                slots.put(name, slot);
+            }
+            return slot;
+        }
+
+        CompiledExpression expression(CommonTree tree) {
+            ExpressionBuilder builder = new ExpressionBuilder();
+            emit(tree, builder);
+            CompiledExpression expression = builder.build();
+            if (expression.usesNames())
+                return expression;
+
+            // Constant folding; operations that throw are left to run time.
+            try {
+                return new CompiledExpression(evaluateExpression(expression, null));
+            } catch (ArithmeticException | UnassignedException | DomainViolationException ex) {
+                return expression;
+            }
+        }
+
+        private void emit(CommonTree tree, ExpressionBuilder builder) {
+            String type = tree.getText();
+            switch (type) {
+                case "**":
+                    emitBinary(tree, POWER, builder);
+                    break;
+                case "%":
+                    emitBinary(tree, MODULO, builder);
+                    break;
+                case "/":
+                    emitBinary(tree, DIVIDE, builder);
+                    break;
+                case "*":
+                    emitBinary(tree, MULTIPLY, builder);
+                    break;
+                case "-":
+                    emitBinary(tree, SUBTRACT, builder);
+                    break;
+                case "+":
+                    emitBinary(tree, ADD, builder);
+                    break;
+                case "&":
+                    emitBinary(tree, AND, builder);
+                    break;
+                case "^":
+                    emitBinary(tree, XOR, builder);
+                    break;
+                case "|":
+                    emitBinary(tree, OR, builder);
+                    break;
+                case "UMINUS":
+                    emit((CommonTree) tree.getChild(0), builder);
+                    builder.op(NEGATE, 0);
+                    break;
+                case "BITCOUNT":
+                    emit((CommonTree) tree.getChild(0), builder);
+                    builder.op(BITCOUNT, 0);
+                    break;
+                case "BITFIELD":
+                case "INFINITE_BITFIELD":
+                    emitBitField(tree, builder);
+                    break;
+                default:
+                    if (type.matches("[0-9]+"))
+                        builder.constant(Long.parseLong(type));
+                    else
+                        builder.name(slot(type));
+                    break;
+            }
+        }
+
+        private void emitBinary(CommonTree tree, int op, ExpressionBuilder builder) {
+            emit((CommonTree) tree.getChild(0), builder);
+            emit((CommonTree) tree.getChild(1), builder);
+            builder.op(op, -1);
+        }
+
+        private void emitBitField(CommonTree tree, ExpressionBuilder builder) {
+            int flags = bitFieldFlags(tree);
+            int offset = Integer.bitCount(flags & (COMPLEMENT | REVERSE));
+            emit((CommonTree) tree.getChild(offset++), builder);
+            int pops = 0;
+            if ((flags & INFINITE) == 0) {
+                emit((CommonTree) tree.getChild(offset++), builder);
+                pops++;
+            }
+            if (offset < tree.getChildCount()) {
+                emit((CommonTree) tree.getChild(offset), builder);
+                flags |= SKIP;
+                pops++;
+            }
+            builder.bitField(flags, -pops);
+        }
+
+        // Leading "~" means complement, a childless "-" reverse, cf. ASTTraverser.bitfield.
+        private int bitFieldFlags(CommonTree tree) {
+            int flags = tree.getText().equals("INFINITE_BITFIELD") ? INFINITE : 0;
+            int offset = 0;
+            if (((CommonTree) tree.getChild(offset)).getText().equals("~")) {
+                flags |= COMPLEMENT;
+                offset++;
+            }
+            if (((CommonTree) tree.getChild(offset)).getText().equals("-")
+                    && ((CommonTree) tree.getChild(offset)).getChildCount() == 0)
+                flags |= REVERSE;
+            return flags;
+        }
+
+        BitspecIrStreamNode bitspecIrStream(CommonTree tree, boolean forceOk, RepeatMarker repeatMarker) {
+            BitSpecNode bitSpec = bitspec((CommonTree) tree.getChild(0), repeatMarker);
+            IrStreamNode irStream = irStream((CommonTree) tree.getChild(1), forceOk, repeatMarker);
+            return new BitspecIrStreamNode(bitSpec, irStream);
+        }
+
+        private BitSpecNode bitspec(CommonTree tree, RepeatMarker repeatMarker) {
+            BareIrStreamNode[] alternatives = new BareIrStreamNode[tree.getChildCount()];
+            Segment[] constants = new Segment[tree.getChildCount()];
+            boolean isConstant = true;
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                alternatives[i] = bareIrStream((CommonTree) tree.getChild(i), true, repeatMarker);
+                constants[i] = constantSegment(alternatives[i]);
+                isConstant = isConstant && constants[i] != null;
+            }
+            return new BitSpecNode(alternatives, isConstant ? new BitSpecInstance(constants) : null);
+        }
+
+        // An alternative consisting of precomputed durations and bitfields only does not depend
+        // on the state, and can be built once and for all.
+        private Segment constantSegment(BareIrStreamNode bare) {
+            ArrayList<Item> items = new ArrayList<>(bare.items.length);
+            for (Node node : bare.items) {
+                Item item = node instanceof DurationNode ? ((DurationNode) node).item
+                        : node instanceof BitFieldNode ? ((BitFieldNode) node).item
+                        : null;
+                if (item == null)
+                    return null;
+                if (!item.isEmpty())
+                    items.add(item);
+            }
+            return new Segment(items, null, 0);
+        }
+
+        private IrStreamNode irStream(CommonTree tree, boolean forceOk, RepeatMarker parentRepeat) {
+            RepeatMarker repeatMarker = tree.getChildCount() > 1
+                    ? repeatMarker((CommonTree) tree.getChild(1))
+                    : new RepeatMarker();
+            boolean hierarchical = parentRepeat != null && parentRepeat.isInfinite() && repeatMarker.isInfinite();
+            BareIrStreamNode bare = bareIrStream((CommonTree) tree.getChild(0), forceOk, repeatMarker);
+            return new IrStreamNode(bare, repeatMarker, hierarchical);
+        }
+
+        private RepeatMarker repeatMarker(CommonTree tree) {
+            return tree.getChildCount() == 2
+                    ? new RepeatMarker(Integer.parseInt(((CommonTree) tree.getChild(0)).getText()), ((CommonTree) tree.getChild(1)).getText().charAt(0))
+                    : new RepeatMarker(((CommonTree) tree.getChild(0)).getText());
+        }
+
+        private BareIrStreamNode bareIrStream(CommonTree tree, boolean forceOk, RepeatMarker repeatMarker) {
+            Node[] items = new Node[tree.getChildCount()];
+            for (int i = 0; i < tree.getChildCount(); i++)
+                items[i] = irStreamItem((CommonTree) tree.getChild(i), forceOk, repeatMarker);
+            return new BareIrStreamNode(items);
+        }
+
+        private Node irStreamItem(CommonTree tree, boolean forceOk, RepeatMarker repeatMarker) {
+            switch (tree.getText()) {
+                case "FLASH":
+                case "GAP":
+                case "EXTENT":
+                    return duration(tree, forceOk);
+                case "BITFIELD":
+                case "INFINITE_BITFIELD":
+                    return bitField(tree, forceOk);
+                case "IRSTREAM":
+                    return irStream(tree, forceOk, repeatMarker);
+                case "BITSPEC_IRSTREAM":
+                    return bitspecIrStream(tree, forceOk, repeatMarker);
+                case "ASSIGNMENT":
+                    return new AssignmentNode(slot(tree.getChild(0).getText()), expression((CommonTree) tree.getChild(1)), forceOk);
+                case "VARIATION":
+                    BareIrStreamNode[] alternatives = new BareIrStreamNode[tree.getChildCount()];
+                    for (int i = 0; i < tree.getChildCount(); i++)
+                        alternatives[i] = bareIrStream((CommonTree) tree.getChild(i), forceOk, null);
+                    return new VariationNode(alternatives);
+                default:
+                    throw new RuntimeException("Something I did not think about, " + tree.getText() + ", occured.");
+            }
+        }
+
+        private DurationNode duration(CommonTree tree, boolean forceOk) {
+            DurationType type = DurationType.valueOf(tree.getText().toLowerCase(IrpUtils.dumbLocale));
+            String unitString = tree.getChildCount() == 2 ? tree.getChild(1).getText() : "";
+            int unitType = unitString.equals("p") ? PERIODS
+                    : unitString.equals("m") ? MILLISECONDS
+                    : unitString.equals("u") ? MICROSECONDS
+                    : UNITS;
+            CommonTree t = (CommonTree) tree.getChild(0);
+            String label = t.getText();
+            if (label.equals("FLOAT") || label.matches("[0-9\\.]+")) {
+                double time = label.equals("FLOAT")
+                        ? Double.parseDouble(t.getChild(0).getText() + "." + t.getChild(1).getText())
+                        : (double) Integer.parseInt(label);
+                Item item;
+                try {
+                    item = pulse(type, time, unitType);
+                } catch (ArithmeticException | IncompatibleArgumentException ex) {
+                    item = null; // throw at run time, as the interpreter does
+                }
+                return new DurationNode(type, unitType, forceOk, -1, time, item);
+            } else
+                return new DurationNode(type, unitType, forceOk, slot(label), 0, null);
+        }
+
+        private BitFieldNode bitField(CommonTree tree, boolean forceOk) {
+            int flags = bitFieldFlags(tree);
+            int offset = Integer.bitCount(flags & (COMPLEMENT | REVERSE));
+            CompiledExpression data = expression((CommonTree) tree.getChild(offset++));
+            CompiledExpression width = (flags & INFINITE) != 0 ? null : expression((CommonTree) tree.getChild(offset++));
+            CompiledExpression skip = offset < tree.getChildCount() ? expression((CommonTree) tree.getChild(offset)) : null;
+            Item item = null;
+            if (data.isConstant && (width == null || width.isConstant) && (skip == null || skip.isConstant)) {
+                try {
+                    item = field(flags, data.value, width == null ? BitField.maxWidth : width.value, skip == null ? 0L : skip.value);
+                } catch (DomainViolationException ex) {
+                    item = null;
+                }
+            }
+            return new BitFieldNode(flags, forceOk, data, width, skip, item);
+        }
+    }
+
+    private static final class ExpressionBuilder {
+        private int[] code = new int[16];
+        private int length = 0;
+        private final ArrayList<Long> constants = new ArrayList<>();
+        private int depth = 0;
+        private int maxDepth = 0;
+
+        private void emit(int x) {
+            if (length == code.length)
+                code = Arrays.copyOf(code, 2*length);
+            code[length++] = x;
+        }
+
+        private void push(int delta) {
+            depth += delta;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        void constant(long value) {
+            emit(CONSTANT);
+            emit(constants.size());
+            constants.add(value);
+            push(1);
+        }
+
+        void name(int slot) {
+            emit(NAME);
+            emit(slot);
+            push(1);
+        }
+
+        void op(int op, int delta) {
+            emit(op);
+            push(delta);
+        }
+
+        void bitField(int flags, int delta) {
+            emit(BITFIELD);
+            emit(flags);
+            push(delta);
+        }
+
+        CompiledExpression build() {
+            long[] c = new long[constants.size()];
+            for (int i = 0; i < c.length; i++)
+                c[i] = constants.get(i);
+            return new CompiledExpression(Arrays.copyOf(code, length), c, maxDepth);
+        }
+    }
+
+    /**
+     * The state of rendering: the variables (the name engine), the traversal state, and $count.
+     * A RenderState is obtained from its RenderPlan, and passed to its render functions.
+     * Parameters with memory (toggles) and $count are kept between render calls with the same RenderState.
+     *
+     * <p>Different RenderStates of the same RenderPlan can be used concurrently,
+     * but a RenderState is not to be used by several threads simultaneously.
+     */
+    public final class RenderState {
+        private final byte[] kinds = new byte[names.length];
+        private final long[] values = new long[names.length];
+        private final CompiledExpression[] expressions = new CompiledExpression[names.length];
+        private final PulseList pulses = new PulseList();
+        private int count = 0;
+        private boolean virgin = true;
+        private int depth = 0;
+        private int state;
+        private int pass;
+        private boolean considerRepeatMins;
+
+        private RenderState() {
+        }
+
+        private RenderPlan getRenderPlan() {
+            return RenderPlan.this;
+        }
+
+        /**
+         * Returns the RenderState to its initial state, i.e., as returned by newRenderState.
+         */
+        public void reset() {
+            Arrays.fill(kinds, UNASSIGNED);
+            Arrays.fill(expressions, null);
+            count = 0;
+            virgin = true;
+        }
+
+        /**
+         * @return Number of passes rendered since the last initialization, i.e., the value of $count.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        private void assign(int slot, long value) {
+            kinds[slot] = VALUE;
+            values[slot] = value;
+            expressions[slot] = null;
+        }
+
+        private void define(int slot, CompiledExpression expression) {
+            kinds[slot] = EXPRESSION;
+            expressions[slot] = expression;
+        }
+
+        long evaluateName(int slot) throws UnassignedException, DomainViolationException {
+            switch (kinds[slot]) {
+                case VALUE:
+                    // The name engine stores values as INT tokens; a negative one is not evaluable.
+                    if (values[slot] < 0)
+                        throw new UnassignedException("Name `" + values[slot] + "' not assigned.");
+                    return values[slot];
+                case EXPRESSION:
+                    if (depth >= maxEvaluationDepth)
+                        throw new UnassignedException("Name `" + names[slot] + "' appears to be recursively defined; stack overflow catched.");
+                    depth++;
+                    try {
+                        return evaluateExpression(expressions[slot], this);
+                    } finally {
+                        depth--;
+                    }
+                default:
+                    throw new UnassignedException("Name `" + names[slot] + "' not assigned.");
+            }
+        }
+
+        private void setState(int newState) {
+            state = newState;
+            assign(stateSlot, state);
+        }
+
+        IrSequence render(Map<String, Long> actualVars, int passNo, boolean considerRepeatMin, boolean initial) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+            Segment segment = process(actualVars, passNo, considerRepeatMin, initial);
+            return toIrSequence(segment);
+        }
+
+        // Corresponds to Protocol.process.
+        private Segment process(Map<String, Long> actualVars, int passNo, boolean considerRepeatMin, boolean initial) throws DomainViolationException, UnassignedException, IncompatibleArgumentException, InvalidRepeatException {
+            for (int i = 0; i < definitionSlots.length; i++)
+                define(definitionSlots[i], definitions[i]);
+
+            if (initial)
+                count = 0;
+            assign(countSlot, count);
+
+            for (int i = 0; i < parameterSlots.length; i++)
+                if ((initial || !parameterMemory[i]) && parameterDefaults[i] != null)
+                    define(parameterSlots[i], parameterDefaults[i]);
+
+            for (Entry<String, Long> kvp : actualVars.entrySet()) {
+                String name = kvp.getKey();
+                if (!parameterSpecs.isEmpty()) {
+                    ParameterSpec ps = parameterSpecs.getParameterSpec(name);
+                    if (ps == null) {
+                        UserComm.warning("Parameter `" + name + "' unknown in ParameterSpecs.");
+                    } else if (!ps.isOK(kvp.getValue())) {
+                        throw new DomainViolationException("Parameter " + name + " = " + kvp.getValue() + " outside of allowed domain (" + ps.domainAsString() + ").");
+                    }
+                }
+                Integer slot = slots.get(name);
+                if (slot != null)
+                    assign(slot, kvp.getValue());
+            }
+
+            for (int i = 0; i < parameterSlots.length; i++)
+                if (kinds[parameterSlots[i]] == UNASSIGNED)
+                    throw new UnassignedException("Parameter `" + names[parameterSlots[i]] + "' has not been assigned.");
+
+            state = 0;
+            pass = passNo;
+            considerRepeatMins = considerRepeatMin;
+            depth = 0;
+            assign(stateSlot, state);
+            assign(passSlot, pass);
+            Segment segment = bitspecIrStream(top);
+            assign(finalStateSlot, state);
+
+            count++;
+            assign(countSlot, count);
+            virgin = false;
+            return segment;
+        }
+
+        private boolean passOk(boolean forceOk) {
+            return forceOk || pass == state;
+        }
+
+        private Segment bitspecIrStream(BitspecIrStreamNode node) throws UnassignedException, InvalidRepeatException, DomainViolationException, IncompatibleArgumentException {
+            BitSpecInstance bitSpec = node.bitSpec.constant != null ? node.bitSpec.constant : bitSpec(node.bitSpec);
+            Segment irStream = irStream(node.irStream);
+            return new Segment(irStream != null ? irStream.items : new ArrayList<Item>(), bitSpec, 0);
+        }
+
+        private BitSpecInstance bitSpec(BitSpecNode node) throws UnassignedException, InvalidRepeatException, DomainViolationException, IncompatibleArgumentException {
+            Segment[] bitCodes = new Segment[node.alternatives.length];
+            for (int i = 0; i < bitCodes.length; i++)
+                bitCodes[i] = bareIrStream(node.alternatives[i], Pass.intro);
+            return new BitSpecInstance(bitCodes);
+        }
+
+        // Corresponds to ASTTraverser.irstream.
+        private Segment irStream(IrStreamNode node) throws UnassignedException, InvalidRepeatException, DomainViolationException, IncompatibleArgumentException {
+            if (node.hierarchicalRepeat)
+                throw new InvalidRepeatException("Hierachical repeats not implemented");
+
+            int noAlternatives = 0;
+            Segment irStream = null;
+            Segment bare;
+
+            if (node.min >= 1) {
+                bare = bareIrStream(node.bareIrStream, Pass.intro);
+                irStream = new Segment(bare.items, null, 0);
+                noAlternatives = bare.noAlternatives;
+                if (node.infinite && !considerRepeatMins)
+                    irStream = null; // Does not undo assignments...
+                if (node.max < 2 && noAlternatives > 1)
+                    UserComm.warning("Variations inside of IrSequence with repeat max < 2. Second and third alternative are ignored.");
+                else if (noAlternatives > 0) {
+                    setState(state + 1);
+                    if (node.max < 3 && noAlternatives == 3) {
+                        UserComm.warning("3-part Variations inside of IrSequence with repeat max < 3. Second alternative is ignored.");
+                    } else {
+                        bare = bareIrStream(node.bareIrStream, Pass.repeat);
+                        irStream = concatenate(irStream, bare);
+                    }
+
+                    if (noAlternatives == 3) {
+                        setState(state + 1);
+                        bare = bareIrStream(node.bareIrStream, Pass.ending);
+                        irStream = concatenate(irStream, bare);
+                    }
+                } else if (considerRepeatMins || !node.infinite) {
+                    for (int i = 0; i < node.min - 1; i++) {
+                        bare = bareIrStream(node.bareIrStream, Pass.intro);
+                        irStream = concatenate(irStream, bare);
+                    }
+                }
+            }
+
+            if (noAlternatives == 0) {
+                if (node.infinite)
+                    setState(state + 1);
+
+                if (state == pass && node.infinite) {
+                    bare = bareIrStream(node.bareIrStream, Pass.intro);
+                    irStream = new Segment(bare.items, null, 0);
+                    if (bare.noAlternatives > 0)
+                        throw new InvalidRepeatException("Invalid repeat: Variations enclosed in ( ... )* are not supported.");
+                }
+
+                if (node.infinite)
+                    setState(state + 1);
+            }
+            return irStream;
+        }
+
+        private Segment concatenate(Segment irStream, Segment bare) {
+            if (irStream == null)
+                return new Segment(bare.items, null, 0);
+            irStream.items.addAll(bare.items);
+            return irStream;
+        }
+
+        // Corresponds to ASTTraverser.bare_irstream.
+        private Segment bareIrStream(BareIrStreamNode node, Pass variationAlternative) throws UnassignedException, InvalidRepeatException, DomainViolationException, IncompatibleArgumentException {
+            int noAlternatives = 0;
+            ArrayList<Item> list = new ArrayList<>(node.items.length);
+            for (Node child : node.items) {
+                Item item = irStreamItem(child, variationAlternative);
+                if (item != null && item.getNoAlternatives() > 0)
+                    noAlternatives = item.getNoAlternatives();
+                if (item != null && !item.isEmpty())
+                    list.add(item);
+                if (noAlternatives > 0 && item.isEmpty())
+                    // Empty alternative
+                    break;
+            }
+            return new Segment(list, null, noAlternatives);
+        }
+
+        private Item irStreamItem(Node node, Pass variationAlternative) throws UnassignedException, InvalidRepeatException, DomainViolationException, IncompatibleArgumentException {
+            if (node instanceof DurationNode) {
+                DurationNode d = (DurationNode) node;
+                if (!passOk(d.forceOk))
+                    return null;
+                return d.item != null ? d.item
+                        : pulse(d.type, d.timeSlot >= 0 ? (double) evaluateName(d.timeSlot) : d.time, d.unitType);
+            } else if (node instanceof BitFieldNode) {
+                BitFieldNode b = (BitFieldNode) node;
+                if (!passOk(b.forceOk))
+                    return null;
+                if (b.item != null)
+                    return b.item;
+                long data = evaluateExpression(b.data, this);
+                long width = b.width == null ? BitField.maxWidth : evaluateExpression(b.width, this);
+                long skip = b.skip == null ? 0L : evaluateExpression(b.skip, this);
+                return field(b.flags, data, width, skip);
+            } else if (node instanceof AssignmentNode) {
+                AssignmentNode a = (AssignmentNode) node;
+                if (!passOk(a.forceOk))
+                    return null;
+                assign(a.slot, evaluateExpression(a.expression, this));
+                return ASSIGNMENT;
+            } else if (node instanceof IrStreamNode) {
+                return irStream((IrStreamNode) node);
+            } else if (node instanceof BitspecIrStreamNode) {
+                return bitspecIrStream((BitspecIrStreamNode) node);
+            } else {
+                VariationNode v = (VariationNode) node;
+                int childNo = variationAlternative.toInt();
+                Segment bare = v.alternatives.length > childNo ? bareIrStream(v.alternatives[childNo], Pass.intro) : null;
+                return new Segment(bare != null ? bare.items : new ArrayList<Item>(), null, v.alternatives.length);
+            }
+        }
+
+        // Corresponds to PrimaryIrStream.evaluate, the BitSpecs being resolved through the scope.
+        private void evaluate(Segment segment, Scope scope) throws UnassignedException, IncompatibleArgumentException {
+            Scope current = segment.bitSpec != null ? new Scope(segment.bitSpec, scope) : scope;
+            BitBuffer bitBuffer = null;
+            for (Item item : segment.items) {
+                if (item instanceof Field) {
+                    if (bitBuffer == null)
+                        bitBuffer = new BitBuffer();
+                    bitBuffer.add((Field) item, bitDirection);
+                } else {
+                    if (bitBuffer != null) {
+                        evaluate(bitBuffer, current);
+                        bitBuffer = null;
+                    }
+                    if (item instanceof Pulse)
+                        pulses.add(((Pulse) item).value, ((Pulse) item).extent);
+                    else if (item instanceof Segment)
+                        evaluate((Segment) item, current);
+                }
+            }
+            if (bitBuffer != null)
+                evaluate(bitBuffer, current);
+        }
+
+        // Corresponds to BitStream.evaluate.
+        private void evaluate(BitBuffer bitBuffer, Scope scope) throws UnassignedException, IncompatibleArgumentException {
+            if (scope == null)
+                throw new UnassignedException("BitStream " + bitBuffer.toString() + " has no associated BitSpec, cannot compute IRStream");
+            int chunkSize = scope.bitSpec.chunkSize;
+            if (bitBuffer.length % chunkSize != 0)
+                throw new IncompatibleArgumentException("chunksize (= " + chunkSize + ") does not divide bitstream length (= " + bitBuffer.length + ").");
+
+            int noChunks = bitBuffer.length/chunkSize;
+            for (int n = 0; n < noChunks; n++) {
+                int chunkNo = noChunks - n - 1;
+                Segment bitCode = scope.bitSpec.getBitIrStream(bitBuffer.getChunkNo(chunkNo, chunkSize));
+                evaluate(bitCode, scope.parent);
+            }
+        }
+
+        // Corresponds to PrimaryIrStream.toIrSequence and IrSequence(ArrayList<Double>).
+        private IrSequence toIrSequence(Segment segment) throws UnassignedException, IncompatibleArgumentException {
+            pulses.size = 0;
+            evaluate(segment, null);
+            if (pulses.size % 2 == 1)
+                pulses.add(-0.001, false);
+
+            double[] data = new double[pulses.size];
+            int length = 0;
+            double elapsed = 0;
+            boolean seenPositive = false;
+            for (int i = 0; i < pulses.size; i++) {
+                double duration = pulses.values[i];
+                if (pulses.extents[i]) {
+                    if (duration - elapsed < 0)
+                        throw new IncompatibleArgumentException("Argument of extent smaller than actual duration.");
+                    duration = -(duration - elapsed);
+                }
+                if (duration > 0)
+                    seenPositive = true;
+
+                if (seenPositive) {
+                    elapsed += Math.abs(duration);
+                    // Consecutive gaps (flashes) are combined.
+                    if (length > 0 && equalSign(data[length-1], duration))
+                        data[length-1] += duration;
+                    else
+                        data[length++] = duration;
+                }
+                if (pulses.extents[i])
+                    elapsed = 0;
+            }
+            if (length % 2 != 0)
+                throw new IncompatibleArgumentException("IrSequence cannot end with a flash.");
+            return new IrSequence(length == data.length ? data : Arrays.copyOf(data, length));
+        }
+    }
+
+    private static boolean equalSign(double x, double y) {
+        return x <= 0 && y <= 0 || x >= 0 && y >= 0;
+    }
+}
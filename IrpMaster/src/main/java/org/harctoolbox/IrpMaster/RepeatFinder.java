@@ -17,11 +17,35 @@ this program. If not, see http://www.gnu.org/licenses/.
 
 package org.harctoolbox.IrpMaster;
 
+import java.util.Arrays;
+
 /**
  *
  */
 public class RepeatFinder {
 
+    /**
+     * Algorithms for finding the repeat. The default is exhaustive; quantizedHash is selected
+     * either per call, or for all calls with setDefaultAlgorithm.
+     */
+    public enum Algorithm {
+        /**
+         * Tries every length and every beginning, comparing the durations within the tolerances.
+         * Cubic in the number of bursts in the worst case. The default.
+         */
+        exhaustive,
+
+        /**
+         * Quantizes the durations into classes using the tolerances, and compares blocks
+         * by rolling hashes of the classes; only blocks with equal hashes are compared duration by duration.
+         * Only blocks ending with, and repeating with, a sufficiently long gap are considered.
+         * Gives the same result as exhaustive.
+         */
+        quantizedHash
+    }
+
+    private static Algorithm defaultAlgorithm = Algorithm.exhaustive;
+
     private static double defaultMinRepeatLastGap = IrpUtils.defaultMinRepeatLastGap; // 20 milli seconds minimum for a repetition
     private static double defaultRelativeTolerance = IrpUtils.defaultRelativeTolerance;
     private static double defaultAbsoluteTolerance = IrpUtils.defaultAbsoluteTolerance;
@@ -68,6 +92,20 @@ public class RepeatFinder {
         defaultAbsoluteTolerance = aDefaultAbsoluteTolerance;
     }
 
+    /**
+     * @return the defaultAlgorithm
+     */
+    public static Algorithm getDefaultAlgorithm() {
+        return defaultAlgorithm;
+    }
+
+    /**
+     * @param aDefaultAlgorithm the defaultAlgorithm to set
+     */
+    public static void setDefaultAlgorithm(Algorithm aDefaultAlgorithm) {
+        defaultAlgorithm = aDefaultAlgorithm;
+    }
+
     public static class RepeatFinderData {
         private int beginLength;
         private int repeatLength;
@@ -141,14 +179,23 @@ public class RepeatFinder {
     private double absoluteTolerance;
     private double minRepeatLastGap;
     private IrSequence irSequence;
+    private Algorithm algorithm;
     private RepeatFinderData repeatFinderData;
 
-    public RepeatFinder(IrSequence irSequence, double absoluteTolerance, double relativeTolerance) {
+    public RepeatFinder(IrSequence irSequence, double absoluteTolerance, double relativeTolerance, Algorithm algorithm) {
         this.absoluteTolerance = absoluteTolerance;
         this.relativeTolerance = relativeTolerance;
         this.minRepeatLastGap = defaultMinRepeatLastGap;
         this.irSequence = irSequence;
-        analyze();
+        this.algorithm = algorithm;
+        if (algorithm == Algorithm.quantizedHash)
+            analyzeQuantized();
+        else
+            analyze();
+    }
+
+    public RepeatFinder(IrSequence irSequence, double absoluteTolerance, double relativeTolerance) {
+        this(irSequence, absoluteTolerance, relativeTolerance, defaultAlgorithm);
     }
 
     public RepeatFinder(IrSequence irSequence) {
@@ -203,6 +250,168 @@ public class RepeatFinder {
         }
     }
 
+    // Candidates are evaluated in the order of analyze(), with the same criterion,
+    // so that ties are resolved the same way.
+    private void analyzeQuantized() {
+        RepeatFinderData candidate = new RepeatFinderData();
+        int bursts = irSequence.getNumberBursts();
+        if (bursts < 4) {
+            repeatFinderData = candidate;
+            return;
+        }
+
+        QuantizedSequence quantized = new QuantizedSequence();
+
+        // A block ends with a gap longer than minRepeatLastGap. Its next repetition ends
+        // with a gap equal to it within the tolerances, or at the end of the sequence.
+        double repeatGapLimit = Math.min(minRepeatLastGap - absoluteTolerance, minRepeatLastGap * (1 - relativeTolerance));
+        int[] ends = new int[bursts];
+        int[] repeatEnds = new int[bursts];
+        int noEnds = 0;
+        int noRepeatEnds = 0;
+        for (int burst = 0; burst < bursts; burst++) {
+            double gap = Math.abs(irSequence.get(2 * burst + 1));
+            if (gap > minRepeatLastGap)
+                ends[noEnds++] = burst;
+            if (gap >= repeatGapLimit || burst == bursts - 1)
+                repeatEnds[noRepeatEnds++] = burst;
+        }
+
+        // Encode (length descending, beginning ascending) in a long, for sorting.
+        long[] candidates = new long[noEnds * noRepeatEnds];
+        int noCandidates = 0;
+        for (int i = 0; i < noEnds; i++) {
+            for (int j = 0; j < noRepeatEnds; j++) {
+                int length = repeatEnds[j] - ends[i];
+                int beginning = ends[i] - length + 1;
+                if (length >= 2 && length <= bursts / 2 && beginning >= 0 && beginning < bursts - length)
+                    candidates[noCandidates++] = ((long) (bursts - length) << 32) | beginning;
+            }
+        }
+        Arrays.sort(candidates, 0, noCandidates);
+
+        for (int i = 0; i < noCandidates; i++) {
+            int length = bursts - (int) (candidates[i] >>> 32);
+            int beginning = (int) candidates[i];
+            RepeatFinderData newCandidate = quantized.countRepeats(2*beginning, 2*length);
+            if (newCandidate.numberRepeats > 1
+                    && newCandidate.lastGap > minRepeatLastGap
+                    && newCandidate.repeatsDuration > candidate.repeatsDuration - 0.1)
+                candidate = newCandidate;
+        }
+        repeatFinderData = candidate;
+    }
+
+    /**
+     * The durations of the IrSequence, replaced by the number of their class, together with polynomial
+     * prefix hashes of the classes for constant time comparison of subsequences.
+     * Sorted durations are put in the same class as their predecessor if equal to it within the tolerances,
+     * so durations equal within the tolerances are always in the same class. Thus different hashes imply
+     * different subsequences. If every class is tight, i.e. its extremes are equal within the tolerances,
+     * the converse holds too, and equal hashes need not be verified.
+     */
+    private class QuantizedSequence {
+        private static final long modulus1 = 1000000007L;
+        private static final long modulus2 = 998244353L;
+        private static final long base1 = 1000003L;
+        private static final long base2 = 10007L;
+
+        private final double[] durations;
+        private final int[] classes;
+        private final long[] hash1;
+        private final long[] hash2;
+        private final long[] power1;
+        private final long[] power2;
+        private final double[] partialSums;
+        private final boolean tight;
+
+        QuantizedSequence() {
+            int n = irSequence.getLength();
+            durations = new double[n];
+            for (int i = 0; i < n; i++)
+                durations[i] = Math.abs(irSequence.get(i));
+
+            double[] sorted = durations.clone();
+            Arrays.sort(sorted);
+            int[] sortedClasses = new int[n];
+            int noClasses = 0;
+            boolean allTight = true;
+            int classStart = 0;
+            for (int i = 1; i < n; i++) {
+                if (!IrpUtils.isEqual(sorted[i - 1], sorted[i], absoluteTolerance, relativeTolerance)) {
+                    noClasses++;
+                    classStart = i;
+                } else if (allTight)
+                    allTight = IrpUtils.isEqual(sorted[classStart], sorted[i], absoluteTolerance, relativeTolerance);
+                sortedClasses[i] = noClasses;
+            }
+            tight = allTight;
+
+            classes = new int[n];
+            hash1 = new long[n + 1];
+            hash2 = new long[n + 1];
+            power1 = new long[n + 1];
+            power2 = new long[n + 1];
+            partialSums = new double[n + 1];
+            power1[0] = 1L;
+            power2[0] = 1L;
+            for (int i = 0; i < n; i++) {
+                classes[i] = sortedClasses[Arrays.binarySearch(sorted, durations[i])];
+                long symbol = classes[i] + 1;
+                hash1[i + 1] = (hash1[i] * base1 + symbol) % modulus1;
+                hash2[i + 1] = (hash2[i] * base2 + symbol) % modulus2;
+                power1[i + 1] = power1[i] * base1 % modulus1;
+                power2[i + 1] = power2[i] * base2 % modulus2;
+                partialSums[i + 1] = partialSums[i] + durations[i];
+            }
+        }
+
+        private boolean isEqual(int beginning, int compareStart, int length) {
+            return hash(hash1, power1, modulus1, beginning, length) == hash(hash1, power1, modulus1, compareStart, length)
+                    && hash(hash2, power2, modulus2, beginning, length) == hash(hash2, power2, modulus2, compareStart, length);
+        }
+
+        private long hash(long[] hash, long[] power, long modulus, int start, int length) {
+            long value = (hash[start + length] - hash[start] * power[length]) % modulus;
+            return value < 0 ? value + modulus : value;
+        }
+
+        // Necessary condition for RepeatFinder.compareSubSequences.
+        private boolean mayBeEqual(int beginning, int compareStart, int length) {
+            int n = durations.length;
+            if (compareStart + length > n)
+                return false;
+
+            if (compareStart + length < n || minRepeatLastGap <= 0)
+                return isEqual(beginning, compareStart, length);
+
+            int last = length - 1;
+            return isEqual(beginning, compareStart, last)
+                    && (classes[beginning + last] == classes[compareStart + last]
+                    || (durations[beginning + last] >= minRepeatLastGap && durations[compareStart + last] >= minRepeatLastGap));
+        }
+
+        private boolean compareSubSequences(int beginning, int compareStart, int length) {
+            return mayBeEqual(beginning, compareStart, length)
+                    && (tight || RepeatFinder.this.compareSubSequences(beginning, compareStart, length));
+        }
+
+        // Corresponds to RepeatFinder.countRepeats.
+        private RepeatFinderData countRepeats(int beginning, int length) {
+            RepeatFinderData result = new RepeatFinderData(beginning, length, 0, 0);
+            result.lastGap = durations[beginning + length - 1];
+            if (result.lastGap < minRepeatLastGap)
+                return result;
+            int hits = 1;
+            while (compareSubSequences(beginning, beginning + hits*length, length))
+                hits++;
+            result.numberRepeats = hits;
+            result.endingLength = durations.length - beginning - hits*length;
+            result.repeatsDuration = partialSums[beginning + hits*length] - partialSums[beginning];
+            return result;
+        }
+    }
+
     private boolean compareSubSequences(int beginning, int compareStart, int length) {
         if (compareStart + length > irSequence.getLength())
             return false;
@@ -224,6 +433,13 @@ public class RepeatFinder {
         return absoluteTolerance;
     }
 
+    /**
+     * @return the algorithm used
+     */
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
     /**
      * @return the irSequence
      */
@@ -0,0 +1,660 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.IrpMaster;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.harctoolbox.IrpMaster.DecodeIR.DecodedSignal;
+import org.harctoolbox.IrpMaster.Iterate.InputVariableSetValues;
+import org.harctoolbox.IrpMaster.Iterate.RandomValueSet;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * This class checks that the signals rendered from the protocols of an IrpMaster decode back
+ * to the parameters they were rendered from, as the --decodeir option of IrpMaster does for
+ * one signal at a time. For every protocol, the edge values of all parameters,
+ * together with some random values, are combined, like parameter iterations on the command line.
+ * If that gives too many signals, combinations of them are drawn at random instead.
+ * The protocols are rendered and checked on a number of worker threads.
+ *
+ * <p>The result is a Report, that can be exported as XML, with the mismatches and the throughput.
+ * If the shared library of DecodeIR is not available, a pure Java ReferenceDecoder is used instead.
+ * That does not decode anything, so the report then has the mode "render-consistency"
+ * instead of "roundtrip", and must not be taken as a round trip pass.
+ */
+public final class RoundTripVerifier {
+
+    public static final int defaultRandomValues = 2;
+    public static final int defaultMaxSignals = 1024;
+    public static final String roundTripMode = "roundtrip";
+    public static final String renderConsistencyMode = "render-consistency";
+
+    // Mismatches kept per protocol; all are counted.
+    private static final int maxReportedMismatches = 20;
+
+    /**
+     * Checks signals against the parameters they were rendered from.
+     * Instances must be usable from several threads simultaneously.
+     */
+    public interface Decoder {
+
+        /**
+         * @return Name of the decoder, for the report.
+         */
+        String getName();
+
+        /**
+         * @return true if the signal is decoded back to parameters, false if it is only compared with another rendering.
+         */
+        boolean isDecoding();
+
+        /**
+         * Checks that the signal decodes to the protocol and the parameters.
+         *
+         * @param protocolName Name of the protocol, as in the configuration file.
+         * @param protocol Protocol the signal was rendered from, not shared with other threads.
+         * @param parameters Parameters the signal was rendered from.
+         * @param irSignal Signal to check
+         * @return null if the signal decodes as it should, otherwise a description of what it decoded to.
+         * @throws IrpMasterException
+         */
+        String check(String protocolName, Protocol protocol, Map<String, Long> parameters, IrSignal irSignal) throws IrpMasterException;
+    }
+
+    /**
+     * Decodes with the shared library of DecodeIR, using the checks of DecodedSignal.isOk.
+     * Since the library is not thread safe, one signal is decoded at a time.
+     */
+    public static final class DecodeIrDecoder implements Decoder {
+
+        @Override
+        public String getName() {
+            return DecodeIR.appName + " " + DecodeIR.getVersion();
+        }
+
+        @Override
+        public boolean isDecoding() {
+            return true;
+        }
+
+        @Override
+        public String check(String protocolName, Protocol protocol, Map<String, Long> parameters, IrSignal irSignal) {
+            DecodedSignal[] decodes;
+            synchronized (DecodeIR.class) {
+                decodes = DecodeIR.decode(irSignal.toIntArray(), irSignal.getRepeatLength(), irSignal.getEndingLength(), (int) irSignal.getFrequency());
+            }
+            if (decodes == null)
+                return "DecodeIR not available";
+            if (decodes.length == 0)
+                return "no decode";
+            for (DecodedSignal decode : decodes)
+                if (decode.isOk(protocolName, protocol, parameters))
+                    return null;
+            return DecodedSignal.toPrintString(decodes);
+        }
+    }
+
+    /**
+     * Pure Java stand-in for DecodeIR. There is no IR decoder in Java here, so instead of decoding,
+     * the signal is compared with the one rendered by the interpreting renderer of the protocol
+     * (Protocol.renderIrSignal(Map)), independent of the RenderPlan the verifier renders with.
+     * It thus finds rendering errors and protocols that cannot be rendered, but, unlike DecodeIR,
+     * not protocols rendering other signals than their specification.
+     */
+    public static final class ReferenceDecoder implements Decoder {
+
+        @Override
+        public String getName() {
+            return "reference renderer";
+        }
+
+        @Override
+        public boolean isDecoding() {
+            return false;
+        }
+
+        @Override
+        public String check(String protocolName, Protocol protocol, Map<String, Long> parameters, IrSignal irSignal) throws IrpMasterException {
+            IrSignal reference = protocol.renderIrSignal(parameters);
+            return equals(irSignal, reference) ? null : ("reference renderer: " + reference.toPrintString());
+        }
+
+        private static boolean equals(IrSignal x, IrSignal y) {
+            return x.getFrequency() == y.getFrequency()
+                    && x.getDutyCycle() == y.getDutyCycle()
+                    && Arrays.equals(x.getIntroSequence().toDoubles(), y.getIntroSequence().toDoubles())
+                    && Arrays.equals(x.getRepeatSequence().toDoubles(), y.getRepeatSequence().toDoubles())
+                    && Arrays.equals(x.getEndingSequence().toDoubles(), y.getEndingSequence().toDoubles());
+        }
+    }
+
+    /**
+     * Returns DecodeIrDecoder if the DecodeIR library can be loaded, otherwise ReferenceDecoder.
+     * @return Decoder
+     */
+    public static Decoder newDecoder() {
+        return DecodeIR.loadLibrary() ? new DecodeIrDecoder() : new ReferenceDecoder();
+    }
+
+    /**
+     * A signal that did not check, or could not be rendered.
+     */
+    public static final class Mismatch {
+        private final Map<String, Long> parameters;
+        private final boolean rendered;
+        private final String message;
+
+        Mismatch(Map<String, Long> parameters, boolean rendered, String message) {
+            this.parameters = parameters;
+            this.rendered = rendered;
+            this.message = message;
+        }
+
+        public Map<String, Long> getParameters() {
+            return Collections.unmodifiableMap(parameters);
+        }
+
+        /**
+         * @return false if the rendering failed, true if the check of the rendered signal failed.
+         */
+        public boolean isRendered() {
+            return rendered;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return IrpUtils.variableHeader(parameters) + ": " + (rendered ? "" : "render failed: ") + message;
+        }
+    }
+
+    /**
+     * The outcome for one protocol.
+     */
+    public static final class Result {
+        private final String protocolName;
+        private int signals = 0;
+        private int noMismatches = 0;
+        private final ArrayList<Mismatch> mismatches = new ArrayList<>(4);
+        private String error = null;
+        private long nanoseconds = 0;
+
+        Result(String protocolName) {
+            this.protocolName = protocolName;
+        }
+
+        private void add(Mismatch mismatch) {
+            noMismatches++;
+            if (mismatches.size() < maxReportedMismatches)
+                mismatches.add(mismatch);
+        }
+
+        public String getProtocolName() {
+            return protocolName;
+        }
+
+        /**
+         * @return Number of parameter sets tried.
+         */
+        public int getSignals() {
+            return signals;
+        }
+
+        /**
+         * @return Number of mismatches, including those not kept by getMismatches.
+         */
+        public int getNoMismatches() {
+            return noMismatches;
+        }
+
+        /**
+         * @return The first mismatches.
+         */
+        public List<Mismatch> getMismatches() {
+            return Collections.unmodifiableList(mismatches);
+        }
+
+        /**
+         * @return Error message if the protocol could not be parsed or sampled, otherwise null.
+         */
+        public String getError() {
+            return error;
+        }
+
+        public boolean isOk() {
+            return error == null && noMismatches == 0;
+        }
+
+        public long getNanoseconds() {
+            return nanoseconds;
+        }
+    }
+
+    /**
+     * The results of all protocols, in the order of the protocols.
+     */
+    public static final class Report {
+        private final String decoderName;
+        private final boolean decoding;
+        private final int threads;
+        private final List<Result> results;
+        private final long nanoseconds;
+
+        Report(String decoderName, boolean decoding, int threads, List<Result> results, long nanoseconds) {
+            this.decoderName = decoderName;
+            this.decoding = decoding;
+            this.threads = threads;
+            this.results = results;
+            this.nanoseconds = nanoseconds;
+        }
+
+        /**
+         * @return roundTripMode if the signals were decoded, otherwise renderConsistencyMode.
+         */
+        public String getMode() {
+            return decoding ? roundTripMode : renderConsistencyMode;
+        }
+
+        public List<Result> getResults() {
+            return Collections.unmodifiableList(results);
+        }
+
+        public int getSignals() {
+            int sum = 0;
+            for (Result result : results)
+                sum += result.signals;
+            return sum;
+        }
+
+        public int getNoMismatches() {
+            int sum = 0;
+            for (Result result : results)
+                sum += result.noMismatches;
+            return sum;
+        }
+
+        /**
+         * @return Number of protocols with errors or mismatches.
+         */
+        public int getNoFailedProtocols() {
+            int count = 0;
+            for (Result result : results)
+                if (!result.isOk())
+                    count++;
+            return count;
+        }
+
+        public boolean isOk() {
+            return getNoFailedProtocols() == 0;
+        }
+
+        /**
+         * @return Checked signals per second, wall clock time.
+         */
+        public double getThroughput() {
+            return nanoseconds > 0 ? 1E9 * getSignals() / nanoseconds : 0.0;
+        }
+
+        public Document toDocument() {
+            Document doc = XmlExport.newDocument();
+            Element root = doc.createElement("roundtrip");
+            root.setAttribute("mode", getMode());
+            root.setAttribute("decoder", decoderName);
+            root.setAttribute("threads", Integer.toString(threads));
+            root.setAttribute("protocols", Integer.toString(results.size()));
+            root.setAttribute("failedprotocols", Integer.toString(getNoFailedProtocols()));
+            root.setAttribute("signals", Integer.toString(getSignals()));
+            root.setAttribute("mismatches", Integer.toString(getNoMismatches()));
+            root.setAttribute("milliseconds", Long.toString(nanoseconds / 1000000L));
+            root.setAttribute("signalspersecond", Long.toString(Math.round(getThroughput())));
+            doc.appendChild(root);
+            for (Result result : results) {
+                Element el = doc.createElement("protocol");
+                el.setAttribute("name", result.protocolName);
+                el.setAttribute("signals", Integer.toString(result.signals));
+                el.setAttribute("mismatches", Integer.toString(result.noMismatches));
+                el.setAttribute("milliseconds", Long.toString(result.nanoseconds / 1000000L));
+                if (result.error != null)
+                    el.appendChild(Protocol.newXmlNode(doc, "error", result.error));
+                for (Mismatch mismatch : result.mismatches) {
+                    Element mismatchElement = Protocol.newXmlNode(doc, mismatch.rendered ? "mismatch" : "renderfailure", mismatch.message);
+                    for (Map.Entry<String, Long> entry : mismatch.parameters.entrySet())
+                        mismatchElement.setAttribute(entry.getKey(), Long.toString(entry.getValue()));
+                    el.appendChild(mismatchElement);
+                }
+                root.appendChild(el);
+            }
+            return doc;
+        }
+
+        @Override
+        public String toString() {
+            return getSignals() + " signals of " + results.size() + " protocols checked with " + decoderName
+                    + " (" + getMode() + ")"
+                    + ", " + getNoMismatches() + " mismatches, " + getNoFailedProtocols() + " failed protocols, "
+                    + Math.round(getThroughput()) + " signals/s on " + threads + " threads.";
+        }
+    }
+
+    private final IrpMaster irpMaster;
+    private final Decoder decoder;
+    private final int threads;
+    private int randomValues = defaultRandomValues;
+    private int maxSignals = defaultMaxSignals;
+    private int seed = (int) IrpUtils.invalid;
+    private Random random;
+
+    /**
+     * @param irpMaster Protocols to verify
+     * @param decoder Decoder, for example from newDecoder()
+     * @param threads Number of worker threads, at least 1.
+     */
+    public RoundTripVerifier(IrpMaster irpMaster, Decoder decoder, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        this.irpMaster = irpMaster;
+        this.decoder = decoder;
+        this.threads = threads;
+    }
+
+    /**
+     * @param randomValues Number of random values of each parameter, in addition to its min and max.
+     */
+    public void setRandomValues(int randomValues) {
+        this.randomValues = randomValues;
+    }
+
+    /**
+     * @param maxSignals Max number of signals per protocol. Protocols with more combinations
+     * of parameter values get this many random combinations.
+     */
+    public void setMaxSignals(int maxSignals) {
+        this.maxSignals = maxSignals;
+    }
+
+    /**
+     * @param seed Seed for the random values; if not positive, the random values are not reproducible.
+     */
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Verifies all protocols.
+     * @return Report
+     * @throws InterruptedException
+     */
+    public Report run() throws InterruptedException {
+        return run(irpMaster.getNames());
+    }
+
+    /**
+     * Verifies the protocols given.
+     * @param protocolNames Names of the protocols, as in the IrpMaster.
+     * @return Report, with the results in the order of the argument.
+     * @throws InterruptedException
+     */
+    public Report run(Collection<String> protocolNames) throws InterruptedException {
+        long start = System.nanoTime();
+        // The random values are drawn here, in the order of the protocols, so that a seed makes them reproducible.
+        RandomValueSet.initRng(seed);
+        random = seed > 0 ? new Random(seed) : new Random();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<Result>> futures = new ArrayList<>(protocolNames.size());
+            for (String protocolName : protocolNames)
+                futures.add(executor.submit(newTask(protocolName)));
+            ArrayList<Result> results = new ArrayList<>(futures.size());
+            for (Future<Result> future : futures)
+                results.add(get(future));
+            return new Report(decoder.getName(), decoder.isDecoding(), threads, results, System.nanoTime() - start);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Result get(Future<Result> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    // Samples the parameters, and returns a task rendering and checking them.
+    private Callable<Result> newTask(final String protocolName) {
+        final Result result = new Result(protocolName);
+        final ArrayList<LinkedHashMap<String, Long>> assignments = new ArrayList<>(64);
+        try {
+            Protocol protocol = irpMaster.getProtocol(protocolName);
+            if (combinations(protocol) <= maxSignals) {
+                for (LinkedHashMap<String, Long> assignment : new InputVariableSetValues(valueSets(protocol), false, protocol))
+                    assignments.add(new LinkedHashMap<>(assignment));
+            } else {
+                for (int i = 0; i < maxSignals; i++)
+                    assignments.add(randomAssignment(protocol));
+            }
+        } catch (IrpMasterException | RuntimeException ex) {
+            result.error = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+        }
+
+        return new Callable<Result>() {
+            @Override
+            public Result call() {
+                if (result.error == null)
+                    verify(result, assignments);
+                return result;
+            }
+        };
+    }
+
+    private boolean hasRandomValues(long min, long max) {
+        return randomValues > 0 && max - min < Integer.MAX_VALUE;
+    }
+
+    // Number of signals of valueSets, saturating at Long.MAX_VALUE.
+    private long combinations(Protocol protocol) throws UnassignedException {
+        long product = 1L;
+        for (String name : protocol.getParameterNames()) {
+            long min = protocol.getParameterMin(name);
+            long max = protocol.getParameterMax(name);
+            int values = (max > min ? 2 : 1) + (hasRandomValues(min, max) ? randomValues : 0);
+            product = product > Long.MAX_VALUE / values ? Long.MAX_VALUE : product * values;
+        }
+        return product;
+    }
+
+    // Every parameter min, max, or random, with equal probabilities.
+    private LinkedHashMap<String, Long> randomAssignment(Protocol protocol) throws UnassignedException {
+        LinkedHashMap<String, Long> assignment = new LinkedHashMap<>(8);
+        for (String name : protocol.getParameterNames()) {
+            long min = protocol.getParameterMin(name);
+            long max = protocol.getParameterMax(name);
+            int choice = random.nextInt(hasRandomValues(min, max) ? 3 : 2);
+            assignment.put(name, choice == 0 ? min
+                    : choice == 1 ? max
+                    : min + random.nextInt((int) (max - min) + 1));
+        }
+        return assignment;
+    }
+
+    // Min, max, and randomValues random values of every parameter.
+    private LinkedHashMap<String, String> valueSets(Protocol protocol) throws UnassignedException {
+        LinkedHashMap<String, String> valueSets = new LinkedHashMap<>(8);
+        for (String name : protocol.getParameterNames()) {
+            long min = protocol.getParameterMin(name);
+            long max = protocol.getParameterMax(name);
+            StringBuilder str = new StringBuilder(32);
+            str.append(min);
+            if (max > min)
+                str.append(",").append(max);
+            if (hasRandomValues(min, max))
+                str.append(",#").append(randomValues);
+            valueSets.put(name, str.toString());
+        }
+        return valueSets;
+    }
+
+    private void verify(Result result, List<LinkedHashMap<String, Long>> assignments) {
+        long start = System.nanoTime();
+        try {
+            // Private instance for the decoder; the RenderPlan is shared with the IrpMaster.
+            RenderPlan renderPlan = irpMaster.getProtocol(result.protocolName).getRenderPlan();
+            Protocol protocol = irpMaster.newProtocol(result.protocolName);
+            RenderPlan.RenderState renderState = renderPlan.newRenderState();
+            for (LinkedHashMap<String, Long> parameters : assignments) {
+                result.signals++;
+                IrSignal irSignal;
+                try {
+                    renderState.reset();
+                    irSignal = renderPlan.renderIrSignal(renderState, parameters, (int) IrpUtils.all, true);
+                } catch (IrpMasterException | RuntimeException ex) {
+                    result.add(new Mismatch(parameters, false, ex.toString()));
+                    continue;
+                }
+                String message;
+                try {
+                    message = decoder.check(result.protocolName, protocol, parameters, irSignal);
+                } catch (IrpMasterException | RuntimeException ex) {
+                    message = ex.toString();
+                }
+                if (message != null)
+                    result.add(new Mismatch(parameters, true, message));
+            }
+        } catch (IrpMasterException | RuntimeException ex) {
+            result.error = ex.toString();
+        }
+        result.nanoseconds = System.nanoTime() - start;
+    }
+
+    private static JCommander argumentParser;
+    private static CommandLineArgs commandLineArgs = new CommandLineArgs();
+
+    private static void usage(int exitcode) {
+        StringBuilder str = new StringBuilder(256);
+        argumentParser.usage(str);
+        str.append("\n"
+                + "parameters: [<protocol> ...], per default all protocols");
+
+        (exitcode == IrpUtils.exitSuccess ? System.out : System.err).println(str);
+        System.exit(exitcode);
+    }
+
+    /**
+     * Verifies the protocols of a configuration file, writing the report as XML.
+     * Exits with IrpUtils.exitFatalProgramFailure if there are mismatches, for use as a regression test.
+     *
+     * @param args See the usage message.
+     */
+    public static void main(String[] args) {
+        argumentParser = new JCommander(commandLineArgs);
+        argumentParser.setProgramName("RoundTripVerifier");
+
+        try {
+            argumentParser.parse(args);
+        } catch (ParameterException ex) {
+            System.err.println(ex.getMessage());
+            usage(IrpUtils.exitUsageError);
+        }
+
+        if (commandLineArgs.helpRequested)
+            usage(IrpUtils.exitSuccess);
+
+        if (commandLineArgs.threads < 1) {
+            System.err.println("Number of threads must be at least 1");
+            usage(IrpUtils.exitUsageError);
+        }
+
+        try {
+            IrpMaster irpMaster = new IrpMaster(commandLineArgs.irprotocolsIniFilename);
+            Decoder decoder = commandLineArgs.reference ? new ReferenceDecoder() : newDecoder();
+            RoundTripVerifier verifier = new RoundTripVerifier(irpMaster, decoder, commandLineArgs.threads);
+            verifier.setRandomValues(commandLineArgs.randomValues);
+            verifier.setMaxSignals(commandLineArgs.maxSignals);
+            verifier.setSeed(commandLineArgs.seed);
+            Report report = commandLineArgs.protocols.isEmpty() ? verifier.run() : verifier.run(commandLineArgs.protocols);
+            try (PrintStream out = IrpUtils.getPrintSteam(commandLineArgs.outputfile)) {
+                (new XmlExport(report.toDocument())).printDOM(out);
+            }
+            System.err.println(report);
+            System.exit(report.isOk() ? IrpUtils.exitSuccess : IrpUtils.exitFatalProgramFailure);
+        } catch (FileNotFoundException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(IrpUtils.exitConfigReadError);
+        } catch (IncompatibleArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(IrpUtils.exitConfigReadError);
+        } catch (InterruptedException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(IrpUtils.exitInternalFailure);
+        }
+    }
+
+    private final static class CommandLineArgs {
+
+        @Parameter(names = {"-c", "--config"}, description = "Path to IrpProtocols.ini")
+        String irprotocolsIniFilename = "data/IrpProtocols.ini";
+
+        @Parameter(names = {"-h", "--help", "-?"}, description = "Display help message")
+        boolean helpRequested = false;
+
+        @Parameter(names = {"-j", "--threads"}, description = "Number of threads")
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(names = {"-n", "--max"}, description = "Max number of signals per protocol")
+        int maxSignals = defaultMaxSignals;
+
+        @Parameter(names = {"-o", "--outfile"}, description = "Output filename for the XML report")
+        String outputfile = "-";
+
+        @Parameter(names = {"-r", "--random"}, description = "Number of random values per parameter")
+        int randomValues = defaultRandomValues;
+
+        @Parameter(names = {"--reference"}, description = "Only check render consistency with the pure Java reference renderer, even if DecodeIR is available")
+        boolean reference = false;
+
+        @Parameter(names = {"-s", "--seed"}, description = "Seed for the random values")
+        int seed = (int) IrpUtils.invalid;
+
+        @Parameter(description = "[parameters]")
+        private ArrayList<String> protocols = new ArrayList<>(16);
+    }
+}
@@ -39,7 +39,7 @@ import javax.sound.sampled.UnsupportedAudioFileException;
  * This class generates (or analyzes) a wave audio file that can be played
  * on standard audio equipment and fed to a pair of anti-parallel double IR sending diodes,
  * which can thus control IR equipment.
- *
+ * The PCM data is computed by {@link WaveGenerator}, which can also be used to stream it without storing it.
  *
  * @see <a href="http://www.lirc.org/html/audio.html">http://www.lirc.org/html/audio.html</a>
  */
@@ -220,59 +220,12 @@ public class Wave {
             throws IncompatibleArgumentException {
         if (data == null || data.length == 0)
             throw new IncompatibleArgumentException("Cannot create wave file from zero array.");
-        double sf = sampleFrequency/1000000.0;
-
-        int[] durationsInSamplePeriods = new int[omitTail ? data.length-1 : data.length];
-        int length = 0;
-        for (int i = 0; i < durationsInSamplePeriods.length; i++) {
-            durationsInSamplePeriods[i] = (int) Math.round(Math.abs(sf*data[i]));
-            length += durationsInSamplePeriods[i];
-        }
-
-        double c = sampleFrequency/freq;
-        buf = new byte[length*sampleSize/8*channels];
+        audioFormat = WaveGenerator.newAudioFormat(sampleFrequency, sampleSize, channels, bigEndian);
+        WaveGenerator generator = new WaveGenerator(freq, data, audioFormat, omitTail, square, divide);
+        buf = new byte[(int) generator.getFrameLength() * audioFormat.getFrameSize()];
         int index = 0;
-        for (int i = 0; i < data.length-1; i += 2) {
-            // Handle pulse, even index
-            for (int j = 0; j < durationsInSamplePeriods[i]; j++) {
-                double t = j/(divide ? 2*c : c);
-                double fraq = t - (int)t;
-                double s = square
-                        ? (fraq < 0.5 ? -1.0 : 1.0)
-                        : Math.sin(2*Math.PI*(fraq));
-                if (sampleSize == 8) {
-                    int val = (int) Math.round(Byte.MAX_VALUE*s);
-                    buf[index++] = (byte) val;
-                    if (channels == 2)
-                        buf[index++] = (byte)-val;
-                } else {
-                    int val = (int) Math.round(Short.MAX_VALUE*s);
-                    byte low = (byte) (val & 0xFF);
-                    byte high = (byte) (val >> 8);
-                    buf[index++] = bigEndian ? high : low;
-                    buf[index++] = bigEndian ? low : high;
-                    if (channels == 2) {
-                        val = -val;
-                        low = (byte) (val & 0xFF);
-                        high = (byte) (val >> 8);
-                        buf[index++] = bigEndian ? high : low;
-                        buf[index++] = bigEndian ? low : high;
-                    }
-                }
-            }
-
-            // Gap, odd index
-            if (!omitTail || i < data.length - 2) {
-                for (int j = 0; j < durationsInSamplePeriods[i + 1]; j++) {
-                    for (int ch = 0; ch < channels; ch++) {
-                        buf[index++] = 0;
-                        if (sampleSize == 16)
-                            buf[index++] = 0;
-                    }
-                }
-            }
-        }
-        audioFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleFrequency, sampleSize, channels, sampleSize/8*channels, sampleFrequency, bigEndian);
+        while (index < buf.length)
+            index += generator.read(buf, index, buf.length - index);
     }
 
     /**
@@ -0,0 +1,317 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.IrpMaster;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Streaming counterpart of {@link Wave#analyze(boolean)}. The audio data is fed in chunks of arbitrary size,
+ * and a ModulatedIrSequence is delivered to the listener for every burst group, i.e.,
+ * every sequence of flashes terminated by a silence longer than the ending timeout, or by the end of the data.
+ * Memory use does not depend on the length of the audio data, only on the length of the burst groups.
+ *
+ * <p>Blocks of oscillations are detected as in Wave: a block ends with two consecutive samples within epsilon of 0.
+ * The carrier frequency of a group is estimated from the sign changes in its longest flash.
+ * Only the first (left) channel is analyzed.
+ */
+public class WaveAnalyzer {
+
+    /**
+     * Receives the burst groups found by a WaveAnalyzer.
+     */
+    public interface BurstGroupListener {
+        public void burstGroup(ModulatedIrSequence burstGroup);
+    }
+
+    /** Default silence, in micro seconds, that terminates a burst group. */
+    public static final int defaultEndingTimeout = 200000;
+
+    /** Ending timeout that never terminates a burst group, for analyzing the data as one sequence. */
+    public static final int noEndingTimeout = Integer.MAX_VALUE;
+
+    /** Number of frames read at a time by the analyze functions. */
+    public static final int defaultChunkFrames = 4096;
+
+    private static final int epsilon8Bit = 2;
+    private static final int epsilon16Bit = 257;
+
+    /**
+     * Analyzes an AudioInputStream chunk by chunk.
+     *
+     * @param audioInputStream Input; is read to its end, but not closed.
+     * @param divide consider the carrier as having its frequency halved or not?
+     * @param endingTimeout Silence, in micro seconds, that terminates a burst group.
+     * @param listener Receives the burst groups.
+     * @throws IOException
+     * @throws IncompatibleArgumentException if the audio format is not supported.
+     */
+    public static void analyze(AudioInputStream audioInputStream, boolean divide, int endingTimeout, BurstGroupListener listener)
+            throws IOException, IncompatibleArgumentException {
+        WaveAnalyzer analyzer = new WaveAnalyzer(audioInputStream.getFormat(), divide, endingTimeout, listener);
+        int frameSize = audioInputStream.getFormat().getFrameSize();
+        byte[] buf = new byte[defaultChunkFrames * frameSize];
+        int pending = 0; // bytes of an incomplete frame at the start of buf
+        int n;
+        while ((n = audioInputStream.read(buf, pending, buf.length - pending)) != -1) {
+            int available = pending + n;
+            int whole = available - available % frameSize;
+            analyzer.process(buf, 0, whole);
+            pending = available - whole;
+            System.arraycopy(buf, whole, buf, 0, pending);
+        }
+        analyzer.finish();
+    }
+
+    /**
+     * Analyzes an AudioInputStream, and returns the burst groups found.
+     *
+     * @param audioInputStream Input; is read to its end, but not closed.
+     * @param divide consider the carrier as having its frequency halved or not?
+     * @return List of the burst groups, in order.
+     * @throws IOException
+     * @throws IncompatibleArgumentException if the audio format is not supported.
+     */
+    public static List<ModulatedIrSequence> analyze(AudioInputStream audioInputStream, boolean divide)
+            throws IOException, IncompatibleArgumentException {
+        final List<ModulatedIrSequence> result = new ArrayList<>(8);
+        analyze(audioInputStream, divide, defaultEndingTimeout, new BurstGroupListener() {
+            @Override
+            public void burstGroup(ModulatedIrSequence burstGroup) {
+                result.add(burstGroup);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Analyzes a wave file, and returns the burst groups found.
+     *
+     * @param file Wave file as input.
+     * @param divide consider the carrier as having its frequency halved or not?
+     * @return List of the burst groups, in order.
+     * @throws UnsupportedAudioFileException
+     * @throws IOException
+     * @throws IncompatibleArgumentException if the audio format is not supported.
+     */
+    public static List<ModulatedIrSequence> analyze(File file, boolean divide)
+            throws UnsupportedAudioFileException, IOException, IncompatibleArgumentException {
+        try (AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(file)) {
+            return analyze(audioInputStream, divide);
+        }
+    }
+
+    /**
+     * Analyzes a wave file as one sequence, like {@link Wave#analyze(boolean)}: the gaps between the burst groups
+     * are kept as measured, and the carrier frequency is estimated from the longest flash in the file.
+     *
+     * @param file Wave file as input.
+     * @param divide consider the carrier as having its frequency halved or not?
+     * @return ModulatedIrSequence computed from the data, or null if the file contains only silence.
+     * @throws UnsupportedAudioFileException
+     * @throws IOException
+     * @throws IncompatibleArgumentException if the audio format is not supported.
+     */
+    public static ModulatedIrSequence analyzeSequence(File file, boolean divide)
+            throws UnsupportedAudioFileException, IOException, IncompatibleArgumentException {
+        final ModulatedIrSequence[] result = new ModulatedIrSequence[1];
+        try (AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(file)) {
+            analyze(audioInputStream, divide, noEndingTimeout, new BurstGroupListener() {
+                @Override
+                public void burstGroup(ModulatedIrSequence burstGroup) {
+                    result[0] = burstGroup;
+                }
+            });
+        }
+        return result[0];
+    }
+
+    private final int channels;
+    private final int sampleSize;
+    private final boolean unsigned;
+    private final boolean bigEndian;
+    private final double sampleFrequency;
+    private final boolean divide;
+    private final int epsilon;
+    private final long endingTimeoutFrames;
+    private final BurstGroupListener listener;
+
+    private long frame = 0;          // index of the next frame
+    private boolean started = false; // leading silence has been passed
+    private boolean inBlock = true;
+    private long beg = 0;            // start of current block
+    private int last = -1111111;     // previous sample
+    private int[] durations = new int[64];
+    private int length = 0;          // number of valid entries in durations
+
+    // carrier estimation
+    private int lastNonZero = 0;
+    private int signChanges = 0;      // in current flash
+    private long bestLength = -1;     // length of longest flash in current group
+    private int bestSignChanges = 0;  // sign changes in longest flash in current group
+
+    /**
+     * Constructs an analyzer that has to be fed with process, and terminated with finish.
+     *
+     * @param audioFormat Format of the data to be processed.
+     * @param divide consider the carrier as having its frequency halved or not?
+     * @param endingTimeout Silence, in micro seconds, that terminates a burst group.
+     * @param listener Receives the burst groups.
+     * @throws IncompatibleArgumentException if the audio format is not supported.
+     */
+    public WaveAnalyzer(AudioFormat audioFormat, boolean divide, int endingTimeout, BurstGroupListener listener) throws IncompatibleArgumentException {
+        AudioFormat.Encoding encoding = audioFormat.getEncoding();
+        sampleSize = audioFormat.getSampleSizeInBits();
+        unsigned = encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED);
+        if (!(encoding.equals(AudioFormat.Encoding.PCM_SIGNED) || unsigned)
+                || !(sampleSize == 8 || (sampleSize == 16 && !unsigned)))
+            throw new IncompatibleArgumentException("Audio format " + audioFormat + " not supported.");
+        channels = audioFormat.getChannels();
+        bigEndian = audioFormat.isBigEndian();
+        sampleFrequency = audioFormat.getSampleRate();
+        this.divide = divide;
+        epsilon = sampleSize == 8 ? epsilon8Bit : epsilon16Bit;
+        endingTimeoutFrames = Math.round(endingTimeout * sampleFrequency / 1000000.0);
+        this.listener = listener;
+    }
+
+    /**
+     * Analyzes a chunk of audio data. Burst groups completed in the chunk are delivered to the listener.
+     *
+     * @param buf Audio data in the format given to the constructor.
+     * @param offset Offset of the first byte to analyze.
+     * @param len Number of bytes to analyze, must be a multiple of the frame size.
+     */
+    public void process(byte[] buf, int offset, int len) {
+        int frameSize = channels * sampleSize / 8;
+        for (int index = offset; index < offset + len; index += frameSize)
+            sample(sampleSize == 8 ? sample8(buf[index]) : sample16(buf, index));
+    }
+
+    /**
+     * Terminates the analysis, delivering the last burst group, if any.
+     */
+    public void finish() {
+        if (started) {
+            if (inBlock) {
+                endFlash(frame - beg);
+                add(0);
+            } else
+                add(toMicroSeconds(frame - beg));
+            deliver();
+        }
+        frame = 0;
+        started = false;
+        last = -1111111;
+    }
+
+    private int sample8(byte b) {
+        int val = b;
+        if (unsigned)
+            val += (val < 0) ? 128 : -128;
+        return val;
+    }
+
+    private int sample16(byte[] buf, int index) {
+        int high = buf[bigEndian ? index : index + 1]; // may be negative
+        int low = buf[bigEndian ? index + 1 : index] & 0xFF;
+        return 256 * high + low;
+    }
+
+    private void sample(int value) {
+        long i = frame++;
+        if (!started) {
+            // Ignore leading silence, it is silly.
+            if (value == 0)
+                return;
+            started = true;
+            inBlock = true;
+            beg = i;
+            lastNonZero = 0;
+        }
+
+        boolean small = Math.abs(value) <= epsilon;
+        if (inBlock) {
+            if (small && Math.abs(last) <= epsilon) {
+                // two consecutive zeros -> interesting block ends
+                inBlock = false;
+                endFlash(i - 1 - beg);
+                beg = i;
+            } else if (value != 0) {
+                if (value * lastNonZero < 0)
+                    signChanges++;
+                lastNonZero = value;
+            }
+        } else if (!small) {
+            // Interesting block starts
+            inBlock = true;
+            add(toMicroSeconds(i - 1 - beg));
+            beg = i;
+            lastNonZero = value;
+        } else if (i - beg >= endingTimeoutFrames) {
+            // Silence long enough to end the burst group
+            add(toMicroSeconds(i - beg));
+            deliver();
+            started = false;
+        }
+        last = value;
+    }
+
+    private void endFlash(long frames) {
+        add(toMicroSeconds(frames));
+        if (frames > bestLength) {
+            bestLength = frames;
+            bestSignChanges = signChanges;
+        }
+        signChanges = 0;
+        lastNonZero = 0;
+    }
+
+    private int toMicroSeconds(long frames) {
+        return (int) Math.round(frames / sampleFrequency * 1000000.0);
+    }
+
+    private void add(int duration) {
+        if (length == durations.length)
+            durations = Arrays.copyOf(durations, 2 * length);
+        durations[length++] = duration;
+    }
+
+    private void deliver() {
+        double carrierFrequency = bestLength > 0
+                ? (divide ? 2 : 1) * sampleFrequency * bestSignChanges / (2 * bestLength)
+                : 0;
+        bestLength = -1;
+        bestSignChanges = 0;
+        try {
+            ModulatedIrSequence burstGroup = new ModulatedIrSequence(Arrays.copyOf(durations, length), carrierFrequency);
+            length = 0;
+            listener.burstGroup(burstGroup);
+        } catch (IncompatibleArgumentException ex) {
+            // cannot happen, flashes and gaps are added pairwise
+            throw new InternalError();
+        }
+    }
+}
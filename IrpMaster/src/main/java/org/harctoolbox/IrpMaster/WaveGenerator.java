@@ -0,0 +1,345 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.IrpMaster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Generates the PCM data of a wave, as in {@link Wave}, on demand, as an InputStream.
+ * The data is never materialized; memory use is independent of the length of the signal,
+ * in particular of the number of repetitions of an IrSignal.
+ *
+ * <p>The carrier is taken from a table of one period, indexed by the phase, and interpolated linearly.
+ * As in Wave, the phase of the carrier is reset at the start of every flash.
+ */
+public class WaveGenerator extends InputStream {
+
+    private static final int tableBits = 12;
+    private static final int tableSize = 1 << tableBits;
+    private static final int phaseFractionBits = 32 - tableBits;
+
+    /** Size, in frames, of the chunks written by export and play. */
+    public static final int defaultChunkFrames = 4096;
+
+    /**
+     * Returns the AudioFormat used by Wave and WaveGenerator.
+     *
+     * @param sampleFrequency Sample frequency in Hz.
+     * @param sampleSize Sample size (8 or 16) in bits of the samples.
+     * @param channels If == 2, generates two channels in perfect anti-phase.
+     * @param bigEndian if true, use bigendian byte order for 16 bit samples.
+     * @return AudioFormat
+     */
+    public static AudioFormat newAudioFormat(int sampleFrequency, int sampleSize, int channels, boolean bigEndian) {
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleFrequency, sampleSize, channels, sampleSize/8*channels, sampleFrequency, bigEndian);
+    }
+
+    private static double[] carrierTable(boolean square) {
+        double[] table = new double[tableSize + 1];
+        for (int i = 0; i <= tableSize; i++) {
+            double fraq = (double) (i % tableSize) / tableSize;
+            table[i] = square
+                    ? (fraq < 0.5 ? -1.0 : 1.0)
+                    : Math.sin(2*Math.PI*fraq);
+        }
+        return table;
+    }
+
+    private final AudioFormat audioFormat;
+    private final int sampleSize;
+    private final int channels;
+    private final int frameSize;
+    private final boolean bigEndian;
+    private final boolean omitTail;
+    private final boolean square;
+    private final double sampleFrequency;
+    private final int amplitude;
+    private final double[] table;
+    private final long phaseIncrement;
+    private final double[][] segments;
+    private final int[] repetitions;
+    private final long frameLength;
+
+    // position
+    private int segment = 0;
+    private int repetition = 0;
+    private int index = -1;      // index of current duration in current segment
+    private long remaining = 0;  // frames left of current duration
+    private boolean flash = false;
+    private long phase = 0;      // unsigned, 1 << 32 is one period
+    private boolean finished = false;
+
+    // partially read frame
+    private final byte[] frame;
+    private int framePosition;
+
+    private WaveGenerator(double frequency, double[][] segments, int[] repetitions,
+            AudioFormat audioFormat, boolean omitTail, boolean square, boolean divide) {
+        this.audioFormat = audioFormat;
+        sampleSize = audioFormat.getSampleSizeInBits();
+        channels = audioFormat.getChannels();
+        frameSize = audioFormat.getFrameSize();
+        bigEndian = audioFormat.isBigEndian();
+        this.omitTail = omitTail;
+        this.square = square;
+        sampleFrequency = audioFormat.getSampleRate();
+        amplitude = sampleSize == 8 ? Byte.MAX_VALUE : Short.MAX_VALUE;
+        table = carrierTable(square);
+        phaseIncrement = Math.round(frequency / ((divide ? 2 : 1) * sampleFrequency) * (1L << 32));
+        this.segments = segments;
+        this.repetitions = repetitions;
+        frame = new byte[frameSize];
+        framePosition = frameSize;
+        frameLength = computeFrameLength();
+    }
+
+    /**
+     * Generates the wave of a ModulatedIrSequence.
+     *
+     * @param irSequence ModulatedIrSequence to be used.
+     * @param audioFormat AudioFormat bundling sampleFrequency, sample size, channels, and bigEndian together.
+     * @param omitTail If true, the last trailing gap will be omitted.
+     * @param square if true, use a square wave for modulation, otherwise a sine.
+     * @param divide If true, divides the carrier frequency by 2, to be used with full-wave rectifiers, e.g. a pair of IR LEDs in anti-parallel.
+     */
+    public WaveGenerator(ModulatedIrSequence irSequence, AudioFormat audioFormat, boolean omitTail, boolean square, boolean divide) {
+        this(irSequence.getFrequency(), irSequence.toDoubles(), audioFormat, omitTail, square, divide);
+    }
+
+    /**
+     * Generates the wave of an IrSignal sent count times.
+     * Equivalent to, but without materializing, the wave of irSignal.toModulatedIrSequence(count).
+     *
+     * @param irSignal IrSignal to be used.
+     * @param count Number of times to send signal. Must be &gt; 0.
+     * @param audioFormat AudioFormat bundling sampleFrequency, sample size, channels, and bigEndian together.
+     * @param omitTail If true, the last trailing gap will be omitted.
+     * @param square if true, use a square wave for modulation, otherwise a sine.
+     * @param divide If true, divides the carrier frequency by 2, to be used with full-wave rectifiers, e.g. a pair of IR LEDs in anti-parallel.
+     */
+    public WaveGenerator(IrSignal irSignal, int count, AudioFormat audioFormat, boolean omitTail, boolean square, boolean divide) {
+        this(irSignal.getFrequency(),
+                new double[][] {
+                    irSignal.getIntroSequence().toDoubles(),
+                    irSignal.getRepeatSequence().toDoubles(),
+                    irSignal.getEndingSequence().toDoubles()
+                },
+                new int[] { 1, irSignal.repeatsPerCountSemantic(count), 1 },
+                audioFormat, omitTail, square, divide);
+    }
+
+    WaveGenerator(double frequency, double[] data, AudioFormat audioFormat, boolean omitTail, boolean square, boolean divide) {
+        this(frequency, new double[][] { data }, new int[] { 1 }, audioFormat, omitTail, square, divide);
+    }
+
+    private long frames(double duration) {
+        return Math.round(Math.abs(sampleFrequency/1000000.0*duration));
+    }
+
+    private long computeFrameLength() {
+        long length = 0;
+        int lastSegment = -1;
+        for (int s = 0; s < segments.length; s++) {
+            long sum = 0;
+            for (double duration : segments[s])
+                sum += frames(duration);
+            length += Math.max(repetitions[s], 0) * sum;
+            if (repetitions[s] > 0 && segments[s].length > 0)
+                lastSegment = s;
+        }
+        if (omitTail && lastSegment >= 0)
+            length -= frames(segments[lastSegment][segments[lastSegment].length - 1]);
+        return length;
+    }
+
+    /**
+     * @return the AudioFormat of the generated data.
+     */
+    public AudioFormat getAudioFormat() {
+        return audioFormat;
+    }
+
+    /**
+     * @return the total number of frames generated.
+     */
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * Returns an AudioInputStream reading from this generator.
+     * @return AudioInputStream
+     */
+    public AudioInputStream getAudioInputStream() {
+        return new AudioInputStream(this, audioFormat, frameLength);
+    }
+
+    // Advances to the next duration with a positive number of frames; returns false at the end.
+    private boolean advance() {
+        while (remaining == 0) {
+            index++;
+            while (segment < segments.length && (repetitions[segment] <= 0 || index >= segments[segment].length)) {
+                index = 0;
+                if (repetitions[segment] <= 0 || segments[segment].length == 0 || ++repetition >= repetitions[segment]) {
+                    segment++;
+                    repetition = 0;
+                }
+            }
+            if (segment == segments.length)
+                return false;
+            flash = index % 2 == 0;
+            if (!flash && omitTail && isLast())
+                return false;
+            remaining = frames(segments[segment][index]);
+            phase = 0;
+        }
+        return true;
+    }
+
+    private boolean isLast() {
+        if (index < segments[segment].length - 1 || repetition < repetitions[segment] - 1)
+            return false;
+        for (int s = segment + 1; s < segments.length; s++)
+            if (repetitions[s] > 0 && segments[s].length > 0)
+                return false;
+        return true;
+    }
+
+    private int nextSample() {
+        long p = phase & 0xFFFFFFFFL;
+        int i = (int) (p >>> phaseFractionBits);
+        double s;
+        if (square)
+            s = table[i];
+        else {
+            double fraq = (double) (p & ((1 << phaseFractionBits) - 1)) / (1 << phaseFractionBits);
+            s = table[i] + fraq * (table[i + 1] - table[i]);
+        }
+        phase += phaseIncrement;
+        return (int) Math.round(amplitude * s);
+    }
+
+    // Writes one frame to buf; returns false at the end of the data.
+    private boolean generateFrame(byte[] buf, int offset) {
+        if (finished || !advance()) {
+            finished = true;
+            return false;
+        }
+        remaining--;
+        if (!flash) {
+            for (int i = 0; i < frameSize; i++)
+                buf[offset + i] = 0;
+            return true;
+        }
+
+        int val = nextSample();
+        if (sampleSize == 8) {
+            buf[offset++] = (byte) val;
+            if (channels == 2)
+                buf[offset] = (byte) -val;
+        } else {
+            for (int ch = 0; ch < channels && ch < 2; ch++) {
+                int v = ch == 0 ? val : -val;
+                byte low = (byte) (v & 0xFF);
+                byte high = (byte) (v >> 8);
+                buf[offset++] = bigEndian ? high : low;
+                buf[offset++] = bigEndian ? low : high;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() {
+        if (framePosition == frameSize) {
+            if (!generateFrame(frame, 0))
+                return -1;
+            framePosition = 0;
+        }
+        return frame[framePosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buf, int offset, int length) {
+        if (length == 0)
+            return 0;
+        int n = 0;
+        while (framePosition < frameSize && n < length)
+            buf[offset + n++] = frame[framePosition++];
+        while (length - n >= frameSize && generateFrame(buf, offset + n))
+            n += frameSize;
+        while (n < length) {
+            int b = read();
+            if (b == -1)
+                break;
+            buf[offset + n++] = (byte) b;
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public int available() {
+        return framePosition < frameSize ? frameSize - framePosition : 0;
+    }
+
+    /**
+     * Write the signal to the file given as argument.
+     * @param file Output File.
+     * @throws IOException
+     */
+    public void export(File file) throws IOException {
+        AudioSystem.write(getAudioInputStream(), AudioFileFormat.Type.WAVE, file);
+    }
+
+    /**
+     * Sends the generated wave to the line in argument, chunk by chunk, as it is generated.
+     * @param line Line to used. Should be open, and remains open. User must make sure AudioFormat is compatible.
+     * @throws IOException
+     */
+    public void play(SourceDataLine line) throws IOException {
+        byte[] buf = new byte[defaultChunkFrames * frameSize];
+        line.start();
+        int n;
+        while ((n = read(buf, 0, buf.length)) != -1) {
+            int bytesWritten = line.write(buf, 0, n);
+            if (bytesWritten != n)
+                throw new IOException("Not all bytes written");
+        }
+        line.drain();
+    }
+
+    /**
+     * Sends the generated wave to the local machine's audio system, if possible.
+     * @throws LineUnavailableException
+     * @throws IOException
+     */
+    public void play() throws LineUnavailableException, IOException {
+        try (SourceDataLine line = AudioSystem.getSourceDataLine(audioFormat)) {
+            line.open(audioFormat);
+            play(line);
+        }
+    }
+}
@@ -88,20 +88,31 @@ public class XmlExport {
     }
 
 
+    /**
+     * Returns a Transformer with the settings used by printDOM.
+     * @param stylesheet If non-null, the stylesheet to apply.
+     * @return new Transformer
+     * @throws TransformerConfigurationException
+     */
+    static Transformer newTransformer(Document stylesheet) throws TransformerConfigurationException {
+        TransformerFactory factory = TransformerFactory.newInstance();
+        Transformer tr;
+        if (stylesheet == null) {
+            tr = factory.newTransformer();
+
+            tr.setOutputProperty(OutputKeys.METHOD, "xml");
+
+        } else {
+            tr = factory.newTransformer(new DOMSource(stylesheet));
+        }
+        tr.setOutputProperty(OutputKeys.INDENT, "yes");
+        tr.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+        return tr;
+    }
+
     public void printDOM(OutputStream ostr, Document stylesheet) {
         try {
-            TransformerFactory factory = TransformerFactory.newInstance();
-            Transformer tr;
-            if (stylesheet == null) {
-                tr = factory.newTransformer();
-
-                tr.setOutputProperty(OutputKeys.METHOD, "xml");
-
-            } else {
-                tr = factory.newTransformer(new DOMSource(stylesheet));
-            }
-            tr.setOutputProperty(OutputKeys.INDENT, "yes");
-            tr.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+            Transformer tr = newTransformer(stylesheet);
             tr.transform(new DOMSource(doc), new StreamResult(ostr));
         } catch (TransformerConfigurationException e) {
             System.err.println(e.getMessage());
@@ -1,5 +1,7 @@
 package org.harctoolbox.IrpMaster;
 
+import java.util.ArrayList;
+import java.util.List;
 import static org.testng.AssertJUnit.assertEquals;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
@@ -46,4 +48,49 @@ public class CleanerNGTest {
             assert (false);
         }
     }
+
+    /**
+     * Test of clean method, of class Cleaner, for several IrSequences.
+     */
+    @Test
+    public void testClean_Collection() {
+        System.out.println("clean(Collection)");
+        try {
+            IrSignal irSignal = Pronto.ccfSignal("0000 006C 0022 0002 015B 00AD 0016 0016 0016 0016 0016 0041 0016 0041 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0041 0016 0016 0016 0016 0016 0016 0016 0041 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0041 0016 0041 0016 0041 0016 0016 0016 0016 0016 0041 0016 0041 0016 0041 0016 0016 0016 0016 0016 0016 0016 0041 0016 0041 0016 06A4 015B 0057 0016 0E6C");
+            ModulatedIrSequence irSequence = irSignal.toModulatedIrSequence(3);
+            List<IrSequence> noisy = new ArrayList<>(3);
+            for (int i = 0; i < 3; i++)
+                noisy.add(new ModulatedIrSequence(irSequence.noisify(60), irSignal.getFrequency()));
+            List<IrSequence> cleaned = Cleaner.clean(noisy, (int) IrpUtils.defaultAbsoluteTolerance, IrpUtils.defaultRelativeTolerance);
+            assertEquals(cleaned.size(), 3);
+            for (IrSequence seq : cleaned) {
+                assertEquals(irSequence.isEqual(seq), true);
+                assertEquals(seq instanceof ModulatedIrSequence, true);
+            }
+            // One common timings table: equal durations in different sequences are cleaned to the same value.
+            assertEquals(cleaned.get(0).get(0), cleaned.get(2).get(0));
+        } catch (IrpMasterException ex) {
+            assert (false);
+        }
+    }
+
+    /**
+     * Test of clean method, of class Cleaner, for a class of durations whose sum exceeds Integer.MAX_VALUE.
+     */
+    @Test
+    public void testClean_CollectionLargeClass() {
+        System.out.println("clean(Collection), large class");
+        try {
+            IrSequence irSequence = new IrSequence(new int[] { 564, 100000 });
+            List<IrSequence> sequences = new ArrayList<>(25000);
+            for (int i = 0; i < 25000; i++)
+                sequences.add(irSequence);
+            List<IrSequence> cleaned = Cleaner.clean(sequences, (int) IrpUtils.defaultAbsoluteTolerance, IrpUtils.defaultRelativeTolerance);
+            assertEquals(cleaned.size(), 25000);
+            assertEquals(cleaned.get(0).iget(1), 100000);
+            assertEquals(cleaned.get(24999).iget(1), 100000);
+        } catch (IncompatibleArgumentException ex) {
+            assert (false);
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package org.harctoolbox.IrpMaster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+public class IrSequenceBuilderNGTest {
+
+    public IrSequenceBuilderNGTest() {
+    }
+
+    /**
+     * Test of add method, of class IrSequenceBuilder: merging and leading gaps as the ArrayList constructor of IrSequence.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testAdd() throws Exception {
+        System.out.println("add");
+        Random random = new Random(17);
+        for (int n = 0; n < 100; n++) {
+            ArrayList<Double> list = new ArrayList<>(40);
+            IrSequenceBuilder builder = new IrSequenceBuilder(1);
+            list.add(-100.0);
+            builder.add(-100.0);
+            for (int i = 0; i < 39; i++) {
+                double duration = (random.nextInt(7) - 3) * 100.0;
+                list.add(duration);
+                builder.add(duration);
+            }
+            if (builder.getLength() % 2 != 0) {
+                list.add(-1.0);
+                builder.gap(1.0);
+            }
+            IrSequence expected = new IrSequence(list);
+            IrSequence actual = builder.toIrSequence();
+            assertEquals(actual.toDoubles(), expected.toDoubles());
+        }
+    }
+
+    /**
+     * Test of append method, of class IrSequenceBuilder.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testAppend() throws Exception {
+        System.out.println("append");
+        IrSequence intro = new IrSequence(new int[] { 9024, 4512, 564, 1692 });
+        IrSequence repeat = new IrSequence(new int[] { 9024, 2256, 564, 40000 });
+        IrSequenceBuilder builder = new IrSequenceBuilder(2);
+        builder.append(intro).append(repeat, 3);
+        assertEquals(builder.toIrSequence().toDoubles(), intro.append(repeat, 3).toDoubles());
+        assertEquals(IrSequence.concatenate(Arrays.asList(intro, repeat, repeat, repeat)).toDoubles(),
+                intro.append(repeat, 3).toDoubles());
+
+        IrSequence first = builder.toIrSequence();
+        builder.append(intro);
+        assertEquals(first.getLength(), 16);
+        builder.clear();
+        assertTrue(builder.isEmpty());
+        builder.flash(564);
+        try {
+            builder.toIrSequence();
+            fail();
+        } catch (IncompatibleArgumentException ex) {
+        }
+    }
+}
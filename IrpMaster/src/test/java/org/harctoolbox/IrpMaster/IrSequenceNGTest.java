@@ -0,0 +1,53 @@
+package org.harctoolbox.IrpMaster;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class IrSequenceNGTest {
+
+    private static final int[] nec1 = {
+        9024, 4512, 564, 564, 564, 1692, 564, 564, 564, 39756, 9024, 2256, 564, 96156
+    };
+
+    public IrSequenceNGTest() {
+    }
+
+    private static String describe(IrSignal irSignal) throws IncompatibleArgumentException {
+        return irSignal.toString() + new Pronto(irSignal).toPrintString()
+                + irSignal.toModulatedIrSequence(3).toPrintString(true)
+                + irSignal.getIntroSequence().addToGaps(0.5).noisify(0).append(10.25);
+    }
+
+    /**
+     * Test of compact storage, of class IrSequence: it gives the same results, and is selected per instance.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompact() throws Exception {
+        System.out.println("compact");
+        IrSignal normal = new IrSignal(nec1, 5, 2, 38400);
+        IrSequence fractional = new IrSequence(new double[] { 100.5, -200.25 });
+        IrSignal compact = new IrSignal(nec1, 5, 2, 38400, -1.0, true);
+        assertFalse(normal.getIntroSequence().isCompact());
+        assertTrue(compact.getIntroSequence().isCompact());
+        assertTrue(compact.getEndingSequence().isCompact());
+        assertFalse(new IrSequence(fractional, true).isCompact());
+        assertTrue(new IrSequence(normal.getRepeatSequence(), true).isCompact());
+        assertFalse(new IrSequence(compact.getRepeatSequence(), false).isCompact());
+        assertEquals(describe(compact), describe(normal));
+        assertEquals(compact.getRepeatPulses(), normal.getRepeatPulses());
+        assertEquals(new IrSequence(fractional, true).toDoubles(), fractional.toDoubles());
+        assertTrue(compact.getRepeatSequence().isEqual(normal.getRepeatSequence()));
+
+        // The views share one array, modifications stay within each.
+        compact.getIntroSequence().replaceZeros(1.5);
+        assertTrue(compact.getIntroSequence().isEqual(normal.getIntroSequence()));
+        IrSequence intro = new IrSequence(compact.getIntroSequence());
+        assertFalse(intro.replaceZeros(7.0));
+        assertEquals(intro.append(0.5).getGap(), 39756.5, 0.0);
+        assertEquals(compact.getIntroSequence().getGap(), 39756.0, 0.0);
+        assertEquals(compact.getRepeatSequence().toInts(), new int[] { 9024, 2256, 564, 96156 });
+    }
+}
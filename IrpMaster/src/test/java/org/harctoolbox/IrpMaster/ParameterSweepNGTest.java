@@ -0,0 +1,100 @@
+package org.harctoolbox.IrpMaster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import org.harctoolbox.IrpMaster.Iterate.InputVariableSetValues;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+public class ParameterSweepNGTest {
+
+    private static final String nec1 = "{38.4k,564}<1,-1|1,-3>(16,-8,D:8,S:8,F:8,~F:8,1,^108m,(16,-4,1,^108m)*)[D:0..255,S:0..255=255-D,F:0..255]";
+    private static final String rc5 = "{36k,msb,889}<1,-1|-1,1>((1:1,~F:1:6,T:1,D:5,F:6,^114m)*,T=1-T)[D:0..31,F:0..127,T@:0..1=0]";
+
+    public ParameterSweepNGTest() {
+    }
+
+    private static InputVariableSetValues parameters(Protocol protocol, String d, String f) throws IrpMasterException {
+        LinkedHashMap<String, String> usersParameters = new LinkedHashMap<>(2);
+        usersParameters.put("D", d);
+        usersParameters.put("F", f);
+        return new InputVariableSetValues(usersParameters, true, protocol);
+    }
+
+    // The sequential loop of IrpMaster.main.
+    private static String sequential(String irp, String d, String f, boolean raw, boolean xml) throws Exception {
+        Protocol protocol = new Protocol("test", irp, null);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        PrintStream printStream = new PrintStream(stream);
+        if (xml)
+            protocol.setupDOM();
+        for (LinkedHashMap<String, Long> actualParameters : parameters(protocol, d, f)) {
+            IrSignal irSignal = protocol.renderIrSignal(actualParameters, (int) IrpUtils.all, true);
+            if (xml) {
+                protocol.addSignal(actualParameters);
+                if (raw)
+                    protocol.addRawSignalRepresentation(irSignal);
+                protocol.addXmlNode("pronto", irSignal.ccfString());
+            } else {
+                printStream.println(IrpUtils.variableHeader(actualParameters));
+                if (raw)
+                    printStream.println(irSignal.toPrintString());
+                printStream.println(irSignal.ccfString());
+            }
+        }
+        if (xml)
+            protocol.printDOM(printStream);
+        printStream.flush();
+        return stream.toString("UTF-8");
+    }
+
+    private static String sweep(String irp, String d, String f, boolean xml) throws Exception {
+        Protocol protocol = new Protocol("test", irp, null);
+        ParameterSweep parameterSweep = new ParameterSweep(protocol, 3);
+        parameterSweep.setRaw(true);
+        parameterSweep.setPronto(true);
+        parameterSweep.setXml(xml);
+        parameterSweep.setBlockSize(5);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        parameterSweep.run(parameters(protocol, d, f), stream);
+        return stream.toString("UTF-8");
+    }
+
+    /**
+     * Test of run method, of class ParameterSweep: same output as the sequential loop.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRun() throws Exception {
+        System.out.println("run");
+        for (String irp : new String[] { nec1, rc5 }) {
+            assertEquals(sweep(irp, "0..3", "0..20", false), sequential(irp, "0..3", "0..20", true, false));
+            assertEquals(sweep(irp, "0..3", "0..20", true), sequential(irp, "0..3", "0..20", true, true));
+        }
+    }
+
+    /**
+     * Test of run method, of class ParameterSweep: the signals before a failing one are written.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRunFailure() throws Exception {
+        System.out.println("runFailure");
+        Protocol protocol = new Protocol("test", rc5, null);
+        ParameterSweep parameterSweep = new ParameterSweep(protocol, 2);
+        parameterSweep.setPronto(true);
+        parameterSweep.setBlockSize(4);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            parameterSweep.run(parameters(protocol, "1", "120..130"), stream);
+            fail();
+        } catch (DomainViolationException ex) {
+        }
+        String output = stream.toString("UTF-8");
+        assertTrue(output.contains("Function: 127"));
+        assertEquals(output, sequential(rc5, "1", "120..127", false, false));
+    }
+}
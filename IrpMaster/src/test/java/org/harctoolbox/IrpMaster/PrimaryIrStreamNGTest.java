@@ -0,0 +1,68 @@
+package org.harctoolbox.IrpMaster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+public class PrimaryIrStreamNGTest {
+
+    private static final String[] irps = new String[] {
+        // NEC1
+        "{38.4k,564}<1,-1|1,-3>(16,-8,D:8,S:8,F:8,~F:8,1,^108m,(16,-4,1,^108m)*)[D:0..255,S:0..255=255-D,F:0..255]",
+        // RC6, nested bitspec
+        "{36k,444,msb}<-1,1|1,-1>((6,-2,1:1,0:3,<-2,2|2,-2>(T:1),D:8,F:8,^107m)*,T=1-T)[D:0..255,F:0..255,T@:0..1=0]",
+        // Two bit chunks, durations in periods
+        "{40k,msb}<10p,-10p|10p,-20p|10p,-30p|10p,-40p>(100p,-50p,D:4,F:8,10p,-100m)+[D:0..15,F:0..255]",
+        // Extents within the bitspec
+        "{38k,100}<1,^1000u|3,^1000u>(D:4,F:4,1,^20m)*[D:0..15,F:0..15]"
+    };
+
+    public PrimaryIrStreamNGTest() {
+    }
+
+    // Reference: the original toIrSequence, through the evaluated list of durations.
+    private static IrSequence toIrSequenceFromList(Protocol protocol, PrimaryIrStream irStream) throws IrpMasterException {
+        ArrayList<PrimitiveIrStreamItem> durationList = irStream.evaluate(null);
+        if (durationList.size() % 2 == 1)
+            durationList.add(new Duration(protocol, 0.001, DurationType.gap));
+        IrSequenceBuilder data = new IrSequenceBuilder(durationList.size());
+        double elapsed = 0;
+        boolean seenPositive = false;
+        for (PrimitiveIrStreamItem item : durationList) {
+            double duration = ((Duration) item).evaluate_sign(elapsed);
+            if (duration > 0)
+                seenPositive = true;
+            if (seenPositive) {
+                elapsed += Math.abs(duration);
+                data.add(duration);
+            }
+            if (item instanceof Extent)
+                elapsed = 0;
+        }
+        return data.toIrSequence();
+    }
+
+    /**
+     * Test of toIrSequence method, of class PrimaryIrStream: rendering through the DurationBuffer
+     * gives the same result as through the evaluated lists.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testToIrSequence() throws Exception {
+        System.out.println("toIrSequence");
+        for (String irp : irps) {
+            Protocol protocol = new Protocol("test", irp, null);
+            for (long f = 0; f < 16; f += 5) {
+                Map<String, Long> params = new HashMap<>(2);
+                params.put("D", 5L);
+                params.put("F", f);
+                for (Pass pass : new Pass[] { Pass.intro, Pass.repeat, Pass.ending }) {
+                    PrimaryIrStream irStream = protocol.process(params, pass, true);
+                    assertEquals(irStream.toIrSequence().toDoubles(), toIrSequenceFromList(protocol, irStream).toDoubles());
+                }
+            }
+        }
+    }
+}
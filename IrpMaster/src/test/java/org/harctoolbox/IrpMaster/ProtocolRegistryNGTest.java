@@ -0,0 +1,100 @@
+package org.harctoolbox.IrpMaster;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author bengt
+ */
+public class ProtocolRegistryNGTest {
+
+    private static final String configFile = "src/main/config/IrpProtocols.ini";
+
+    private File copy;
+
+    public ProtocolRegistryNGTest() {
+    }
+
+    @BeforeClass
+    public void setUpClass() throws IOException {
+        copy = File.createTempFile("IrpProtocols", ".ini");
+        Files.copy(new File(configFile).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @AfterClass
+    public void tearDownClass() {
+        ProtocolRegistry.invalidate(copy.getPath());
+        copy.delete();
+    }
+
+    /**
+     * Test of getIrpMaster method, of class ProtocolRegistry.
+     */
+    @Test
+    public void testGetIrpMaster() throws FileNotFoundException, IncompatibleArgumentException {
+        System.out.println("getIrpMaster");
+        IrpMaster first = ProtocolRegistry.getIrpMaster(copy.getPath());
+        IrpMaster second = ProtocolRegistry.getIrpMaster(copy.getAbsolutePath());
+        assertSame(second, first);
+
+        assertTrue(copy.setLastModified(copy.lastModified() - 10000L));
+        IrpMaster third = ProtocolRegistry.getIrpMaster(copy.getPath());
+        assertNotSame(third, first);
+        assertSame(ProtocolRegistry.getIrpMaster(copy.getPath()), third);
+    }
+
+    @Test(expectedExceptions = FileNotFoundException.class)
+    public void testGetIrpMasterMissing() throws FileNotFoundException, IncompatibleArgumentException {
+        System.out.println("getIrpMasterMissing");
+        ProtocolRegistry.getIrpMaster(copy.getPath() + ".nonexisting");
+    }
+
+    /**
+     * Test of getProtocol and newProtocol methods, of class IrpMaster.
+     */
+    @Test
+    public void testProtocols() throws IrpMasterException, FileNotFoundException {
+        System.out.println("protocols");
+        IrpMaster irpMaster = ProtocolRegistry.getIrpMaster(copy.getPath());
+        Protocol shared = irpMaster.getProtocol("nec1");
+        assertSame(irpMaster.getProtocol("NEC1"), shared);
+        Protocol fresh = irpMaster.newProtocol("nec1");
+        assertNotSame(fresh, shared);
+        IrSignal expected = new Protocol("nec1", irpMaster.getIrp("nec1"), null).renderIrSignal(12, 34, 56);
+        assertTrue(Arrays.equals(fresh.renderIrSignal(12, 34, 56).getIntroSequence().toDoubles(), expected.getIntroSequence().toDoubles()));
+    }
+
+    /**
+     * Test of makeHex method, of class IrpMaster.
+     */
+    @Test
+    public void testMakeHex() throws IOException, IncompatibleArgumentException {
+        System.out.println("makeHex");
+        String irp = ProtocolRegistry.getIrpMaster(copy.getPath()).getIrp("rc5");
+        String expected = IrpMaster.makeHexIRP(irp, 0, -1, 12);
+        assertEquals(IrpMaster.makeHex(copy.getPath(), "rc5", 0, -1, 12), expected);
+        assertEquals(IrpMaster.makeHex(copy.getPath(), "rc5", 0, -1, 12), expected);
+
+        File outFile = File.createTempFile("makehex", ".txt");
+        try {
+            assertEquals(IrpMaster.makeHex(outFile.getPath(), false, copy.getPath(), "rc5 0 12", "rc5", "0", "12"), 1);
+            assertEquals(Files.readAllLines(outFile.toPath(), StandardCharsets.US_ASCII), Arrays.asList("rc5 0 12", expected));
+            assertEquals(IrpMaster.makeHex(outFile.getPath(), true, copy.getPath(), null, "nonexisting", "0", "12"), -1);
+        } finally {
+            outFile.delete();
+        }
+    }
+}
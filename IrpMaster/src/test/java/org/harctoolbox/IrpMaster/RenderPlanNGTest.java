@@ -0,0 +1,225 @@
+package org.harctoolbox.IrpMaster;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author bengt
+ */
+public class RenderPlanNGTest {
+
+    private static final String configFile = "src/main/config/IrpProtocols.ini";
+    private static final int randomAssignments = 30;
+
+    private static final String[] irps = new String[] {
+        // NEC1
+        "{38.4k,564}<1,-1|1,-3>(16,-8,D:8,S:8,F:8,~F:8,1,^108m,(16,-4,1,^108m)*)[D:0..255,S:0..255=255-D,F:0..255]",
+        // RC5, with toggle
+        "{36k,msb,889}<1,-1|-1,1>((1:1,~F:1:6,T:1,D:5,F:6,^114m)*,T=1-T)[D:0..31,F:0..127,T@:0..1=0]",
+        // RC6
+        "{36k,444,msb}<-1,1|1,-1>((6,-2,1:1,0:3,<-2,2|2,-2>(T:1),D:8,F:8,^107m)*,T=1-T)[D:0..255,F:0..255,T@:0..1=0]",
+        // Variation and definitions
+        "{38.6k,480}<1,-1|-1,1>([P=0][P=1][P=2],4,-1,D:5,P:2,F:6,C:4,-48m)+{C=3+#D+#P+#F}[D:0..31,F:0..63]",
+        // Extent and fractional durations
+        "{38k,289}<1,-2.6|1,-6.3>(D:3,F:7,1,^25.3m)+[D:0..7,F:0..127]"
+    };
+
+    public RenderPlanNGTest() {
+    }
+
+    private static boolean equals(IrSequence x, IrSequence y) {
+        return Arrays.equals(x.toDoubles(), y.toDoubles());
+    }
+
+    /**
+     * Test of renderIrSignal method, of class RenderPlan.
+     */
+    @Test
+    public void testRenderIrSignal() {
+        System.out.println("renderIrSignal");
+        try {
+            for (String irp : irps) {
+                RenderPlan renderPlan = new Protocol("test", irp, null).compile();
+                for (long f = 0; f < 64; f += 7) {
+                    Map<String, Long> params = new HashMap<>(2);
+                    params.put("D", 5L);
+                    params.put("F", f);
+                    IrSignal expected = new Protocol("test", irp, null).renderIrSignal(params);
+                    IrSignal actual = renderPlan.renderIrSignal(params);
+                    assertTrue(equals(expected.getIntroSequence(), actual.getIntroSequence()));
+                    assertTrue(equals(expected.getRepeatSequence(), actual.getRepeatSequence()));
+                    assertTrue(equals(expected.getEndingSequence(), actual.getEndingSequence()));
+                    assertTrue(expected.getFrequency() == actual.getFrequency());
+                }
+            }
+        } catch (IrpMasterException ex) {
+            fail(ex.getMessage());
+        }
+    }
+
+    private static boolean equals(IrSignal x, IrSignal y) {
+        return x.getFrequency() == y.getFrequency()
+                && x.getDutyCycle() == y.getDutyCycle()
+                && equals(x.getIntroSequence(), y.getIntroSequence())
+                && equals(x.getRepeatSequence(), y.getRepeatSequence())
+                && equals(x.getEndingSequence(), y.getEndingSequence());
+    }
+
+    // All parameters min, all max, and then every parameter min, max, or random, with equal probabilities.
+    private static Map<String, Long> assignment(Protocol protocol, int n, Random random) throws UnassignedException {
+        Map<String, Long> assignment = new HashMap<>(8);
+        for (String name : protocol.getParameterNames()) {
+            long min = protocol.getParameterMin(name);
+            long max = protocol.getParameterMax(name);
+            boolean hasRandom = max - min < Integer.MAX_VALUE;
+            int choice = n < 2 ? n : random.nextInt(hasRandom ? 3 : 2);
+            assignment.put(name, choice == 0 ? min
+                    : choice == 1 ? max
+                    : min + random.nextInt((int) (max - min) + 1));
+        }
+        return assignment;
+    }
+
+    /**
+     * Test of renderIrSignal method, of class RenderPlan, against the interpreter, for all protocols of the configuration file.
+     * Errors of the interpreter must be reproduced.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRenderIrSignalAllProtocols() throws Exception {
+        System.out.println("renderIrSignal, all protocols");
+        IrpMaster irpMaster = new IrpMaster(configFile);
+        Random random = new Random(42);
+        int signals = 0;
+        for (String name : irpMaster.getNames()) {
+            Protocol protocol = irpMaster.newProtocol(name);
+            RenderPlan renderPlan = irpMaster.newProtocol(name).compile();
+            for (int n = 0; n < randomAssignments + 2; n++) {
+                Map<String, Long> params = assignment(protocol, n, random);
+                IrSignal expected;
+                try {
+                    expected = protocol.renderIrSignal(params);
+                } catch (IrpMasterException ex) {
+                    try {
+                        renderPlan.renderIrSignal(params);
+                        fail(name + " " + params + ": no " + ex.getClass().getSimpleName());
+                    } catch (IrpMasterException e) {
+                        assertEquals(e.getClass(), ex.getClass(), name + " " + params);
+                    }
+                    continue;
+                }
+                IrSignal actual = renderPlan.renderIrSignal(params);
+                assertTrue(equals(expected, actual), name + " " + params + ": " + expected + " != " + actual);
+                signals++;
+            }
+        }
+        assertTrue(signals > irpMaster.getNames().size() * randomAssignments, Integer.toString(signals));
+    }
+
+    /**
+     * Test that the errors of the interpreter are reproduced.
+     */
+    @Test
+    public void testDomainViolation() {
+        System.out.println("domainViolation");
+        try {
+            RenderPlan renderPlan = new Protocol("test", irps[0], null).compile();
+            Map<String, Long> params = new HashMap<>(2);
+            params.put("D", 256L);
+            params.put("F", 1L);
+            renderPlan.renderIrSignal(params);
+            fail();
+        } catch (DomainViolationException ex) {
+        } catch (IrpMasterException ex) {
+            fail();
+        }
+    }
+
+    /**
+     * Test that a RenderState keeps toggles and $count like the stateful legacy interface.
+     */
+    @Test
+    public void testRenderState() {
+        System.out.println("renderState");
+        try {
+            for (String irp : irps) {
+                Protocol legacy = new Protocol("test", irp, null);
+                Protocol protocol = new Protocol("test", irp, null);
+                RenderPlan.RenderState renderState = protocol.newRenderState();
+                Map<String, Long> params = new HashMap<>(2);
+                params.put("D", 5L);
+                params.put("F", 12L);
+                for (int i = 0; i < 3; i++) {
+                    IrSequence intro = legacy.tryRender(params, Pass.intro.toInt(), true);
+                    IrSequence repeat = legacy.tryRender(params, Pass.repeat.toInt(), false);
+                    IrSequence ending = legacy.tryRender(params, Pass.ending.toInt(), false);
+                    IrSignal expected = new IrSignal(legacy.getFrequency(), legacy.getDutyCycle(), intro, repeat, ending);
+                    IrSignal actual = protocol.renderIrSignal(renderState, params);
+                    assertTrue(equals(expected.getIntroSequence(), actual.getIntroSequence()));
+                    assertTrue(equals(expected.getRepeatSequence(), actual.getRepeatSequence()));
+                    assertTrue(equals(expected.getEndingSequence(), actual.getEndingSequence()));
+                }
+                assertEquals(renderState.getCount(), 9);
+                renderState.reset();
+                assertTrue(equals(protocol.renderIrSignal(renderState, params).getIntroSequence(),
+                        new Protocol("test", irp, null).renderIrSignal(params).getIntroSequence()));
+            }
+        } catch (IrpMasterException ex) {
+            fail(ex.getMessage());
+        }
+    }
+
+    /**
+     * Test that one Protocol can be used from several threads simultaneously.
+     */
+    @Test
+    public void testConcurrentRender() throws InterruptedException {
+        System.out.println("concurrentRender");
+        final Protocol protocol;
+        final IrSignal[] expected = new IrSignal[256];
+        try {
+            protocol = new Protocol("test", irps[0], null);
+            for (int d = 0; d < expected.length; d++)
+                expected[d] = new Protocol("test", irps[0], null).renderIrSignal(d, -1, 17);
+        } catch (IrpMasterException ex) {
+            fail(ex.getMessage());
+            return;
+        }
+        final AtomicInteger failures = new AtomicInteger(0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    RenderPlan.RenderState renderState = protocol.newRenderState();
+                    Map<String, Long> params = new HashMap<>(2);
+                    params.put("F", 17L);
+                    try {
+                        for (int d = 0; d < expected.length; d++) {
+                            params.put("D", (long) d);
+                            renderState.reset();
+                            IrSignal actual = protocol.renderIrSignal(renderState, params);
+                            if (!RenderPlanNGTest.equals(expected[d].getIntroSequence(), actual.getIntroSequence())
+                                    || !RenderPlanNGTest.equals(expected[d].getRepeatSequence(), actual.getRepeatSequence()))
+                                failures.incrementAndGet();
+                        }
+                    } catch (IrpMasterException ex) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(failures.get(), 0);
+    }
+}
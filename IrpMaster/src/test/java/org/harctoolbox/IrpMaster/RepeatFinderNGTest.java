@@ -1,5 +1,6 @@
 package org.harctoolbox.IrpMaster;
 
+import java.util.Random;
 import static org.testng.Assert.fail;
 import static org.testng.AssertJUnit.assertEquals;
 import org.testng.annotations.AfterClass;
@@ -57,4 +58,47 @@ public class RepeatFinderNGTest {
             fail();
         }
     }
+
+    private static void assertAgreement(IrSequence irSequence) {
+        RepeatFinder.RepeatFinderData exhaustive = new RepeatFinder(irSequence, IrpUtils.defaultAbsoluteTolerance,
+                IrpUtils.defaultRelativeTolerance, RepeatFinder.Algorithm.exhaustive).getRepeatFinderData();
+        RepeatFinder.RepeatFinderData quantized = new RepeatFinder(irSequence, IrpUtils.defaultAbsoluteTolerance,
+                IrpUtils.defaultRelativeTolerance, RepeatFinder.Algorithm.quantizedHash).getRepeatFinderData();
+        assertEquals(quantized.getBeginLength(), exhaustive.getBeginLength());
+        assertEquals(quantized.getRepeatLength(), exhaustive.getRepeatLength());
+        assertEquals(quantized.getNumberRepeats(), exhaustive.getNumberRepeats());
+        assertEquals(quantized.getEndingLength(), exhaustive.getEndingLength());
+    }
+
+    /**
+     * Test that the quantizedHash algorithm agrees with the exhaustive one.
+     */
+    @Test
+    public void testQuantizedHashAgreement() {
+        System.out.println("quantizedHashAgreement");
+        try {
+            IrSignal irSignal = Pronto.ccfSignal("0000 006C 0022 0002 015B 00AD 0016 0016 0016 0016 0016 0041 0016 0041 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0041 0016 0016 0016 0016 0016 0016 0016 0041 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0041 0016 0041 0016 0041 0016 0016 0016 0016 0016 0041 0016 0041 0016 0041 0016 0016 0016 0016 0016 0016 0016 0041 0016 0041 0016 06A4 015B 0057 0016 0E6C");
+            ModulatedIrSequence junk = new ModulatedIrSequence(new int[] { 1, 2, 3, 4}, irSignal.getFrequency(), irSignal.getDutyCycle());
+            for (int repeats = 1; repeats < 8; repeats++) {
+                assertAgreement(irSignal.toModulatedIrSequence(repeats));
+                assertAgreement(irSignal.toModulatedIrSequence(repeats).append(junk));
+            }
+
+            int[] arr = new int[] { 9008, 4516, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 1717, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 552, 1717, 552, 1717, 552, 1717, 552, 38902, 9008, 2289, 552, 31080, 9008, 2289, 552, 31080, 9008, 2289, 552, 21080 };
+            assertAgreement(new ModulatedIrSequence(arr, 38400f));
+
+            // Jittered captures of an RC5 signal, where not all duration classes are tight.
+            IrSignal rc5 = new Protocol("rc5", "{36k,msb,889}<1,-1|-1,1>((1:1,~F:1:6,T:1,D:5,F:6,^114m)*,T=1-T)[D:0..31,F:0..127,T@:0..1=0]", null).renderIrSignal(5, -1, 17);
+            Random random = new Random(4711);
+            for (int repeats = 1; repeats < 8; repeats++) {
+                ModulatedIrSequence exact = rc5.toModulatedIrSequence(repeats);
+                int[] durations = new int[exact.getLength()];
+                for (int i = 0; i < durations.length; i++)
+                    durations[i] = (int) Math.abs(exact.get(i)) + random.nextInt(301) - 150;
+                assertAgreement(new ModulatedIrSequence(durations, exact.getFrequency()));
+            }
+        } catch (IrpMasterException ex) {
+            fail();
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package org.harctoolbox.IrpMaster;
+
+import java.util.Arrays;
+import java.util.Map;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class RoundTripVerifierNGTest {
+
+    private static final String configFile = "src/main/config/IrpProtocols.ini";
+
+    // Accepts the signals of even function numbers only.
+    private static class EvenDecoder implements RoundTripVerifier.Decoder {
+
+        @Override
+        public String getName() {
+            return "even";
+        }
+
+        @Override
+        public boolean isDecoding() {
+            return true;
+        }
+
+        @Override
+        public String check(String protocolName, Protocol protocol, Map<String, Long> parameters, IrSignal irSignal) {
+            return parameters.get("F") % 2 == 0 ? null : "odd";
+        }
+    }
+
+    public RoundTripVerifierNGTest() {
+    }
+
+    /**
+     * Test of run method, of class RoundTripVerifier, with the reference decoder.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRun() throws Exception {
+        System.out.println("run");
+        IrpMaster irpMaster = new IrpMaster(configFile);
+        RoundTripVerifier verifier = new RoundTripVerifier(irpMaster, new RoundTripVerifier.ReferenceDecoder(), 3);
+        verifier.setSeed(42);
+        RoundTripVerifier.Report report = verifier.run(Arrays.asList("nec1", "rc5", "rc6", "sony12", "denon"));
+        assertTrue(report.isOk(), report.toString());
+        assertEquals(report.getResults().size(), 5);
+        assertEquals(report.getResults().get(1).getProtocolName(), "rc5");
+        assertTrue(report.getSignals() > 5 * 4);
+        assertTrue(report.getThroughput() > 0);
+        assertEquals(report.getMode(), RoundTripVerifier.renderConsistencyMode);
+        assertEquals(report.toDocument().getDocumentElement().getAttribute("mode"), "render-consistency");
+    }
+
+    /**
+     * Test of run method, of class RoundTripVerifier: mismatches and errors are reported.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRunMismatches() throws Exception {
+        System.out.println("runMismatches");
+        IrpMaster irpMaster = new IrpMaster(configFile);
+        RoundTripVerifier verifier = new RoundTripVerifier(irpMaster, new EvenDecoder(), 2);
+        verifier.setRandomValues(0);
+        RoundTripVerifier.Report report = verifier.run(Arrays.asList("sony12", "nonexisting"));
+        assertFalse(report.isOk());
+        assertEquals(report.getNoFailedProtocols(), 2);
+        RoundTripVerifier.Result sony12 = report.getResults().get(0);
+        // D, F: 0 and max each
+        assertEquals(sony12.getSignals(), 4);
+        assertEquals(sony12.getNoMismatches(), 2);
+        assertEquals(sony12.getMismatches().get(0).getParameters().get("F").longValue(), 127L);
+        assertTrue(sony12.getMismatches().get(0).isRendered());
+        assertTrue(report.getResults().get(1).getError() != null);
+        String xml = report.toDocument().getDocumentElement().getAttribute("mismatches");
+        assertEquals(xml, "2");
+        assertEquals(report.getMode(), RoundTripVerifier.roundTripMode);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+Copyright (C) 2016 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+ */
+
+package org.harctoolbox.IrpMaster;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.List;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class WaveAnalyzerNGTest {
+
+    private static final String nec1 = "0000 006C 0022 0002 015B 00AD 0016 0016 0016 0016 0016 0041 0016 0041 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0041 0016 0016 0016 0016 0016 0016 0016 0041 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0041 0016 0041 0016 0041 0016 0016 0016 0016 0016 0041 0016 0041 0016 0041 0016 0016 0016 0016 0016 0016 0016 0041 0016 0041 0016 06A4 015B 0057 0016 0E6C";
+
+    public WaveAnalyzerNGTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @BeforeMethod
+    public void setUpMethod() throws Exception {
+    }
+
+    @AfterMethod
+    public void tearDownMethod() throws Exception {
+    }
+
+    private static boolean isEqual(IrSequence expected, IrSequence actual, int length) {
+        for (int i = 0; i < length; i++)
+            if (!IrpUtils.isEqual(Math.abs(expected.get(i)), Math.abs(actual.get(i)), 100, 0.02))
+                return false;
+        return true;
+    }
+
+    // Two signals, separated by a long silence.
+    private static File twoSignals(ModulatedIrSequence first, ModulatedIrSequence second, double frequency) throws Exception {
+        int[] durations = new int[first.getLength() + second.getLength()];
+        System.arraycopy(first.toInts(), 0, durations, 0, first.getLength());
+        System.arraycopy(second.toInts(), 0, durations, first.getLength(), second.getLength());
+        durations[first.getLength() - 1] += 500000;
+        ModulatedIrSequence both = new ModulatedIrSequence(durations, frequency);
+        File file = File.createTempFile("waveanalyzer", ".wav");
+        file.deleteOnExit();
+        new Wave(both, 44100, 16, 1, false, false, false, true).export(file);
+        return file;
+    }
+
+    /**
+     * Test of analyze method, of class WaveAnalyzer.
+     * Two signals, separated by a long silence, are written to a wave file, and analyzed.
+     */
+    @Test
+    public void testAnalyze() throws Exception {
+        System.out.println("analyze");
+        IrSignal irSignal = Pronto.ccfSignal(nec1);
+        ModulatedIrSequence first = irSignal.toModulatedIrSequence(2);
+        ModulatedIrSequence second = irSignal.toModulatedIrSequence(1);
+        File file = twoSignals(first, second, irSignal.getFrequency());
+
+        List<ModulatedIrSequence> burstGroups = WaveAnalyzer.analyze(file, true);
+        assertEquals(2, burstGroups.size());
+        ModulatedIrSequence analyzedFirst = burstGroups.get(0);
+        ModulatedIrSequence analyzedSecond = burstGroups.get(1);
+        assertEquals(first.getLength(), analyzedFirst.getLength());
+        assertEquals(second.getLength(), analyzedSecond.getLength());
+        // the last gap of a group ends at the ending timeout, or at the end of the file
+        assertEquals(true, isEqual(first, analyzedFirst, first.getLength() - 1));
+        assertEquals(true, isEqual(second, analyzedSecond, second.getLength() - 1));
+        assertEquals(true, IrpUtils.isEqual(irSignal.getFrequency(), analyzedFirst.getFrequency(), 0, 0.02));
+        assertEquals(true, IrpUtils.isEqual(irSignal.getFrequency(), analyzedSecond.getFrequency(), 0, 0.02));
+
+        // The flashes and gaps agree with those of the non-streaming analysis
+        ModulatedIrSequence legacy = new Wave(file).analyze(true);
+        for (int i = 0; i < analyzedFirst.getLength() - 1; i++)
+            assertEquals(legacy.get(i), analyzedFirst.get(i));
+    }
+
+    /**
+     * Test of analyzeSequence method, of class WaveAnalyzer: one sequence, with the gaps as measured,
+     * as the non-streaming analysis; null for silence.
+     */
+    @Test
+    public void testAnalyzeSequence() throws Exception {
+        System.out.println("analyzeSequence");
+        IrSignal irSignal = Pronto.ccfSignal(nec1);
+        File file = twoSignals(irSignal.toModulatedIrSequence(2), irSignal.toModulatedIrSequence(1), irSignal.getFrequency());
+        ModulatedIrSequence sequence = WaveAnalyzer.analyzeSequence(file, true);
+        ModulatedIrSequence legacy = new Wave(file).analyze(true);
+        assertEquals(legacy.getLength(), sequence.getLength());
+        for (int i = 0; i < legacy.getLength(); i++)
+            assertEquals(legacy.get(i), sequence.get(i));
+        assertEquals(legacy.getFrequency(), sequence.getFrequency(), 0.0);
+        assertEquals(sequence.getDutyCycle(), (double) IrpUtils.invalid, 0.0);
+
+        File silence = File.createTempFile("waveanalyzer", ".wav");
+        silence.deleteOnExit();
+        AudioFormat audioFormat = new AudioFormat(44100, 16, 1, true, false);
+        byte[] zeros = new byte[2 * 44100];
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(zeros), audioFormat, zeros.length / 2), AudioFileFormat.Type.WAVE, silence);
+        assertNull(WaveAnalyzer.analyzeSequence(silence, true));
+    }
+}
@@ -0,0 +1,61 @@
+package org.harctoolbox.IrpMaster;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import static org.testng.AssertJUnit.assertEquals;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class WaveGeneratorNGTest {
+
+    private static final String nec1 = "0000 006C 0022 0002 015B 00AD 0016 0016 0016 0016 0016 0041 0016 0041 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0041 0016 0016 0016 0016 0016 0016 0016 0041 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0016 0041 0016 0041 0016 0041 0016 0016 0016 0016 0016 0041 0016 0041 0016 0041 0016 0016 0016 0016 0016 0016 0016 0041 0016 0041 0016 06A4 015B 0057 0016 0E6C";
+
+    public WaveGeneratorNGTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+    }
+
+    @BeforeMethod
+    public void setUpMethod() throws Exception {
+    }
+
+    @AfterMethod
+    public void tearDownMethod() throws Exception {
+    }
+
+    private static byte[] readAll(WaveGenerator generator) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] buf = new byte[1001]; // not a multiple of the frame size
+        int n;
+        while ((n = generator.read(buf, 0, buf.length)) != -1)
+            stream.write(buf, 0, n);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Test of streaming an IrSignal, against the WaveGenerator of the materialized ModulatedIrSequence.
+     */
+    @Test
+    public void testIrSignal() throws IrpMasterException {
+        System.out.println("IrSignal");
+        IrSignal irSignal = Pronto.ccfSignal(nec1);
+        AudioFormat audioFormat = WaveGenerator.newAudioFormat(48000, 16, 2, false);
+        for (int count = 1; count <= 4; count++) {
+            WaveGenerator generator = new WaveGenerator(irSignal, count, audioFormat, true, false, true);
+            byte[] streamed = readAll(generator);
+            byte[] materialized = readAll(new WaveGenerator(irSignal.toModulatedIrSequence(count), audioFormat, true, false, true));
+            assertEquals(generator.getFrameLength() * audioFormat.getFrameSize(), streamed.length);
+            assertEquals(true, Arrays.equals(materialized, streamed));
+        }
+    }
+}
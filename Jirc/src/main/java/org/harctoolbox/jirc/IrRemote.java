@@ -10,6 +10,7 @@ import java.util.Map.Entry;
 import org.harctoolbox.IrpMaster.DecodeIR;
 import org.harctoolbox.IrpMaster.IncompatibleArgumentException;
 import org.harctoolbox.IrpMaster.IrSequence;
+import org.harctoolbox.IrpMaster.IrSequenceBuilder;
 import org.harctoolbox.IrpMaster.IrSignal;
 import org.harctoolbox.IrpMaster.IrpMasterException;
 import org.harctoolbox.IrpMaster.IrpUtils;
@@ -260,16 +261,24 @@ final public class IrRemote {
     }
 
     IrSignal toIrSignal(IrNCode code, boolean alternatingSigns, int debug) {
-        IrSequence intro = new IrSequence();
+        IrSequenceBuilder introBuilder = new IrSequenceBuilder();
         do {
             IrSequence seq = render(code, alternatingSigns, /* repeat= */ false, debug);
             if (seq != null && !seq.isEmpty())
-                intro = intro.append(seq);
+                introBuilder.append(seq);
         } while (code.getTransmit_state() != null);
         if ((code.getSignals() == null || code.getSignals().isEmpty())
-                && (intro == null || intro.isEmpty()))
+                && introBuilder.isEmpty())
             return null;
 
+        IrSequence intro;
+        try {
+            intro = introBuilder.toIrSequence();
+        } catch (IncompatibleArgumentException ex) {
+            // cannot happen, only IrSequences were appended
+            throw new RuntimeException(ex);
+        }
+
         IrSequence repeat;
         if (code.getNext() == null) {
             repeat = render(code, alternatingSigns, /* repeat= */ true, debug);